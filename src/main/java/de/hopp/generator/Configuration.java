@@ -5,6 +5,7 @@ import java.io.File;
 import de.hopp.generator.backends.board.BoardBackend;
 import de.hopp.generator.backends.host.HostBackend;
 import de.hopp.generator.backends.workflow.WorkflowBackend;
+import de.hopp.generator.utils.Manifest;
 
 /**
  * Configuration of the generator run itself.
@@ -43,6 +44,10 @@ public class Configuration {
     private boolean dryrun    = false;
     private boolean noGen     = false;
     private boolean sdkOnly   = false;
+    private boolean force     = false;
+
+    // manifest of previously generated files
+    private Manifest manifest;
 
     private boolean startGUI  = false;
 
@@ -99,6 +104,15 @@ public class Configuration {
     public void enableSDKOnly() {
         sdkOnly = true;
     }
+    /** regenerate all files, even if their inputs did not change since the last run */
+    public void enableForce() {
+        force = true;
+    }
+
+    /** set the manifest, which determines the files to be regenerated in this run */
+    public void setManifest(Manifest manifest) {
+        this.manifest = manifest;
+    }
 
     public void enableGUI() {
         startGUI = true;
@@ -140,6 +154,8 @@ public class Configuration {
     public boolean noGen()     { return noGen; }
     /** check if xps should be skipped */
     public boolean sdkOnly()   { return sdkOnly; }
+    /** check if all files should be regenerated */
+    public boolean force()     { return force; }
 
     public boolean startGUI()  { return startGUI; }
 
@@ -151,6 +167,8 @@ public class Configuration {
     public boolean DEBUG()   { return loglevel >= LOG_DEBUG; }
     /** get the io handler associated with this run of the generator */
     public IOHandler IOHANDLER() { return IO; }
+    /** get the manifest of this run of the generator */
+    public Manifest manifest()   { return manifest; }
 
     /** print this config on console */
     public void printConfig() {
@@ -172,5 +190,6 @@ public class Configuration {
 
         if(parseonly)   IO.println("- parse only");
         else if(dryrun) IO.println("- dryrun");
+        if(force)       IO.println("- regenerate all files");
     }
 }
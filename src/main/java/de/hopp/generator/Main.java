@@ -4,17 +4,21 @@ import static de.hopp.generator.model.BDL.BDLFilePos;
 import static de.hopp.generator.utils.BoardUtils.printBoard;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
+import de.hopp.generator.backends.GenerationFailed;
 import de.hopp.generator.exceptions.ExecutionFailed;
+import de.hopp.generator.exceptions.Warning;
 import de.hopp.generator.frontend.Board;
 import de.hopp.generator.frontend.Host;
 import de.hopp.generator.frontend.Parser;
 import de.hopp.generator.frontend.Workflow;
 import de.hopp.generator.model.BDLFilePos;
+import de.hopp.generator.utils.Manifest;
 //import static de.upb.hni.vmagic.parser.VhdlParser.parseFile;
 //import de.upb.hni.vmagic.VhdlFile;
 //import de.upb.hni.vmagic.libraryunit.Entity;
@@ -109,6 +113,8 @@ public class Main {
         IO.println("                       the backends, i.e. analyze only.");
         IO.println("    --nogen            disable generation of .bit and .elf files.");
         IO.println("    --sdkonly          disable generation of .bit file and sources.");
+        IO.println("    --force            regenerate all files, even if the inputs they depend on");
+        IO.println("                       did not change since the last successful run.");
         IO.println("    --config <file>    supplies the generator with a config file containing");
         IO.println("                       all information configurable with cli parameters.");
         IO.println("                       This will immediately start the generator ignoring all");
@@ -177,7 +183,7 @@ public class Main {
         // start parser
         IO.println();
         IO.println("starting parser");
-        BDLFilePos board = BDLFilePos(new Parser(config, errors).parse(schemaFile));
+        BDLFilePos board = new Parser(config, errors).parseBoard(schemaFile);
         IO.println();
 
         if(board != null && board.term() != null) {
@@ -197,6 +203,18 @@ public class Main {
             return;
         }
 
+        // load the manifest of the last run and digest the inputs of this one
+        Manifest manifest = new Manifest(config.tempDir(), config.force());
+        try {
+            manifest.addBoard(board);
+        } catch(IOException e) {
+            errors.addError(new GenerationFailed("could not read core sources due to: " + e.getMessage()));
+        }
+        config.setManifest(manifest);
+
+        // abort if any errors occurred
+        showStatus(false);
+
         // unparse generated server models to corresponding files
         if(config.flow() != null) {
             IO.println("starting up " + config.flow().getName() + " board backend ...");
@@ -224,6 +242,15 @@ public class Main {
             IO.println("backend finished");
         }
 
+        // record the inputs of all generated files for the next run
+        if(!config.dryrun()) {
+            try {
+                manifest.save();
+            } catch(IOException e) {
+                errors.addWarning(new Warning("could not store manifest due to: " + e.getMessage()));
+            }
+        }
+
         // finished
         IO.println();
         showStatus(true);
@@ -391,6 +418,8 @@ public class Main {
                 config.enableNoGen();
             } else if(args[i].equals("--sdkonly")) {
                 config.enableSDKOnly();
+            } else if(args[i].equals("--force")) {
+                config.enableForce();
 
             } else if(args[i].equals("--config")) {
                 // TODO run generator with the provided config
@@ -1,12 +1,13 @@
 package de.hopp.generator.backends;
 
 import static de.hopp.generator.model.cpp.CPP.MFileInFile;
-import static org.apache.commons.io.FileUtils.write;
+import static de.hopp.generator.utils.Files.deployContent;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 
 import de.hopp.generator.ErrorCollection;
 import de.hopp.generator.IOHandler;
@@ -19,20 +20,22 @@ import de.hopp.generator.model.unparser.CPPUnparser;
 import de.hopp.generator.model.unparser.HUnparser;
 import de.hopp.generator.model.unparser.MHSUnparser;
 import de.hopp.generator.model.mhs.MHSFile;
+import de.hopp.generator.utils.Files;
+import de.hopp.generator.utils.Files.Content;
 
 public class BackendUtils {
 
     public enum UnparserType { HEADER, C, CPP }
 
-    public static MFileInFile.Visitor<InvalidConstruct> createUnparser(UnparserType type, StringBuffer buf, String name) {
+    public static HUnparser createUnparser(UnparserType type, Appendable out, String name) {
         switch(type) {
-        case HEADER : return new   HUnparser(buf, name);
-        case C      : return new   CUnparser(buf, name);
-        case CPP    : return new CPPUnparser(buf, name);
+        case HEADER : return new   HUnparser(out, name);
+        case C      : return new   CUnparser(out, name);
+        case CPP    : return new CPPUnparser(out, name);
         }
         throw new IllegalStateException();
     }
-    public static void printMFile(MFile mfile, UnparserType type) throws InvalidConstruct, IOException {
+    public static void printMFile(final MFile mfile, final UnparserType type) throws InvalidConstruct, IOException {
 
         // setup target file
         File target;
@@ -43,32 +46,37 @@ public class BackendUtils {
         default     : throw new IllegalStateException("invalid unparser");
         }
 
-        // setup buffer
-        StringBuffer buf = new StringBuffer(16384);
+        // unparse directly into the file (keeping it untouched, if its content did not change)
+        deployContent(new Content<InvalidConstruct>() {
+            public void writeTo(Writer out) throws IOException, InvalidConstruct {
+                // get unparser instance
+                HUnparser visitor = createUnparser(type, out, mfile.name());
 
-        // get unparser instance
-        MFileInFile.Visitor<InvalidConstruct> visitor = createUnparser(type, buf, mfile.name());
-
-        // unparse to buffer
-        visitor.visit(MFileInFile(mfile));
-
-        // write buffer contents to file
-        write(target, buf.toString());
+                // unparse to file
+                visitor.visit(MFileInFile(mfile));
+                visitor.checkError();
+            }
+        }, target);
     }
 
     public static void printMFile(MHSFile mfile, File target) throws IOException {
+        // unparse directly into the file (keeping it untouched, if its content did not change)
+        deployContent(unparse(mfile), target);
+    }
 
-        // setup buffer
-        StringBuffer buf = new StringBuffer(16384);
-
-        // get unparser instance
-        MHSUnparser visitor = new MHSUnparser(buf);
-
-        // unparse to buffer
-        visitor.visit(mfile);
-
-        // write buffer contents to file
-        write(target, buf);
+    /**
+     * Unparses a MHS file model directly into a target file.
+     * @param mfile the model to be unparsed.
+     * @return The content of the target file, to be deployed with {@link Files#deployContent(Content, File, IOHandler)}.
+     */
+    public static Content<RuntimeException> unparse(final MHSFile mfile) {
+        return new Content<RuntimeException>() {
+            public void writeTo(Writer out) throws IOException {
+                MHSUnparser visitor = new MHSUnparser(out);
+                visitor.visit(mfile);
+                visitor.checkError();
+            }
+        };
     }
 
     public static void doxygen(File dir, IOHandler IO, ErrorCollection errors) {
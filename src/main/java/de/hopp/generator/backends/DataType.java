@@ -0,0 +1,56 @@
+package de.hopp.generator.backends;
+
+/**
+ * Native value types, which can be assigned to ports with the "type" option.
+ *
+ * Values of typed ports are exchanged as native C++ values instead of bit vectors.
+ * The bitwidth of a typed port equals the size of its type. Values of types
+ * smaller than 32 bit occupy a single word each, values of 64-bit types
+ * are split into two words, the most significant word first.
+ * This is the same layout used for bit vectors, so that the board-side driver
+ * does not distinguish between typed and untyped ports.
+ */
+public enum DataType {
+    UINT8 ("uint8",  "uint8_t",   8), INT8 ("int8",  "int8_t",   8),
+    UINT16("uint16", "uint16_t", 16), INT16("int16", "int16_t", 16),
+    UINT32("uint32", "uint32_t", 32), INT32("int32", "int32_t", 32),
+    UINT64("uint64", "uint64_t", 64), INT64("int64", "int64_t", 64),
+    FLOAT ("float",  "float",    32), DOUBLE("double", "double", 64);
+
+    private final String name;
+    private final String cppType;
+    private final int width;
+
+    private DataType(String name, String cppType, int width) {
+        this.name    = name;
+        this.cppType = cppType;
+        this.width   = width;
+    }
+
+    /** @return The name of the type in board descriptions. */
+    public String typeName() { return name;    }
+    /** @return The corresponding C++ type of the host-side driver. */
+    public String cppType()  { return cppType; }
+    /** @return The bitwidth of the type. */
+    public int width()       { return width;   }
+
+    /**
+     * Looks up a type by its name in board descriptions.
+     * @param name The name of the type.
+     * @return The type with this name or null, if there is no such type.
+     */
+    public static DataType get(String name) {
+        for(DataType type : values()) if(type.name.equals(name)) return type;
+        return null;
+    }
+
+    /** @return A comma-separated list of the names of all types. */
+    public static String names() {
+        StringBuilder names = new StringBuilder();
+        for(DataType type : values()) {
+            if(names.length() > 0) names.append(", ");
+            names.append(type.name);
+        }
+        return names.toString();
+    }
+}
@@ -0,0 +1,134 @@
+package de.hopp.generator.backends;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Format table of binary board logs.
+ *
+ * If the board log is binary, log calls of the board-side driver do not format their
+ * messages on the board. Instead, each call site is assigned a numeric id, which replaces
+ * its format string. The call then sends a record consisting of the id and its arguments
+ * and the host-side driver expands the record using this table.
+ *
+ * Since the board cannot send strings in a record, all conversions of a format
+ * have to be integer conversions. The table is stored in the temporary directory
+ * of the generator, where the host backend picks it up.
+ */
+public class LogFormats {
+
+    /** Name of the file storing the table within the temporary directory. */
+    public static final String FILENAME = "log_formats";
+
+    /** Maximal number of arguments of a log call (has to correspond to LOG_MAX_ARGS of the board). */
+    public static final int MAX_ARGS = 8;
+
+    /** A log call with a string literal as format, capturing the format (as written in the source) */
+    private static final Pattern CALL = Pattern.compile(
+        "\\b(log_(?:error|warn|info|fine|finer|finest))\\(\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+    /** A conversion of a format, capturing its conversion character */
+    private static final Pattern CONVERSION = Pattern.compile("%[-+ #0]*[0-9]*(?:\\.[0-9]+)?[hl]*(.)");
+
+    /** Format strings of all call sites, indexed by their id */
+    private final List<String> formats;
+
+    /** Creates an empty table. */
+    public LogFormats() {
+        formats = new ArrayList<String>();
+    }
+
+    private LogFormats(List<String> formats) {
+        this.formats = formats;
+    }
+
+    /** @return The format strings of all call sites (as written in the source), indexed by their id. */
+    public List<String> formats() {
+        return Collections.unmodifiableList(formats);
+    }
+
+    /**
+     * Replaces the format strings of all log calls in a source by call site ids.
+     * A call <code>log_fine("value %d", v)</code> becomes <code>log_fine(id, 1, v)</code>,
+     * where the second argument is the number of values of the record.
+     * @param source The source to be rewritten.
+     * @return The rewritten source.
+     * @throws IllegalArgumentException If a format contains a conversion, which is not an integer conversion,
+     *                                  or more than #MAX_ARGS conversions.
+     */
+    public String rewrite(String source) {
+        Matcher call = CALL.matcher(source);
+        StringBuffer rslt = new StringBuffer();
+
+        while(call.find()) {
+            String format = call.group(2);
+            String replacement = call.group(1) + "(" + formats.size() + ", " + countArgs(format);
+            formats.add(format);
+            call.appendReplacement(rslt, Matcher.quoteReplacement(replacement));
+        }
+        call.appendTail(rslt);
+
+        return rslt.toString();
+    }
+
+    /**
+     * Replaces the format strings of all log calls in the C sources of a directory (including subdirectories).
+     * @param dir The directory.
+     * @throws IOException If a source could not be read or written.
+     * @throws IllegalArgumentException If a format is not supported (see #rewrite(String)).
+     */
+    public void rewrite(File dir) throws IOException {
+        // sort the sources, so that ids remain the same for unchanged sources
+        List<File> sources = new ArrayList<File>(FileUtils.listFiles(dir, new String[] { "c" }, true));
+        Collections.sort(sources);
+
+        for(File source : sources) {
+            String content = FileUtils.readFileToString(source);
+            String rewritten = rewrite(content);
+            if(!rewritten.equals(content)) FileUtils.writeStringToFile(source, rewritten);
+        }
+    }
+
+    private static int countArgs(String format) {
+        Matcher conversion = CONVERSION.matcher(format);
+        int count = 0;
+
+        while(conversion.find()) {
+            char c = conversion.group(1).charAt(0);
+            if(c == '%') continue;
+            if("diouxXc".indexOf(c) == -1) throw new IllegalArgumentException(
+                "binary log records can only contain integer values, but found %" + c + " in \"" + format + "\"");
+            count++;
+        }
+
+        if(count > MAX_ARGS) throw new IllegalArgumentException(
+            "binary log records can contain at most " + MAX_ARGS + " values, but \"" + format + "\" has " + count);
+
+        return count;
+    }
+
+    /**
+     * Stores the table in a file, one format per line.
+     * @param file The file.
+     * @throws IOException If the file could not be written.
+     */
+    public void write(File file) throws IOException {
+        FileUtils.writeLines(file, formats, "\n");
+    }
+
+    /**
+     * Reads a table stored with #write(File).
+     * @param file The file.
+     * @return The table.
+     * @throws IOException If the file could not be read.
+     */
+    public static LogFormats read(File file) throws IOException {
+        return new LogFormats(FileUtils.readLines(file));
+    }
+}
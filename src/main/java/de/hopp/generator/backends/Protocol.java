@@ -0,0 +1,218 @@
+package de.hopp.generator.backends;
+
+import static de.hopp.generator.model.cpp.CPP.*;
+import static de.hopp.generator.utils.CPPUtils.add;
+
+import de.hopp.generator.model.cpp.MFile;
+
+/**
+ * Description of the message headers of the communication protocol
+ * between host-side and board-side driver.
+ *
+ * A header consists of one or more words, each of which is split into bit fields.
+ * The version field is always located in the first word at the same position,
+ * so that a receiver can select the decoder before interpreting the remaining fields.
+ *
+ * Both drivers encode and decode headers using shift and mask macros,
+ * which are generated from this description. Since host and board
+ * share the same description, they cannot disagree about the header layout.
+ * The generated macros only use integer operations, which is important
+ * for boards without floating point unit.
+ */
+public class Protocol {
+
+    /**
+     * A bit field inside a header word.
+     */
+    public static class Field {
+        private final String name;
+        private final int offset;
+        private final int width;
+
+        /**
+         * @param name Name of the field (used in the generated macros).
+         * @param offset Position of the least significant bit of the field.
+         * @param width Number of bits of the field.
+         */
+        public Field(String name, int offset, int width) {
+            this.name   = name;
+            this.offset = offset;
+            this.width  = width;
+        }
+        public String name()  { return name;   }
+        public int offset()   { return offset; }
+        public int width()    { return width;  }
+
+        /** @return The (unshifted) mask of this field as hexadecimal C literal. */
+        public String mask() {
+            return "0x" + Long.toHexString((1L << width) - 1) + "u";
+        }
+    }
+
+    /**
+     * A word of a header, consisting of one or more bit fields.
+     */
+    public static class Word {
+        private final String name;
+        private final Field[] fields;
+
+        /**
+         * @param name Name of the word (used in the generated construction macro).
+         * @param fields Bit fields of the word.
+         */
+        public Word(String name, Field... fields) {
+            this.name   = name;
+            this.fields = fields;
+        }
+        public String name()    { return name;   }
+        public Field[] fields() { return fields; }
+    }
+
+    /**
+     * Message types of the protocol.
+     * The type encoding is shared between all protocol versions.
+     */
+    public enum MessageType {
+        RESET(0), DEBUG(7), DATA(9), POLL(10), FAIL(12), GPIO(14), ACK(15);
+
+        private final int value;
+        private MessageType(int value) { this.value = value; }
+        public int value() { return value; }
+    }
+
+    /** Protocol version 1: 8 bit version, 4 bit type, 4 bit id and 16 bit size in a single word. */
+    public static final Protocol V1 = new Protocol(1,
+        new Word("header",
+            new Field("version", 24,  8),
+            new Field("type",    20,  4),
+            new Field("id",      16,  4),
+            new Field("size",     0, 16)
+        )
+    );
+
+    /**
+     * Protocol version 2: Messages are sent in frames.
+     * A frame starts with a word containing the 8 bit version and the 16 bit number of messages in the frame.
+     * Each message starts with a word containing 4 bit type and 16 bit id, followed by a word with the 32 bit size.
+     */
+    public static final Protocol V2 = new Protocol(2,
+        new Word("frame",
+            new Field("version", 24,  8),
+            new Field("count",    0, 16)
+        ),
+        new Word("message",
+            new Field("type",    16,  4),
+            new Field("id",       0, 16)
+        ),
+        new Word("length",
+            new Field("size",     0, 32)
+        )
+    );
+
+    /** All supported protocol versions. */
+    public static final Protocol[] VERSIONS = { V1, V2 };
+
+    /** The protocol version used, if the medium does not specify one. */
+    public static final Protocol DEFAULT = V1;
+
+    private final int version;
+    private final Word[] words;
+
+    private Protocol(int version, Word... words) {
+        this.version = version;
+        this.words   = words;
+    }
+
+    /**
+     * Looks up a supported protocol version.
+     * @param version The version number.
+     * @return The protocol with this version number or null, if the version is not supported.
+     */
+    public static Protocol get(int version) {
+        for(Protocol proto : VERSIONS) if(proto.version == version) return proto;
+        return null;
+    }
+
+    /** @return The version number of this protocol. */
+    public int version() {
+        return version;
+    }
+
+    /** @return The largest port id, which fits into the id field of this protocol. */
+    public int maxId() {
+        for(Word word : words)
+            for(Field field : word.fields())
+                if(field.name().equals("id")) return (1 << field.width()) - 1;
+        return 0;
+    }
+
+    /**
+     * Generates the header codec shared by host- and board-side driver.
+     *
+     * The file contains type constants as well as shift, mask and accessor macros
+     * for each field and a construction macro for each header word of each protocol version.
+     * It is plain preprocessor code and can therefore be included by C and C++ sources.
+     * @param directory Target directory of the generated header.
+     * @return The header codec file.
+     */
+    public static MFile generateCodec(String directory) {
+        MFile file = MFile(MDocumentation(Strings(
+                "Encoding and decoding of protocol headers.",
+                "Provides shift and mask macros for all fields of all supported protocol versions.",
+                "This file is generated for host- and board-side driver alike. Do not edit."
+            )), "protocol_header", directory, MPreProcDirs(),
+            MStructs(), MEnums(), MAttributes(), MProcedures(), MClasses());
+
+        for(MessageType type : MessageType.values())
+            file = add(file, MDef(MDocumentation(Strings(
+                    "Message type of " + type.name().toLowerCase() + " messages."
+                )), MModifiers(PUBLIC()), "PROTO_TYPE_" + type.name(), String.valueOf(type.value())));
+
+        for(Protocol proto : VERSIONS) file = proto.addCodec(file);
+
+        return file;
+    }
+
+    private MFile addCodec(MFile file) {
+        String prefix = "PROTO_V" + version + "_";
+
+        for(Word word : words) {
+            // shift, mask and accessor per field
+            for(Field f : word.fields()) {
+                String name = prefix + f.name().toUpperCase();
+                file = add(file, MDef(MDocumentation(Strings(
+                        "Offset of the " + f.name() + " field in a version " + version + " header."
+                    )), MModifiers(PUBLIC()), name + "_SHIFT", String.valueOf(f.offset())));
+                file = add(file, MDef(MDocumentation(Strings(
+                        "Mask of the " + f.name() + " field in a version " + version + " header (" + f.width() + " bit)."
+                    )), MModifiers(PUBLIC()), name + "_MASK", f.mask()));
+                file = add(file, MDef(MDocumentation(Strings(
+                        "Extracts the " + f.name() + " field from a version " + version + " header."
+                    )), MModifiers(PUBLIC()), prefix + "GET_" + f.name().toUpperCase() + "(h)",
+                    "((((unsigned int)(h)) >> " + name + "_SHIFT) & " + name + "_MASK)"));
+            }
+
+            // word construction from all fields except the version
+            StringBuilder params = new StringBuilder();
+            StringBuilder value  = new StringBuilder();
+            for(Field f : word.fields()) {
+                String name = prefix + f.name().toUpperCase();
+                value.append(value.length() == 0 ? "(" : " | ");
+                if(f.name().equals("version")) {
+                    value.append("(((unsigned int)" + version + ") << " + name + "_SHIFT)");
+                    continue;
+                }
+                if(params.length() > 0) params.append(", ");
+                params.append(f.name());
+                value.append("((((unsigned int)(" + f.name() + ")) & " + name + "_MASK) << " + name + "_SHIFT)");
+            }
+            value.append(")");
+
+            file = add(file, MDef(MDocumentation(Strings(
+                    "Constructs the " + word.name() + " word of a version " + version + " header."
+                )), MModifiers(PUBLIC()), prefix + word.name().toUpperCase() + "(" + params + ")", value.toString()));
+        }
+
+        return file;
+    }
+}
@@ -28,6 +28,9 @@ import de.hopp.generator.model.mhs.MHSFile;
  */
 public class MHS extends MHSGenerator {
 
+    // request line of the interrupt controller, connected to the interrupt and wakeup inputs of the processor
+    private static final String intcIrq = Virtex6.intcIdent + "_Irq";
+
     public MHS(ISEBoard board, IPCoreVersions versions, ErrorCollection errors) {
         super(board, versions, errors);
     }
@@ -300,7 +303,7 @@ public class MHS extends MHSGenerator {
                 AndExp(
                     Ident("microblaze_0.M_AXI_DC"),
                     Ident("microblaze_0.M_AXI_IC")
-                    )
+                    ).addAll(dmaMasters)
                 )),
                 Attribute(PARAMETER(), Assignment("C_MMCM_EXT_LOC", Ident("MMCM_ADV_X0Y8"))),
                 Attribute(PARAMETER(), Assignment("C_NDQS_COL0", Number(1))),
@@ -388,18 +391,30 @@ public class MHS extends MHSGenerator {
             Attribute(BUS_IF(), Assignment("ILMB", Ident("microblaze_0_ilmb")))
             );
 
-        // add master and slave interfaces for user-attached cores
+        // add master and slave interfaces for user-attached cores.
+        // Links are numbered by port id, so the last link used by a port attached to the processor counts
+        int links = 0;
+        for(int i = 0; i < axiStreamIdMaster; i++) if(!dmaGroups.contains("M" + i)) links = Math.max(links, i + 1);
+        for(int i = 0; i < axiStreamIdSlave;  i++) if(!dmaGroups.contains("S" + i)) links = Math.max(links, i + 1);
         microblaze = add(microblaze, Attribute(PARAMETER(),
-            Assignment("C_FSL_LINKS", Number(Math.max(axiStreamIdMaster, axiStreamIdSlave)))
+            Assignment("C_FSL_LINKS", Number(links))
             ));
 
-        for(int i = 0; i < axiStreamIdMaster; i++)
+        // streams attached to a dma engine leave the corresponding link of the processor unused
+        for(int i = 0; i < axiStreamIdMaster; i++) if(!dmaGroups.contains("M" + i))
             microblaze = add(microblaze, Attribute(BUS_IF(),
                 Assignment("M" + i + "_AXIS", Ident("M" + i + "_AXIS"))));
-        for(int i = 0; i < axiStreamIdSlave; i++)
+        for(int i = 0; i < axiStreamIdSlave; i++) if(!dmaGroups.contains("S" + i))
             microblaze = add(microblaze, Attribute(BUS_IF(),
                 Assignment("S" + i + "_AXIS", Ident("S" + i + "_AXIS"))));
 
+        // the interrupt scheduler sleeps with interrupts disabled, so a pending interrupt has to end the sleep
+        // over the wakeup input. Both bits are driven by the request line of the interrupt controller
+        if(interrupts) microblaze = add(microblaze, Attributes(
+            Attribute(PORT(), Assignment("INTERRUPT", Ident(intcIrq))),
+            Attribute(PORT(), Assignment("WAKEUP", AndExp(Ident(intcIrq), Ident(intcIrq))))
+            ));
+
         // add reset and clock ports
         microblaze = add(microblaze, Attribute(PORT(), Assignment("MB_RESET", Ident("proc_sys_reset_0_MB_Reset"))));
         microblaze = add(microblaze, Attribute(PORT(), Assignment("CLK", Ident(board.getClock().getClockPort(100)))));
@@ -409,9 +424,13 @@ public class MHS extends MHSGenerator {
 
     private MHSFile getINTC() {
 
+        // the controller has at most 32 inputs, including the timer
+        if(intrCntrlPorts.size() > 31) errors.addError(new ParserError(
+            "too many interrupt sources for the interrupt controller of the Virtex6", "", -1));
+
         Memory.Range intcMemRange = board.getMemory().allocateMemory(0xffff);
 
-        return MHSFile(Attributes(), Block("axi_intc",
+        Block intc = Block("axi_intc",
             Attribute(PARAMETER(), Assignment("INSTANCE", Ident(Virtex6.intcIdent))), // <-- THIS is the reason for gpio intc naming!
             Attribute(PARAMETER(), Assignment("HW_VER", Ident(versions.axi_intc))),
             Attribute(PARAMETER(), Assignment("C_BASEADDR", MemAddr(intcMemRange.getBaseAddress()))),
@@ -420,7 +439,11 @@ public class MHS extends MHSGenerator {
             Attribute(BUS_IF(), Assignment("INTERRUPT", Ident("microblaze_0_interrupt"))),
             Attribute(PORT(), Assignment("S_AXI_ACLK", Ident(board.getClock().getClockPort(100)))),
             Attribute(PORT(), Assignment("INTR", intrCntrlPorts.add(Ident("axi_timer_0_Interrupt"))))
-        ));
+        );
+
+        // the request line is connected explicitly, since it wakes the processor as well (see getMicroblaze)
+        if(interrupts) intc = add(intc, Attribute(PORT(), Assignment("IRQ", Ident(intcIrq))));
+        return MHSFile(Attributes(), intc);
     }
 
     @Override
@@ -433,6 +456,12 @@ public class MHS extends MHSGenerator {
     }
 
 
+    @Override
+    protected String getDMABus() {
+        // the memory controller is attached to the full AXI4 interconnect
+        return "axi4_0";
+    }
+
     @Override
     protected String getResetPort() {
         return "proc_sys_reset_0_Peripheral_reset";
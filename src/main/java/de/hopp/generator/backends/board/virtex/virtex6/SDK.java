@@ -116,6 +116,11 @@ public class SDK extends de.hopp.generator.backends.workflow.ise.sdk.SDKGenerato
         ), MQuoteInclude(PRIVATE(), "fsl.h"), MQuoteInclude(PRIVATE(), "../constants.h")));
     }
 
+    @Override
+    protected String getQueueInterrupt(String irq) {
+        return "XPAR_" + Virtex6.intcIdent.toUpperCase() + "_" + irq.toUpperCase() + "_INTR";
+    }
+
     @Override
     protected MProcedure getAxiRead() {
         return MProcedure(MDocumentation(Strings(
@@ -136,7 +141,16 @@ public class SDK extends de.hopp.generator.backends.workflow.ise.sdk.SDKGenerato
             "int rslt = 1;",
             "fsl_isinvalid(rslt);",
             "log_finer(\" (invalid: %d)\", rslt);",
-            "return rslt;"
-        ), MQuoteInclude(PRIVATE(), "fsl.h"), MQuoteInclude(PRIVATE(), "../constants.h")));
+            "if(rslt) return rslt;",
+            "",
+            "// a data read of a value with control bit (i.e. tlast) set raises the error flag",
+            "int last = 0;",
+            "fsl_iserror(last);",
+            "outLast[target] = last;",
+            "",
+            "// the error flag is sticky, so it has to be cleared for the next read",
+            "if(last) mtmsr(mfmsr() & ~0x10);",
+            "return 0;"
+        ), MQuoteInclude(PRIVATE(), "fsl.h"), MQuoteInclude(PRIVATE(), "../constants.h"), MQuoteInclude(PRIVATE(), "../io.h")));
     }
 }
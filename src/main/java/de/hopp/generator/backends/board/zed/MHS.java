@@ -2,7 +2,9 @@ package de.hopp.generator.backends.board.zed;
 
 import static de.hopp.generator.backends.workflow.ise.xps.MHSUtils.add;
 import static de.hopp.generator.model.mhs.MHS.*;
-import static de.hopp.generator.utils.BoardUtils.getDirection;
+import static de.hopp.generator.utils.BoardUtils.getBatchSize32;
+import static de.hopp.generator.utils.BoardUtils.getLatency;
+import static de.hopp.generator.utils.BoardUtils.isPolling;
 import de.hopp.generator.ErrorCollection;
 import de.hopp.generator.backends.Memory;
 import de.hopp.generator.backends.workflow.ise.ISEBoard;
@@ -36,50 +38,29 @@ public class MHS extends MHSGenerator {
         errors.addError(new UsageError("ZedBoard does not support PCIe as communication medium"));
     }
 
-    // GENERAL IDEA:
-    // - count number of axi fifo components
-    // - we know, each component comes with a master and a slave port
-    // - if the count corresponding to the current direction is lower, then the fifo count, use existing fifo
-    // - otherwise, add a fifo
-
-    protected int fifoCount = 0;
-
-    protected Block createFIFO() {
-        String axisMaster = "M" + fifoCount + "_AXIS";
-        String axisSlave  = "S" + fifoCount + "_AXIS";
-        String ident      = "axi_fifo_mm_s_" + fifoCount++;
-
-        Memory.Range axi4memRange = board.getMemory().allocateMemory(0xfff);
-        Memory.Range memRange = board.getMemory().allocateMemory(0xfff);
-
-        return de.hopp.generator.model.mhs.MHS.Block("axi_fifo_mm_s",
-            Attribute(PARAMETER(), Assignment("INSTANCE", Ident(ident))),
-            Attribute(PARAMETER(), Assignment("HW_VER", Ident(versions.axi_fifo))),
-            Attribute(PARAMETER(), Assignment("C_DATA_INTERFACE_TYPE", Number(0))),
-            Attribute(PARAMETER(), Assignment("C_AXI4_BASEADDR", MemAddr(axi4memRange.getBaseAddress()))),
-            Attribute(PARAMETER(), Assignment("C_AXI4_HIGHADDR", MemAddr(axi4memRange.getHighAddress()))),
-            Attribute(PARAMETER(), Assignment("C_BASEADDR", MemAddr(memRange.getBaseAddress()))),
-            Attribute(PARAMETER(), Assignment("C_HIGHADDR", MemAddr(memRange.getHighAddress()))),
-            Attribute(PARAMETER(), Assignment("C_INTERCONNECT_S_AXI_MASTERS", Ident("axi_cdma_0.M_AXI"))),
-            Attribute(BUS_IF(), Assignment("S_AXI", Ident("axi_interconnect_0"))),
-            Attribute(BUS_IF(), Assignment("AXI_STR_TXD", Ident(axisMaster))),
-            Attribute(BUS_IF(), Assignment("AXI_STR_RXD", Ident(axisSlave))),
-            Attribute(PORT(), Assignment("S_AXI_ACLK", Ident(board.getClock().getClockPort(100))))
-        );
+    /**
+     * The Cortex-A9 processors of the Zynq do not provide stream interfaces.
+     * Instead, all cpu ports are attached to dma engines, which access the memory
+     * of the processing system over the 64-bit high performance port HP0.
+     */
+    @Override
+    protected boolean attachDMA(CPUAxisPos axis) throws UsageError {
+        if(isPolling(axis)) throw new UsageError("polling port " + axis.port().term() +
+            " is not supported on the ZedBoard, since all ports are attached to dma engines");
+        if(getBatchSize32(axis) > 0 || getLatency(axis) > 0) throw new UsageError(
+            "flush policy options batch and latency of port " + axis.port().term() + " are not supported " +
+            "on the ZedBoard, since all ports are attached to dma engines");
+        return true;
     }
 
     @Override
-    protected Attribute createCPUAxisBinding(final CPUAxisPos axis) throws UsageError {
-        // if required, add a FIFO to the design (translating from full AXI4 to AXI4 stream)
-        boolean direct = direction(getDirection(axis).termDirection());
-        System.out.println("direction : " + direct);
-        System.out.println("fifo count: " + fifoCount);
-        System.out.println("master count: " + axiStreamIdMaster);
-        System.out.println("slave count : " + axiStreamIdSlave);
-        if((direct && fifoCount <= axiStreamIdMaster) || (!direct && fifoCount <= axiStreamIdSlave))
-            mhs = add(mhs, createFIFO());
+    protected String getDMABus() {
+        return "axi_interconnect_0";
+    }
 
-        return super.createCPUAxisBinding(axis);
+    @Override
+    protected int getDMADataWidth() {
+        return 64;
     }
 
     @Override
@@ -262,7 +243,9 @@ public class MHS extends MHSGenerator {
             Attribute(PARAMETER(), Assignment("C_USE_CR_FABRIC", Number(1))),
             // TODO No idea what this does and if we need it...
             Attribute(PARAMETER(), Assignment("C_NUM_F2P_INTR_INPUTS", Number(1))),
-            Attribute(PARAMETER(), Assignment("C_INTERCONNECT_S_AXI_HP0_MASTERS", Ident("axi_cdma_0.M_AXI"))),
+            Attribute(PARAMETER(), Assignment("C_S_AXI_HP0_DATA_WIDTH", Number(64))),
+            Attribute(PARAMETER(), Assignment("C_INTERCONNECT_S_AXI_HP0_MASTERS",
+                AndExp(Ident("axi_cdma_0.M_AXI")).addAll(dmaMasters))),
             // AXI bus interfaces
             Attribute(BUS_IF(), Assignment("M_AXI_GP0", Ident("axi4lite_0"))),
             Attribute(BUS_IF(), Assignment("S_AXI_HP0", Ident("axi_interconnect_0"))),
@@ -6,8 +6,15 @@ import de.hopp.generator.Configuration;
 import de.hopp.generator.ErrorCollection;
 import de.hopp.generator.backends.board.zed.gpio.Gpio;
 import de.hopp.generator.backends.workflow.ise.sdk.DriverVersions;
+import de.hopp.generator.exceptions.ParserError;
+import de.hopp.generator.model.BDLFilePos;
+import de.hopp.generator.model.BindingPos;
+import de.hopp.generator.model.CPUAxisPos;
 import de.hopp.generator.model.ETHERNETPos;
 import de.hopp.generator.model.GPIOPos;
+import de.hopp.generator.model.INTERRUPTPos;
+import de.hopp.generator.model.InstancePos;
+import de.hopp.generator.model.SchedulerPos;
 import de.hopp.generator.model.cpp.MProcedure;
 import de.hopp.generator.model.mhs.MHS;
 import de.hopp.generator.model.mhs.MHSFile;
@@ -148,50 +155,70 @@ public class SDK extends de.hopp.generator.backends.workflow.ise.sdk.SDKGenerato
         return add(driver, getLWIPLibrary(proc_inst, term));
     }
 
+    /**
+     * The Cortex-A9 processors of the Zynq do not provide stream interfaces,
+     * so all cpu ports are attached to dma engines on the high performance ports.
+     */
+    @Override
+    protected boolean attachDMA(CPUAxisPos axis) {
+        return true;
+    }
+
+    @Override
+    protected boolean attachDMA(BDLFilePos board) {
+        for(InstancePos inst : board.insts())
+            for(BindingPos bind : inst.bind())
+                if(bind instanceof CPUAxisPos) return true;
+
+        return false;
+    }
+
+    /**
+     * Ports of the ZedBoard are served by dma engines, which do not signal the scheduler,
+     * so the interrupt-driven scheduler is not supported.
+     */
+    @Override
+    public void visit(SchedulerPos term) {
+        if(term.code() instanceof INTERRUPTPos) errors.addError(new ParserError(
+            "interrupt-driven scheduler is not supported on the ZedBoard", term.pos().term()));
+        super.visit(term);
+    }
+
+    @Override
+    protected String getQueueInterrupt(String irq) {
+        // never required, since no port is attached to the processor
+        return null;
+    }
+
     @Override
     protected MProcedure getAxiWrite() {
         return MProcedure(MDocumentation(Strings(
-            "Write a value to an AXI stream."),
+            "Write a value to an AXI stream.",
+            "On the ZedBoard, all in-going ports are attached to dma engines,",
+            "so single values are never written to a stream."),
             PARAM("val", "Value to be written to the stream."),
             PARAM("target", "Target stream identifier.")
         ), MModifiers(PRIVATE()), MType("int"), "axi_write", MParameters(
             MParameter(VALUE(), MType("int"), "val"), MParameter(VALUE(), MType("int"), "target")
         ), MCode(Strings(
-          "log_finer(\"\\nwriting to in-going port %d (value: %d) ...\", target, val);",
-          "if(target > " + (axiStreamIdMaster-1) + ") {",
-          "    log_error(\"unknown axi stream port %d\", target);",
-          "    return 1;",
-          "}",
-          "// putdfslx(val, target, FSL_NONBLOCKING);",
-          "",
-          "int rslt = 1;",
-          "// fsl_isinvalid(rslt);",
-          "log_finer(\" (invalid: %d)\", rslt);",
-          "return rslt;"
+            "log_error(\"in-going port %d is not attached to a dma engine\", target);",
+            "return 1;"
         ), MQuoteInclude(PRIVATE(), "../constants.h")));
     }
 
     @Override
     protected MProcedure getAxiRead() {
         return MProcedure(MDocumentation(Strings(
-            "Read a value from an AXI stream."),
+            "Read a value from an AXI stream.",
+            "On the ZedBoard, all out-going ports are attached to dma engines,",
+            "so single values are never read from a stream."),
             PARAM("val", "Pointer to the memory area, where the read value will be stored."),
             PARAM("target", "Target stream identifier.")
         ), MModifiers(PRIVATE()), MType("int"), "axi_read", MParameters(
             MParameter(VALUE(), MPointerType(MType("int")), "val"), MParameter(VALUE(), MType("int"), "target")
         ), MCode(Strings(
-            "log_finer(\"\\nreading from out-going port %d ...\", target);",
-            "if(target > 0) {",
-            "    log_error(\"unknown axi stream port %d\", target);",
-            "    return 1;",
-            "}",
-            "// getdfslx(*val, target, FSL_NONBLOCKING);",
-            "",
-            "log_finer(\"\\n %d\", *val);",
-            "int rslt = 1;",
-            "// fsl_isinvalid(rslt);",
-            "log_finer(\" (invalid: %d)\", rslt);",
-            "return rslt;"
+            "log_error(\"out-going port %d is not attached to a dma engine\", target);",
+            "return 1;"
         ), MQuoteInclude(PRIVATE(), "../constants.h")));
     }
 }
@@ -4,16 +4,21 @@ import static de.hopp.generator.backends.BackendUtils.doxygen;
 import static de.hopp.generator.backends.BackendUtils.printMFile;
 import static de.hopp.generator.utils.Files.deploy;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
 
 import de.hopp.generator.Configuration;
 import de.hopp.generator.ErrorCollection;
 import de.hopp.generator.IOHandler;
 import de.hopp.generator.backends.BackendUtils.UnparserType;
 import de.hopp.generator.backends.GenerationFailed;
+import de.hopp.generator.backends.LogFormats;
 import de.hopp.generator.backends.host.AbstractHostBackend;
 import de.hopp.generator.exceptions.InvalidConstruct;
 import de.hopp.generator.model.BDLFilePos;
+import de.hopp.generator.utils.Manifest;
 
 /**
  * Generation backend for a host-side C++ driver.
@@ -22,6 +27,24 @@ import de.hopp.generator.model.BDLFilePos;
  */
 public class CPP extends AbstractHostBackend {
 
+    /**
+     * I/O engines of the generated driver.
+     * The engine determines, how the driver communicates with the board.
+     */
+    public enum Engine {
+        /** A writer and a reader thread with blocking socket operations. */
+        THREADS,
+        /** A single thread multiplexing non-blocking socket operations using epoll (Linux only). */
+        EPOLL;
+
+        /** @return The name of the engine as used on the command line. */
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private Engine engine = Engine.THREADS;
+
     public CPP() {
 
     }
@@ -30,14 +53,59 @@ public class CPP extends AbstractHostBackend {
         return "c++";
     }
 
+    @Override
+    public void printUsage(IOHandler IO) {
+        IO.println(" --engine <name>       selects the I/O engine of the generated driver.");
+        IO.println("                       \"threads\" uses a writer and a reader thread (default),");
+        IO.println("                       \"epoll\" uses a single event loop thread (Linux only).");
+    }
+
+    @Override
+    public Configuration parseParameters(Configuration config, String[] args) {
+        List<String> remaining = new LinkedList<String>();
+
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--engine") && i + 1 < args.length) {
+                try {
+                    engine = Engine.valueOf(args[i + 1].toUpperCase());
+                    i++;
+                    continue;
+                } catch(IllegalArgumentException e) {
+                    // leave the flag unused, which is reported by the generator
+                    config.IOHANDLER().error("unknown I/O engine: " + args[i + 1]);
+                }
+            }
+            remaining.add(args[i]);
+        }
+
+        config.setUnusued(remaining.toArray(new String[remaining.size()]));
+        return config;
+    }
+
     public void generate(BDLFilePos board, Configuration config, ErrorCollection errors) {
 
         IOHandler IO = config.IOHANDLER();
 
+        // skip all host sources, if neither the design nor the backend selection changed since the last run
+        // (the format table of a binary log is generated by the board backend and is an input as well)
+        Manifest manifest = config.manifest();
+        manifest.addInput(Manifest.HOST, getName() + " " + engine.getName());
+        try {
+            manifest.addInput(LogFormats.FILENAME, new File(config.tempDir(), LogFormats.FILENAME));
+        } catch(IOException e) {
+            errors.addError(new GenerationFailed("Failed to read log format table due to:\n" + e.getMessage()));
+            return;
+        }
+        if(manifest.upToDate(config.hostDir(),
+                Manifest.VERSION, Manifest.HOST, Manifest.BOARD, LogFormats.FILENAME)) {
+            IO.verbose("  skipping unchanged host files");
+            return;
+        }
+
         /* ************************ ANALYSIS & GENERATION ************************ */
 
         // generate  board-specific MFiles
-        CPPBDLVisitor visit = new CPPBDLVisitor(config, errors);
+        CPPBDLVisitor visit = new CPPBDLVisitor(config, engine, errors);
         visit.visit(board);
 
         if(errors.hasErrors()) return;
@@ -61,6 +129,7 @@ public class CPP extends AbstractHostBackend {
             printMFile(visit.comps,  UnparserType.HEADER);
             printMFile(visit.comps,  UnparserType.CPP);
             printMFile(visit.logger, UnparserType.CPP);
+            printMFile(visit.codec,  UnparserType.HEADER);
         } catch(IOException e) {
             errors.addError(new GenerationFailed("Failed to deploy non-generic client sources due to:\n"
                 + e.getMessage()));
@@ -1,9 +1,17 @@
 package de.hopp.generator.backends.host.cpp;
 
+import static de.hopp.generator.backends.Protocol.generateCodec;
 import static de.hopp.generator.model.cpp.CPP.*;
 import static de.hopp.generator.utils.BoardUtils.defaultQueueSizeHW;
 import static de.hopp.generator.utils.BoardUtils.defaultQueueSizeSW;
 import static de.hopp.generator.utils.BoardUtils.getPort;
+import static de.hopp.generator.utils.BoardUtils.getLogSeverity;
+import static de.hopp.generator.utils.BoardUtils.getPriority;
+import static de.hopp.generator.utils.BoardUtils.getProtocolVersion;
+import static de.hopp.generator.utils.BoardUtils.getQuantum32;
+import static de.hopp.generator.utils.BoardUtils.getSWQueueSize32;
+import static de.hopp.generator.utils.BoardUtils.getType;
+import static de.hopp.generator.utils.BoardUtils.getValuesPerWord;
 import static de.hopp.generator.utils.BoardUtils.getWidth;
 import static de.hopp.generator.utils.BoardUtils.isPolling;
 import static de.hopp.generator.utils.CPPUtils.add;
@@ -12,12 +20,17 @@ import static de.hopp.generator.utils.CPPUtils.addInit;
 import static de.hopp.generator.utils.CPPUtils.addParam;
 
 import java.io.File;
+import java.io.IOException;
 
 import katja.common.NE;
 import de.hopp.generator.Configuration;
 import de.hopp.generator.ErrorCollection;
+import de.hopp.generator.backends.DataType;
+import de.hopp.generator.backends.GenerationFailed;
+import de.hopp.generator.backends.LogFormats;
 import de.hopp.generator.backends.board.BoardBackend;
 import de.hopp.generator.backends.board.GpioComponent;
+import de.hopp.generator.backends.host.cpp.CPP.Engine;
 import de.hopp.generator.exceptions.ParserError;
 import de.hopp.generator.exceptions.UsageError;
 import de.hopp.generator.model.*;
@@ -31,12 +44,15 @@ import de.hopp.generator.model.cpp.MInitList;
 public class CPPBDLVisitor extends Visitor<NE> {
 
     BoardBackend board;
+    Engine engine;
     ErrorCollection errors;
+    File tempDir;
 
     // generated files
     MFile comps;
     MFile consts;
     MFile logger;
+    MFile codec;
 
     // temp variables for construction of local methods of VHDL components
     private MClass  comp;
@@ -50,9 +66,11 @@ public class CPPBDLVisitor extends Visitor<NE> {
   // local variables for global default methods
 //  private MMethod clean;
 
-    public CPPBDLVisitor(Configuration config, ErrorCollection errors) {
-        this.board = config.board();
+    public CPPBDLVisitor(Configuration config, Engine engine, ErrorCollection errors) {
+        this.board  = config.board();
+        this.engine = engine;
         this.errors = errors;
+        this.tempDir = config.tempDir();
         String clientSrc = new File(config.hostDir(), "src").getPath();
         String clientApi = new File(clientSrc, "api").getPath();
 
@@ -66,6 +84,8 @@ public class CPPBDLVisitor extends Visitor<NE> {
 
         logger = MFile(MDocumentation(Strings()), "logger", clientSrc,
             MPreProcDirs(), MStructs(), MEnums(), MAttributes(), MProcedures());
+
+        codec  = generateCodec(new File(clientSrc, "io").getPath());
     }
 
     public void visit(BDLFilePos term) {
@@ -92,6 +112,16 @@ public class CPPBDLVisitor extends Visitor<NE> {
                 "This is equivalent with the maximal number of values, " +
                 "that should be send in one message"
             )), MModifiers(PUBLIC()), "QUEUE_SIZE_SW", String.valueOf(queueSizeSW)));
+        consts = add(consts, MDef(MDocumentation(Strings(
+                "Denotes protocol version, that should be used for sending messages."
+            )), MModifiers(PUBLIC()), "PROTO_VERSION", String.valueOf(getProtocolVersion(term))));
+        for(Engine e : Engine.values())
+            consts = add(consts, MDef(MDocumentation(Strings(
+                    "Identifies the " + e.getName() + " I/O engine."
+                )), MModifiers(PUBLIC()), "IO_ENGINE_" + e.name(), String.valueOf(e.ordinal())));
+        consts = add(consts, MDef(MDocumentation(Strings(
+                "Denotes the I/O engine, that is used for communication with the board."
+            )), MModifiers(PUBLIC()), "IO_ENGINE", "IO_ENGINE_" + engine.name()));
 
         visit(term.logs());
         visit(term.medium());
@@ -120,6 +150,45 @@ public class CPPBDLVisitor extends Visitor<NE> {
     public void visit(LogsPos term) {
         addLogger("logger_host",  "Host:  ", term.host().termLog());
         addLogger("logger_board", "Board: ", term.board().termLog());
+
+        consts = add(consts, MDef(MDocumentation(Strings(
+                "Maximal severity of messages of the host-side driver.",
+                "Messages above this severity are removed by the compiler (see log_host)."
+            )), MModifiers(PUBLIC()), "LOG_HOST_SEVERITY", getLogSeverity(term.host()).sortName()));
+
+        boolean binary = term.board() instanceof BINARYPos;
+        consts = add(consts, MDef(MDocumentation(Strings(
+                "If set, the board-side driver sends binary log records, which are expanded using log_formats."
+            )), MModifiers(PUBLIC()), "LOG_BINARY", binary ? "1" : "0"));
+        if(binary) addLogFormats();
+    }
+
+    /**
+     * Adds the format table of binary board logs, which has been stored by the board backend.
+     */
+    private void addLogFormats() {
+        LogFormats formats;
+        try {
+            formats = LogFormats.read(new File(tempDir, LogFormats.FILENAME));
+        } catch(IOException e) {
+            errors.addError(new GenerationFailed("Could not read the format table of the binary board log " +
+                "(the board backend has to be run first): " + e.getMessage()));
+            return;
+        }
+
+        // the formats are stored as written in the board sources, so they can be used as literals
+        StringBuilder table = new StringBuilder("{");
+        for(String format : formats.formats()) table.append("\n    \"" + format + "\",");
+        if(formats.formats().isEmpty()) table.append(" NULL");
+        table.append("\n}");
+
+        consts = add(consts, MDef(MDocumentation(Strings(
+                "The number of formats of binary board log records."
+            )), MModifiers(PUBLIC()), "LOG_FORMAT_COUNT", String.valueOf(formats.formats().size())));
+        logger = add(logger, MAttribute(MDocumentation(Strings(
+                "Formats of binary board log records, indexed by their call site id."
+            )), MModifiers(), MType("const char*"), "log_formats[]",
+            MCodeFragment(table.toString(), MIncludes())));
     }
 
     private void addLogger(final String name, final String prefix, final Log log) {
@@ -134,7 +203,10 @@ public class CPPBDLVisitor extends Visitor<NE> {
                 return MInitList(Strings("new std::ofstream(\"" + term.file() + "\")",
                     term.sev().sortName(), "\"" + prefix + "\""));
             }
-
+            public MInitList CaseBINARY(BINARY term) {
+                // binary records are expanded by the host and printed on the console
+                return MInitList(Strings("&std::cout", term.sev().sortName(), "\"" + prefix + "\""));
+            }
         });
         logger = add(logger, MAttribute(MDocumentation(Strings()),
             MModifiers(), MType("logger"), name, initList));
@@ -208,8 +280,10 @@ public class CPPBDLVisitor extends Visitor<NE> {
         for(BindingPos bind : term.bind()) {
             if(! (bind instanceof CPUAxisPos)) continue; // skip non-cpu axis
             if(isMasterConnection(bind)) init = add(init, String.valueOf(pi++));
+            if(isMasterConnection(bind)) init = add(init, String.valueOf(getSWQueueSize32((CPUAxisPos)bind)));
             if(isSlaveConnection(bind))  init = add(init, String.valueOf(po++));
             if(isSlaveConnection(bind))  init = add(init, isPolling((CPUAxisPos)bind) ? "1" : "0");
+            if(isSlaveConnection(bind))  init = add(init, String.valueOf(getSWQueueSize32((CPUAxisPos)bind)));
         }
 
         // visit bindings to add ports to component
@@ -229,9 +303,13 @@ public class CPPBDLVisitor extends Visitor<NE> {
     public void visit(final CPUAxisPos axis) {
         AXIPos port = getPort(axis);
         final int width = getWidth(axis);
+        // typed ports exchange native values, other ports bit vectors
+        final DataType type = getType(axis);
+        final boolean packed = getValuesPerWord(axis) > 1;
         port.direction().Switch(new DirectionPos.Switch<Object, NE>() {
             public Object CaseINPos(INPos term) {
-                addInPort(axis.port().term(), width);
+                addInPort(axis.port().term(), type == null ? "inPort<" + width + ">" : "typedInPort<" + type.cppType() + ">", packed,
+                    getPriority(axis), getQuantum32(axis));
                 return null;
             }
             public Object CaseDUALPos(DUALPos term) {
@@ -239,7 +317,7 @@ public class CPPBDLVisitor extends Visitor<NE> {
                 return null;
             }
             public Object CaseOUTPos(OUTPos term) {
-                addOutPort(axis.port().term(), width);
+                addOutPort(axis.port().term(), type == null ? "outPort<" + width + ">" : "typedOutPort<" + type.cppType() + ">", packed);
                 return null;
             }
         });
@@ -272,29 +350,35 @@ public class CPPBDLVisitor extends Visitor<NE> {
         });
     }
 
-    private void addInPort(String name, int width) {
+    private void addInPort(String name, String portType, boolean packed, int priority, int quantum) {
         comp = add(comp, MAttribute(MDocumentation(Strings(
                 "An in-going AXI-Stream port.",
                 "Communicate with the #" + comp.name() + " core through this port."
-            )), MModifiers(PUBLIC()), MType("inPort<"+width+">"),
+            )), MModifiers(PUBLIC()), MType(portType),
             name, MCodeFragment("",
                 MQuoteInclude(PUBLIC(), "component.h"),
                 MQuoteInclude(PUBLIC(), "portIn.h")
             )
         ));
 
-        constructor = constructor.replaceDoc(constructor.doc().replaceTags(
-            constructor.doc().tags().add(PARAM(name, "Id of the port"))
-        ));
-        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned char"), name));
-        constructor = addInit(constructor, MMemberInit(name, name));
+        constructor = constructor.replaceDoc(constructor.doc().replaceTags(constructor.doc().tags().addAll(MTags(
+            PARAM(name, "Id of the port"),
+            PARAM(name + "_window", "Capacity of the board-side input queue of the port")
+        ))));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name + "_window"));
+        // packing and scheduling parameters are properties of the port declaration and therefore fixed
+        if(priority > 0 || quantum > 0) constructor = addInit(constructor, MMemberInit(name, name, name + "_window",
+            String.valueOf(packed), String.valueOf(priority), String.valueOf(quantum)));
+        else if(packed) constructor = addInit(constructor, MMemberInit(name, name, name + "_window", "true"));
+        else constructor = addInit(constructor, MMemberInit(name, name, name + "_window"));
     }
 
-    private void addOutPort(String name, int width) {
+    private void addOutPort(String name, String portType, boolean packed) {
         comp = add(comp, MAttribute(MDocumentation(Strings(
                 "An out-going AXI-Stream port.",
                 "Communicate with the #" + comp.name() + " core through this port."
-            )), MModifiers(PUBLIC()), MType("outPort<"+width+">"),
+            )), MModifiers(PUBLIC()), MType(portType),
             name, MCodeFragment("",
                 MQuoteInclude(PUBLIC(), "component.h"),
                 MQuoteInclude(PUBLIC(), "portOut.h")
@@ -302,11 +386,14 @@ public class CPPBDLVisitor extends Visitor<NE> {
         ));
 
         constructor = constructor.replaceDoc(constructor.doc().replaceTags(constructor.doc().tags().addAll(MTags(
-            PARAM(name, "Id of the port"), PARAM(name + "_poll", "Poll flag of the port")
+            PARAM(name, "Id of the port"), PARAM(name + "_poll", "Poll flag of the port"),
+            PARAM(name + "_qsize", "Initial size of the value queue of the port")
         ))));
-        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned char"), name));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name));
         constructor = addParam(constructor, MParameter(VALUE(), MType("bool"), name + "_poll"));
-        constructor = addInit(constructor, MMemberInit(name, name, name + "_poll"));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name + "_qsize"));
+        if(packed) constructor = addInit(constructor, MMemberInit(name, name, name + "_poll", name + "_qsize", "true"));
+        else constructor = addInit(constructor, MMemberInit(name, name, name + "_poll", name + "_qsize"));
     }
 
     private void addDualPort(String name, int width) {
@@ -323,13 +410,17 @@ public class CPPBDLVisitor extends Visitor<NE> {
 
         constructor = constructor.replaceDoc(constructor.doc().replaceTags(constructor.doc().tags().addAll(MTags(
             PARAM(name + "_in",  "Id of the in-going part of the port"),
+            PARAM(name + "_window", "Capacity of the board-side input queue of the port"),
             PARAM(name + "_out", "Id of the out-going part of the port"),
-            PARAM(name + "_poll", "Poll flag of the port")
+            PARAM(name + "_poll", "Poll flag of the port"),
+            PARAM(name + "_qsize", "Initial size of the value queue of the port")
         ))));
-        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned char"), name + "_in"));
-        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned char"), name + "_out"));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name + "_in"));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name + "_window"));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name + "_out"));
         constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned char"), name + "_poll"));
-        constructor = addInit(constructor, MMemberInit(name, name + "_in", name + "_out", name + "_poll"));
+        constructor = addParam(constructor, MParameter(VALUE(), MType("unsigned int"), name + "_qsize"));
+        constructor = addInit(constructor, MMemberInit(name, name + "_in", name + "_window", name + "_out", name + "_poll", name + "_qsize"));
     }
 
     // list types
@@ -346,6 +437,7 @@ public class CPPBDLVisitor extends Visitor<NE> {
 
     // code blocks (handled directly when occurring)
     public void visit(DEFAULTPos term)      { }
+    public void visit(INTERRUPTPos term)    { }
     public void visit(USER_DEFINEDPos term) { }
 
     // missing medium declaration
@@ -356,10 +448,18 @@ public class CPPBDLVisitor extends Visitor<NE> {
     public void visit(SWQUEUEPos  arg0) { }
     public void visit(BITWIDTHPos term) { }
     public void visit(POLLPos     term) { }
+    public void visit(DATATYPEPos term) { }
+    public void visit(DMAPos      term) { }
+    public void visit(BATCHPos    term) { }
+    public void visit(LATENCYPos  term) { }
+    public void visit(TLASTPos    term) { }
+    public void visit(PRIORITYPos term) { }
+    public void visit(WEIGHTPos   term) { }
 
     // logger options
     public void visit(CONSOLEPos  term) { }
     public void visit(FILEPos     term) { }
+    public void visit(BINARYPos   term) { }
 
     public void visit(ERRORPos   term) { }
     public void visit(WARNPos    term) { }
@@ -376,6 +476,7 @@ public class CPPBDLVisitor extends Visitor<NE> {
     public void visit(TOUTPos   term) { }
     public void visit(DHCPPos   term) { }
     public void visit(PORTIDPos term) { }
+    public void visit(PROTOCOLPos term) { }
 
     // cores
     // we do not need to visit cores here, since a class will be created
@@ -2,10 +2,12 @@ package de.hopp.generator.backends.workflow.ise;
 
 import static de.hopp.generator.backends.BackendUtils.doxygen;
 import static de.hopp.generator.backends.BackendUtils.printMFile;
+import static de.hopp.generator.backends.BackendUtils.unparse;
 import static de.hopp.generator.backends.workflow.ise.ISEUtils.edkDir;
 import static de.hopp.generator.backends.workflow.ise.ISEUtils.sdkAppDir;
 import static de.hopp.generator.backends.workflow.ise.ISEUtils.sdkBSPDir;
 import static de.hopp.generator.backends.workflow.ise.ISEUtils.sdkDir;
+import static de.hopp.generator.utils.BoardUtils.isBinaryLog;
 import static de.hopp.generator.utils.BoardUtils.totalMemorySize;
 import static de.hopp.generator.utils.Files.deploy;
 import static de.hopp.generator.utils.Files.deployContent;
@@ -26,6 +28,7 @@ import de.hopp.generator.ErrorCollection;
 import de.hopp.generator.IOHandler;
 import de.hopp.generator.backends.BackendUtils.UnparserType;
 import de.hopp.generator.backends.GenerationFailed;
+import de.hopp.generator.backends.LogFormats;
 import de.hopp.generator.backends.SDKGenerationFailed;
 import de.hopp.generator.backends.XPSGenerationFailed;
 import de.hopp.generator.backends.workflow.WorkflowBackend;
@@ -38,7 +41,8 @@ import de.hopp.generator.exceptions.UsageError;
 import de.hopp.generator.exceptions.Warning;
 import de.hopp.generator.model.BDLFilePos;
 import de.hopp.generator.model.Core;
-import de.hopp.generator.model.unparser.MHSUnparser;
+import de.hopp.generator.model.mhs.MHSFile;
+import de.hopp.generator.utils.Manifest;
 
 /**
  * Abstract project backend for Xilinx ISE projects for the Virtex6 board.
@@ -94,6 +98,9 @@ public abstract class ISE implements WorkflowBackend {
             return;
         }
 
+        // the selected backends are an input of all board-side files
+        config.manifest().addInput(Manifest.WORKFLOW, config.flow().getName() + " " + config.board().getName());
+
         boolean newFiles = false;
 
         // deploy the necessary sources
@@ -145,20 +152,33 @@ public abstract class ISE implements WorkflowBackend {
         ISEBoard iseBoard = (ISEBoard)config.board();
         IOHandler IO = config.IOHANDLER();
 
-        StringBuffer buffer  = new StringBuffer();
-        MHSUnparser unparser = new MHSUnparser(buffer);
+        MHSFile mhs = null;
 
         boolean newFiles = false;
 
+        // the mhs file depends on the complete design, including the sources of all cores
+        List<String> inputs = new LinkedList<String>();
+        inputs.add(Manifest.VERSION);
+        inputs.add(Manifest.WORKFLOW);
+        inputs.add(Manifest.BOARD);
+        for(Core core : board.cores().term()) inputs.add(Manifest.core(core.name()));
+        boolean upToDate = config.manifest().upToDate(
+            new File(edkDir(config), "system.mhs"), inputs.toArray(new String[inputs.size()]));
+
         /* ************************ ANALYSIS & GENERATION ************************ */
 
         // generate design-specific Models
-        unparser.visit(xps.generateMHSFile(board));
+        if(!upToDate) mhs = xps.generateMHSFile(board);
 
         if(errors.hasErrors()) return newFiles;
 
         // generate and deploy core sources
         for(Core core : board.cores().term()) {
+            // a core has to be redeployed only if its description or its sources changed
+            if(config.manifest().upToDate(IPCores.coreDir(core, config), Manifest.VERSION, Manifest.core(core.name()))) {
+                IO.verbose("  skipping unchanged core " + core.name());
+                continue;
+            }
             try {
                 newFiles = IPCores.deployCore(core, config) || newFiles;
             } catch (UsageError e) {
@@ -173,6 +193,12 @@ public abstract class ISE implements WorkflowBackend {
         // if this is a dryrun, skip deployment phase
         if(config.dryrun()) return newFiles;
 
+        // skip the remaining xps files, if the design did not change since the last run
+        if(upToDate) {
+            IO.verbose("  skipping unchanged xps files");
+            return newFiles;
+        }
+
 
         /* ****************************** DEPLOYMENT ****************************** */
 
@@ -204,7 +230,7 @@ public abstract class ISE implements WorkflowBackend {
         try {
             // deploy generated .mhs file
             File target = new File(edkDir(config), "system.mhs");
-            newFiles = deployContent(buffer, target, IO) || newFiles;
+            newFiles = deployContent(unparse(mhs), target, IO) || newFiles;
             IO.verbose();
         } catch(IOException e) {
             errors.addError(new GenerationFailed(e.getMessage()));
@@ -225,6 +251,14 @@ public abstract class ISE implements WorkflowBackend {
         ISEBoard iseBoard = (ISEBoard)config.board();
         IOHandler IO = config.IOHANDLER();
 
+        // skip all sdk sources, if the design did not change since the last run
+        // (a binary log additionally requires the format table of the last run)
+        if(config.manifest().upToDate(sdkDir(config), Manifest.VERSION, Manifest.WORKFLOW, Manifest.BOARD)
+                && (!isBinaryLog(board) || new File(config.tempDir(), LogFormats.FILENAME).exists())) {
+            IO.verbose("  skipping unchanged sdk files");
+            return;
+        }
+
 
         /* ************************ ANALYSIS & GENERATION ************************ */
 
@@ -266,8 +300,8 @@ public abstract class ISE implements WorkflowBackend {
             // deploy mss file
             printMFile(sdk.getMSS(), new File(sdkBSPDir(config), "system.mss"));
             // deploy linker script
-            FileUtils.writeStringToFile(new File(new File(ISEUtils.sdkAppDir(config), "src"), "lscript.ld"),
-                setupLinkerScript(board, iseBoard, config));
+            deployContent(setupLinkerScript(board, iseBoard, config),
+                new File(new File(ISEUtils.sdkAppDir(config), "src"), "lscript.ld"), IO);
         } catch (IOException e) {
             e.getStackTrace();
             errors.addError(new GenerationFailed("Failed to deploy non-generic sdk sources due to:\n"
@@ -282,6 +316,7 @@ public abstract class ISE implements WorkflowBackend {
             printMFile(sdk.getComponents(), UnparserType.C);
             printMFile(sdk.getScheduler(),  UnparserType.HEADER);
             printMFile(sdk.getScheduler(),  UnparserType.C);
+            printMFile(sdk.getCodec(),      UnparserType.HEADER);
         } catch(IOException e) {
             errors.addError(new GenerationFailed("Failed to deploy generic SDK sources due to:\n"
                 + e.getMessage()));
@@ -290,6 +325,23 @@ public abstract class ISE implements WorkflowBackend {
             throw new IllegalStateException("Encountered invalid construct in C model unparser");
         }
 
+        // replace format strings of log calls by call site ids and store the table for the host backend
+        if(isBinaryLog(board)) {
+            IO.verbose("  assigning ids to log calls");
+            try {
+                LogFormats formats = new LogFormats();
+                formats.rewrite(new File(sdkAppDir(config), "src"));
+                formats.write(new File(config.tempDir(), LogFormats.FILENAME));
+            } catch(IOException e) {
+                errors.addError(new GenerationFailed("Failed to assign ids to log calls due to:\n"
+                    + e.getMessage()));
+                return;
+            } catch(IllegalArgumentException e) {
+                errors.addError(new GenerationFailed(e.getMessage()));
+                return;
+            }
+        }
+
         // generate api-specification
         IO.println("  generate server-side api specification ... ");
         doxygen(sdkAppDir(config), IO, errors);
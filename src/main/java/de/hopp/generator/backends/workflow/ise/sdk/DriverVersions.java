@@ -16,6 +16,7 @@ public class DriverVersions {
 
     public String mss_generic;
     public String mss_gpio;
+    public String mss_axidma;
 
     // lwip library
     public String mss_lwip_lib_name;
@@ -59,6 +60,7 @@ public class DriverVersions {
 
         versions.mss_generic           = "1.00.a";
         versions.mss_gpio              = "3.00.a";
+        versions.mss_axidma            = "6.00.a";
 
         // lwip library
         versions.mss_lwip_lib_name     = "lwip140";
@@ -104,6 +106,8 @@ public class DriverVersions {
         //      + more readable, easier to see which cores are important
         //      - possible duplication of versions for some boards
 
+        versions.mss_axidma        = "7.01.a";
+
         // zed-specific
         versions.mss_cpu_ca9       = "1.01.a";
 
@@ -130,6 +134,9 @@ public class DriverVersions {
 
     private static DriverVersions create14_6() {
         DriverVersions versions = create14_5();
+
+        versions.mss_axidma        = "7.02.a";
+
         return versions;
     }
 }
@@ -16,6 +16,8 @@ public interface SDK {
 
     public MFile getScheduler();
 
+    public MFile getCodec();
+
     public MHSFile getMSS();
 
     public String getLScript();
@@ -1,5 +1,6 @@
 package de.hopp.generator.backends.workflow.ise.sdk;
 
+import static de.hopp.generator.backends.Protocol.generateCodec;
 import static de.hopp.generator.backends.workflow.ise.ISEUtils.sdkAppDir;
 import static de.hopp.generator.backends.workflow.ise.xps.MHSUtils.add;
 import static de.hopp.generator.model.cpp.CPP.*;
@@ -9,12 +10,17 @@ import static de.hopp.generator.utils.CPPUtils.add;
 import static de.hopp.generator.utils.CPPUtils.addLines;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import katja.common.NE;
 import de.hopp.generator.Configuration;
 import de.hopp.generator.ErrorCollection;
+import de.hopp.generator.backends.Protocol;
 import de.hopp.generator.backends.workflow.ise.gpio.GpioComponent;
 import de.hopp.generator.exceptions.ParserError;
 import de.hopp.generator.model.*;
@@ -60,6 +66,7 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
     protected MFile components;
     protected MFile constants;
     protected MFile scheduler;
+    protected MFile codec;
     protected MHSFile mssFile;
     protected String lScript;
 
@@ -71,11 +78,44 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
     protected int axiStreamIdMaster = 0;
     protected int axiStreamIdSlave  = 0;
 
+    /** Number of values reserved in the static storage of input queues so far */
+    protected int inQueueStorage = 0;
+    /** Number of values reserved in the static storage of output queues so far */
+    protected int outQueueStorage = 0;
+
+    /** Flag indicating, that at least one port is attached to a dma engine */
+    protected boolean dma = false;
+    /** Number of dma engines */
+    protected int dmaEngineCount = 0;
+    /** Number of values reserved in the static storage of dma receive buffers so far */
+    protected int dmaStorage = 0;
+    /** Number of descriptors reserved in the static storage of all dma descriptor rings so far */
+    protected int dmaBdStorage = 0;
+
+    /** Flag indicating, that the scheduler is woken by interrupts of the hardware queues */
+    protected boolean interrupts = false;
+
+    /** Flag indicating, that the scheduler regards priorities and weights of the ports */
+    protected boolean weighted = false;
+    /** Priorities of all in-going ports by port id */
+    protected List<Integer> inPriorities  = new ArrayList<Integer>();
+    /** Priorities of all out-going ports by port id */
+    protected List<Integer> outPriorities = new ArrayList<Integer>();
+
     protected int gpiCount = 0;
     protected int gpoCount = 0;
 
     protected final int DHCP_MAX_ATTEMPTS = 10;
 
+    /** Number of stream links of the processor */
+    protected final int STREAM_LINKS = 16;
+    /** Number of descriptors of in-going dma ports (the values of a queue occupy at most two parts of its storage) */
+    protected final int DMA_WRITE_BDS = 2;
+    /** Number of descriptors of out-going dma ports, which end each packet with tlast */
+    protected final int DMA_TLAST_BDS = 4;
+    /** Protocol used for communication with the host-side driver */
+    protected Protocol protocol = Protocol.DEFAULT;
+
     public void generate(BDLFilePos board) {
         visit(board);
     }
@@ -92,6 +132,10 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
         return scheduler;
     }
 
+    public MFile getCodec() {
+        return codec;
+    }
+
     public MHSFile getMSS() {
         return mssFile;
     }
@@ -144,6 +188,7 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
                     MModifiers(PUBLIC()), "SEVERITY_FINEST", "5", MBracketInclude(PUBLIC(), "stdio.h"))
             ),
             MStructs(), MEnums(), MAttributes(), MProcedures(), MClasses());
+        codec      = generateCodec(new File(new File(targetSrc, "medium"), "protocol").getPath());
     }
 
     private void setupMethods() {
@@ -192,7 +237,7 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
 //            MBracketInclude("stdio.h")
 //        );
 
-        addLoggingMacros(debug);
+        addLoggingMacros(debug, isBinaryLog(board));
 
         // FIXME this does NOT regard the maximal protocol size. The size is also ignored within the board-side driver.
         // It is however essential to handle this somehow (maybe that also was the RNG issue with requests above 60k).
@@ -201,7 +246,14 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
                 "Maximal size of out-going software queues.");
 
         // add protocol version constant
-        addConst("PROTO_VERSION", "1", "Denotes protocol version, that should be used for sending messages.");
+        addConst("PROTO_VERSION", String.valueOf(getProtocolVersion(board)),
+                "Denotes protocol version, that should be used for sending messages.");
+        if(Protocol.get(getProtocolVersion(board)) != null) protocol = Protocol.get(getProtocolVersion(board));
+
+        // the scheduler has to know in advance, if ports are attached to dma engines
+        dma = attachDMA(board);
+        interrupts = board.scheduler().code() instanceof INTERRUPTPos;
+        weighted   = hasScheduling(board);
 
         // visit board components
         visit(board.medium());
@@ -213,6 +265,23 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
         // add stream count constants
         addConst("IN_STREAM_COUNT", String.valueOf(axiStreamIdMaster), "Number of in-going stream interfaces.");
         addConst("OUT_STREAM_COUNT", String.valueOf(axiStreamIdSlave), "Number of out-going stream interfaces.");
+        addConst("IN_QUEUE_STORAGE", String.valueOf(Math.max(1, inQueueStorage)),
+            "Number of values in the static storage of all in-going software queues.");
+        addConst("OUT_QUEUE_STORAGE", String.valueOf(Math.max(1, outQueueStorage)),
+            "Number of values in the static storage of all out-going software queues.");
+        if(dma) {
+            addConst("DMA_ENGINE_COUNT", String.valueOf(dmaEngineCount), "Number of dma engines.");
+            addConst("DMA_STORAGE", String.valueOf(Math.max(1, dmaStorage)),
+                "Number of values in the static storage of all dma receive buffers.");
+            addConst("DMA_BD_STORAGE", String.valueOf(Math.max(1, dmaBdStorage)),
+                "Number of descriptors in the static storage of all dma descriptor rings.");
+        }
+
+        // serve the ports by descending priority
+        if(weighted) init = addLines(init, MCode(
+            orderPorts("inOrder", inPriorities).addAll(orderPorts("outOrder", outPriorities)),
+            MQuoteInclude(PRIVATE(), "../io.h")
+        ));
 
         // add gpio count constants
         addConst("gpi_count", String.valueOf(gpiCount), "Number of gpi components");
@@ -231,15 +300,75 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
     protected abstract MProcedure getAxiWrite();
     protected abstract MProcedure getAxiRead();
 
-    /* Log everything up to value, skip afterwards */
-    private void addLoggingMacros(int value) {
+    /**
+     * Returns the interrupt id of the interrupt signal of a hardware queue.
+     * This has to correspond to the interrupt controller of the .mhs generator of the board.
+     * @param irq Identifier of the interrupt signal.
+     * @return Name of the constant holding the interrupt id at the interrupt controller.
+     */
+    protected abstract String getQueueInterrupt(String irq);
+
+    /**
+     * Checks, if a cpu port binding is attached to a dma engine instead of the processor.
+     * This has to correspond to the decision of the .mhs generator of the board.
+     * @param axis A cpu binding.
+     * @return true, if values of the port are transferred by a dma engine, false otherwise.
+     */
+    protected boolean attachDMA(CPUAxisPos axis) {
+        return isDMA(axis);
+    }
+
+    /**
+     * Checks, if any cpu port binding of a board is attached to a dma engine.
+     * @param board The complete board description.
+     * @return true, if at least one port uses a dma engine, false otherwise.
+     */
+    protected boolean attachDMA(BDLFilePos board) {
+        return hasDMA(board);
+    }
+
+    /**
+     * Generates the initialisation of an order array, which lists ports by descending priority.
+     * Ports of equal priority are served in the order of their ids.
+     * @param array Name of the array.
+     * @param priorities Priorities of all ports by port id.
+     * @return Assignments of all elements of the array.
+     */
+    private static Strings orderPorts(String array, final List<Integer> priorities) {
+        List<Integer> pids = new ArrayList<Integer>();
+        for(int pid = 0; pid < priorities.size(); pid++) pids.add(pid);
+
+        // the sort is stable, so ports of equal priority remain in order
+        Collections.sort(pids, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return priorities.get(b).compareTo(priorities.get(a));
+            }
+        });
+
+        Strings lines = Strings();
+        for(int n = 0; n < pids.size(); n++) lines = lines.add(array + "[" + n + "] = " + pids.get(n) + ";");
+        return lines;
+    }
+
+    /**
+     * Adds a logging macro for each severity. Macros of severities above the chosen one expand to nothing,
+     * so that their calls and arguments are removed by the compiler.
+     * With a binary log, the format strings of all calls have been replaced by call site ids
+     * (see LogFormats), so that the remaining macros send binary records to the host instead of printing.
+     */
+    private void addLoggingMacros(int value, boolean binary) {
         final String[] name   = { "error", "warn", "info", "fine", "finer", "finest" };
         final String[] plural = { "errors", "warnings", "info messages", "fine info messages",
                   "finer info messages", "finest info messages" };
 
         for(int i = 0; i <= value; i++)
             // TODO do this too, using the debug enum
-            addConst("log_"+name[i]+"(...)",
+            if(binary) addConst("log_"+name[i]+"(...)",
+                "send_log(SEVERITY_" + name[i].toUpperCase() + ", __VA_ARGS__)",
+                "With the chosen debug level, "+plural[i]+
+                " will be sent to the host driver as binary records.",
+                MForwardDecl(PUBLIC(), "void send_log(unsigned char severity, unsigned int id, unsigned int argc, ...)"));
+            else addConst("log_"+name[i]+"(...)",
                 // TODO this is currently very annoying,
                 // since it tries to send debug messages despite no open connection,
                 // spams connection errors and timeouts icmp messages...
@@ -247,7 +376,7 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
                 "xil_printf(\"\\n\"); xil_printf(__VA_ARGS__)",
                 "With the chosen debug level, "+plural[i]+
                 " will be reported to the host driver over Ethernet.",
-                MForwardDecl(PRIVATE(), "void send_debug(unsigned char type, const char *format, ...)"));
+                MForwardDecl(PRIVATE(), "void send_debug(unsigned int type, const char *format, ...)"));
         for(int i = value+1; i < name.length; i++)
             addConst("log_"+name[i]+"(...)", "",
                 "With the chosen debug level, "+plural[i]+
@@ -280,6 +409,9 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
                 public String CaseTOUTPos(TOUTPos term) {
                     return null;
                 }
+                public String CasePROTOCOLPos(PROTOCOLPos term) {
+                    return null;
+                }
                 public String CaseDHCPPos(DHCPPos term) {
                     // set dhcp flag
                     addConst("DHCP", "1", "DHCP flag");
@@ -293,6 +425,9 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
             });
         addConst("TIMEOUT", String.valueOf(getTimeout(term)), "Reception timeout for an attempt to free memory.");
 
+        // received packets raise an interrupt, so the interrupt-driven scheduler may sleep while idle
+        if(interrupts) addConst("MEDIUM_IRQ", "1", "Indicates, that the medium signals received messages by an interrupt.");
+
         // add Ethernet driver and lwip library to bsp
         mssFile = add(mssFile, getEthernetDriver(term));
     }
@@ -382,6 +517,10 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
                             "send_gpio(gpi_" + gpio.id() + ", gpio_read(gpi_" + gpio.id() + "));"
                         );
                     }
+                    public Strings CaseINTERRUPT(INTERRUPT term) {
+                        // only occurs at the scheduler, so treat it like the default callback
+                        return CaseDEFAULT(BDL.DEFAULT());
+                    }
                     public Strings CaseUSER_DEFINED(USER_DEFINED term) {
                         return Strings(
                             "// user-defined callback code"
@@ -399,7 +538,7 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
         body = body.replaceNeeded(MIncludes(
             MForwardDecl(PRIVATE(), "int gpio_read(int target)"),
             MForwardDecl(PRIVATE(), "int gpio_write(int target, int val)"),
-            MForwardDecl(PRIVATE(), "void send_gpio(unsigned char gid, unsigned char val)")
+            MForwardDecl(PRIVATE(), "void send_gpio(unsigned int gid, unsigned char val)")
         ));
 
         return MProcedure(MDocumentation(Strings(
@@ -495,6 +634,17 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
             MHS.Attribute(MHS.PARAMETER(), MHS.Assignment("HW_INSTANCE", MHS.Ident(axisGroup + "_mux")))
         ));
 
+        if(attachDMA(axis)) {
+            deployFiles.put(new File("deploy/board/generic/sdk/dma.h"), new File(targetSrc, "components/dma.h"));
+            deployFiles.put(new File("deploy/board/generic/sdk/dma.c"), new File(targetSrc, "components/dma.c"));
+
+            mssFile = add(mssFile, MHS.Block("DRIVER",
+                MHS.Attribute(MHS.PARAMETER(), MHS.Assignment("DRIVER_NAME", MHS.Ident("axidma"))),
+                MHS.Attribute(MHS.PARAMETER(), MHS.Assignment("DRIVER_VER", MHS.Ident(versions.mss_axidma))),
+                MHS.Attribute(MHS.PARAMETER(), MHS.Assignment("HW_INSTANCE", MHS.Ident(axisGroup + "_dma")))
+            ));
+        }
+
         port.direction().termDirection().Switch(new Direction.Switch<Boolean, NE>() {
             public Boolean CaseIN(IN term) {
                 addWriteStream(axis); return null;
@@ -508,30 +658,72 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
         });
     }
 
-    private void addWriteStream(CPUAxisPos axis) {
-        if(axiStreamIdMaster>15) {
-            errors.addError(new ParserError("too many writing AXI stream interfaces for Virtex6", "", -1));
-            return;
+    /**
+     * Checks, if a stream interface can be identified by the protocol and attached to the processor.
+     * Port ids are limited by the id field of the protocol, while ports attached to the processor
+     * use the stream link with the same id, so that their ids are limited by the number of links.
+     * Ports attached to a dma engine do not use a stream link.
+     * @param axis The stream interface.
+     * @param id Port id of the stream interface.
+     * @param kind "writing" or "reading", used in the error message.
+     * @return true, if the interface can be generated, false otherwise.
+     */
+    private boolean checkStreamId(CPUAxisPos axis, int id, String kind) {
+        if(id > protocol.maxId()) {
+            errors.addError(new ParserError("too many " + kind + " AXI stream interfaces for protocol version " +
+                protocol.version() + " (at most " + (protocol.maxId() + 1) + ")", "", -1));
+            return false;
+        }
+        if(id >= STREAM_LINKS && !attachDMA(axis)) {
+            errors.addError(new ParserError("too many " + kind + " AXI stream interfaces attached to the processor (at most " +
+                STREAM_LINKS + " stream links)", "", -1));
+            return false;
         }
+        return true;
+    }
+
+    private void addWriteStream(CPUAxisPos axis) {
+        if(!checkStreamId(axis, axiStreamIdMaster, "writing")) return;
 
+        // reserve a contiguous part of the static queue storage
+        int size = getSWQueueSize32(axis);
         init = addLines(init, MCode(
-            Strings("inQueue[" + axiStreamIdMaster + "] = createQueue(" + getSWQueueSize32(axis) + ");"),
+            Strings("init_queue(" + axiStreamIdMaster + ", " + inQueueStorage + ", " + size + ");"),
             MQuoteInclude(PRIVATE(), "../io.h")
         ));
-        axiStreamIdMaster++;
-    }
+        inQueueStorage += size;
 
-    private void addReadStream(CPUAxisPos axis) {
-        if(axiStreamIdSlave>15) {
-            errors.addError(new ParserError("too many reading AXI stream interfaces for Virtex6", "", -1));
-            return;
+        // set the scheduling parameters of the port. Without weight, the port may drain its queue
+        if(weighted) init = addLines(init, MCode(Strings(
+                "inPriority[" + axiStreamIdMaster + "] = " + getPriority(axis) + ";",
+                "inQuantum["  + axiStreamIdMaster + "] = " + (getQuantum32(axis) > 0 ? getQuantum32(axis) : size) + ";"
+            ), MQuoteInclude(PRIVATE(), "../io.h")
+        ));
+        inPriorities.add(getPriority(axis));
+
+        // the dma engine reads directly from the queue
+        if(attachDMA(axis)) {
+            init = addLines(init, MCode(
+                Strings("init_dma_write(" + axiStreamIdMaster + ", " + dmaEngineCount++ + ", " +
+                    "XPAR_M" + axiStreamIdMaster + "_DMA_DEVICE_ID, " + dmaBdStorage + ");"),
+                MQuoteInclude(PRIVATE(), "dma.h"), MQuoteInclude(PRIVATE(), "xparameters.h")
+            ));
+            dmaBdStorage += DMA_WRITE_BDS;
         }
 
-        init = addLines(init, MCode(
-            Strings("outQueueCap[" + axiStreamIdSlave + "] = " + getSWQueueSize32(axis) + ";"),
-            MQuoteInclude(PRIVATE(), "../io.h")
+        // the hardware queue wakes the scheduler, if at least half of it is free
+        else if(interrupts && getHWQueueSize(axis) > 0) init = addLines(init, MCode(
+            Strings("init_port_irq(" + axiStreamIdMaster + ", 0, " +
+                getQueueInterrupt("M" + axiStreamIdMaster + "_QUEUE_IRQ") + ");"),
+            MQuoteInclude(PRIVATE(), "port_irq.h"), MQuoteInclude(PRIVATE(), "xparameters.h")
         ));
 
+        axiStreamIdMaster++;
+    }
+
+    private void addReadStream(CPUAxisPos axis) {
+        if(!checkStreamId(axis, axiStreamIdSlave, "reading")) return;
+
         init = addLines(init, MCode(
             Strings("isPolling[" + axiStreamIdSlave + "] = " + (isPolling(axis) ? 1 : 0) + ";"),
             MQuoteInclude(PRIVATE(), "../io.h")
@@ -542,6 +734,64 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
             MQuoteInclude(PRIVATE(), "../io.h")
         ));
 
+        // ports attached to the processor collect values in a contiguous part of the static queue storage,
+        // which holds two queues, so that one of them can be filled while the other one is sent
+        if(!attachDMA(axis)) {
+            int size = getSWQueueSize32(axis);
+            init = addLines(init, MCode(
+                Strings("init_out_queue(" + axiStreamIdSlave + ", " + outQueueStorage + ", " + size + ");"),
+                MQuoteInclude(PRIVATE(), "../io.h")
+            ));
+            outQueueStorage += 2 * size;
+
+            // set the scheduling parameters of the port. Without weight, the port may fill its queue
+            if(weighted) init = addLines(init, MCode(Strings(
+                    "outPriority[" + axiStreamIdSlave + "] = " + getPriority(axis) + ";",
+                    "outQuantum["  + axiStreamIdSlave + "] = " + (getQuantum32(axis) > 0 ? getQuantum32(axis) : size) + ";"
+                ), MQuoteInclude(PRIVATE(), "../io.h")
+            ));
+
+            // the hardware queue wakes the scheduler, if it holds values
+            if(interrupts && getHWQueueSize(axis) > 0) init = addLines(init, MCode(
+                Strings("init_port_irq(" + axiStreamIdSlave + ", 1, " +
+                    getQueueInterrupt("S" + axiStreamIdSlave + "_QUEUE_IRQ") + ");"),
+                MQuoteInclude(PRIVATE(), "port_irq.h"), MQuoteInclude(PRIVATE(), "xparameters.h")
+            ));
+
+            // set the flush policy of the port, if specified
+            if(getBatchSize32(axis) > 0) init = addLines(init, MCode(
+                Strings("outBatch[" + axiStreamIdSlave + "] = " + getBatchSize32(axis) + ";"),
+                MQuoteInclude(PRIVATE(), "../io.h")
+            ));
+            if(getLatency(axis) > 0) init = addLines(init, MCode(
+                Strings("outLatency[" + axiStreamIdSlave + "] = " + getLatency(axis) + ";"),
+                MQuoteInclude(PRIVATE(), "../io.h")
+            ));
+            if(isTlast(axis)) init = addLines(init, MCode(
+                Strings("outTlast[" + axiStreamIdSlave + "] = 1;"),
+                MQuoteInclude(PRIVATE(), "../io.h")
+            ));
+        }
+
+        // the dma engine writes to a receive buffer in a contiguous part of the static storage.
+        // A descriptor is only completed, if it has been filled or the core signalled tlast. Unless the core
+        // is known to signal tlast, each descriptor therefore receives a single value, so that no value remains
+        // in a partially filled descriptor, and the ring holds a descriptor for each value of the software queue.
+        if(attachDMA(axis)) {
+            int size  = getSWQueueSize32(axis);
+            int count = isTlast(axis) ? Math.min(size, DMA_TLAST_BDS) : size;
+            int chunk = count > 0 ? size / count : 0;
+            init = addLines(init, MCode(
+                Strings("init_dma_read(" + axiStreamIdSlave + ", " + dmaEngineCount++ + ", " +
+                    "XPAR_S" + axiStreamIdSlave + "_DMA_DEVICE_ID, " + dmaBdStorage + ", " + dmaStorage + ", " +
+                    count + ", " + chunk + ");"),
+                MQuoteInclude(PRIVATE(), "dma.h"), MQuoteInclude(PRIVATE(), "xparameters.h")
+            ));
+            dmaBdStorage += count;
+            dmaStorage   += count * chunk;
+        }
+
+        outPriorities.add(getPriority(axis));
         axiStreamIdSlave++;
     }
 
@@ -568,85 +818,96 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
                         "The scheduling loop performs the following actions in each iteration:",
                         " - read and process messages from the medium",
                         " - write values from Microblaze input queue to hardware input queue for each input stream",
-                        " - write values from hardware output queue to the medium (caches several values before sending)"
+                        " - write values from hardware output queue to the medium (caches several values before sending)",
+                        "Each out-going port fills one of its two software queues, while the other one is sent."
                     )), MModifiers(), MVoid(), "schedule", MParameters(), defaultScheduler()
                 )
             )
          );
-        else scheduler = MFile(MDocumentation(Strings()
-            ), "scheduler", targetSrc.getPath(), MPreProcDirs(), MStructs(), MEnums(), MAttributes(), MProcedures(
-                MProcedure(
-                    MDocumentation(Strings()), MModifiers(), MVoid(), "schedule", MParameters(), MCode(
-                        Strings().addAll(((USER_DEFINED)term.code().term()).content()),
-                        MQuoteInclude(PRIVATE(), "constants.h"),
-                        MQuoteInclude(PRIVATE(), "queueUntyped.h"),
-                        MQuoteInclude(PRIVATE(), "io.h"),
-                        MForwardDecl(PRIVATE(), "int medium_read()"),
-                        MForwardDecl(PRIVATE(), "int axi_write ( int val, int target )"),
-                        MForwardDecl(PRIVATE(), "int axi_read ( int *val, int target )")
+        else if(term.code() instanceof INTERRUPTPos) {
+            deployFiles.put(new File("deploy/board/generic/sdk/port_irq.h"), new File(targetSrc, "components/port_irq.h"));
+            deployFiles.put(new File("deploy/board/generic/sdk/port_irq.c"), new File(targetSrc, "components/port_irq.c"));
+
+            scheduler = MFile(MDocumentation(Strings(
+                    "An interrupt-driven scheduler.",
+                    "Like the primitive scheduler, but ports are only served, if their hardware queue",
+                    "signalled values to read or space to write by an interrupt."
+                )), "scheduler", targetSrc.getPath(), MPreProcDirs(), MStructs(), MEnums(), MAttributes(), MProcedures(
+                    MProcedure(
+                        MDocumentation(Strings(
+                            "Starts the scheduling loop.",
+                            "The scheduling loop performs the following actions in each iteration:",
+                            " - read and process messages from the medium",
+                            " - write values from Microblaze input queue to hardware input queue for each input stream,",
+                            "   which is not waiting for space in its hardware queue",
+                            " - write values from hardware output queue to the medium for each output stream,",
+                            "   which is not waiting for values in its hardware queue",
+                            "A port waits for the interrupt of its hardware queue, if the queue ran full (or empty).",
+                            "Ports without hardware queue or attached to a dma engine are served in every iteration.",
+                            "If an iteration did not move any value, schedule_idle is called."
+                        )), MModifiers(), MVoid(), "schedule", MParameters(), defaultScheduler()
                     )
                 )
-            )
-        );
+            );
+        } else {
+            MCode code = MCode(
+                Strings().addAll(((USER_DEFINED)term.code().term()).content()),
+                MQuoteInclude(PRIVATE(), "constants.h"),
+                MQuoteInclude(PRIVATE(), "queueUntyped.h"),
+                MQuoteInclude(PRIVATE(), "io.h"),
+                MForwardDecl(PRIVATE(), "int medium_read()"),
+                MForwardDecl(PRIVATE(), "int axi_write ( int val, int target )"),
+                MForwardDecl(PRIVATE(), "int axi_read ( int *val, int target )")
+            );
+
+            // user-defined schedulers are responsible for ports attached to dma engines as well
+            if(dma) code = code.replaceNeeded(code.needed().add(MQuoteInclude(PRIVATE(), "components/dma.h")));
+
+            scheduler = MFile(MDocumentation(Strings()
+                ), "scheduler", targetSrc.getPath(), MPreProcDirs(), MStructs(), MEnums(), MAttributes(), MProcedures(
+                    MProcedure(
+                        MDocumentation(Strings()), MModifiers(), MVoid(), "schedule", MParameters(), code
+                    )
+                )
+            );
+        }
     }
 
+    /**
+     * Generates the scheduling loop of the default and the interrupt-driven scheduler.
+     * The interrupt-driven scheduler skips ports waiting for the interrupt of their hardware queue.
+     * If any port has a priority or weight, ports are served by descending priority and each port
+     * moves at most its quantum per iteration. Ports below a port, which used its complete quantum,
+     * are skipped for the rest of the iteration.
+     */
     private MCode defaultScheduler() {
-        return MCode(
-            Strings(
-                "unsigned int pid;",
-                "unsigned int i;",
-                "",
-                "while(1) {",
-                "    // receive all available packages from the interface",
-                "    // esp stores data packages in sw queue",
-                "    while(medium_read()) { }",
-                "    ",
-                "    // write data from sw queue to hw queue (if possible)",
-                "    for(pid = 0; pid < IN_STREAM_COUNT; pid++) {",
-                "        for(i = 0; i < inQueue[pid]->cap; i++) {",
-                "            // go to next port if the sw queue is empty",
-                "            if(inQueue[pid]->size == 0) break;",
-                "            ",
-                "            // try to write, skip if the hw queue is full",
-                "            if(axi_write(peek(inQueue[pid]), pid)) {",
-                "                  log_fine(\"failed to write to AXI stream\");",
-                "                break;",
-                "            }",
-                "            ",
-                "            // remove the read value from the queue",
-                "            take(inQueue[pid]);",
-                "            ",
-                "            // if the queue was full beforehand, poll",
-                "            if(inQueue[pid]->size == inQueue[pid]->cap - 1) send_poll(pid);",
-                "        }",
-                "    }",
-                "    ",
-                "    // read data from hw queue (if available) and cache in sw queue",
-                "    // flush sw queue, if it's full or the hw queue is empty",
-                "    for(pid = 0; pid < OUT_STREAM_COUNT; pid++) {",
-                "        for(i = 0; i < outQueueCap[pid] && ((!isPolling[pid]) || pollCount[pid] > 0); i++) {",
-//                "            int val = 0;",
-//                "            ",
-                "            // try to read, break if if fails",
-                "            if(axi_read(&outQueue[outQueueSize], pid)) break;",
-                "            ",
-                "            // otherwise increment the queue size counter",
-//                "            outQueue[outQueueSize] = val;",
-                "            outQueueSize++;",
-                "            ",
-                "            // decrement the poll counter (if the port was polling)",
-                "            if(isPolling[pid]) pollCount[pid]--;",
-                "        }",
-                "        // flush sw queue",
-                "        if(flush_queue(pid)) {",
-                "            // in this case, sending failed. Terminate (reasons have already been printed)",
-                "            xil_printf(\"\\nterminating...\");",
-                "            return;",
-                "        }",
-                "        outQueueSize = 0;",
-                "    }",
-                "}"
-            ),
+        Strings lines = Strings(
+            "unsigned int pid;",
+            "unsigned int i;");
+        if(weighted)   lines = lines.add("unsigned int n, level;");
+        if(interrupts) lines = lines.add("int busy;");
+
+        lines = lines.addAll(Strings(
+            "",
+            "while(1) {",
+            "    // receive all available packages from the interface",
+            "    // esp stores data packages in sw queue"));
+        if(interrupts) lines = lines.add("    for(busy = 0; medium_read(); busy = 1) { }");
+        else           lines = lines.add("    while(medium_read()) { }");
+        lines = lines.add("    ");
+
+        lines = lines.addAll(scheduleInPorts());
+        lines = lines.add("    ");
+        lines = lines.addAll(scheduleOutPorts());
+
+        lines = lines.addAll(Strings(
+            "    ",
+            "    // send the credits returned during this iteration in a single message",
+            "    flush_acks();"));
+        lines = lines.addAll(scheduleIdle());
+        lines = lines.add("}");
+
+        MCode code = MCode(lines,
             MQuoteInclude(PRIVATE(), "constants.h"),
             MQuoteInclude(PRIVATE(), "queueUntyped.h"),
             MQuoteInclude(PRIVATE(), "io.h"),
@@ -654,10 +915,176 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
             MForwardDecl(PRIVATE(), "int axi_write ( int val, int target )"),
             MForwardDecl(PRIVATE(), "int axi_read ( int *val, int target )")
         );
+
+        if(dma) code = code.replaceNeeded(code.needed().add(MQuoteInclude(PRIVATE(), "components/dma.h")));
+        if(interrupts) code = code.replaceNeeded(code.needed().add(MQuoteInclude(PRIVATE(), "components/port_irq.h")));
+        return code;
+    }
+
+    /**
+     * Generates the part of the scheduling loop, which moves values from the software queues
+     * of all in-going ports to their hardware queues or dma engines and returns credits.
+     */
+    private Strings scheduleInPorts() {
+        Strings lines = Strings("    // write data from sw queue to hw queue (if possible)");
+        if(weighted) {
+            lines = lines.addAll(Strings(
+                "    // serve ports by descending priority, skip ports below a port, which used its complete quantum",
+                "    for(n = 0, level = 0; n < IN_STREAM_COUNT; n++) {",
+                "        pid = inOrder[n];",
+                "        if(inPriority[pid] < level) continue;"));
+            if(dma || interrupts) lines = lines.add("        i = 0;");
+            lines = lines.add("        ");
+        } else lines = lines.add("    for(pid = 0; pid < IN_STREAM_COUNT; pid++) {");
+
+        // ports attached to a dma engine skip the loop writing to the hw queue
+        String loop = "for(i = 0; i < " + (weighted ? "inQuantum[pid]" : "inQueue[pid]->cap") + "; i++) {";
+        if(interrupts) loop = "if(!port_waiting(pid, 0)) " + loop;
+        if(dma) {
+            lines = lines.addAll(Strings(
+                "        // ports attached to a dma engine hand the complete queue to the engine,",
+                "        // values leave the queue as soon as the transfer is completed",
+                "        if(inDMA[pid]) inCredits[pid] += dma_write(pid);"));
+            loop = "else " + loop;
+        }
+        if(interrupts) lines = lines.add("        // skip the port, if it waits for space in its hw queue");
+
+        lines = lines.addAll(Strings(
+            "        " + loop,
+            "            // go to next port if the sw queue is empty",
+            "            if(inQueue[pid]->size == 0) break;",
+            "            ",
+            "            // try to write, skip if the hw queue is full",
+            "            if(axi_write(peek(inQueue[pid]), pid)) {",
+            "                  log_fine(\"failed to write to AXI stream\");"));
+        if(interrupts) lines = lines.addAll(Strings(
+            "                // wait until half of the hw queue is free",
+            "                arm_port_irq(pid, 0);"));
+        lines = lines.addAll(Strings(
+            "                break;",
+            "            }",
+            "            ",
+            "            // remove the read value from the queue, freeing a slot for the host",
+            "            take_value(pid);"));
+        if(interrupts) lines = lines.add("            busy = 1;");
+        lines = lines.addAll(Strings(
+            "        }",
+            "        "));
+
+        if(weighted) lines = lines.addAll(Strings(
+            "        // ports of lower priority have to wait, if the port used its complete quantum",
+            "        if(i == inQuantum[pid] && inQueue[pid]->size > 0) level = inPriority[pid];",
+            "        "));
+        return lines.addAll(Strings(
+            "        // return credits, if a quarter of the queue has been freed or the queue ran empty",
+            "        if(inCredits[pid] >= inQueue[pid]->cap / 4 || inQueue[pid]->size == 0) send_credits(pid);",
+            "    }"));
+    }
+
+    /**
+     * Generates the part of the scheduling loop, which moves values from the hardware queues
+     * of all out-going ports to their software queues and forwards completed dma transfers.
+     */
+    private Strings scheduleOutPorts() {
+        Strings lines = Strings(
+            "    // read data from hw queue (if available) and cache in sw queue",
+            "    // flush sw queue according to the flush policy of the port");
+        if(weighted) lines = lines.addAll(Strings(
+            "    for(n = 0, level = 0; n < OUT_STREAM_COUNT; n++) {",
+            "        pid = outOrder[n];",
+            "        i = 0;",
+            "        "));
+        else lines = lines.add("    for(pid = 0; pid < OUT_STREAM_COUNT; pid++) {");
+
+        if(dma) lines = lines.addAll(Strings(
+            "        // ports attached to a dma engine forward completed transfers on their own",
+            "        if(outDMA[pid]) {",
+            "            if(dma_read(pid)) {",
+            "                xil_printf(\"\\nterminating...\");",
+            "                return;",
+            "            }",
+            "            continue;",
+            "        }"));
+        lines = lines.addAll(Strings(
+            "        // skip the port, if both of its sw queues are still being sent",
+            "        if(!out_queue_ready(pid)) continue;",
+            "        "));
+
+        // the loop reading from the hw queue is skipped for ports below the current level
+        // and ports waiting for values in their hw queue
+        String guard = "";
+        if(weighted) {
+            lines = lines.add("        // skip reading, if a port of higher priority used its complete quantum");
+            guard = "outPriority[pid] >= level";
+        }
+        if(interrupts) {
+            lines = lines.add("        // skip reading, if the port waits for values in its hw queue");
+            guard = (weighted ? guard + " && " : "") + "!port_waiting(pid, 1)";
+        }
+        lines = lines.add("        " + (weighted || interrupts ? "if(" + guard + ") " : "") +
+            "while(" + (weighted ? "i < outQuantum[pid] && " : "") +
+            "outQueueSize[pid] < outQueueCap[pid] && ((!isPolling[pid]) || pollCount[pid] > 0)) {");
+
+        if(interrupts) lines = lines.addAll(Strings(
+            "            // try to read, wait for the hw queue if it fails",
+            "            if(axi_read(&outQueue[pid][outQueueSize[pid]], pid)) {",
+            "                arm_port_irq(pid, 1);",
+            "                break;",
+            "            }"));
+        else lines = lines.addAll(Strings(
+            "            // try to read, break if if fails",
+            "            if(axi_read(&outQueue[pid][outQueueSize[pid]], pid)) break;"));
+        lines = lines.addAll(Strings(
+            "            ",
+            "            // otherwise increment the queue size counter",
+            "            outQueueSize[pid]++;"));
+        if(weighted)   lines = lines.add("            i++;");
+        if(interrupts) lines = lines.add("            busy = 1;");
+        lines = lines.addAll(Strings(
+            "            ",
+            "            // decrement the poll counter (if the port was polling)",
+            "            if(isPolling[pid]) pollCount[pid]--;",
+            "            ",
+            "            // stop at the end of a packet, if the port is flushed then",
+            "            if(outTlast[pid] && outLast[pid]) break;",
+            "        }"));
+
+        if(weighted) lines = lines.addAll(Strings(
+            "        // ports of lower priority have to wait, if the port used its complete quantum",
+            "        if(i == outQuantum[pid]) level = outPriority[pid];"));
+        return lines.addAll(scheduleFlush()).add("    }");
+    }
+
+    /**
+     * Generates the part of the scheduling loop, which sends the software queue of an out-going port,
+     * if its flush policy is met.
+     */
+    private Strings scheduleFlush() {
+        return Strings(
+            "        // flush sw queue, if its flush policy is met",
+            "        if(flush_due(pid) && flush_queue(pid)) {",
+            "            // in this case, sending failed. Terminate (reasons have already been printed)",
+            "            xil_printf(\"\\nterminating...\");",
+            "            return;",
+            "        }");
+    }
+
+    /**
+     * Generates the end of an iteration of the interrupt-driven scheduler,
+     * which waits for the next interrupt, if the iteration did not move any value.
+     */
+    private Strings scheduleIdle() {
+        if(!interrupts) return Strings();
+
+        return Strings(
+            "    ",
+            "    // nothing to do until the next interrupt or message",
+            "    if(!busy) schedule_idle();");
     }
 
     // code blocks (handled directly when occurring)
     public void visit(DEFAULTPos term)      { }
+    public void visit(INTERRUPTPos term)    { }
     public void visit(USER_DEFINEDPos term) { }
 
     // missing declaration
@@ -668,11 +1095,19 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
     public void visit(SWQUEUEPos  arg0) { }
     public void visit(BITWIDTHPos term) { }
     public void visit(POLLPos     term) { }
+    public void visit(DATATYPEPos term) { }
+    public void visit(DMAPos      term) { }
+    public void visit(BATCHPos    term) { }
+    public void visit(LATENCYPos  term) { }
+    public void visit(TLASTPos    term) { }
+    public void visit(PRIORITYPos term) { }
+    public void visit(WEIGHTPos   term) { }
 
     // logger options
     public void visit(LogsPos     term) { }
     public void visit(CONSOLEPos  term) { }
     public void visit(FILEPos     term) { }
+    public void visit(BINARYPos   term) { }
 
     public void visit(ERRORPos   term) { }
     public void visit(WARNPos    term) { }
@@ -689,6 +1124,7 @@ public abstract class SDKGenerator extends Visitor<NE> implements SDK {
     public void visit(TOUTPos   term) { }
     public void visit(DHCPPos   term) { }
     public void visit(PORTIDPos term) { }
+    public void visit(PROTOCOLPos term) { }
 
     // cores
     // we do not need to visit cores here, since a class will be created
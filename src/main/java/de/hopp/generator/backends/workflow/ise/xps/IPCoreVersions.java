@@ -21,6 +21,7 @@ public class IPCoreVersions {
     public String axi_interconnect;
 
     public String axi_cdma;
+    public String axi_dma;
     public String axi_fifo;
     public String axi_timer;
     public String axi_v6_ddrx;
@@ -50,6 +51,7 @@ public class IPCoreVersions {
 
         versions.microblaze        = "8.30.a";
 
+        versions.axi_dma           = "6.00.a";
         versions.axi_intc          = "1.02.a";
         versions.axi_interconnect  = "1.06.a";
         versions.axi_timer         = "1.03.a";
@@ -94,6 +96,7 @@ public class IPCoreVersions {
 
         versions.axi_intc          = "1.03.a";
         versions.axi_cdma          = "3.04.a";
+        versions.axi_dma           = "6.03.a";
         versions.axi_fifo          = "3.00.a";
         versions.axi_v6_ddrx       = "1.06.a";
         versions.lmb_bram_if_cntlr = "3.10.c";
@@ -1,5 +1,6 @@
 package de.hopp.generator.backends.workflow.ise.xps;
 
+import static de.hopp.generator.backends.BackendUtils.unparse;
 import static de.hopp.generator.backends.workflow.ise.xps.MHSUtils.add;
 import static de.hopp.generator.model.mhs.MHS.*;
 import static de.hopp.generator.utils.BoardUtils.getWidth;
@@ -21,7 +22,6 @@ import de.hopp.generator.model.*;
 import de.hopp.generator.model.mhs.Attributes;
 import de.hopp.generator.model.mhs.Block;
 import de.hopp.generator.model.mhs.MHSFile;
-import de.hopp.generator.model.unparser.MHSUnparser;
 /**
  * Handles generation and deployment of files required to describe
  * user-specified IPCores for the XPS synthesis tool.
@@ -53,8 +53,6 @@ public class IPCores {
 
         boolean newFiles = false;
 
-        File coresDir = new File(ISEUtils.edkDir(config), "pcores");
-
         MHSFile mpdContent;      // content for target mpd file
         String  paoContent = ""; // content for target pao file
         String  bbdContent = "Files\n"; // content for target bdd file
@@ -69,7 +67,7 @@ public class IPCores {
         // required directories
         File projectDataDir = new File("data");
 
-        File coreDir        = new File(coresDir, fullCoreName);
+        File coreDir        = coreDir(core, config);
         File coreDataDir    = new File(coreDir, "data");
         File coreVHDLDir    = new File(new File(coreDir, "hdl"), "vhdl");
         File coreVerilogDir = new File(new File(coreDir, "hdl"), "verilog");
@@ -116,10 +114,7 @@ public class IPCores {
 
         // deploy mpd file
         File target = new File(coreDataDir, name + "_v2_1_0" + ".mpd");
-        StringBuffer buffer = new StringBuffer();
-        MHSUnparser mhsUnparser = new MHSUnparser(buffer);
-        mhsUnparser.visit(mpdContent);
-        newFiles = deployContent(buffer, target, config.IOHANDLER()) || newFiles;
+        newFiles = deployContent(unparse(mpdContent), target, config.IOHANDLER()) || newFiles;
 
         // deploy sources
         for(Entry<File, File> entry : deploySources.entrySet()) {
@@ -136,6 +131,17 @@ public class IPCores {
         return newFiles;
     }
 
+    /**
+     * Returns the pcore directory of an IPCore, containing all files deployed for the core.
+     * @param core The core.
+     * @param config Configuration of this run, containing required directories.
+     * @return The pcore directory of the core.
+     */
+    public static File coreDir(Core core, Configuration config) {
+        return new File(new File(ISEUtils.edkDir(config), "pcores"),
+            core.name() + "_v" + core.version().replace('.', '_'));
+    }
+
     /**
      * Translates the direction attribute of the port in a boolean value.
      * @param direction Direction attribute of the port.
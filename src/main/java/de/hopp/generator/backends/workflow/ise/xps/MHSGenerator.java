@@ -7,6 +7,11 @@ import static de.hopp.generator.utils.BoardUtils.getCore;
 import static de.hopp.generator.utils.BoardUtils.getDirection;
 import static de.hopp.generator.utils.BoardUtils.getHWQueueSize;
 import static de.hopp.generator.utils.BoardUtils.getWidth;
+import static de.hopp.generator.utils.BoardUtils.isDMA;
+
+import java.util.HashSet;
+import java.util.Set;
+
 import katja.common.NE;
 import de.hopp.generator.ErrorCollection;
 import de.hopp.generator.backends.Memory;
@@ -57,6 +62,14 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
 
     protected AndExp intrCntrlPorts = AndExp();
 
+    // memory-mapped masters of dma engines, which require access to the memory of the processor
+    protected AndExp dmaMasters = AndExp();
+    // axis groups attached to a dma engine instead of the processor
+    protected Set<String> dmaGroups = new HashSet<String>();
+
+    // flag indicating, that the scheduler is woken by interrupts of the hardware queues
+    protected boolean interrupts = false;
+
     // note, that the ISEBoard and IPCoreVersions may depend on the ISE versions.
     // a corresponding board / version pack must be selected in the actual mhs instances
     public MHSGenerator(ISEBoard board, IPCoreVersions versions, ErrorCollection errors) {
@@ -74,6 +87,9 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
         axiStreamIdMaster = 0;
         axiStreamIdSlave  = 0;
 
+        dmaMasters = AndExp();
+        dmaGroups.clear();
+
         // visit the provided bdl file
         visit(file);
 
@@ -88,6 +104,8 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
             else if(opt instanceof SWQUEUEPos)
                 globalSWQueueSize = ((SWQUEUEPos)opt).qsize().term();
 
+        interrupts = term.scheduler().code() instanceof INTERRUPTPos;
+
         // visit boards components
         visit(term.gpios());
         visit(term.insts());
@@ -210,11 +228,19 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
     public void visit(SWQUEUEPos  arg0) { }
     public void visit(BITWIDTHPos term) { }
     public void visit(POLLPos     term) { }
+    public void visit(DATATYPEPos term) { }
+    public void visit(DMAPos      term) { }
+    public void visit(BATCHPos    term) { }
+    public void visit(LATENCYPos  term) { }
+    public void visit(TLASTPos    term) { }
+    public void visit(PRIORITYPos term) { }
+    public void visit(WEIGHTPos   term) { }
 
     // logger options
     public void visit(LogsPos    term) { }
     public void visit(CONSOLEPos term) { }
     public void visit(FILEPos    term) { }
+    public void visit(BINARYPos  term) { }
 
     public void visit(ERRORPos   term) { }
     public void visit(WARNPos    term) { }
@@ -232,9 +258,11 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
     public void visit(PORTIDPos   term) { }
     public void visit(DHCPPos     term) { }
     public void visit(TOUTPos     term) { }
+    public void visit(PROTOCOLPos term) { }
 
     // code blocks
     public void visit(DEFAULTPos      term) { }
+    public void visit(INTERRUPTPos    term) { }
     public void visit(USER_DEFINEDPos term) { }
     public void visit(SchedulerPos    term) { }
 
@@ -278,6 +306,9 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
         String axisGroup   = direct ? "M" + axiStreamIdMaster++ : "S" + axiStreamIdSlave++;
         String currentAxis = axisGroup + "_AXIS";
 
+        // attach a dma engine instead of the processor, if requested
+        if(attachDMA(axis)) addDMA(axisGroup, currentAxis, direct);
+
         // add multiplexing, if required
         currentAxis = addMux(axisGroup, currentAxis, direct, width);
 
@@ -302,6 +333,8 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
      *   to the provided axis.
      * @param width Bitwidth of values to be stored in the queue.
      * @param depth Number of values that can be stored in the queue. If set to 0, no queue is added.
+     *   With an interrupt-driven scheduler, the processor-side end of the queue raises an interrupt
+     *   while values can be read from or written to the queue, unless the port uses a dma engine.
      * @return Open axis of the queue.
      * @throws UsageError If any parameter for the queue is invalid (e.g. negative width).
      */
@@ -313,7 +346,7 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
         String queueAxis = axisGroup + "_QUEUE_AXIS";
 
         // add a queue component in between the component and the microblaze
-        mhs = add(mhs, Block("Queue",
+        Block queue = Block("Queue",
             Attribute(PARAMETER(), Assignment("INSTANCE", Ident(axisGroup.toLowerCase() + "_queue"))),
             Attribute(PARAMETER(), Assignment("HW_VER", Ident("1.00.a"))),
             Attribute(PARAMETER(), Assignment("G_DEPTH", Number(depth))),
@@ -322,12 +355,107 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
             Attribute(BUS_IF(), Assignment("out", Ident(d ? queueAxis : currentAxis))),
             Attribute(PORT(), Assignment("clk", Ident(board.getClock().getClockPort(100)))),
             Attribute(PORT(), Assignment("rst", Ident(getResetPort())))
-            ));
+            );
+
+        // wake the scheduler, if the processor can read from (or write to) the queue
+        if(interrupts && !dmaGroups.contains(axisGroup)) {
+            String irq = axisGroup + "_QUEUE_IRQ";
+            queue = add(queue, Attribute(PORT(), Assignment(d ? "space_irq" : "data_irq", Ident(irq))));
+            addPortToInterruptController(irq);
+        }
+
+        mhs = add(mhs, queue);
 
         // return the axis identifier of the queues port, that should be attached to the components port
         return queueAxis;
     }
 
+    /**
+     * Adds an AXI DMA engine to an AXI stream interface.
+     *
+     * The engine is connected to the provided axis instead of the processor and moves
+     * complete buffers between the memory of the processor and the stream. Transfers are
+     * described by scatter-gather descriptors, which are located in memory as well.
+     * The engine only contains the channel required by the direction of the port.
+     *
+     * The memory-mapped interfaces of the engine are attached to the bus returned by
+     * {@link #getDMABus()} and recorded in {@link #dmaMasters}, since boards have to grant
+     * them access to the memory controller.
+     *
+     * @param axisGroup Basic identifier used to construct all identifiers of the corresponding port.
+     *   Usually consists of the direction of the port and a number.
+     * @param currentAxis Axis, which is connected to the stream interface of the engine.
+     * @param d Direction of the connected port. In-going ports require a memory to stream channel,
+     *   out-going ports a stream to memory channel.
+     * @throws UsageError If the board does not support dma engines.
+     */
+    protected void addDMA(String axisGroup, String currentAxis, boolean d) throws UsageError {
+        String bus      = getDMABus();
+        String instance = axisGroup.toLowerCase() + "_dma";
+        String channel  = d ? "MM2S" : "S2MM";
+        int    width    = getDMADataWidth();
+
+        // allocate a 0xffff block in the board memory model
+        Memory.Range memRange = board.getMemory().allocateMemory(0xffff);
+
+        mhs = add(mhs, Block("axi_dma",
+            Attribute(PARAMETER(), Assignment("INSTANCE", Ident(instance))),
+            Attribute(PARAMETER(), Assignment("HW_VER", Ident(versions.axi_dma))),
+            Attribute(PARAMETER(), Assignment("C_INCLUDE_SG", Number(1))),
+            Attribute(PARAMETER(), Assignment("C_SG_INCLUDE_STSCNTRL_STRM", Number(0))),
+            Attribute(PARAMETER(), Assignment("C_INCLUDE_MM2S", Number(d ? 1 : 0))),
+            Attribute(PARAMETER(), Assignment("C_INCLUDE_S2MM", Number(d ? 0 : 1))),
+            Attribute(PARAMETER(), Assignment(d ? "C_M_AXIS_MM2S_TDATA_WIDTH" : "C_S_AXIS_S2MM_TDATA_WIDTH", Number(32))),
+            Attribute(PARAMETER(), Assignment("C_M_AXI_" + channel + "_DATA_WIDTH", Number(width))),
+            // buffers are only word-aligned, so wider memory-mapped interfaces require realignment
+            Attribute(PARAMETER(), Assignment("C_INCLUDE_" + channel + "_DRE", Number(width > 32 ? 1 : 0))),
+            Attribute(PARAMETER(), Assignment("C_BASEADDR", MemAddr(memRange.getBaseAddress()))),
+            Attribute(PARAMETER(), Assignment("C_HIGHADDR", MemAddr(memRange.getHighAddress()))),
+            Attribute(BUS_IF(), Assignment("S_AXI_LITE", Ident("axi4lite_0"))),
+            Attribute(BUS_IF(), Assignment("M_AXI_SG", Ident(bus))),
+            Attribute(BUS_IF(), Assignment("M_AXI_" + channel, Ident(bus))),
+            Attribute(BUS_IF(), Assignment(d ? "M_AXIS_MM2S" : "S_AXIS_S2MM", Ident(currentAxis))),
+            Attribute(PORT(), Assignment("s_axi_lite_aclk", Ident(board.getClock().getClockPort(100)))),
+            Attribute(PORT(), Assignment("m_axi_sg_aclk", Ident(board.getClock().getClockPort(100)))),
+            Attribute(PORT(), Assignment("m_axi_" + channel.toLowerCase() + "_aclk", Ident(board.getClock().getClockPort(100)))),
+            Attribute(PORT(), Assignment("axi_resetn", Ident(getAResetNPort())))
+        ));
+
+        dmaMasters = dmaMasters.add(Ident(instance + ".M_AXI_SG")).add(Ident(instance + ".M_AXI_" + channel));
+        dmaGroups.add(axisGroup);
+    }
+
+    /**
+     * Checks, if a cpu port binding is attached to a dma engine instead of the processor.
+     * By default, this is the case for bindings with the dma option. Boards without
+     * stream interfaces at their processor may attach all ports to dma engines.
+     * @param axis A cpu binding.
+     * @return true, if a dma engine should be attached to the port, false otherwise.
+     * @throws UsageError If the port cannot be attached to this board.
+     */
+    protected boolean attachDMA(CPUAxisPos axis) throws UsageError {
+        return isDMA(axis);
+    }
+
+    /**
+     * Returns the data width of the memory-mapped interfaces of dma engines.
+     * This should match the width of the bus returned by {@link #getDMABus()}.
+     * @return The data width in bit.
+     */
+    protected int getDMADataWidth() {
+        return 32;
+    }
+
+    /**
+     * Returns the bus, to which the memory-mapped interfaces of dma engines are attached.
+     * This bus has to provide access to the memory used by the board-side driver.
+     * @return The identifier of the bus.
+     * @throws UsageError If the board does not support dma engines.
+     */
+    protected String getDMABus() throws UsageError {
+        throw new UsageError("option \"dma\" is not supported for this board");
+    }
+
     /**
      * Adds a bitwidth resizer to an AXI stream interface.
      *
@@ -336,6 +464,9 @@ public abstract class MHSGenerator extends Visitor<NE> implements MHS {
      * connected to some other component.
      *
      * The direction and bitwidth also determines, if an upsizer or downsizer is used.
+     * For ports narrower than 32 bit, the resizer unpacks (or packs) as many values as fit into
+     * a 32-bit word, the first value in the most significant bits. The host-side driver therefore
+     * packs the values of all these ports in the same layout (see BoardUtils.getValuesPerWord).
      *
      * @param axisGroup Basic identifier used to construct all axis identifiers of the corresponding port.
      *   Usually consists of the direction of the port and a number.
@@ -1,6 +1,7 @@
 package de.hopp.generator.frontend;
 
 import static de.hopp.generator.model.BDL.BDLFile;
+import static de.hopp.generator.model.BDL.BDLFilePos;
 import static de.hopp.generator.model.BDL.Cores;
 import static de.hopp.generator.model.BDL.Import;
 import static de.hopp.generator.model.BDL.Imports;
@@ -13,21 +14,33 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
+import java_cup.runtime.Scanner;
 import java_cup.runtime.Symbol;
 import de.hopp.generator.Configuration;
 import de.hopp.generator.ErrorCollection;
 import de.hopp.generator.IOHandler;
+import de.hopp.generator.backends.DataType;
+import de.hopp.generator.backends.Protocol;
 import de.hopp.generator.exceptions.ExecutionFailed;
 import de.hopp.generator.exceptions.ParserError;
 import de.hopp.generator.exceptions.ParserWarning;
 import de.hopp.generator.exceptions.UsageError;
 import de.hopp.generator.model.*;
+import de.hopp.generator.utils.BoardIndex;
 
 public class Parser {
 
@@ -40,6 +53,17 @@ public class Parser {
     }
 
     public BDLFile parse(File file){
+        return parseBoard(file).term();
+    }
+
+    /**
+     * Parses a .bdl file including all its imports and performs sanity checks on the merged board.
+     * Backends should be handed the returned position tree, since they share its board index
+     * with the sanity checks.
+     * @param file The .bdl file to be parsed.
+     * @return Position tree of the parsed board or a position tree without term, if errors occurred while parsing.
+     */
+    public BDLFilePos parseBoard(File file){
         // resolve all imports (recursively) and construct one big BDLFile
         LinkedList<File> files = new LinkedList<File>();
         Set<String> fileNames = new HashSet<String>();
@@ -48,68 +72,190 @@ public class Parser {
         BDLFile bdl = parse(files, fileNames);
 
         // abort, if errors occurred
-        if(errors.hasErrors()) return null;
+        if(errors.hasErrors()) return BDLFilePos(null);
 
         // perform sanity checks on the parsed bdl file
-        sanityCheck(bdl);
-
-        // abort, if errors occurred
-//        if(errors.hasErrors()) throw new ParserError("Fatal error while parsing board description file");
+        BDLFilePos board = BDLFilePos(bdl);
+        sanityCheck(board);
 
         // return its results
-        return bdl;
+        return board;
     }
 
+    /**
+     * Parses a list of .bdl files and all files imported by them (directly or indirectly).
+     *
+     * Imports are resolved level by level, i.e. all files imported by the files of one level
+     * are read and scanned concurrently. The scanned files are parsed by the calling thread,
+     * since katja terms are hash-consed in a global term pool, which is not synchronized.
+     * Each file is parsed only once, even if it is imported several times.
+     * The parsed files are merged in breadth-first order, which is the order in which
+     * the files are encountered when following the imports.
+     *
+     * @param files The files of the first level.
+     * @param parsedFiles Canonical paths of files, which have already been parsed.
+     *                    All files parsed by this call are added.
+     * @return Merge of all parsed files or null, if errors occurred.
+     */
     private BDLFile parse(LinkedList<File> files, Set<String> parsedFiles) {
-        // if the file list is empty, return null
-        if(files.isEmpty()) return null;
-
-        // get the first file from the list and remove it
-        File file = files.remove();
+        List<BDLFile> results = new ArrayList<BDLFile>();
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
         try {
-            // If the file has already been parsed earlier, continue with the next file
-            if(parsedFiles.contains(file.getCanonicalPath())) return parse(files, parsedFiles);
-
-            // construct scanner and parser
-            InputStream input = new FileInputStream(file);
-            BDLFileScanner scanner = new BDLFileScanner(input);
-            BDLFileParser parser = new BDLFileParser(scanner);
+            while(!files.isEmpty()) {
+                // start scanning all files of this level, which have not been parsed before
+                List<ScannedFile> level = new LinkedList<ScannedFile>();
+                for(File file : files) {
+                    try {
+                        String path = file.getCanonicalPath();
+                        if(parsedFiles.add(path)) {
+                            ScannedFile scanned = new ScannedFile(file, path);
+                            pool.execute(scanned);
+                            level.add(scanned);
+                        }
+                    } catch(IOException e) {
+                        errors.addError(new UsageError("File not found " + file.getPath()));
+                    }
+                }
 
-            // set attributes of the parser
-            parser.setErrorCollection(errors);
-            parser.setFilename(file.getCanonicalPath());
+                // parse the scanned files in order and gather the files of the next level
+                files = new LinkedList<File>();
+                for(ScannedFile scanned : level) {
+                    BDLFile bdl = parse(scanned);
+                    if(bdl == null) continue;
 
-            File directory = new File(getFullPath(file.getCanonicalPath()));
+                    results.add(bdl);
 
-            // parse the file
-            try {
-                Symbol symbol = parser.parse();
+                    // add all imports of this file (relative to the importing .bdl file)
+                    for(Import imp : bdl.imports()) files.add(getFile(scanned.directory, imp.file()));
+                }
 
                 // abort, if errors occurred while parsing
                 if(errors.hasErrors()) return null;
+            }
+        } finally {
+            pool.shutdown();
+        }
 
-                // otherwise, cast the result to a BDLFile
-                BDLFile bdl = (BDLFile) symbol.value;
-
-                // normalize the sources of the bdl
-                bdl = normalizeSources(bdl, directory, file.getCanonicalPath());
+        return merge(results, 0, results.size());
+    }
 
-                // add all imports of this file (relative to the importing .bdl file)
-                for(Import imp : bdl.imports()) files.add(getFile(directory, imp.file()));
+    /**
+     * Parses a single scanned .bdl file without resolving its imports.
+     * @param scanned The scanned file.
+     * @return The parsed file with normalized sources or null, if errors occurred.
+     */
+    private BDLFile parse(ScannedFile scanned) {
+        final Iterator<Symbol> tokens;
+        try {
+            tokens = scanned.tokens().iterator();
+        } catch(IOException e) {
+            errors.addError(new UsageError("File not found " + scanned.file.getPath()));
+            return null;
+        } catch(ExecutionFailed e) {
+            throw e;
+        } catch(RuntimeException e) {
+            // the scanner fails on malformed tokens (e.g. numbers exceeding the range of an int),
+            // which is reported like errors of the parser
+            e.printStackTrace();
+            errors.addError(new ParserError("Encountered error while parsing: " + e.getMessage(), scanned.path, -1));
+            return null;
+        }
 
-                // return merge of this file and recursive call
-                return merge(bdl, parse(files, parsedFiles));
-            } catch(Exception e) {
-                e.printStackTrace();
-                errors.addError(new ParserError("Encountered error while parsing: " + e.getMessage(), file.getCanonicalPath(), -1));
+        // construct a parser reading the tokens of the file
+        // (like the scanner, further end of file tokens are returned, since the parser reads beyond it)
+        BDLFileParser parser = new BDLFileParser(new Scanner() {
+            public Symbol next_token() {
+                return tokens.hasNext() ? tokens.next() : new Symbol(BDLFileSymbols.EOF);
             }
-        } catch(IOException e) {
-            errors.addError(new UsageError("File not found " + file.getPath()));
+        });
+
+        // set attributes of the parser
+        parser.setErrorCollection(errors);
+        parser.setFilename(scanned.path);
+
+        // parse the file
+        try {
+            Symbol symbol = parser.parse();
+
+            // abort, if errors occurred while parsing
+            if(errors.hasErrors()) return null;
+
+            // otherwise, cast the result to a BDLFile and normalize its sources
+            return normalizeSources((BDLFile) symbol.value, scanned.directory, scanned.path);
+        } catch(Exception e) {
+            e.printStackTrace();
+            errors.addError(new ParserError("Encountered error while parsing: " + e.getMessage(), scanned.path, -1));
         }
         return null;
     }
 
+    /**
+     * Reads a single .bdl file and splits it into tokens.
+     * @param file The file to be scanned.
+     * @return All tokens of the file, terminated by the end of file token.
+     * @throws IOException If the file could not be read.
+     */
+    private static List<Symbol> scan(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            BDLFileScanner scanner = new BDLFileScanner(input);
+            List<Symbol> tokens = new ArrayList<Symbol>();
+            Symbol token;
+            do {
+                token = scanner.next_token();
+                tokens.add(token);
+            } while(token.sym != BDLFileSymbols.EOF);
+            return tokens;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Scan task of a single .bdl file.
+     * Tasks only read and scan their file. They must not construct any terms,
+     * since the term pool of katja is not synchronized.
+     */
+    private static class ScannedFile extends FutureTask<List<Symbol>> {
+
+        /** The scanned file */
+        private final File file;
+        /** Canonical path of the file */
+        private final String path;
+        /** Directory of the file, which imports are relative to */
+        private final File directory;
+
+        private ScannedFile(final File file, final String path) {
+            super(new Callable<List<Symbol>>() {
+                public List<Symbol> call() throws IOException {
+                    return scan(file);
+                }
+            });
+            this.file      = file;
+            this.path      = path;
+            this.directory = new File(getFullPath(path));
+        }
+
+        /**
+         * Waits for the task to finish.
+         * @return The tokens of the file.
+         * @throws IOException If the file could not be read.
+         * @throws ExecutionFailed If the scanner thread was interrupted or failed unexpectedly.
+         */
+        private List<Symbol> tokens() throws IOException {
+            try {
+                return get();
+            } catch(InterruptedException e) {
+                throw new ExecutionFailed();
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+                if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+                throw new ExecutionFailed();
+            }
+        }
+    }
+
     /**
      * Normalizes sources of all cores declared in the .bdl file.
      *
@@ -159,6 +305,31 @@ public class Parser {
         return file.replaceCores(cores);
     }
 
+    /**
+     * Merges a range of parsed files, preserving their order.
+     * The range is split in halves recursively, so that the depth of the merges
+     * is logarithmic in the number of files.
+     * @param files The parsed files.
+     * @param from First file of the range (inclusive).
+     * @param to Last file of the range (exclusive).
+     * @return Merge of all files in the range or null, if the range is empty or errors occurred.
+     */
+    private BDLFile merge(List<BDLFile> files, int from, int to) {
+        if(to - from == 0) return null;
+        if(to - from == 1) return files.get(from);
+
+        int mid = (from + to) >>> 1;
+        BDLFile left  = merge(files, from, mid);
+        BDLFile right = merge(files, mid, to);
+
+        try {
+            return merge(left, right);
+        } catch(ParserError e) {
+            errors.addError(e);
+            return null;
+        }
+    }
+
     private static BDLFile merge(BDLFile file1, BDLFile file2) throws ParserError {
         // if one of the files is null, return the other
         if(file1 == null) return file2;
@@ -219,9 +390,14 @@ public class Parser {
      *    - at most two ports at the same axis
      *  - no duplicate options or unexpected options in wrong context
      *  - correct format of string options (esp Ethernet options)
-     * @param bdf
+     * @param board position tree of the parsed board, which is passed on to the backends
      */
-    private void sanityCheck(BDLFile bdf) {
+    private void sanityCheck(BDLFilePos board) {
+        BDLFile bdf = board.term();
+
+        // resolve all references of the board once (the index is shared with the backends)
+        BoardIndex index = BoardIndex.of(board);
+
         // iterate over all cores...
         Map<String, Core> cores = new HashMap<String, Core>();
         for(Core core : bdf.cores()) {
@@ -266,13 +442,86 @@ public class Parser {
             }
 
             // check declaration of referenced ports
+            Set<String> bound = new HashSet<String>();
+            for(Binding b : inst.bind()) {
+                bound.add(b.port());
+                if(index.port(inst.core(), b.port()) == null)
+                    errors.addError(new ParserError("Binding to non-existing port " + b.port(), b.pos()));
+            }
+
+            // check options of the bindings
             for(Binding b : inst.bind()) {
-                boolean exists = false;
+                boolean dma = false, batch = false, latency = false, tlast = false, priority = false, weight = false;
+                for(Option o : b.opts()) {
+                    // the value type is a property of the port, not of the binding
+                    if(o instanceof DATATYPE) {
+                        errors.addError(new ParserError("encountered option \"type\" at binding (specify it at the port declaration)", o.pos()));
+                        continue;
+                    }
 
-                for(Port port : cores.get(inst.core()).ports())
-                    if(port.name().equals(b.port())) exists = true;
+                    String name;
+                    if(o instanceof DMA) name = "dma";
+                    else if(o instanceof BATCH) name = "batch";
+                    else if(o instanceof LATENCY) name = "latency";
+                    else if(o instanceof TLAST) name = "tlast";
+                    else if(o instanceof PRIORITY) name = "priority";
+                    else if(o instanceof WEIGHT) name = "weight";
+                    else continue;
+
+                    // dma engines, flush policies and scheduling parameters only apply between the cpu and a port
+                    if(!(b instanceof CPUAxis)) {
+                        errors.addError(new ParserError("encountered option \"" + name + "\" at non-cpu binding", o.pos()));
+                        continue;
+                    }
 
-                if(!exists) errors.addError(new ParserError("Binding to non-existing port " + b.port(), b.pos()));
+                    // all of them are allowed to occur at most once
+                    if(o instanceof DMA)
+                        if(dma) errors.addError(new ParserError("duplicate binding option \"dma\"", o.pos()));
+                        else dma = true;
+                    // batch sizes and latencies have to be positive
+                    else if(o instanceof BATCH)
+                        if(batch) errors.addError(new ParserError("duplicate binding option \"batch\"", o.pos()));
+                        else if(((BATCH)o).count() < 1) errors.addError(new ParserError("batch size has to be positive", o.pos()));
+                        else batch = true;
+                    else if(o instanceof LATENCY)
+                        if(latency) errors.addError(new ParserError("duplicate binding option \"latency\"", o.pos()));
+                        else if(((LATENCY)o).us() < 1) errors.addError(new ParserError("latency has to be positive", o.pos()));
+                        else latency = true;
+                    // priorities may be 0, weights have to be positive
+                    else if(o instanceof PRIORITY)
+                        if(priority) errors.addError(new ParserError("duplicate binding option \"priority\"", o.pos()));
+                        else priority = true;
+                    else if(o instanceof WEIGHT)
+                        if(weight) errors.addError(new ParserError("duplicate binding option \"weight\"", o.pos()));
+                        else if(((WEIGHT)o).val() < 1) errors.addError(new ParserError("weight has to be positive", o.pos()));
+                        else weight = true;
+                    else if(tlast) errors.addError(new ParserError("duplicate binding option \"tlast\"", o.pos()));
+                    else tlast = true;
+                }
+                if(!(dma || batch || latency || tlast)) continue;
+
+                PortPos decl = index.port(inst.core(), b.port());
+                if(decl instanceof AXIPos) {
+                    AXI port = ((AXIPos)decl).term();
+
+                    // flush policies only apply to values sent to the host
+                    if(port.direction() instanceof IN && (batch || latency || tlast)) errors.addError(new ParserError(
+                        "flush policy options (batch, latency, tlast) cannot be specified for in-going port " + port.name(), b.pos()));
+
+                    // dma engines flush their buffers on their own, when a descriptor is filled or at tlast
+                    if(dma && (batch || latency)) errors.addError(new ParserError(
+                        "option \"dma\" cannot be combined with flush policy options batch and latency", b.pos()));
+
+                    // dma engines transfer whole buffers, which cannot be restricted to a polled number of values.
+                    // Polling ports are flushed after each poll, so a flush policy would not apply either
+                    for(Option o : port.opts().addAll(b.opts()))
+                        if(o instanceof POLL) {
+                            if(dma) errors.addError(new ParserError(
+                                "option \"dma\" cannot be combined with polling port " + port.name(), b.pos()));
+                            if(batch || latency || tlast) errors.addError(new ParserError(
+                                "flush policy options (batch, latency, tlast) cannot be combined with polling port " + port.name(), b.pos()));
+                        }
+                }
             }
 
             // check for duplicate instance identifiers
@@ -286,11 +535,8 @@ public class Parser {
                 // skip non-axi ports (i.e. clk and rst)
                 if(! (port instanceof AXI)) continue;
 
-                boolean connected = false;
-                for(Binding bind : inst.bind()) if(bind.port().equals(port.name())) connected = true;
-
                 // add a warning for unconnected ports
-                if(!connected) errors.addWarning(new ParserWarning("Port " + port.name() + " of " +
+                if(!bound.contains(port.name())) errors.addWarning(new ParserWarning("Port " + port.name() + " of " +
                         inst.core() + " instance " + inst.name() + " is not connected", inst.pos()));
             }
         }
@@ -307,23 +553,15 @@ public class Parser {
         gpios.clear();
 
         // check axis connection count (one for cpu axis, two for others)
-        Map<String, Integer> connections = new HashMap<String, Integer>();
-        for(Instance inst : bdf.insts())
-            for(Binding bind : inst.bind()) {
-                if(bind instanceof CPUAxis) continue;
-                // increment counter for this axis
-                else if(connections.containsKey(((Axis)bind).axis()))
-                    connections.put(((Axis)bind).axis(), connections.get(bind)+1);
-                else connections.put(((Axis)bind).axis(), 1);
-            }
-        for(String axis : connections.keySet()) {
-            if(connections.get(axis).compareTo(2) < 0)
+        for(String axis : index.axes()) {
+            int connections = index.endpoints(axis).size();
+            if(connections < 2)
                 errors.addWarning(new ParserWarning("Axis " + axis + " is only connected to a single port.", "", -1));
-            if(connections.get(axis).compareTo(2) > 0)
+            if(connections > 2)
                 // TODO provide a list of all occurrences??
-                errors.addError(new ParserError("Axis " + axis + " is connected to " + connections.get(axis) +
+                errors.addError(new ParserError("Axis " + axis + " is connected to " + connections +
                         " ports. Only two ports can be connected with a single axis.", "", -1));
-        } connections.clear();
+        }
 
         // check for invalid options
         // TODO save position instead of boolean to provide both positions here...
@@ -335,6 +573,17 @@ public class Parser {
             if(o instanceof POLL) errors.addError(new ParserError("encountered option \"poll\" as board option", o.pos()));
             // neither is bitwidth
             else if(o instanceof BITWIDTH) errors.addError(new ParserError("encountered option \"width\" as board option", o.pos()));
+            // and the value type
+            else if(o instanceof DATATYPE) errors.addError(new ParserError("encountered option \"type\" as board option", o.pos()));
+            // and dma transfers
+            else if(o instanceof DMA) errors.addError(new ParserError("encountered option \"dma\" as board option", o.pos()));
+            // and flush policies
+            else if(o instanceof BATCH) errors.addError(new ParserError("encountered option \"batch\" as board option", o.pos()));
+            else if(o instanceof LATENCY) errors.addError(new ParserError("encountered option \"latency\" as board option", o.pos()));
+            else if(o instanceof TLAST) errors.addError(new ParserError("encountered option \"tlast\" as board option", o.pos()));
+            // and scheduling parameters
+            else if(o instanceof PRIORITY) errors.addError(new ParserError("encountered option \"priority\" as board option", o.pos()));
+            else if(o instanceof WEIGHT) errors.addError(new ParserError("encountered option \"weight\" as board option", o.pos()));
             // swqueue and hwqueue are allowed to occur at most once
             else if(o instanceof SWQUEUE)
                 if(sw) errors.addError(new ParserError("duplicate board option \"swqueue\"", o.pos()));
@@ -344,7 +593,7 @@ public class Parser {
                 else hw = true;
         }
 
-        boolean poll, width;
+        boolean poll, width, type;
         // invalid options for port specifications
         for(Core core : bdf.cores()) {
             // TODO save position instead of boolean to provide both positions here...
@@ -363,11 +612,11 @@ public class Parser {
                 }
 
                 // TODO save position instead of boolean to provide both positions here...
-                sw = false; hw = false; poll = false; width = false;
+                sw = false; hw = false; poll = false; width = false; type = false;
                 for(Option o : ((AXI)port).opts()) {
                     if(o instanceof POLL)
                         // poll is not allowed to occur at in-going ports
-                        if(port instanceof IN) errors.addError(new ParserError("encountered option \"poll\" at in-going port", port.pos()));
+                        if(((AXI)port).direction() instanceof IN) errors.addError(new ParserError("encountered option \"poll\" at in-going port", port.pos()));
                         // at out-going ports it must occur at most once
                         else if(poll) errors.addError(new ParserError("duplicate port option \"poll\"", port.pos()));
                         else poll = true;
@@ -382,7 +631,36 @@ public class Parser {
                     else if(o instanceof HWQUEUE)
                         if(hw) errors.addError(new ParserError("duplicate port option \"hwqueue\"", port.pos()));
                         else hw = true;
+                    // the value type is allowed to occur at most once and has to be known
+                    else if(o instanceof DATATYPE)
+                        if(type) errors.addError(new ParserError("duplicate port option \"type\"", port.pos()));
+                        else if(DataType.get(((DATATYPE)o).name()) == null) errors.addError(new ParserError(
+                            "unknown port type \"" + ((DATATYPE)o).name() + "\" (supported types are " + DataType.names() + ")", o.pos()));
+                        else type = true;
+                    // dma transfers are a property of the cpu binding, not of the port
+                    else if(o instanceof DMA)
+                        errors.addError(new ParserError("encountered option \"dma\" at port declaration (specify it at the cpu binding)", o.pos()));
+                    // so are flush policies
+                    else if(o instanceof BATCH)
+                        errors.addError(new ParserError("encountered option \"batch\" at port declaration (specify it at the cpu binding)", o.pos()));
+                    else if(o instanceof LATENCY)
+                        errors.addError(new ParserError("encountered option \"latency\" at port declaration (specify it at the cpu binding)", o.pos()));
+                    else if(o instanceof TLAST)
+                        errors.addError(new ParserError("encountered option \"tlast\" at port declaration (specify it at the cpu binding)", o.pos()));
+                    // and scheduling parameters
+                    else if(o instanceof PRIORITY)
+                        errors.addError(new ParserError("encountered option \"priority\" at port declaration (specify it at the cpu binding)", o.pos()));
+                    else if(o instanceof WEIGHT)
+                        errors.addError(new ParserError("encountered option \"weight\" at port declaration (specify it at the cpu binding)", o.pos()));
                 }
+
+                // a typed port determines its bitwidth, an explicitly specified one has to match
+                for(Option o : ((AXI)port).opts())
+                    if(o instanceof DATATYPE && DataType.get(((DATATYPE)o).name()) != null)
+                        for(Option w : ((AXI)port).opts())
+                            if(w instanceof BITWIDTH && ((BITWIDTH)w).bit() != DataType.get(((DATATYPE)o).name()).width())
+                                errors.addError(new ParserError("port type \"" + ((DATATYPE)o).name() +
+                                    "\" does not match port width " + ((BITWIDTH)w).bit(), w.pos()));
             }
 
             if(!clk) errors.addError(new ParserError("core declaration is missing clock port", core.pos()));
@@ -463,6 +741,20 @@ public class Parser {
             if(!gate && !dhcp) errors.addError(
                 new ParserError("Ethernet specification is missing gateway attribute", medium.pos()));
         }
+
+        // check the protocol version of any medium
+        if(bdf.medium() instanceof DefinedMedium) {
+            boolean protocol = false;
+            for(MOption opt : ((DefinedMedium)bdf.medium()).opts()) {
+                if(!(opt instanceof PROTOCOL)) continue;
+                if(protocol) {
+                    errors.addError(new ParserError("duplicate protocol attribute", opt.pos()));
+                    continue;
+                } protocol = true;
+                if(Protocol.get(((PROTOCOL)opt).val()) == null) errors.addError(
+                    new ParserError("unsupported protocol version " + ((PROTOCOL)opt).val(), opt.pos()));
+            }
+        }
    }
 
 //  /** converts ip addresses represented as string arrays int integer arrays.
@@ -14,11 +14,11 @@ public class CPPUnparser extends CUnparser {
 
     /**
      * Create a MFile unparser
-     * @param buffer the buffer to unparse into
-     * @param name file name where the buffer should be unparsed to
+     * @param out the target to unparse into (e.g. a buffered file writer)
+     * @param name file name where the target should be unparsed to
      */
-    public CPPUnparser(StringBuffer buffer, String name) {
-        super(buffer, name);
+    public CPPUnparser(Appendable out, String name) {
+        super(out, name);
     }
 
     @Override
@@ -37,11 +37,11 @@ public class CUnparser extends HUnparser {
 
     /**
      * Create a MFile unparser
-     * @param buffer the buffer to unparse into
-     * @param name file name where the buffer should be unparsed to
+     * @param out the target to unparse into (e.g. a buffered file writer)
+     * @param name file name where the target should be unparsed to
      */
-    public CUnparser(StringBuffer buffer, String name) {
-        super(buffer, name);
+    public CUnparser(Appendable out, String name) {
+        super(out, name);
     }
 
     @Override
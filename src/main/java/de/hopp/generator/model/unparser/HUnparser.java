@@ -7,6 +7,7 @@ import static de.hopp.generator.model.cpp.CPP.PRIVATE;
 import static de.hopp.generator.model.cpp.CPP.PUBLIC;
 import static de.hopp.generator.model.cpp.CPP.STATIC;
 
+import java.io.IOException;
 import java.util.Comparator;
 
 import katja.common.NE;
@@ -27,17 +28,30 @@ import de.hopp.generator.model.cpp.*;
 // TODO attributes / enums in header file?? what to put there, what not to put there?
 public class HUnparser extends MFileInFile.Visitor<InvalidConstruct> {
 
-    // the buffer to fill with this unparsing
-    protected IndentStringBuffer buffer;
+    // the writer to fill with this unparsing
+    protected IndentWriter buffer;
     protected String typeDecl;
     protected String name;
 
-    public HUnparser(StringBuffer buffer, String name) {
-        this.buffer = new IndentStringBuffer(buffer);
+    /**
+     * Create a MFile unparser
+     * @param out the target to unparse into (e.g. a buffered file writer)
+     * @param name file name where the target should be unparsed to
+     */
+    public HUnparser(Appendable out, String name) {
+        this.buffer = new IndentWriter(out);
         this.typeDecl = new String();
         this.name = name;
     }
 
+    /**
+     * Rethrows the first exception, that occurred while writing to the target of this unparser.
+     * @throws IOException if writing to the target failed
+     */
+    public void checkError() throws IOException {
+        buffer.checkError();
+    }
+
     protected MPreProcDirsInFile filter(MPreProcDirsInFile directives, MModifier modifier) {
         MPreProcDirsInFile rslt = directives;
         for(MPreProcDirInFile directive : directives)
@@ -0,0 +1,174 @@
+/*
+ * Katja
+ * Copyright (C) 2003-2009 see README file for authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.hopp.generator.model.unparser;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Wraps an Appendable (e.g. a buffered file writer) with the ability to automatically insert tabs after newlines,
+ * according to the current tabsize.
+ *
+ * The writer is not synchronized and scans appended text for newlines in place, so that unparsing
+ * does not allocate intermediate strings. Since unparsers cannot throw IOExceptions, the first
+ * IOException of the target is recorded and all further output is discarded (cf. PrintWriter).
+ * It is rethrown by {@link #checkError()}.
+ */
+class IndentWriter {
+
+    // the current tab count
+    private int count = 0;
+    private static final String tab = "    ";
+
+    // the target which backs this writer up
+    private final Appendable out;
+
+    // the first exception of the target
+    private IOException error;
+
+    // if it's the start of a new line at the moment
+    private boolean newLine = true;
+
+    IndentWriter(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Indent the following output by one tabsize more.
+     */
+    public void indent() {
+        count++;
+    }
+
+    /**
+     * Unindent the following output by one tabsize.
+     */
+    public void unindent() {
+
+        // if greater than zero, decrease the tab count
+        if(count > 0) count--;
+    }
+
+    /**
+     * Append this text to the output. Indentation is done automatically
+     * @param text the text to output
+     */
+    void append(String text) {
+        int start = 0;
+
+        // go through all lines of the text
+        for(int end = text.indexOf('\n'); end != -1; end = text.indexOf('\n', start)) {
+            addPart(text, start, end);
+            endLine();
+            start = end + 1;
+        }
+
+        // add the remaining text part
+        addPart(text, start, text.length());
+    }
+
+    /**
+     * Append this character to the output.
+     * @param text the character to output.
+     */
+    void append(char text) {
+
+        // if new line symbol: end the line
+        if(text == '\n') endLine();
+
+        // otherwise add the text
+        else {
+            indentLine();
+            write(text);
+        }
+    }
+
+    /**
+     * Rethrows the first exception of the target, if any occurred.
+     * @throws IOException the first exception of the target
+     */
+    void checkError() throws IOException {
+        if(error != null) throw error;
+    }
+
+    /**
+     * End the current line and remember the next text part has to be indented
+     */
+    private void endLine() {
+
+        // end the current line
+        write('\n');
+
+        // mark the beginning of a new line, to be indented if text follows
+        newLine = true;
+    }
+
+    /**
+     * Add a text part, if it's the first of the line than indent
+     * @param text the text containing the part to add
+     * @param start start of the part (inclusive)
+     * @param end end of the part (exclusive)
+     */
+    private void addPart(String text, int start, int end) {
+
+        // if the part is empty we discard it; all other parts trigger the indentation and can't be undone or
+        // changed in the current line
+        if(start == end) return;
+
+        indentLine();
+
+        // add the text
+        if(error != null) return;
+        try {
+            // writers accept parts of strings without copying them
+            if(out instanceof Writer) ((Writer)out).write(text, start, end - start);
+            else out.append(text, start, end);
+        } catch(IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Indent the current line, if nothing has been added to it yet
+     */
+    private void indentLine() {
+        if(!newLine) return;
+
+        for(int i = 0; i < count; i++) write(tab);
+        newLine = false;
+    }
+
+    private void write(char c) {
+        if(error != null) return;
+        try {
+            out.append(c);
+        } catch(IOException e) {
+            error = e;
+        }
+    }
+
+    private void write(String s) {
+        if(error != null) return;
+        try {
+            out.append(s);
+        } catch(IOException e) {
+            error = e;
+        }
+    }
+}
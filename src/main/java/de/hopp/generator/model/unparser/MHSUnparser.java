@@ -1,15 +1,29 @@
 package de.hopp.generator.model.unparser;
 
+import java.io.IOException;
+
 import katja.common.NE;
 import de.hopp.generator.model.mhs.*;
 import de.hopp.generator.model.mhs.Number;
 
 public class MHSUnparser extends MHSFile.Visitor<NE> {
 
-    private IndentStringBuffer buffer;
+    private IndentWriter buffer;
+
+    /**
+     * Create a MHS file unparser
+     * @param out the target to unparse into (e.g. a buffered file writer)
+     */
+    public MHSUnparser(Appendable out) {
+        this.buffer = new IndentWriter(out);
+    }
 
-    public MHSUnparser(StringBuffer buffer) {
-        this.buffer = new IndentStringBuffer(buffer);
+    /**
+     * Rethrows the first exception, that occurred while writing to the target of this unparser.
+     * @throws IOException if writing to the target failed
+     */
+    public void checkError() throws IOException {
+        buffer.checkError();
     }
 
     // root file
@@ -52,9 +66,10 @@ public class MHSUnparser extends MHSFile.Visitor<NE> {
 
     // value expressions
     public void visit(AndExp term)  {
-        for(Value v : term) {
-            if(v != term.get(0)) buffer.append(" & ");
-            visit(v);
+        // equal values share their instance, so separators depend on the position only
+        for(int i = 0; i < term.size(); i++) {
+            if(i > 0) buffer.append(" & ");
+            visit(term.get(i));
         }
     }
     public void visit(Ident term)   { visit(term.val()); }
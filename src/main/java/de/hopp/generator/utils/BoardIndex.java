@@ -0,0 +1,243 @@
+package de.hopp.generator.utils;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import de.hopp.generator.model.*;
+
+/**
+ * Symbol table of a board description.
+ *
+ * Resolves all references of a board description once, so that lookups of cores, ports,
+ * instances and axis endpoints do not have to scan the description again.
+ * Attributes of cpu bindings, that are derived from several options, are precomputed as well.
+ *
+ * The index is built on first use and shared by the frontend and all backends
+ * working on the same board description (see {@link #of(BDLFilePos)}).
+ * Indices are kept per position tree rather than per term, since terms are hash-consed
+ * and the indexed position nodes have to belong to the tree they are looked up from.
+ * It is built before the sanity checks of the frontend, so it does not assume a valid description:
+ * if an identifier is declared several times, its first declaration is indexed and
+ * unresolvable references are simply not indexed.
+ */
+public class BoardIndex {
+
+    /** Indices of all position trees of board descriptions, that are still referenced */
+    private static final Map<BDLFilePos, SoftReference<BoardIndex>> indices =
+        new WeakHashMap<BDLFilePos, SoftReference<BoardIndex>>();
+
+    /** Derived attributes of a cpu binding */
+    public static class CPUBinding {
+        /** Bitwidth of the bound port */
+        public final int width;
+        /** Number of values per 32-bit word of the bound port */
+        public final int valuesPerWord;
+        /** Software queue size in 32-bit values */
+        public final int swQueueSize32;
+        /** Hardware queue size */
+        public final int hwQueueSize;
+        /** Polling count in 32-bit values, 0 if the binding is not polling */
+        public final int pollingCount32;
+        /** true, if the binding is polling */
+        public final boolean polling;
+
+        private CPUBinding(CPUAxis axis, AXI port, Options boardOpts) {
+            width         = BoardUtils.getWidth(port);
+            valuesPerWord = BoardUtils.getValuesPerWord(port);
+
+            int swQueueSize = BoardUtils.defaultQueueSizeSW, hwQueueSize = BoardUtils.defaultQueueSizeHW;
+            boolean sw = false, hw = false;
+
+            // board options are overridden by options of the binding
+            for(Option opt : boardOpts) {
+                if(opt instanceof SWQUEUE && !sw) { swQueueSize = ((SWQUEUE)opt).qsize(); sw = true; }
+                if(opt instanceof HWQUEUE && !hw) { hwQueueSize = ((HWQUEUE)opt).qsize(); hw = true; }
+            }
+
+            int pollingCount = 0;
+            boolean polling = false;
+            sw = false; hw = false;
+            for(Option opt : axis.opts()) {
+                if(opt instanceof SWQUEUE && !sw) { swQueueSize = ((SWQUEUE)opt).qsize(); sw = true; }
+                if(opt instanceof HWQUEUE && !hw) { hwQueueSize = ((HWQUEUE)opt).qsize(); hw = true; }
+                if(opt instanceof POLL && !polling) { pollingCount = ((POLL)opt).count(); polling = true; }
+            }
+
+            this.swQueueSize32  = size32(swQueueSize);
+            this.hwQueueSize    = hwQueueSize;
+            this.pollingCount32 = size32(pollingCount);
+            this.polling        = polling;
+        }
+
+        /**
+         * Calculates the number of 32-bit words required to transmit values of the binding.
+         * Values of packed ports share words, all other values occupy one or more words each.
+         * @param count Number of values in the actual bitwidth of the bound port.
+         * @return The number of 32-bit words required for these values.
+         */
+        int size32(int count) {
+            if(valuesPerWord > 1) return (count + valuesPerWord - 1) / valuesPerWord;
+            return count * (int)Math.ceil(width / 32.0);
+        }
+    }
+
+    /** Cores indexed by their name */
+    private final Map<String, CorePos> cores = new HashMap<String, CorePos>();
+    /** Ports of all cores indexed by core and port name */
+    private final Map<String, Map<String, PortPos>> ports = new HashMap<String, Map<String, PortPos>>();
+    /** Instances indexed by their name */
+    private final Map<String, InstancePos> instances = new HashMap<String, InstancePos>();
+    /** Bindings of all instances indexed by instance and port name */
+    private final Map<String, Map<String, BindingPos>> bindings = new HashMap<String, Map<String, BindingPos>>();
+    /** Bindings connected to an axis indexed by the axis name (in order of declaration) */
+    private final Map<String, List<AxisPos>> endpoints = new HashMap<String, List<AxisPos>>();
+    /** Derived attributes of all cpu bindings indexed by instance and port name */
+    private final Map<String, Map<String, CPUBinding>> cpuBindings = new HashMap<String, Map<String, CPUBinding>>();
+
+    /** Greatest software queue size of out-going cpu bindings in 32-bit values */
+    private int maxOutQueueSize = 0;
+
+    /**
+     * Get the index of a board description. The index is built, if it does not exist yet.
+     * @param board Root of the position tree of the board description.
+     * @return The index of the board description.
+     */
+    public static synchronized BoardIndex of(BDLFilePos board) {
+        SoftReference<BoardIndex> ref = indices.get(board);
+        BoardIndex index = ref == null ? null : ref.get();
+
+        if(index == null) {
+            index = new BoardIndex(board);
+            indices.put(board, new SoftReference<BoardIndex>(index));
+        }
+        return index;
+    }
+
+    private BoardIndex(BDLFilePos board) {
+        for(CorePos core : board.cores()) {
+            String name = core.name().term();
+            if(cores.containsKey(name)) continue;
+            cores.put(name, core);
+
+            Map<String, PortPos> corePorts = new HashMap<String, PortPos>();
+            for(PortPos port : core.ports())
+                if(!corePorts.containsKey(port.name().term())) corePorts.put(port.name().term(), port);
+            ports.put(name, corePorts);
+        }
+
+        for(InstancePos inst : board.insts()) {
+            // all bindings are connected to their axis, even those of duplicate instances or ports
+            for(BindingPos bind : inst.bind()) {
+                if(!(bind instanceof AxisPos)) continue;
+                String axis = ((AxisPos)bind).axis().term();
+                if(!endpoints.containsKey(axis)) endpoints.put(axis, new LinkedList<AxisPos>());
+                endpoints.get(axis).add((AxisPos)bind);
+            }
+
+            String name = inst.name().term();
+            if(instances.containsKey(name)) continue;
+            instances.put(name, inst);
+
+            Map<String, BindingPos> instBindings = new HashMap<String, BindingPos>();
+            Map<String, CPUBinding> instCPUBindings = new HashMap<String, CPUBinding>();
+            bindings.put(name, instBindings);
+            cpuBindings.put(name, instCPUBindings);
+
+            for(BindingPos bind : inst.bind()) {
+                String port = bind.port().term();
+                if(instBindings.containsKey(port)) continue;
+                instBindings.put(port, bind);
+
+                // precompute attributes of cpu bindings to AXI ports
+                if(!(bind instanceof CPUAxisPos)) continue;
+                PortPos decl = port(inst.core().term(), port);
+                if(!(decl instanceof AXIPos)) continue;
+
+                AXI axi = ((AXIPos)decl).term();
+                CPUBinding cpu = new CPUBinding((CPUAxis)bind.term(), axi, board.opts().term());
+                instCPUBindings.put(port, cpu);
+
+                if(axi.direction() instanceof OUT)
+                    maxOutQueueSize = Math.max(maxOutQueueSize, cpu.swQueueSize32);
+            }
+        }
+    }
+
+    /**
+     * Get a core by its name.
+     * @param name Name of the core.
+     * @return The (first) core declared with this name or null, if there is no such core.
+     */
+    public CorePos core(String name) {
+        return cores.get(name);
+    }
+
+    /**
+     * Get a port of a core by its name.
+     * @param core Name of the core.
+     * @param name Name of the port.
+     * @return The (first) port declared with this name or null, if there is no such core or port.
+     */
+    public PortPos port(String core, String name) {
+        Map<String, PortPos> corePorts = ports.get(core);
+        return corePorts == null ? null : corePorts.get(name);
+    }
+
+    /**
+     * Get an instance by its name.
+     * @param name Name of the instance.
+     * @return The (first) instance declared with this name or null, if there is no such instance.
+     */
+    public InstancePos instance(String name) {
+        return instances.get(name);
+    }
+
+    /**
+     * Get the binding of a port of an instance.
+     * @param inst Name of the instance.
+     * @param port Name of the bound port.
+     * @return The (first) binding of the port or null, if there is no such instance or binding.
+     */
+    public BindingPos binding(String inst, String port) {
+        Map<String, BindingPos> instBindings = bindings.get(inst);
+        return instBindings == null ? null : instBindings.get(port);
+    }
+
+    /**
+     * Get all bindings connected to an axis.
+     * @param axis Name of the axis.
+     * @return The bindings in order of their declaration (empty, if the axis is not used).
+     */
+    public List<AxisPos> endpoints(String axis) {
+        List<AxisPos> rslt = endpoints.get(axis);
+        if(rslt == null) return Collections.emptyList();
+        return Collections.unmodifiableList(rslt);
+    }
+
+    /** @return Names of all axis connecting ports of instances. */
+    public Iterable<String> axes() {
+        return Collections.unmodifiableSet(endpoints.keySet());
+    }
+
+    /**
+     * Get the derived attributes of a cpu binding.
+     * @param inst Name of the instance.
+     * @param port Name of the bound port.
+     * @return The attributes of the binding or null, if the binding does not exist or
+     *         is not bound to an AXI port of the core.
+     */
+    public CPUBinding cpuBinding(String inst, String port) {
+        Map<String, CPUBinding> instBindings = cpuBindings.get(inst);
+        return instBindings == null ? null : instBindings.get(port);
+    }
+
+    /** @return The greatest software queue size of out-going cpu bindings in 32-bit values. */
+    public int maxOutQueueSize() {
+        return maxOutQueueSize;
+    }
+}
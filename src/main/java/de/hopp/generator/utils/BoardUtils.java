@@ -1,6 +1,8 @@
 package de.hopp.generator.utils;
 
 import katja.common.NE;
+import de.hopp.generator.backends.DataType;
+import de.hopp.generator.backends.Protocol;
 import de.hopp.generator.model.*;
 
 /**
@@ -22,6 +24,8 @@ public class BoardUtils {
     public static final int defaultWidth = 32;
     /** The default size for the TCP sendbuffer. */
     public static final int defaultTCPSendBuffer = 2048;
+    /** The number of 32-bit words a port with weight 1 may transfer per scheduling round. */
+    public static final int quantumSize = 16;
 
     /**
      * Generates a String representing the provided board description file.
@@ -56,6 +60,7 @@ public class BoardUtils {
                         public String CasePORTID(PORTID term) { return "port    " + term.val(); }
                         public String CaseTOUT(TOUT term)     { return "timeout " + term.val(); }
                         public String CaseDHCP(DHCP term)     { return "dhcp (timeout: " + term.tout() + ")"; }
+                        public String CasePROTOCOL(PROTOCOL term) { return "protocol " + term.val(); }
                     });
                 }
                 return rslt;
@@ -79,9 +84,21 @@ public class BoardUtils {
             public LogSeverity CaseFILE(FILE term) {
                 return term.sev();
             }
+            public LogSeverity CaseBINARY(BINARY term) {
+                return term.sev();
+            }
         });
     }
 
+    /**
+     * Checks, if the board-side driver sends binary log records to the host instead of printing messages.
+     * @param board The complete board description.
+     * @return true, if the board log is binary, false otherwise.
+     */
+    public static boolean isBinaryLog(BDLFilePos board) {
+        return board.logs().board() instanceof BINARYPos;
+    }
+
     /**
      * Get the core referenced by a specific instance.
      * @param inst The instance.
@@ -90,13 +107,10 @@ public class BoardUtils {
      * The existence of such a core has to be guaranteed by the frontend.
      */
     public static CorePos getCore(InstancePos inst) {
-        String coreName = inst.core().term();
-        String coreVer  = inst.version().term();
+        CorePos core = BoardIndex.of(inst.root()).core(inst.core().term());
 
         // return the core, if it exists
-        for(CorePos c : inst.root().cores())
-            if(c.name().term().equals(coreName) && c.version().term().equals(coreVer))
-                return c;
+        if(core != null && core.version().term().equals(inst.version().term())) return core;
 
         // otherwise, throw an exception (should never happen due to sanity checks)
         throw new IllegalStateException();
@@ -118,13 +132,30 @@ public class BoardUtils {
         InstancePos inst = ((InstancePos)bind.parent().parent());
 
         // return the port, if it exists
-        for(PortPos p : getCore(inst).ports())
-            if(p.name().term().equals(portName) && p instanceof AXIPos) return (AXIPos)p;
+        PortPos port = BoardIndex.of(bind.root()).port(getCore(inst).name().term(), portName);
+        if(port instanceof AXIPos) return (AXIPos)port;
 
         // otherwise, throw an exception (should never happen due to sanity checks)
         throw new IllegalStateException();
     }
 
+    /**
+     * Get the precomputed attributes of a cpu binding.
+     * @param axis The cpu binding.
+     * @return The attributes of the binding.
+     * @throws IllegalStateException If the binding does not reference an AXI port of its core.
+     * The existence of such a port has to be guaranteed by the frontend.
+     */
+    private static BoardIndex.CPUBinding getCPUBinding(CPUAxisPos axis) {
+        // throw an exception, if the parent is not a core instance
+        if(!(axis.parent().parent() instanceof InstancePos)) throw new IllegalStateException();
+        InstancePos inst = axis.parent().parent();
+
+        BoardIndex.CPUBinding rslt = BoardIndex.of(axis.root()).cpuBinding(inst.name().term(), axis.port().term());
+        if(rslt == null) throw new IllegalStateException();
+        return rslt;
+    }
+
     /**
      * Get the clock frequency of the provided core
      * @param core A core.
@@ -183,29 +214,32 @@ public class BoardUtils {
      * @return true, if the port is polling, false otherwise.
      */
     public static boolean isPolling(CPUAxisPos axis) {
-        // check, if there is a poll option, return if found
+        return getCPUBinding(axis).polling;
+    }
+
+    /**
+     * Checks if a cpu port binding is attached to a dma engine instead of the processor.
+     * @param axis A cpu binding.
+     * @return true, if values of the port are transferred by a dma engine, false otherwise.
+     */
+    public static boolean isDMA(CPUAxisPos axis) {
         for(Option opt : axis.opts().term())
-            if(opt instanceof POLL) return true;
+            if(opt instanceof DMA) return true;
 
-        // otherwise, the port isn't polling
         return false;
     }
 
     /**
-     * Get the defined value queue size parameter for this cpu binding.
-     *
-     * This method returns the user-defined value queue size in the actual
-     * bitwidth of the corresponding port.
-     * @param axis A cpu binding.
-     * @return The value queue size for the bound port specified by the user.
+     * Checks if any cpu port binding of a board is attached to a dma engine.
+     * @param file The complete board description.
+     * @return true, if at least one port uses a dma engine, false otherwise.
      */
-    private static int getPollingCount(CPUAxisPos axis) {
-        // check, if there is a poll option, return if found
-        for(Option opt : axis.opts().term())
-            if(opt instanceof POLL) return ((POLL)opt).count();
+    public static boolean hasDMA(BDLFilePos file) {
+        for(InstancePos inst : file.insts())
+            for(BindingPos bind : inst.bind())
+                if(bind instanceof CPUAxisPos && isDMA((CPUAxisPos)bind)) return true;
 
-        // otherwise, the port isn't polling. Return 0
-        return 0;
+        return false;
     }
 
     /**
@@ -217,28 +251,87 @@ public class BoardUtils {
      * @return The size of a 32-bit queue required to hold the number of values requested by the user.
      */
     public static int getPollingCount32(CPUAxisPos axis) {
-        return getPollingCount(axis) * (int)Math.ceil(getWidth(axis) / 32.0);
+        return getCPUBinding(axis).pollingCount32;
     }
 
     /**
-     * Get the defined software queue size parameter for this cpu binding.
+     * Get the minimal number of values sent at once for this cpu binding.
      *
-     * This method returns the user-defined queue size in the actual bitwidth
-     * of the corresponding port.
+     * The batch size is assumed to be specified in the actual bitwidth of the connected port.
+     * However, this method returns the corresponding number of 32-bit values.
+     * @param axis A cpu binding.
+     * @return The batch size in 32-bit values or 0, if the binding has no batch size.
+     */
+    public static int getBatchSize32(CPUAxisPos axis) {
+        for(Option opt : axis.opts().term())
+            if(opt instanceof BATCH) return getSize32(axis, ((BATCH)opt).count());
+
+        return 0;
+    }
+
+    /**
+     * Get the maximal time values of this cpu binding wait on the board before being sent.
+     * @param axis A cpu binding.
+     * @return The latency in microseconds or 0, if the binding has no latency limit.
+     */
+    public static int getLatency(CPUAxisPos axis) {
+        for(Option opt : axis.opts().term())
+            if(opt instanceof LATENCY) return ((LATENCY)opt).us();
+
+        return 0;
+    }
+
+    /**
+     * Checks if values of a cpu binding are sent, when the bound component signals the end of a packet.
+     * @param axis A cpu binding.
+     * @return true, if the binding is flushed on tlast, false otherwise.
+     */
+    public static boolean isTlast(CPUAxisPos axis) {
+        for(Option opt : axis.opts().term())
+            if(opt instanceof TLAST) return true;
+
+        return false;
+    }
+
+    /**
+     * Get the scheduling priority of a cpu binding.
+     * Ports with a higher priority are served first by the board-side and host-side schedulers.
+     * @param axis A cpu binding.
+     * @return The priority of the binding or 0, if the binding has no priority.
+     */
+    public static int getPriority(CPUAxisPos axis) {
+        for(Option opt : axis.opts().term())
+            if(opt instanceof PRIORITY) return ((PRIORITY)opt).level();
+
+        return 0;
+    }
+
+    /**
+     * Get the number of 32-bit words a cpu binding may transfer per scheduling round.
+     * Bindings with a weight receive a quantum of the weight times {@link #quantumSize}.
      * @param axis A cpu binding.
-     * @return The queue size for the bound port specified by the user.
+     * @return The quantum of the binding or 0, if the binding has no weight
+     *         and may transfer as many words as possible.
      */
-    private static int getSWQueueSize(CPUAxisPos axis) {
-        // if there is a local definition, return that
+    public static int getQuantum32(CPUAxisPos axis) {
         for(Option opt : axis.opts().term())
-            if(opt instanceof SWQUEUE) return ((SWQUEUE)opt).qsize();
+            if(opt instanceof WEIGHT) return ((WEIGHT)opt).val() * quantumSize;
 
-        // if there is no local definition but a global one, return that
-        for(Option opt : axis.root().opts().term())
-            if(opt instanceof SWQUEUE) return ((SWQUEUE)opt).qsize();
+        return 0;
+    }
 
-        // otherwise, return the default queue size
-        return defaultQueueSizeSW;
+    /**
+     * Checks, if any cpu port binding of a board has a priority or weight.
+     * @param file The complete board description.
+     * @return true, if the schedulers have to regard priorities and weights, false otherwise.
+     */
+    public static boolean hasScheduling(BDLFilePos file) {
+        for(InstancePos inst : file.insts())
+            for(BindingPos bind : inst.bind())
+                if(bind instanceof CPUAxisPos && (getPriority((CPUAxisPos)bind) > 0 || getQuantum32((CPUAxisPos)bind) > 0))
+                    return true;
+
+        return false;
     }
 
     /**
@@ -252,7 +345,18 @@ public class BoardUtils {
      * @return The size of a 32-bit queue required to hold the number of values requested by the user.
      */
     public static int getSWQueueSize32(CPUAxisPos axis) {
-        return getSWQueueSize(axis) * (int)Math.ceil(getWidth(axis) / 32.0);
+        return getCPUBinding(axis).swQueueSize32;
+    }
+
+    /**
+     * Calculates the number of 32-bit words required to transmit values of a cpu binding.
+     * Values of packed ports share words, all other values occupy one or more words each.
+     * @param axis A cpu binding.
+     * @param count Number of values in the actual bitwidth of the bound port.
+     * @return The number of 32-bit words required for these values.
+     */
+    private static int getSize32(CPUAxisPos axis, int count) {
+        return getCPUBinding(axis).size32(count);
     }
 
     /**
@@ -269,16 +373,7 @@ public class BoardUtils {
      * @return The hardware queue size of the binding.
      */
     public static int getHWQueueSize(CPUAxisPos axis) {
-        // if there is a local definition, return that
-        for(Option opt : axis.opts().term())
-            if(opt instanceof HWQUEUE) return ((HWQUEUE)opt).qsize();
-
-        // if there is no local definition but a global one, return that
-        for(Option opt : axis.root().opts().term())
-            if(opt instanceof HWQUEUE) return ((HWQUEUE)opt).qsize();
-
-        // otherwise, return the default queue size
-        return defaultQueueSizeHW;
+        return getCPUBinding(axis).hwQueueSize;
     }
 
     /**
@@ -300,7 +395,7 @@ public class BoardUtils {
      * @return The bitwidth of the referenced port declaration.
      */
     public static int getWidth(CPUAxisPos axis) {
-        return getWidth(getPort(axis).term());
+        return getCPUBinding(axis).width;
     }
 
     /**
@@ -313,29 +408,69 @@ public class BoardUtils {
         for(Option opt : port.opts())
             if(opt instanceof BITWIDTH) return ((BITWIDTH)opt).bit();
 
-        // if it is not set, return the default width
+        // if it is not set, a typed port has the width of its type
+        DataType type = getType(port);
+        if(type != null) return type.width();
+
+        // otherwise, return the default width
         return defaultWidth;
     }
 
+    /**
+     * Get the number of values of the port referenced by a cpu binding, that are packed into a single word.
+     * @param axis The cpu port binding.
+     * @return The number of values per word of the referenced port declaration.
+     */
+    public static int getValuesPerWord(CPUAxisPos axis) {
+        return getCPUBinding(axis).valuesPerWord;
+    }
+
+    /**
+     * Get the number of values of an AXI port, that are packed into a single 32-bit word.
+     * Values of ports narrower than 32 bit are always packed, since the resizer in front of
+     * such a port splits each word into as many values as fit. Otherwise, each value occupies
+     * one or more words on its own.
+     * @param port An AXI port.
+     * @return The number of values per word, 1 if values are not packed.
+     */
+    public static int getValuesPerWord(AXI port) {
+        int width = getWidth(port);
+        return width < 32 ? Math.max(1, 32 / width) : 1;
+    }
+
+    /**
+     * Get the native value type of the port referenced by a cpu binding.
+     * @param axis The cpu port binding.
+     * @return The value type of the referenced port declaration or null, if the port is untyped.
+     */
+    public static DataType getType(CPUAxisPos axis) {
+        return getType(getPort(axis).term());
+    }
+
+    /**
+     * Get the native value type of an AXI port.
+     * @param port An AXI port.
+     * @return The value type of the port or null, if the port is untyped.
+     */
+    public static DataType getType(AXI port) {
+        // the type option has to be set at the port definition
+        for(Option opt : port.opts())
+            if(opt instanceof DATATYPE) return DataType.get(((DATATYPE)opt).name());
+
+        // if it is not set, values are represented as bit vectors
+        return null;
+    }
+
     /**
      * Calculates the greatest used software queue size on out-going ports.
      *
-     * This is required for memory allocation on the board-side driver,
-     * since only a single out-going software queue will be allocated,
-     * which has to capable of holding all these elements.
+     * This bounds the size of a single data message sent by the board-side driver
+     * and is used to size the TCP send buffer accordingly.
      * @param file The complete board description.
-     * @return The maximal used queue size.
+     * @return The maximal used queue size in 32-bit values.
      */
     public static int maxOutQueueSize(BDLFilePos file) {
-        int size = 0;
-
-        for(InstancePos inst : file.insts())
-            for(BindingPos bind : inst.bind())
-                if(bind instanceof CPUAxisPos)
-                    if(getPort(bind).direction() instanceof OUTPos)
-                        size = Math.max(size, getSWQueueSize((CPUAxisPos)bind));
-
-        return size;
+        return BoardIndex.of(file).maxOutQueueSize();
     }
 
     /**
@@ -352,6 +487,20 @@ public class BoardUtils {
         return 2;
     }
 
+    /**
+     * Get the protocol version used for communication between host- and board-side driver.
+     * @param file The complete board description.
+     * @return The protocol version specified at the medium or the default protocol version.
+     */
+    public static int getProtocolVersion(BDLFilePos file) {
+        Medium medium = file.medium().termMedium();
+        if(medium instanceof DefinedMedium)
+            for(MOption opt : ((DefinedMedium)medium).opts())
+                if(opt instanceof PROTOCOL) return ((PROTOCOL)opt).val();
+
+        return Protocol.DEFAULT.version();
+    }
+
     public static boolean hasDHCP(ETHERNETPos term) {
         for(MOption opt : term.opts().term()) if(opt instanceof DHCP) return true;
 
@@ -370,26 +519,12 @@ public class BoardUtils {
         return Math.max(defaultTCPSendBuffer, maxOutQueueSize(term.root()) *10);
     }
 
-    private static int totalQueueSize(BDLFilePos file) {
-        int size = 0;
-
-        // add queue lengths of all in-going ports
-        for(InstancePos inst : file.insts())
-            for(BindingPos bind : inst.bind())
-                if(bind instanceof CPUAxisPos)
-                    if(getPort(bind).direction() instanceof INPos)
-                        size += getSWQueueSize((CPUAxisPos)bind);
-
-        // add maximal queue length of all out-going ports
-        size += maxOutQueueSize(file);
-
-        return size;
-    }
-
     /**
-     * Calculates the total memory size required by the application.
+     * Calculates the total memory size required by the application on stack and heap.
      *
      * Overapproximates by merging stack and heap space.
+     * Statically allocated software queues are placed in a linker section of their own
+     * and are not included.
      * @param file The board design for which memory size should be calculated.
      * @return The calculated memory size in 4byte integers.
      */
@@ -397,8 +532,7 @@ public class BoardUtils {
         // use 5k (that's 20k in byte)for data and application - hope that's sufficient...
         int totalMem = 5000;
 
-        // add memory sw queue sizes
-        totalMem += totalQueueSize(file);
+        // software queues are allocated statically in their own linker section and require neither heap nor stack
 
         // add memory for the medium library
         totalMem += file.medium().Switch(new MediumPos.Switch<Integer, NE>() {
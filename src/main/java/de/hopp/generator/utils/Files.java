@@ -1,21 +1,38 @@
 package de.hopp.generator.utils;
 
-import static org.apache.commons.io.FileUtils.contentEquals;
 import static org.apache.commons.io.FileUtils.copyFile;
 import static org.apache.commons.io.FileUtils.copyInputStreamToFile;
 import static org.apache.commons.io.FileUtils.openInputStream;
-import static org.apache.commons.io.FileUtils.readFileToString;
-import static org.apache.commons.io.FileUtils.write;
+import static org.apache.commons.io.FileUtils.readLines;
+import static org.apache.commons.io.FileUtils.writeLines;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
+import org.apache.commons.io.IOUtils;
+
 import de.hopp.generator.IOHandler;
 
 /**
@@ -35,9 +52,57 @@ import de.hopp.generator.IOHandler;
  */
 public class Files {
 
+    /** Name of the file storing the digest cache within the temporary directory. */
+    public static final String DIGESTS = "digests";
+
+    /** Digests computed or confirmed during this run, indexed by the path of the digested file */
+    private static final Map<String, CachedDigest> digests = new HashMap<String, CachedDigest>();
+    /** Digests loaded from the cache of the previous run, that have not been used yet */
+    private static final Map<String, CachedDigest> stored  = new HashMap<String, CachedDigest>();
+
+    /** Digest of a file, valid as long as size and modification date of the file do not change */
+    private static class CachedDigest {
+        final long size, modified;
+        final byte[] digest;
+
+        CachedDigest(long size, long modified, byte[] digest) {
+            this.size     = size;
+            this.modified = modified;
+            this.digest   = digest;
+        }
+    }
+
+    /** Counts the files of a deployed tree */
+    private static class Statistics {
+        final long start = System.nanoTime();
+        int files, copied;
+
+        void report(String src, IOHandler IO) {
+            IO.verbose(String.format("    deployed %d of %d files from %s in %d ms",
+                copied, files, src, (System.nanoTime() - start) / 1000000));
+        }
+    }
+
+    /**
+     * Content of a file, that is written directly to the file instead of being buffered in memory.
+     * Used for the output of unparsers.
+     *
+     * @param <E> Exception, that may occur while generating the content.
+     */
+    public interface Content<E extends Exception> {
+        /**
+         * Writes the content.
+         * @param out writer of the target file.
+         * @throws IOException in case of an I/O error
+         * @throws E if the content could not be generated
+         */
+        void writeTo(Writer out) throws IOException, E;
+    }
+
     /**
      * Copies a file iff the target file does not exist
      * or has different content than the source file.
+     * Directories are copied recursively.
      *
      * @param srcFile file to be copied.
      * @param destFile target to where the file should be copied to.
@@ -47,6 +112,13 @@ public class Files {
      * @throws IOException in case of an I/O error
      */
     public static boolean deploy(File srcFile, File destFile, IOHandler IO) throws IOException {
+        Statistics stats = new Statistics();
+        boolean newFiles = deploy(srcFile, destFile, IO, stats);
+        stats.report(srcFile.getPath(), IO);
+        return newFiles;
+    }
+
+    private static boolean deploy(File srcFile, File destFile, IOHandler IO, Statistics stats) throws IOException {
         IO.verbose("    copying " + srcFile.getPath() + " to " + destFile.getPath());
 
         if(! srcFile.exists()) throw new IOException("Input path " + srcFile.getPath() + " doesn't exist");
@@ -61,19 +133,23 @@ public class Files {
 
             // ... and copy all its contents
             for(String s : srcFile.list())
-                newFiles = newFiles || deploy(new File(srcFile, s), new File(destFile, s), IO);
+                newFiles = deploy(new File(srcFile, s), new File(destFile, s), IO, stats) || newFiles;
 
             return newFiles;
         }
 
+        stats.files++;
+
         // otherwise check if the file already exists and is identical to the source
-        if(destFile.exists() && contentEquals(srcFile, destFile)) {
+        if(destFile.isFile() && destFile.length() == srcFile.length() &&
+                Arrays.equals(digest(srcFile), digest(destFile))) {
             IO.debug("      skipping since identical file already exists in target directory");
             return false;
         }
 
         // if not, (re-)deploy the file
-        copyFile(srcFile, destFile);
+        copy(srcFile, destFile);
+        stats.copied++;
         return true;
     }
 
@@ -104,6 +180,7 @@ public class Files {
             // if the file pointing to the resource doesn't exist, it probably is inside a jar file
             IO.debug("    resource not found as file - checking if it points inside a jar file");
             boolean newFiles = false;
+            Statistics stats = new Statistics();
 
 
             // get the jar file, where the resource is contained
@@ -132,15 +209,19 @@ public class Files {
                         File target = new File(destFile, path);
 
                         IO.verbose("      copying file " + entry.getName() + " to " +  target.getPath());
-                        if(compareContents(jarFile.getInputStream(entry), target)) {
+                        stats.files++;
+                        if(target.isFile() && target.length() == entry.getSize() &&
+                                Arrays.equals(digest(jarFile, entry), digest(target))) {
                             IO.debug("      skipping since identical file already exists in target directory");
                         } else {
                             copyInputStreamToFile(jarFile.getInputStream(entry), target);
+                            stats.copied++;
                             newFiles = true;
                         }
                     }
                 }
 
+                stats.report(srcPath, IO);
                 return newFiles;
             } finally {
                 jarFile.close();
@@ -150,34 +231,26 @@ public class Files {
     }
 
     /**
-     * Determines if the content of an InputStream matches the content of a file.
-     * If the file does not exist, it does NOT match, regardless of the stream contents.
+     * Writes a string to a file iff the target file does not exist
+     * or has different content than the string.
      *
-     * @param srcStream stream to be compared.
-     * @param destFile file to be compared.
-     * @return true if the contents are equal, false otherwise
+     * @param content String to be written to a file.
+     * @param destFile target file where the string should be written to.
+     * @param IO IOHandler for debug messages.
+     * @return true if something was written, false otherwise (i.e. identical file already exists).
      * @throws IOException in case of an I/O error
      */
-    private static boolean compareContents(InputStream srcStream, File destFile) throws IOException {
-        if(!destFile.exists()) return false;
-
-        InputStream destStream = openInputStream(destFile);
-        // read the first character of both streams
-        int a = srcStream.read();
-        int b = destStream.read();
-
-        while(a == b && a != -1) {
-            a = srcStream.read();
-            b = destStream.read();
-        }
-
-        if (a == -1 && b == -1) return true;
-        else return false;
+    public static boolean deployContent(final String content, File destFile, IOHandler IO) throws IOException {
+        return deployContent(new Content<RuntimeException>() {
+            public void writeTo(Writer out) throws IOException {
+                out.write(content);
+            }
+        }, destFile, IO);
     }
 
     /**
-     * Writes a string to a file iff the target file does not exist
-     * or has different content than the string.
+     * Writes the content of a buffer to a file iff the target file does not exist
+     * or has different content than the buffer.
      *
      * @param content String to be written to a file.
      * @param destFile target file where the string should be written to.
@@ -185,29 +258,244 @@ public class Files {
      * @return true if something was written, false otherwise (i.e. identical file already exists).
      * @throws IOException in case of an I/O error
      */
-    public static boolean deployContent(String content, File destFile, IOHandler IO) throws IOException {
+    public static boolean deployContent(final StringBuffer content, File destFile, IOHandler IO) throws IOException {
+        return deployContent(new Content<RuntimeException>() {
+            public void writeTo(Writer out) throws IOException {
+                out.append(content);
+            }
+        }, destFile, IO);
+    }
+
+    /**
+     * Writes generated content to a file iff the target file does not exist
+     * or has different content than the generated one.
+     *
+     * The content is streamed into a temporary file next to the target file and digested on the fly.
+     * If the target file has the same size and digest, the temporary file is discarded,
+     * otherwise it replaces the target file.
+     * This way, the content is never held in memory as a whole.
+     *
+     * @param content content to be written to a file.
+     * @param destFile target file where the content should be written to.
+     * @param IO IOHandler for debug messages.
+     * @return true if something was written, false otherwise (i.e. identical file already exists).
+     * @throws IOException in case of an I/O error
+     * @throws E if the content could not be generated
+     */
+    public static <E extends Exception> boolean deployContent(Content<E> content, File destFile, IOHandler IO)
+            throws IOException, E {
         IO.verbose("    deploying " + destFile.getPath());
-        if(destFile.exists() && content.equals(readFileToString(destFile))) {
-            IO.debug("      skipping since identical file already exists in target directory");
-            return false;
-        }
+        if(deployContent(content, destFile)) return true;
 
-        write(destFile, content);
-        return true;
+        IO.debug("      skipping since identical file already exists in target directory");
+        return false;
     }
 
     /**
-     * Writes the content of a buffer to a file iff the target file does not exist
-     * or has different content than the buffer.
+     * Writes generated content to a file iff the target file does not exist
+     * or has different content than the generated one (see {@link #deployContent(Content, File, IOHandler)}).
      *
-     * @param content String to be written to a file.
-     * @param destFile target file where the string should be written to.
-     * @param IO IOHandler for debug messages.
+     * @param content content to be written to a file.
+     * @param destFile target file where the content should be written to.
      * @return true if something was written, false otherwise (i.e. identical file already exists).
      * @throws IOException in case of an I/O error
+     * @throws E if the content could not be generated
+     */
+    public static <E extends Exception> boolean deployContent(Content<E> content, File destFile)
+            throws IOException, E {
+        File dir = destFile.getAbsoluteFile().getParentFile();
+        if(!dir.exists() && !dir.mkdirs()) throw new IOException("could not create directory " + dir.getPath());
+
+        File temp = File.createTempFile(destFile.getName(), ".tmp", dir);
+        try {
+            // stream the content into the temporary file
+            MessageDigest digest = newDigest();
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(temp)), digest)));
+            try {
+                content.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            // keep the existing file, if it is identical
+            byte[] hash = digest.digest();
+            if(destFile.isFile() && destFile.length() == temp.length() && Arrays.equals(hash, digest(destFile)))
+                return false;
+
+            // otherwise replace it
+            if(destFile.exists() && !destFile.delete())
+                throw new IOException("could not replace " + destFile.getPath());
+            if(!temp.renameTo(destFile)) copyFile(temp, destFile);
+            remember(destFile.getAbsolutePath(), destFile.length(), destFile.lastModified(), hash);
+            return true;
+        } finally {
+            if(temp.exists()) temp.delete();
+        }
+    }
+
+    /**
+     * Copies a file, preserving its modification date.
+     * The content is transferred between the file channels, avoiding an intermediate buffer.
+     * @param srcFile file to be copied.
+     * @param destFile target to where the file should be copied to.
+     * @throws IOException in case of an I/O error
+     */
+    private static void copy(File srcFile, File destFile) throws IOException {
+        File dir = destFile.getAbsoluteFile().getParentFile();
+        if(!dir.exists() && !dir.mkdirs()) throw new IOException("could not create directory " + dir.getPath());
+
+        FileInputStream  in  = new FileInputStream(srcFile);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(destFile);
+            FileChannel src = in.getChannel(), dest = out.getChannel();
+            long size = src.size();
+            for(long pos = 0; pos < size; ) pos += src.transferTo(pos, size - pos, dest);
+            out.close();
+        } finally {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+        }
+
+        if(destFile.length() != srcFile.length())
+            throw new IOException("failed to copy full contents from " + srcFile.getPath() + " to " + destFile.getPath());
+        destFile.setLastModified(srcFile.lastModified());
+    }
+
+    /**
+     * Loads the digest cache stored by a previous run (see {@link #storeDigests(File)}).
+     * Digests of files, that have been modified since, are not used.
+     * If the cache cannot be read, all files are digested again.
+     * @param file The file storing the cache.
+     */
+    public static synchronized void loadDigests(File file) {
+        stored.clear();
+        if(!file.exists()) return;
+        try {
+            for(String line : readLines(file)) {
+                String[] parts = line.split(" ", 4);
+                if(parts.length != 4) continue;
+                stored.put(parts[3], new CachedDigest(
+                    Long.parseLong(parts[1]), Long.parseLong(parts[2]), unhex(parts[0])));
+            }
+        } catch(IOException e) {
+            stored.clear();
+        } catch(NumberFormatException e) {
+            stored.clear();
+        }
+    }
+
+    /**
+     * Stores all digests computed or confirmed during this run, so that unchanged files
+     * do not have to be read again by the next run.
+     * @param file The file storing the cache.
+     * @throws IOException if the cache could not be written.
+     */
+    public static synchronized void storeDigests(File file) throws IOException {
+        List<String> lines = new LinkedList<String>();
+        for(Entry<String, CachedDigest> entry : digests.entrySet())
+            lines.add(hex(entry.getValue().digest) + " " + entry.getValue().size + " " +
+                entry.getValue().modified + " " + entry.getKey());
+        writeLines(file, lines, "\n");
+    }
+
+    /**
+     * Returns the digest of a file. The digest is only computed, if the file
+     * has been modified since it was digested the last time.
+     * @param file The file.
+     * @return The digest of the file contents.
+     * @throws IOException in case of an I/O error
+     */
+    private static byte[] digest(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long size = file.length(), modified = file.lastModified();
+
+        byte[] cached = lookup(key, size, modified);
+        if(cached != null) return cached;
+
+        MessageDigest digest = newDigest();
+        update(digest, file);
+        return remember(key, size, modified, digest.digest());
+    }
+
+    /**
+     * Returns the digest of an entry of a jar file. The digest is only computed, if the entry
+     * has been modified since it was digested the last time.
+     * @param jar The jar file.
+     * @param entry The entry.
+     * @return The digest of the entry contents.
+     * @throws IOException in case of an I/O error
      */
-    public static boolean deployContent(StringBuffer content, File destFile, IOHandler IO) throws IOException {
-        return deployContent(content.toString(), destFile, IO);
+    private static byte[] digest(JarFile jar, JarEntry entry) throws IOException {
+        String key = jar.getName() + "!/" + entry.getName();
+
+        byte[] cached = lookup(key, entry.getSize(), entry.getTime());
+        if(cached != null) return cached;
+
+        MessageDigest digest = newDigest();
+        InputStream in = jar.getInputStream(entry);
+        try {
+            byte[] buffer = new byte[8192];
+            for(int n = in.read(buffer); n != -1; n = in.read(buffer)) digest.update(buffer, 0, n);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return remember(key, entry.getSize(), entry.getTime(), digest.digest());
+    }
+
+    private static synchronized byte[] lookup(String key, long size, long modified) {
+        CachedDigest cached = digests.get(key);
+        if(cached == null) {
+            cached = stored.remove(key);
+            if(cached != null) digests.put(key, cached);
+        }
+        if(cached == null || cached.size != size || cached.modified != modified) return null;
+        return cached.digest;
+    }
+
+    private static synchronized byte[] remember(String key, long size, long modified, byte[] digest) {
+        digests.put(key, new CachedDigest(size, modified, digest));
+        return digest;
+    }
+
+    /** @return A new digest for comparison of file contents. */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch(NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Updates a digest with the contents of a file.
+     * @param digest The digest.
+     * @param file The file.
+     * @throws IOException in case of an I/O error
+     */
+    static void update(MessageDigest digest, File file) throws IOException {
+        InputStream in = openInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            for(int n = in.read(buffer); n != -1; n = in.read(buffer)) digest.update(buffer, 0, n);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /** @return The hexadecimal representation of a digest. */
+    static String hex(byte[] bytes) {
+        StringBuilder rslt = new StringBuilder(2 * bytes.length);
+        for(byte b : bytes) rslt.append(String.format("%02x", b & 0xff));
+        return rslt.toString();
+    }
+
+    private static byte[] unhex(String hex) {
+        byte[] rslt = new byte[hex.length() / 2];
+        for(int i = 0; i < rslt.length; i++) rslt[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return rslt;
     }
 
     /**
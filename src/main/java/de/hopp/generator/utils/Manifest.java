@@ -0,0 +1,181 @@
+package de.hopp.generator.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+
+import de.hopp.generator.Main;
+import de.hopp.generator.model.BDLFilePos;
+import de.hopp.generator.model.Core;
+import de.hopp.generator.model.Import;
+
+/**
+ * Build manifest of the generator, enabling incremental generation.
+ *
+ * The manifest records digests of all inputs of a generator run, i.e. the board description,
+ * the sources of each core, the selected backends and the version of the generator.
+ * Each output (a file or directory) is mapped to the digest of the inputs it has been generated from.
+ * If these inputs did not change since the last successful run and the output still exists,
+ * a backend skips the output entirely instead of running its visitors and unparsers again.
+ *
+ * The manifest is stored in the temporary directory of the generator.
+ * It is only updated after a successful run, so that outputs of a failed run are always regenerated.
+ */
+public class Manifest {
+
+    /** Name of the file storing the manifest within the temporary directory. */
+    public static final String FILENAME = "manifest";
+
+    /** Input key of the generator version */
+    public static final String VERSION = "version";
+    /** Input key of the board description (excluding the sources of its cores) */
+    public static final String BOARD   = "bdl";
+    /** Input key of the selected board and workflow backends (including their parameters) */
+    public static final String WORKFLOW = "workflow";
+    /** Input key of the selected host backend (including its parameters) */
+    public static final String HOST     = "host";
+
+    /** File storing the manifest */
+    private final File file;
+
+    /** Digests of the inputs of this run, indexed by their keys */
+    private final Map<String, String> inputs   = new HashMap<String, String>();
+    /** Input digests of all outputs as recorded by the last successful run */
+    private final Map<String, String> recorded = new TreeMap<String, String>();
+    /** Input digests of all outputs of this run */
+    private final Map<String, String> current  = new TreeMap<String, String>();
+
+    /**
+     * Loads the manifest of the last successful run from the temporary directory.
+     * If there is no such manifest or it cannot be read, all outputs are considered outdated.
+     * @param tempDir Temporary directory of the generator.
+     * @param ignore true if the recorded manifest should be ignored, i.e. all outputs should be regenerated.
+     */
+    public Manifest(File tempDir, boolean ignore) {
+        file = new File(tempDir, FILENAME);
+
+        addInput(VERSION, Main.version);
+
+        // digests of deployed files are cached alongside the manifest
+        if(!ignore) Files.loadDigests(new File(tempDir, Files.DIGESTS));
+
+        if(ignore || !file.exists()) return;
+        try {
+            for(String line : FileUtils.readLines(file)) {
+                int split = line.indexOf(' ');
+                if(split > 0) recorded.put(line.substring(split + 1), line.substring(0, split));
+            }
+        } catch(IOException e) {
+            recorded.clear();
+        }
+    }
+
+    /**
+     * Adds the board description and the sources of its cores to the inputs of this run.
+     *
+     * Positions are removed from the board description beforehand, so that changes
+     * to comments or formatting of the description do not cause regeneration.
+     * @param board The board description.
+     * @throws IOException If a core source could not be read.
+     */
+    public void addBoard(BDLFilePos board) throws IOException {
+        addInput(BOARD, normalize(board.term().toString()));
+
+        for(Core core : board.cores().term()) {
+            MessageDigest digest = Files.newDigest();
+            digest.update(utf8(normalize(core.toString())));
+            for(Import source : core.source()) Files.update(digest, new File(source.file()));
+            inputs.put(core(core.name()), Files.hex(digest.digest()));
+        }
+    }
+
+    /**
+     * Adds an input to this run.
+     * @param key Key of the input.
+     * @param value Content of the input.
+     */
+    public void addInput(String key, String value) {
+        inputs.put(key, Files.hex(Files.newDigest().digest(utf8(value))));
+    }
+
+    /**
+     * Adds the contents of a file to the inputs of this run.
+     * A file, which does not exist, is a valid input as well.
+     * @param key Key of the input.
+     * @param file The file.
+     * @throws IOException If the file could not be read.
+     */
+    public void addInput(String key, File file) throws IOException {
+        MessageDigest digest = Files.newDigest();
+        if(file.exists()) Files.update(digest, file);
+        inputs.put(key, Files.hex(digest.digest()));
+    }
+
+    /**
+     * Checks, if an output is up to date, i.e. if it exists and its inputs did not change since the
+     * last successful run. Records the inputs of the output for this run in any case.
+     * @param output The output.
+     * @param keys Keys of all inputs the output depends on. All of them have to be added beforehand.
+     * @return true if the output can be skipped, false if it has to be generated.
+     */
+    public boolean upToDate(File output, String... keys) {
+        StringBuilder digests = new StringBuilder();
+        for(String key : keys) {
+            String digest = inputs.get(key);
+            if(digest == null) throw new IllegalStateException("unknown input " + key);
+            digests.append(key).append(' ').append(digest).append('\n');
+        }
+
+        String path = output.getAbsolutePath();
+        String digest = Files.hex(Files.newDigest().digest(utf8(digests.toString())));
+
+        current.put(path, digest);
+        return output.exists() && digest.equals(recorded.get(path));
+    }
+
+    /**
+     * Stores the manifest of this run (and the digest cache of deployed files).
+     * Outputs, which have not been considered in this run, keep their recorded inputs.
+     * @throws IOException If the manifest could not be written.
+     */
+    public void save() throws IOException {
+        Map<String, String> outputs = new TreeMap<String, String>(recorded);
+        outputs.putAll(current);
+
+        StringBuilder content = new StringBuilder();
+        for(Entry<String, String> entry : outputs.entrySet())
+            content.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+
+        FileUtils.writeStringToFile(file, content.toString());
+        Files.storeDigests(new File(file.getParentFile(), Files.DIGESTS));
+    }
+
+    /**
+     * @param name Name of a core.
+     * @return Input key of the core, comprising its description and its sources.
+     */
+    public static String core(String name) {
+        return "core " + name;
+    }
+
+    /** Removes all positions from the textual representation of a term. */
+    private static String normalize(String term) {
+        return term.replaceAll("Position\\( \"(?:[^\"\\\\]|\\\\.)*\", -?[0-9]+ \\)", "Position()");
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            // every java platform is required to support UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+#include "dma.h"
+#include "../io.h"
+#include "../queueUntyped.h"
+
+#include "xil_cache.h"
+
+/** Ports attached to dma engines */
+static DMAPort dmaPorts[DMA_ENGINE_COUNT];
+
+/**
+ * Receive buffers of all out-going dma ports.
+ * Like the input queues, the buffers are neither allocated on the heap nor initialised on startup.
+ */
+static int dmaValues[DMA_STORAGE] __attribute__((section(".loopy_queues")));
+
+/**
+ * Descriptor rings of all dma ports.
+ * The descriptors are initialised, when their engine is set up.
+ */
+static XAxiDma_Bd dmaBds[DMA_BD_STORAGE] __attribute__((section(".loopy_queues"), aligned(XAXIDMA_BD_MINIMUM_ALIGNMENT)));
+
+/**
+ * Number of polls of a dma engine, until a reset is considered to have failed.
+ * A reset completes, as soon as the running transfer of the engine has been aborted.
+ */
+#define DMA_RESET_POLLS 100000
+
+/**
+ * Initialises a dma engine and creates the descriptor ring of its only channel.
+ * Completion of descriptors is checked by the scheduler, so interrupts of the engine remain disabled.
+ * @param port The port attached to the engine.
+ * @param deviceId Device id of the engine.
+ * @param write 1 for the memory to stream channel of in-going ports,
+ *              0 for the stream to memory channel of out-going ports.
+ * @param bds Memory of the descriptors of the ring.
+ * @param count Number of descriptors of the ring.
+ * @return The descriptor ring of the channel or 0, if the initialisation failed.
+ */
+static XAxiDma_BdRing* init_engine(DMAPort *port, u16 deviceId, int write, XAxiDma_Bd *bds, unsigned int count) {
+	XAxiDma_Config *config = XAxiDma_LookupConfig(deviceId);
+	if(config == 0 || XAxiDma_CfgInitialize(&port->engine, config) != XST_SUCCESS) {
+		log_error("could not initialise dma engine %d", deviceId);
+		return 0;
+	}
+	if(!XAxiDma_HasSg(&port->engine)) {
+		log_error("dma engine %d is not configured for scatter-gather transfers", deviceId);
+		return 0;
+	}
+
+	XAxiDma_BdRing *ring = write ? XAxiDma_GetTxRing(&port->engine) : XAxiDma_GetRxRing(&port->engine);
+	XAxiDma_BdRingIntDisable(ring, XAXIDMA_IRQ_ALL_MASK);
+
+	// set up all descriptors of the ring from an empty template
+	XAxiDma_Bd empty;
+	XAxiDma_BdClear(&empty);
+	if(XAxiDma_BdRingCreate(ring, (u32)bds, (u32)bds, XAXIDMA_BD_MINIMUM_ALIGNMENT, count) != XST_SUCCESS ||
+	   XAxiDma_BdRingClone(ring, &empty) != XST_SUCCESS) {
+		log_error("could not create descriptor ring of dma engine %d", deviceId);
+		return 0;
+	}
+
+	port->bds = bds;
+	return ring;
+}
+
+/**
+ * Resets the dma engine of an in-going port and recreates its descriptor ring.
+ * The reset aborts a running transfer and releases the engine from the halted state,
+ * which it enters after a failed descriptor. Afterwards, the channel is started again.
+ * @param pid The in-going port.
+ * @param port The port attached to the engine.
+ * @return 0 if successful, 1 otherwise.
+ */
+static int restart_write(unsigned int pid, DMAPort *port) {
+	XAxiDma_BdRing *ring = XAxiDma_GetTxRing(&port->engine);
+	unsigned int polls;
+
+	// the values of an aborted transfer are dropped with the queue, so none of them is pending anymore
+	port->pending = 0;
+
+	XAxiDma_Reset(&port->engine);
+	for(polls = 0; !XAxiDma_ResetIsDone(&port->engine); polls++) {
+		if(polls == DMA_RESET_POLLS) {
+			log_error("could not reset dma engine of in-going port %d", pid);
+			return 1;
+		}
+	}
+
+	// the reset disables the channel and leaves descriptors handed to the engine behind,
+	// so the ring is set up from scratch
+	XAxiDma_Bd empty;
+	XAxiDma_BdClear(&empty);
+	XAxiDma_BdRingIntDisable(ring, XAXIDMA_IRQ_ALL_MASK);
+	if(XAxiDma_BdRingCreate(ring, (u32)port->bds, (u32)port->bds, XAXIDMA_BD_MINIMUM_ALIGNMENT, DMA_WRITE_BD_COUNT) != XST_SUCCESS ||
+	   XAxiDma_BdRingClone(ring, &empty) != XST_SUCCESS || XAxiDma_BdRingStart(ring) != XST_SUCCESS) {
+		log_error("could not restart dma engine of in-going port %d", pid);
+		return 1;
+	}
+
+	return 0;
+}
+
+/**
+ * Prepares a descriptor for a transfer.
+ * @param bd The descriptor.
+ * @param values Buffer of the transfer.
+ * @param count Number of values of the transfer.
+ * @param ctrl Control flags of the descriptor (start and end of a packet).
+ */
+static void prepare_bd(XAxiDma_Bd *bd, int values[], unsigned int count, u32 ctrl) {
+	XAxiDma_BdSetBufAddr(bd, (u32)values);
+	XAxiDma_BdSetLength(bd, count * sizeof(int));
+	XAxiDma_BdSetCtrl(bd, ctrl);
+	XAxiDma_BdSetId(bd, (u32)values);
+	XAxiDma_BdWrite(bd, XAXIDMA_BD_STS_OFFSET, 0);
+}
+
+void init_dma_write(unsigned int pid, unsigned int engine, u16 deviceId, unsigned int bdOffset) {
+	DMAPort *port = &dmaPorts[engine];
+	port->pending = 0;
+	port->unsentCount = 0;
+
+	XAxiDma_BdRing *ring = init_engine(port, deviceId, 1, dmaBds + bdOffset, DMA_WRITE_BD_COUNT);
+	if(ring == 0) return;
+
+	// start the channel. Descriptors are processed as soon as they are handed to the engine
+	if(XAxiDma_BdRingStart(ring) != XST_SUCCESS) {
+		log_error("could not start dma engine %d", deviceId);
+		return;
+	}
+
+	inDMA[pid] = port;
+}
+
+void init_dma_read(unsigned int pid, unsigned int engine, u16 deviceId,
+		unsigned int bdOffset, unsigned int offset, unsigned int count, unsigned int chunk) {
+	DMAPort *port = &dmaPorts[engine];
+	int *buffer = dmaValues + offset;
+	port->chunk = chunk;
+	port->unsentCount = 0;
+
+	if(count == 0 || chunk == 0) {
+		log_error("receive buffer of dma engine %d is empty", deviceId);
+		return;
+	}
+
+	XAxiDma_BdRing *ring = init_engine(port, deviceId, 0, dmaBds + bdOffset, count);
+	if(ring == 0) return;
+
+	XAxiDma_Bd *bds, *bd;
+	if(XAxiDma_BdRingAlloc(ring, count, &bds) != XST_SUCCESS) {
+		log_error("could not allocate descriptors of dma engine %d", deviceId);
+		return;
+	}
+
+	// descriptors receive consecutive parts of the buffer, so that completed ones can be sent at once
+	unsigned int i;
+	for(i = 0, bd = bds; i < count; i++, bd = XAxiDma_BdRingNext(ring, bd))
+		prepare_bd(bd, buffer + i * chunk, chunk, 0);
+
+	// the engine writes to memory, so no stale cache lines may remain
+	Xil_DCacheInvalidateRange((u32)buffer, count * chunk * sizeof(int));
+
+	if(XAxiDma_BdRingToHw(ring, count, bds) != XST_SUCCESS || XAxiDma_BdRingStart(ring) != XST_SUCCESS) {
+		log_error("could not start dma engine %d", deviceId);
+		return;
+	}
+
+	outDMA[pid] = port;
+}
+
+unsigned int dma_write(unsigned int pid) {
+	DMAPort *port = inDMA[pid];
+	Queue *queue = inQueue[pid];
+	XAxiDma_BdRing *ring = XAxiDma_GetTxRing(&port->engine);
+	XAxiDma_Bd *bds, *bd;
+	unsigned int done = 0;
+	int count, i;
+
+	// collect completed descriptors of the running transfer
+	if(port->pending > 0) {
+		unsigned int lost = 0;
+
+		count = XAxiDma_BdRingFromHw(ring, XAXIDMA_ALL_BDS, &bds);
+		for(i = 0, bd = bds; i < count; i++, bd = XAxiDma_BdRingNext(ring, bd)) {
+			unsigned int size = XAxiDma_BdGetLength(bd) / sizeof(int);
+			if(XAxiDma_BdGetSts(bd) & XAXIDMA_BD_STS_ALL_ERR_MASK) lost += size;
+			done += size;
+		}
+		if(count > 0) XAxiDma_BdRingFree(ring, count, bds);
+
+		// values of failed descriptors never reached the component, so the port fails
+		// (the engine halts on errors, so the rest of the queue is lost as well).
+		// The engine is reset, so that it accepts transfers again, once the port has been reset
+		if(lost > 0) {
+			lost = queue->size - (done - lost);
+			log_error("dma transfer of in-going port %d failed, lost %d values", pid, lost);
+			restart_write(pid, port);
+			fail_port(pid, lost);
+			return 0;
+		}
+
+		// the transferred values leave the queue
+		drop(queue, done);
+		port->pending -= done;
+	}
+
+	// start a new transfer of the complete queue, if none is running
+	if(port->pending > 0 || queue->size == 0) return done;
+
+	// the values occupy at most two contiguous parts of the storage of the queue
+	unsigned int first = queue->cap - queue->first;
+	if(first > queue->size) first = queue->size;
+	unsigned int second = queue->size - first;
+
+	count = second > 0 ? 2 : 1;
+	if(XAxiDma_BdRingAlloc(ring, count, &bds) != XST_SUCCESS) return done;
+
+	prepare_bd(bds, queue->values + queue->first, first,
+		XAXIDMA_BD_CTRL_TXSOF_MASK | (second > 0 ? 0 : XAXIDMA_BD_CTRL_TXEOF_MASK));
+	Xil_DCacheFlushRange((u32)(queue->values + queue->first), first * sizeof(int));
+	if(second > 0) {
+		prepare_bd(XAxiDma_BdRingNext(ring, bds), queue->values, second, XAXIDMA_BD_CTRL_TXEOF_MASK);
+		Xil_DCacheFlushRange((u32)queue->values, second * sizeof(int));
+	}
+
+	if(XAxiDma_BdRingToHw(ring, count, bds) != XST_SUCCESS) {
+		log_error("could not start dma transfer of in-going port %d", pid);
+		XAxiDma_BdRingUnAlloc(ring, count, bds);
+		return done;
+	}
+
+	log_finer("started dma transfer of %d values to in-going port %d", queue->size, pid);
+	port->pending = queue->size;
+	return done;
+}
+
+void dma_reset(unsigned int pid) {
+	DMAPort *port = inDMA[pid];
+
+	// without a running transfer, the engine is idle and no value of the queue is referenced
+	if(port->pending == 0) return;
+
+	log_fine("aborting dma transfer of %d values to in-going port %d", port->pending, pid);
+	restart_write(pid, port);
+}
+
+int dma_read(unsigned int pid) {
+	DMAPort *port = outDMA[pid];
+	XAxiDma_BdRing *ring = XAxiDma_GetRxRing(&port->engine);
+	XAxiDma_Bd *bds, *bd, *first;
+	int *values = 0;
+	unsigned int size = 0;
+	int rslt = 0, count, sent = 0, i;
+
+	// descriptors, which could not be sent by the previous call, precede newly completed ones
+	if(port->unsentCount > 0) {
+		bds = port->unsent;
+		count = port->unsentCount;
+	} else count = XAxiDma_BdRingFromHw(ring, XAXIDMA_ALL_BDS, &bds);
+	if(count == 0) return 0;
+
+	// send the contents of all completed descriptors, until sending fails. The values of consecutive
+	// descriptors are contiguous, until a descriptor has not been filled or the buffer wraps around
+	first = bds;
+	for(i = 0, bd = bds; i < count; i++, bd = XAxiDma_BdRingNext(ring, bd)) {
+		int *buffer = (int*)XAxiDma_BdGetId(bd);
+		unsigned int length = XAxiDma_BdGetActualLength(bd) / sizeof(int);
+
+		if(XAxiDma_BdGetSts(bd) & XAXIDMA_BD_STS_ALL_ERR_MASK) {
+			log_error("dma transfer of out-going port %d failed", pid);
+			length = 0;
+		}
+
+		// the engine has written to memory, so cached values are stale
+		if(length > 0) Xil_DCacheInvalidateRange((u32)buffer, length * sizeof(int));
+
+		// extend the collected values, if the descriptor continues them
+		if(size > 0 && length > 0 && buffer == values + size) {
+			size += length;
+			continue;
+		}
+
+		// otherwise, send the collected values
+		if(size > 0) {
+			log_finer("received %d values from out-going port %d", size, pid);
+			if(send_values(pid, values, size)) {
+				rslt = 1;
+				break;
+			}
+			size = 0;
+		}
+
+		// all descriptors before the current one are done. Failed or empty descriptors are done as well
+		sent  = length > 0 ? i : i + 1;
+		first = length > 0 ? bd : XAxiDma_BdRingNext(ring, bd);
+		values = buffer;
+		size   = length;
+	}
+
+	// send the remaining values
+	if(!rslt && size > 0) {
+		log_finer("received %d values from out-going port %d", size, pid);
+		if(send_values(pid, values, size)) rslt = 1;
+		else sent = count;
+	} else if(!rslt) sent = count;
+
+	// keep the descriptors of values, which could not be sent, for the next call
+	port->unsent = first;
+	port->unsentCount = count - sent;
+	if(sent == 0) return rslt;
+
+	XAxiDma_BdRingFree(ring, sent, bds);
+
+	// hand the descriptors back to the engine. Freed descriptors are allocated again in the same order
+	// and each descriptor keeps its part of the buffer as id
+	if(XAxiDma_BdRingAlloc(ring, sent, &bds) != XST_SUCCESS) {
+		log_error("could not reallocate descriptors of out-going port %d", pid);
+		return 1;
+	}
+	for(i = 0, bd = bds; i < sent; i++, bd = XAxiDma_BdRingNext(ring, bd)) {
+		int *buffer = (int*)XAxiDma_BdGetId(bd);
+		prepare_bd(bd, buffer, port->chunk, 0);
+		Xil_DCacheInvalidateRange((u32)buffer, port->chunk * sizeof(int));
+	}
+	if(XAxiDma_BdRingToHw(ring, sent, bds) != XST_SUCCESS) {
+		log_error("could not restart dma engine of out-going port %d", pid);
+		return 1;
+	}
+
+	return rslt;
+}
@@ -0,0 +1,108 @@
+/**
+ * Generic procedures and definitions used by ports attached to AXI DMA engines.
+ * Instead of moving single values between software queues and the stream links of the processor,
+ * these ports hand complete buffers to their engine as scatter-gather descriptors.
+ * The scheduler only starts transfers and collects completed descriptors.
+ * @file
+ */
+
+#ifndef DMA_H_
+#define DMA_H_
+
+#include "xbasic_types.h"
+#include "xaxidma.h"
+#include "../constants.h"
+
+/**
+ * Number of descriptors of in-going ports.
+ * A transfer uses at most two descriptors, since the values of a ring buffer
+ * occupy at most two contiguous parts of its storage.
+ */
+#define DMA_WRITE_BD_COUNT 2
+
+/** A port attached to an AXI DMA engine */
+typedef struct DMAPort {
+	/** Driver instance of the engine */
+	XAxiDma engine;
+	/** Descriptors of the ring of the engine */
+	XAxiDma_Bd *bds;
+	/** Number of values per descriptor (out-going ports only) */
+	unsigned int chunk;
+	/** Number of values of the running transfer (in-going ports only) */
+	unsigned int pending;
+	/** First completed descriptor, which could not be sent so far (out-going ports only) */
+	XAxiDma_Bd *unsent;
+	/** Number of completed descriptors, which could not be sent so far (out-going ports only) */
+	unsigned int unsentCount;
+} DMAPort;
+
+/** DMA engines of in-going ports (0 for ports attached to the processor) */
+DMAPort *inDMA[IN_STREAM_COUNT];
+/** DMA engines of out-going ports (0 for ports attached to the processor) */
+DMAPort *outDMA[OUT_STREAM_COUNT];
+
+/**
+ * Attaches an in-going port to a dma engine.
+ * The engine reads values directly from the software input queue of the port,
+ * which has to be initialised beforehand.
+ * @param pid The in-going port.
+ * @param engine Index of the engine (less than DMA_ENGINE_COUNT).
+ * @param deviceId Device id of the engine.
+ * @param bdOffset Position of the DMA_WRITE_BD_COUNT descriptors of the engine within the descriptor storage.
+ */
+void init_dma_write(unsigned int pid, unsigned int engine, u16 deviceId, unsigned int bdOffset);
+
+/**
+ * Attaches an out-going port to a dma engine.
+ * The engine writes values to a receive buffer of the port, which is located in the
+ * statically allocated storage of DMA_STORAGE values of all out-going dma ports.
+ * The buffer is split into descriptors of equal size, which are located in the statically allocated
+ * storage of DMA_BD_STORAGE descriptors of all dma ports in the order of their parts of the buffer.
+ * A descriptor is only completed, if its buffer has been filled or the core signalled the end of a packet.
+ * Unless the core is known to signal tlast, each descriptor therefore holds a single value,
+ * so that no value remains in a partially filled descriptor.
+ * @param pid The out-going port.
+ * @param engine Index of the engine (less than DMA_ENGINE_COUNT).
+ * @param deviceId Device id of the engine.
+ * @param bdOffset Position of the descriptors within the descriptor storage.
+ * @param offset Position of the receive buffer within the value storage.
+ * @param count Number of descriptors.
+ * @param chunk Number of values per descriptor.
+ */
+void init_dma_read(unsigned int pid, unsigned int engine, u16 deviceId,
+		unsigned int bdOffset, unsigned int offset, unsigned int count, unsigned int chunk);
+
+/**
+ * Moves values from the software input queue of a port to its dma engine.
+ * Collects a completed transfer and removes the transferred values from the queue.
+ * Afterwards, starts a new transfer of all values in the queue, if none is running.
+ * If a descriptor of the transfer failed, its values never reached the component.
+ * In this case, the port fails and the loss is reported to the host-side driver (see #fail_port).
+ * @param pid The in-going port.
+ * @return Number of values, which have been forwarded to the component.
+ */
+unsigned int dma_write(unsigned int pid);
+
+/**
+ * Aborts the running transfer of an in-going port.
+ * The dma engine of the port is reset, so that none of the values in the software input queue
+ * is referenced by the engine anymore. Values of the aborted transfer may have reached the component
+ * or not. They remain in the queue, which has to be cleared afterwards (see #reset_queues).
+ * @param pid The in-going port.
+ */
+void dma_reset(unsigned int pid);
+
+/**
+ * Forwards values received by the dma engine of a port to the host-side driver.
+ * Sends the contents of all completed descriptors and hands them back to the engine.
+ * A descriptor is completed, if its buffer has been filled or the core signalled
+ * the end of a packet with tlast. Completed descriptors filling a contiguous part of the
+ * receive buffer are sent as a single message. If such a part cannot be sent,
+ * its descriptors and all following ones are kept and sent again by the next call.
+ * @param pid The out-going port.
+ * @return 0 if successful, 1 otherwise. A failure might occur due to problems while sending
+ *         values over the medium.
+ */
+int dma_read(unsigned int pid);
+
+#endif /* DMA_H_ */
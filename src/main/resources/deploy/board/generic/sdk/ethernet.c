@@ -34,9 +34,44 @@ static struct netif *netif_ptr;
 
 /** active connection, if any */
 static struct tcp_pcb *con;
+/** id of the active connection, which is passed as argument to its callbacks */
+static int connection = 0;
 
-/** number of currently acknowledged values */
-static unsigned int num_ack = 0;
+/**
+ * Selects, if payloads of out-going ports are sent without copying them (1) or copied into
+ * lwIP memory (0). Define ZERO_COPY as 0 in the compiler flags to compare both modes.
+ */
+#ifndef ZERO_COPY
+#define ZERO_COPY 1
+#endif
+
+/**
+ * Minimal size in bytes of payloads sent without copying them.
+ * A referenced payload keeps its output queue busy until the host acknowledged it. Payloads smaller
+ * than a segment are usually acknowledged with a delay, so a port sending at a low rate would run out
+ * of queues and wait for the acknowledgment instead. Copying such payloads is cheap, so they are copied.
+ */
+#ifndef ZERO_COPY_MIN_BYTES
+#define ZERO_COPY_MIN_BYTES TCP_MSS
+#endif
+
+#if ZERO_COPY
+/** A payload sent without copying it, which is still referenced by lwIP. */
+struct TxRecord {
+    /** Number of bytes written to the connection, including this payload. */
+    u32_t end;
+    /** Flag of the owner of the payload, which is cleared when the payload is acknowledged. */
+    volatile unsigned char *referenced;
+};
+
+/** Payloads sent without copying them in the order they were sent. */
+static struct TxRecord txRecords[TCP_SND_QUEUELEN];
+/** Position of the first and number of payloads in #txRecords. */
+static unsigned int txRecordFirst = 0, txRecordCount = 0;
+#endif /* ZERO_COPY */
+
+/** Number of bytes written to the connection and acknowledged by the host (both wrap around). */
+static u32_t sentBytes = 0, ackedBytes = 0;
 
 /**
  * According to Xilinx employees, this is an implementation for a usleep on a PPC.
@@ -55,18 +90,6 @@ static inline void usleep(unsigned int useconds) {
 /* ********************************* SENDING & RECEIVING ********************************* */
 /* *************************************************************************************** */
 
-static inline void set_unaligned ( int *target, int *data ) {
-    int offset, i;
-    char *byte, *res;
-
-    offset = ((int)target) % 4;
-    if (offset != 0) {
-        byte = (void*)data;
-        res = (void*)target;
-        for (i=0; i<4; i++) *(res++) = ((*(byte++)) & 0xFF);
-    } else *target = *data;
-}
-
 static inline int get_unaligned ( int *data ) {
     unsigned int offset, res, tmp;
     int i;
@@ -95,102 +118,106 @@ static struct pbuf *msgFst = NULL, *msgCurSeg = NULL;
 static unsigned short wordIndex = 0, rWordIndex = 0;
 
 /**
- * Tries to free memory on the board by reading an in-going message.
- * Reading consumes the message from the in-going stack. If the message was
- * an acknowledgment, the acknowledged message is also removed, resulting in
- * even more freed memory.
+ * Processes in-going messages until a condition holds.
+ * Acknowledgments are processed by #ack_callback while reading, which reclaims
+ * memory of sent messages, so the procedure only sleeps while nothing arrives at all.
  *
- * If no message is available, the procedure sleeps TIMEOUT times for 1 second
- * intervals and checks again.
- * If a timeout occurs, the board side driver will shut down.
+ * If nothing arrives for TIMEOUT seconds, the procedure gives up.
  *
  * Debug messages from this method have to be sent over UART,
  * since memory for Ethernet could not be allocated...
+ *
+ * @param ready The condition to wait for.
+ * @param arg Argument of the condition.
+ * @return 0 if the condition holds, 1 if a timeout occurred or the connection was closed.
  */
-static int medium_free_memory() {
-	// initialize attempt counter to four times timeout (since we check every 250 ms)
-	int attempts = TIMEOUT * 4;
-
-	for(attempts = TIMEOUT * 4; attempts > 0 ; attempts--) {
-		// check for a message
-		int rslt = medium_read();
-
-		if(num_ack > 0) {
-			num_ack = 0;
-			return 0;
-		}
-
-		// if there was an application message, restart the attempt counter
-		// (not sure if this is wise... the other message will probably result in memory freeing attempts as well)
-		if(rslt > 0) {
-			attempts = TIMEOUT * 4;
-			continue;
-		}
-
-		// if there was no tcp packet, print a warning over uart
-		// TODO can this even happen? Does xemac_inputf block until a packet arrives?
-#if SEVERITY >= SEVERITY_WARN
-		xil_printf("\nWARNING: No message. %d more attempts", attempts);
-#endif
+static int medium_await(int (*ready)(unsigned int), unsigned int arg) {
+    // sleep for roughly 1 ms, if nothing happened
+    unsigned int idle = 0;
+
+    // the host might close the connection, while messages are read
+    while(medium_connected() && !ready(arg)) {
+        u32_t acked = ackedBytes;
+
+        // restart the timeout, if a message or acknowledgment arrived
+        if(medium_read() || acked != ackedBytes) {
+            idle = 0;
+            continue;
+        }
 
-		// TODO select instead of busy waiting? this seems kinda inefficient ):
-	    usleep(250000);
-	}
+        if(++idle > TIMEOUT * 1000) {
+            xil_printf("\nERROR: Timeout while waiting for messages to free memory.");
+            return 1;
+        }
+        usleep(1000);
+    }
+
+    return !medium_connected();
+}
 
-	// give up, if the timeout has been reached
-	xil_printf("\nERROR: Timeout while waiting for messages to free memory.");
-	return 1;
+/**
+ * Checks, if lwIP can accept a message of the given size without running out of memory.
+ * Payloads sent without copying require up to two pbufs per segment.
+ * @param bytes Size of the message in bytes.
+ * @return 1 if the message can be written, 0 otherwise.
+ */
+static int medium_sendable(unsigned int bytes) {
+    if(tcp_sndbuf(con) <= bytes) return 0;
+#if ZERO_COPY
+    if(txRecordCount == TCP_SND_QUEUELEN) return 0;
+    if(tcp_sndqueuelen(con) > 0 && tcp_sndqueuelen(con) + 2 * (bytes / TCP_MSS + 2) > TCP_SND_QUEUELEN) return 0;
+#endif
+    return 1;
 }
 
 /**
- * Enqueues data for sending over tcp by copying the provided values.
+ * Enqueues data for sending over tcp.
  *
- * Tries to free memory by consuming incoming messages if insufficient memory for copying is available.
- * Fails, if it cannot free a sufficient amount of memory.
+ * Fails, if lwIP cannot allocate sufficient memory.
  *
  * @param vals Pointer to array of values to be written.
  * @param size Number of int-sized values to be written.
+ * @param flags Flags of the tcp write. Unless TCP_WRITE_FLAG_COPY is set,
+ *              the values must not change until they have been acknowledged.
  * @return 0 if successful, 1 otherwise.
  */
-static inline int tcp_enque(int* vals, int size) {
+static inline int tcp_enque(int* vals, int size, u8_t flags) {
 
     // return directly, if there is nothing to write...
     if(size == 0) return 0;
 
-    // unalign values (not sure, if this is still required)
-    int i;
-    for(i = 0; i < size; i++)
-        set_unaligned(vals+i, vals+i);
-
-    err_t err;
-    do {
-        // write message header to tcp buffer (copying values)
-        // Note, that the payload of the message indeed HAS to be copied,
-        // since the message only points to the drivers out-going queue
-        err = tcp_write(con, vals, size * sizeof(int), TCP_WRITE_FLAG_COPY);
-
-        // Should not happen since we checked for the size earlier and it was sufficient...
-        if(err == ERR_MEM) {
-            // This can happen despite the send buffer check beforehand, since the send buffer
-            // only checks for enough space to copy all values. However, tcp_write requires
-            // more memory than that.
-            // FREEING MEMORY BY READING HERE IS A VERY BAD IDEA
-            // (may interleave debug messages in between header and values of data messages)
-        	// If this happens in applications we need to copy the message to an array again and use that instead here... ):
-            xil_printf("\nERROR: Could not send message due to memory shortage.");
-            return 1;
-        } else if(err != ERR_OK) {
-            // Other errors directly kill the driver
-            xil_printf("\nERROR: Could not write tcp message (%d)", err);
-            return 1;
-        } else {
-            break;
-        }
-    } while(1);
+    err_t err = tcp_write(con, vals, size * sizeof(int), flags);
+
+    // Without copying, lwIP requires a pbuf from its pool for each segment, which might be exhausted.
+    // The values are copied to the heap in this case.
+    if(err == ERR_MEM && !(flags & TCP_WRITE_FLAG_COPY))
+        err = tcp_write(con, vals, size * sizeof(int), flags | TCP_WRITE_FLAG_COPY);
+
+    if(err == ERR_MEM) {
+        // This can happen despite the send buffer check beforehand, since the send buffer
+        // only checks for enough space to copy all values. However, tcp_write requires
+        // more memory than that.
+        // FREEING MEMORY BY READING HERE IS A VERY BAD IDEA
+        // (may interleave debug messages in between header and values of data messages)
+        xil_printf("\nERROR: Could not send message due to memory shortage.");
+        return 1;
+    } else if(err != ERR_OK) {
+        // Other errors directly kill the driver
+        xil_printf("\nERROR: Could not write tcp message (%d)", err);
+        return 1;
+    }
     return 0;
 }
 
+int medium_connected() {
+    return con != NULL && con->state == ESTABLISHED;
+}
+
 int medium_send(struct Message *m) {
+    return medium_send_ref(m, NULL);
+}
+
+int medium_send_ref(struct Message *m, volatile unsigned char *referenced) {
     // abort, if no connection was made so far
     if(con == NULL) {
         xil_printf("\nERROR: no connection detected");
@@ -204,23 +231,35 @@ int medium_send(struct Message *m) {
     }
 
     // calculate total message size
-    int totalSize = m->headerSize + m->payloadSize;
+    unsigned int bytes = (m->headerSize + m->payloadSize) * sizeof(int);
 
-    // check if there is enough buffer space available
-    while (tcp_sndbuf(con) <= (totalSize * sizeof(int))) {
-        // if not, try to free memory
-        if(medium_free_memory()) {
-            xil_printf("\nERROR: Not enough space in tcp_sndbuf (failed to free more)");
-            return 1;
-        }
+    // wait until lwIP can accept the message
+    if(medium_await(medium_sendable, bytes)) {
+        xil_printf("\nERROR: Not enough space in tcp_sndbuf (failed to free more)");
+        return 1;
     }
 
-    // enqueue header and payload
-    if(tcp_enque(m->header,  m->headerSize))  return 1;
-    // despite the send buffer check it is possible for
-    // the the header write to work and the payload write to fail.
-    // in this case, basically everything is broken, esp. when debugging is enabled.
-    if(tcp_enque(m->payload, m->payloadSize)) return 1;
+    // the header is small and usually allocated temporarily, so it is always copied
+    if(tcp_enque(m->header, m->headerSize, TCP_WRITE_FLAG_COPY | TCP_WRITE_FLAG_MORE)) return 1;
+
+#if ZERO_COPY
+    // large payloads with an owner are referenced until they are acknowledged, all others are copied
+    if(referenced != NULL && m->payloadSize > 0 && m->payloadSize * sizeof(int) >= ZERO_COPY_MIN_BYTES) {
+        // despite the send buffer check it is possible for
+        // the the header write to work and the payload write to fail.
+        // in this case, basically everything is broken, esp. when debugging is enabled.
+        if(tcp_enque(m->payload, m->payloadSize, 0)) return 1;
+
+        // the owner must not touch the payload until the host acknowledged it
+        *referenced = 1;
+        unsigned int last = (txRecordFirst + txRecordCount++) % TCP_SND_QUEUELEN;
+        txRecords[last].end        = sentBytes + bytes;
+        txRecords[last].referenced = referenced;
+    } else
+#endif
+    if(tcp_enque(m->payload, m->payloadSize, TCP_WRITE_FLAG_COPY)) return 1;
+
+    sentBytes += bytes;
 
     // flush tcp buffer
     err_t err = tcp_output(con);
@@ -283,16 +322,50 @@ int medium_read() {
 }
 
 
+/**
+ * Forgets the active connection after lwIP freed its pcb (i.e. the connection failed or was aborted).
+ * Payloads sent over it will not be acknowledged anymore, so they are released
+ * and byte counting starts over for the next connection.
+ * As long as the pcb exists, lwIP might still send or retransmit these payloads,
+ * so they must not be released any earlier.
+ */
+static void reset_connection() {
+#if ZERO_COPY
+    while(txRecordCount > 0) {
+        *txRecords[txRecordFirst].referenced = 0;
+        txRecordFirst = (txRecordFirst + 1) % TCP_SND_QUEUELEN;
+        txRecordCount--;
+    }
+#endif
+    sentBytes  = 0;
+    ackedBytes = 0;
+    con = NULL;
+}
+
+
 /* *************************************************************************************** */
 /* ************************************** CALLBACKS ************************************** */
 /* *************************************************************************************** */
 
 /**
  * This procedure is called, whenever an acknowledgment is received.
- * It stores the number of acknowledged values and immediately returns.
+ * It counts the acknowledged bytes and releases all payloads sent without copying them,
+ * which are no longer referenced by lwIP.
  */
 static err_t ack_callback (void *arg, struct tcp_pcb *tpcb, u16_t len) {
-	num_ack = len;
+	// acknowledgments of a previous connection do not belong to any sent payload
+	if(tpcb != con) return ERR_OK;
+
+	ackedBytes += len;
+
+#if ZERO_COPY
+	while(txRecordCount > 0 && (s32_t)(ackedBytes - txRecords[txRecordFirst].end) >= 0) {
+		*txRecords[txRecordFirst].referenced = 0;
+		txRecordFirst = (txRecordFirst + 1) % TCP_SND_QUEUELEN;
+		txRecordCount--;
+	}
+#endif
+
 	return ERR_OK;
 }
 
@@ -304,6 +377,12 @@ static err_t ack_callback (void *arg, struct tcp_pcb *tpcb, u16_t len) {
 static err_t recv_callback(void *arg, struct tcp_pcb *tpcb, struct pbuf *p, err_t err) {
     // do not read the packet if we are not in ESTABLISHED state
     if (!p) {
+        // the host closed the active connection. Closing it would keep unacknowledged payloads
+        // in lwIP, so it is aborted instead (err_callback forgets the connection afterwards)
+        if(tpcb == con) {
+            tcp_abort(tpcb);
+            return ERR_ABRT;
+        }
         tcp_close(tpcb);
         tcp_recv(tpcb, NULL);
         return ERR_OK;
@@ -324,15 +403,26 @@ static err_t recv_callback(void *arg, struct tcp_pcb *tpcb, struct pbuf *p, err_
     return ERR_OK;
 }
 
+/**
+ * This procedure is called, if a connection is aborted (e.g. reset by the host).
+ * lwIP has already freed the pcb of the connection at this point.
+ */
+static void err_callback(void *arg, err_t err) {
+    if((int)arg == connection) reset_connection();
+}
+
 /**
  * This procedure is called, whenever a new connection is opened.
  * It subsequently sets up the callback method for packages received over this connection.
  */
 static err_t accept_callback(void *arg, struct tcp_pcb *newpcb, err_t err) {
+	// abort a previous connection, since lwIP would still send payloads referenced by it otherwise
+	// (err_callback forgets the connection afterwards)
+	if(con != NULL) tcp_abort(con);
+
 	// pass the a number used as connection id as argument to all callbacks
-	static int connection = 1;
+	connection++;
 	tcp_arg(newpcb, (void*)connection);
-    connection++;
 
     // use this connection to return results to
     con = newpcb;
@@ -340,6 +430,7 @@ static err_t accept_callback(void *arg, struct tcp_pcb *newpcb, err_t err) {
     // bind callback procedures
     tcp_recv(newpcb, recv_callback);
     tcp_sent(newpcb, ack_callback);
+    tcp_err (newpcb, err_callback);
 
     return ERR_OK;
 }
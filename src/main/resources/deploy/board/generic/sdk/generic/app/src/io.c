@@ -7,15 +7,63 @@
 #include "medium/message.h"
 #include "medium/medium.h"
 #include "medium/protocol/protocol.h"
+#include "platform.h"
 
 #include "xparameters.h"
 #include "xbasic_types.h"
 
+#ifdef DMA_ENGINE_COUNT
+#include "components/dma.h"
+#endif
+
 #include <stdarg.h>
 #include <stdlib.h>
 #include <stdio.h>
 
-int outQueueSize = 0;
+/** Heads of the input queues */
+static Queue inQueueHeads[IN_STREAM_COUNT];
+
+/**
+ * Storage of all input queues.
+ * The storage is placed in a dedicated linker section, so that queues are
+ * neither allocated on the heap nor initialised on startup.
+ */
+static int inQueueValues[IN_QUEUE_STORAGE] __attribute__((section(".loopy_queues")));
+
+void init_queue(unsigned int pid, unsigned int offset, unsigned int cap) {
+	inQueue[pid] = initQueue(&inQueueHeads[pid], inQueueValues + offset, cap);
+}
+
+/** Storage of all output queues (see #inQueueValues) */
+static int outQueueValues[OUT_QUEUE_STORAGE] __attribute__((section(".loopy_queues")));
+
+/** Both output queues of each port */
+static int *outQueues[OUT_STREAM_COUNT][2];
+/** Index of the output queue of each port, which is currently filled */
+static unsigned char outCurrent[OUT_STREAM_COUNT];
+/** Set by the medium, as long as it references values sent from an output queue */
+static volatile unsigned char outReferenced[OUT_STREAM_COUNT][2];
+
+/** Stores if values wait in the output queue of a port for a latency limit */
+static int outWaiting[OUT_STREAM_COUNT];
+/** Time in microseconds, at which values started waiting in the output queue of a port */
+static unsigned int outSince[OUT_STREAM_COUNT];
+
+void init_out_queue(unsigned int pid, unsigned int offset, unsigned int cap) {
+	outQueues[pid][0] = outQueueValues + offset;
+	outQueues[pid][1] = outQueueValues + offset + cap;
+	outCurrent[pid] = 0;
+	outQueue[pid] = outQueues[pid][0];
+	outQueueCap[pid] = cap;
+	outQueueSize[pid] = 0;
+}
+
+int out_queue_ready(unsigned int pid) {
+	return !outReferenced[pid][outCurrent[pid]];
+}
+
+/** Stores if an in-going port failed, since the host-side driver overran its input queue */
+static unsigned char inFailed[IN_STREAM_COUNT];
 
 /**
  * Resets all software queues.
@@ -29,32 +77,73 @@ void reset_queues() {
 
 	// TODO set some reset flag
 	int i;
-	for(i = 0; i < IN_STREAM_COUNT; i++) clear( inQueue[i]);
-	outQueueSize = 0;
+	for(i = 0; i < IN_STREAM_COUNT; i++) {
+#ifdef DMA_ENGINE_COUNT
+		// abort a running dma transfer first. Otherwise, its completion would remove
+		// values from the cleared queue and credit them a second time
+		if(inDMA[i]) dma_reset(i);
+#endif
+		// dropped values free their slots as well, return them as credits
+		inCredits[i] += inQueue[i]->size;
+		clear(inQueue[i]);
+		send_credits(i);
+		inFailed[i] = 0;
+	}
+	flush_acks();
+	// queues, which are still referenced by the medium, are released once their values
+	// have been acknowledged or the connection has been dropped
+	for(i = 0; i < OUT_STREAM_COUNT; i++) {
+		outQueueSize[i] = 0;
+		outWaiting[i] = 0;
+	}
 	// TODO does this guarantee, that no more values will be written to the MB queues??
 }
 
+/** Ports with pending credits in the order, in which they became due */
+static unsigned int ackPorts[IN_STREAM_COUNT];
+/** Stores if a port is contained in #ackPorts */
+static unsigned char ackDue[IN_STREAM_COUNT];
+/** Number of ports with pending credits */
+static unsigned int ackCount;
+
+/**
+ * Sends acknowledgments of several ports to the client-side driver in a single message.
+ * @param pids Ports, for which data is acknowledged.
+ * @param counts Number of values acknowledged for each port.
+ * @param n Number of acknowledgments.
+ */
+static void send_acks(unsigned int pids[], unsigned int counts[], unsigned int n) {
+	if(n == 0) return;
+
+	struct Message *m = encode_acks(pids, counts, n);
+	print_message(m);
+	medium_send(m);
+	message_free(m);
+}
+
 /**
- * Sends an acknowledgment to the client-side driver.
- * This should happen automatically after an in-going data package.
- * @param pid Port, for which data is acknowledged.
- * @param count Number of values that is acknowledged
+ * Reports the failure of an in-going port to the host-side driver.
+ * @param pid The failed port.
+ * @param count Number of values, which have been dropped.
  */
-static void send_ack(unsigned char pid, unsigned int count) {
-    // send several acknowledges, if the protocol cannot fit a full ack
-    // this should not be the case with the current protocol impl, since data and ack messages have equal maxsize.
-    while(count > PROTO_ACK_SIZE) {
-        send_ack(pid, PROTO_ACK_SIZE);
-        count -= PROTO_ACK_SIZE;
-    }
-
-    struct Message *m = encode_ack(pid, count);
+static void send_fail(unsigned int pid, unsigned int count) {
+	struct Message *m = encode_fail(pid, count);
 	print_message(m);
 	medium_send(m);
 	message_free(m);
 }
 
-void recv_message(unsigned char pid, int payload[], unsigned int size) {
+void fail_port(unsigned int pid, unsigned int count) {
+	inFailed[pid] = 1;
+	inCredits[pid] = 0;
+	clear(inQueue[pid]);
+	send_fail(pid, count);
+}
+
+void recv_message(unsigned int pid, int payload[], unsigned int size) {
+	// values of a failed port are dropped, until the driver is reset
+	if(inFailed[pid]) return;
+
 	unsigned int i = 0;
 	for(i = 0; i < size; i++) {
 		// add values, until corresponding sw queue is full
@@ -63,20 +152,67 @@ void recv_message(unsigned char pid, int payload[], unsigned int size) {
 		} else break;
 	}
 
-	log_fine("send ack for pid %d with %d values", pid, i);
+	// values are acknowledged when they leave the queue, so the host-side driver never
+	// sends more values than the queue can hold. If it still exceeded its credits, the order
+	// of values forwarded to the component cannot be guaranteed anymore. The values are not
+	// acknowledged, but the port fails and drops its queue, which is reported to the host.
+	if(i < size) {
+		log_error("input queue of port %d is full, dropped %d values. The port failed.", pid, size - i);
+		fail_port(pid, size - i);
+	}
+}
 
-	// acknowledge all stored values
-	send_ack(pid, i);
+int take_value(unsigned int pid) {
+	inCredits[pid]++;
+	return take(inQueue[pid]);
 }
 
-void send_poll(unsigned char pid) {
-	struct Message *m = encode_poll(pid);
-    print_message(m);
-	medium_send(m);
-	message_free(m);
+void send_credits(unsigned int pid) {
+	// credits of a port, which is already pending, are sent with the pending ones
+	if(inCredits[pid] == 0 || ackDue[pid]) return;
+
+	ackDue[pid] = 1;
+	ackPorts[ackCount++] = pid;
+
+	if(ackCount >= ACK_BATCH_SIZE) flush_acks();
+}
+
+void flush_acks() {
+	unsigned int pids[ACK_BATCH_SIZE];
+	unsigned int counts[ACK_BATCH_SIZE];
+	unsigned int i, n = 0;
+
+	for(i = 0; i < ackCount; i++) {
+		unsigned int pid = ackPorts[i];
+		ackDue[pid] = 0;
+
+		log_fine("return %d credits for pid %d", inCredits[pid], pid);
+
+		// send several acknowledgments, if the protocol cannot fit all credits of the port in one
+		while(inCredits[pid] > 0) {
+			unsigned int count = inCredits[pid] < PROTO_ACK_SIZE ? inCredits[pid] : PROTO_ACK_SIZE;
+			pids[n] = pid;
+			counts[n++] = count;
+			inCredits[pid] -= count;
+
+			if(n == ACK_BATCH_SIZE) {
+				send_acks(pids, counts, n);
+				n = 0;
+			}
+		}
+	}
+
+	ackCount = 0;
+	send_acks(pids, counts, n);
 }
 
-void send_gpio(unsigned char gid, unsigned char val) {
+void send_poll(unsigned int pid) {
+	// the credits of the port are sent right away instead of waiting for the end of the iteration
+	send_credits(pid);
+	if(ackDue[pid]) flush_acks();
+}
+
+void send_gpio(unsigned int gid, unsigned char val) {
 	struct Message *m = encode_gpio(gid, val);
     print_message(m);
 	medium_send(m);
@@ -100,32 +236,79 @@ void send_gpio(unsigned char gid, unsigned char val) {
 //	for(i = 0; i < m->payloadSize; i++) UartSendInt(m->payload[i]);
 //}
 
-int flush_queue(unsigned char pid) {
+/**
+ * Sends values of an out-going port to the host-side client.
+ * @param pid The port, which produced the values.
+ * @param values The values to send.
+ * @param count Number of values to send.
+ * @param referenced Flag, which the medium sets while it references the values,
+ *                   or NULL, if the values have to be copied.
+ * @return 0 if successful, 1 otherwise.
+ */
+static int send_values_ref(unsigned int pid, int values[], unsigned int count, volatile unsigned char *referenced) {
+	// create a data message and send it
+	// FIXME ensure, that count < proto_data_size
+	// or rather: split into several packages, if this is the case
+	struct Message *m = encode_data(pid, count);
+	message_payload(m, values, count);
+    print_message(m);
+	int rslt = medium_send_ref(m, referenced);
+
+	message_free(m);
+
+	return rslt;
+}
+
+int flush_due(unsigned int pid) {
+	if(outQueueSize[pid] == 0) return 0;
+
+	// without a flush policy, values are sent as soon as they have been read
+	if(outBatch[pid] == 0 && outLatency[pid] == 0 && !outTlast[pid]) return 1;
+
+	// full queues, finished polls, completed packets and batches are flushed
+	if(outQueueSize[pid] >= outQueueCap[pid]) return 1;
+	if(isPolling[pid] && pollCount[pid] == 0) return 1;
+	if(outTlast[pid] && outLast[pid]) return 1;
+	if(outBatch[pid] > 0 && outQueueSize[pid] >= outBatch[pid]) return 1;
+
+	// otherwise, values wait until the latency limit of the port is reached, if there is any
+	if(outLatency[pid] == 0) return 0;
+	unsigned int now = platform_get_time();
+	if(!outWaiting[pid]) {
+		outWaiting[pid] = 1;
+		outSince[pid] = now;
+	}
+	return now - outSince[pid] >= outLatency[pid];
+}
+
+int flush_queue(unsigned int pid) {
 	log_fine("flushing %d ...", pid);
 
 	// return, if the queue is empty
-	if(outQueueSize == 0) {
+	if(outQueueSize[pid] == 0) {
 		log_fine("empty");
 		return 0;
 	}
 
-	log_fine("count: %d", outQueueSize);
-
-	// otherwise, create a data message and send it
-	// FIXME ensure, that outQueueSize < proto_data_size
-	// or rather: split into several packages, if this is the case
-	struct Message *m = encode_data(pid, outQueueSize);
-	message_payload(m, outQueue, outQueueSize);
-    print_message(m);
-	int rslt = medium_send(m);
+	log_fine("count: %d", outQueueSize[pid]);
 
-	message_free(m);
-	outQueueSize = 0;
+	// otherwise, send the contents of the queue. The medium might reference them
+	// until the host acknowledged them, so continue with the other queue of the port
+	unsigned char current = outCurrent[pid];
+	int rslt = send_values_ref(pid, outQueue[pid], outQueueSize[pid], &outReferenced[pid][current]);
+	outCurrent[pid] = !current;
+	outQueue[pid] = outQueues[pid][!current];
+	outQueueSize[pid] = 0;
+	outWaiting[pid] = 0;
 
 	return rslt;
 }
 
-void send_debug(unsigned char type, const char *format, ...) {
+int send_values(unsigned int pid, int values[], unsigned int count) {
+	return send_values_ref(pid, values, count, NULL);
+}
+
+void send_debug(unsigned int type, const char *format, ...) {
 
 	// make a run over the vararg parameter to determine the size
 	va_list args;
@@ -138,8 +321,8 @@ void send_debug(unsigned char type, const char *format, ...) {
     #define cpi (sizeof(int) / sizeof(char))
     size += (cpi - (size % cpi)) % cpi;
 
-    // FIXME check, that the resulting size is smaller than the maxsize of the protocol!?
-//    if(size > )
+    // truncate messages, which exceed the maximal size of a debug message
+    if(size > PROTO_DEBUG_SIZE * cpi) size = PROTO_DEBUG_SIZE * cpi;
 
     // allocate memory and store the formatted string
     char *c = malloc(sizeof(char) * size);
@@ -156,3 +339,24 @@ void send_debug(unsigned char type, const char *format, ...) {
 	message_free(m);
 	free(c);
 }
+
+void send_log(unsigned char severity, unsigned int id, unsigned int argc, ...) {
+	// records of an unconnected medium would only cause further error messages
+	if(!medium_connected()) return;
+
+	int record[LOG_MAX_ARGS + 1];
+	if(argc > LOG_MAX_ARGS) argc = LOG_MAX_ARGS;
+
+	// the record consists of the call site id, followed by the arguments
+	va_list args;
+	va_start(args, argc);
+	record[0] = id;
+	unsigned int i;
+	for(i = 0; i < argc; i++) record[i + 1] = va_arg(args, int);
+	va_end(args);
+
+	struct Message *m = encode_debug(severity, argc + 1);
+	message_payload(m, record, argc + 1);
+	medium_send(m);
+	message_free(m);
+}
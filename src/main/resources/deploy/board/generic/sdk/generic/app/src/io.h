@@ -16,61 +16,208 @@
 
 /** Microblaze input queues */
 Queue *inQueue[IN_STREAM_COUNT];
-/** Microblaze output queue */
-int outQueue[MAX_OUT_SW_QUEUE_SIZE];
+/**
+ * Number of values forwarded from the input queues to the components, which have not been
+ * acknowledged so far. Acknowledgments return these free slots as credits to the host-side driver.
+ */
+unsigned int inCredits[IN_STREAM_COUNT];
+/**
+ * Microblaze output queues, which are currently filled.
+ * Each port owns two queues. While the contents of one queue are sent over the medium,
+ * the other one is filled (see #flush_queue).
+ */
+int *outQueue[OUT_STREAM_COUNT];
 /** capacity of the output queues */
-int outQueueCap[OUT_STREAM_COUNT];
+unsigned int outQueueCap[OUT_STREAM_COUNT];
+/** current size of the output queues */
+unsigned int outQueueSize[OUT_STREAM_COUNT];
 /** stores if the port is a polling port */
 int isPolling[OUT_STREAM_COUNT];
 /** current poll counter of the port */
 unsigned int pollCount [OUT_STREAM_COUNT];
-/** current size of the output queue */
-extern int outQueueSize;
+/** minimal number of values of the port sent at once (0, if there is no minimum) */
+unsigned int outBatch[OUT_STREAM_COUNT];
+/** maximal time in microseconds values of the port wait in the output queue (0, if there is no limit) */
+unsigned int outLatency[OUT_STREAM_COUNT];
+/** stores if the output queue of the port is flushed, when the component signals the end of a packet */
+int outTlast[OUT_STREAM_COUNT];
+/** stores if the last value read from the port ended a packet (set by axi_read, if supported) */
+int outLast[OUT_STREAM_COUNT];
+
+/*
+ * Scheduling parameters of the ports, which are only set and regarded,
+ * if any port of the board has a priority or a weight.
+ */
+/** scheduling priority of the in-going port (higher priorities are served first) */
+unsigned int inPriority[IN_STREAM_COUNT];
+/** maximal number of values written to the hardware queue of the in-going port per iteration */
+unsigned int inQuantum[IN_STREAM_COUNT];
+/** in-going ports in the order, in which they are served */
+unsigned int inOrder[IN_STREAM_COUNT];
+/** scheduling priority of the out-going port (higher priorities are served first) */
+unsigned int outPriority[OUT_STREAM_COUNT];
+/** maximal number of values read from the hardware queue of the out-going port per iteration */
+unsigned int outQuantum[OUT_STREAM_COUNT];
+/** out-going ports in the order, in which they are served */
+unsigned int outOrder[OUT_STREAM_COUNT];
 
 /**
- * Initialises the software queues on the microblaze.
+ * Initialises the software input queue of a port on the microblaze.
+ * All input queues share a statically allocated storage of IN_QUEUE_STORAGE values,
+ * of which each queue occupies a distinct, contiguous part.
+ * @param pid Port, for which the queue is initialised.
+ * @param offset Position of the queue within the storage.
+ * @param cap Capacity of the queue.
  */
-void init_queue();
+void init_queue(unsigned int pid, unsigned int offset, unsigned int cap);
+
+/**
+ * Initialises the software output queues of a port on the microblaze.
+ * Like the input queues, all output queues share a statically allocated storage of
+ * OUT_QUEUE_STORAGE values. Each port occupies a distinct, contiguous part of twice
+ * the capacity, which holds both of its queues.
+ * @param pid Port, for which the queues are initialised.
+ * @param offset Position of the queues within the storage.
+ * @param cap Capacity of each queue.
+ */
+void init_out_queue(unsigned int pid, unsigned int offset, unsigned int cap);
+
+/**
+ * Checks, if the current software output queue of a port can be filled.
+ * This is not the case, as long as the medium references values sent from the queue.
+ * @param pid The port, of which the queue is checked.
+ * @return 1, if values may be added to the queue, 0 otherwise.
+ */
+int out_queue_ready(unsigned int pid);
 
 /**
  * Process an incoming data package.
- * This procedure forwards the received data to a vhdl component
- * over axi stream.
+ * This procedure stores the received data in the input queue of the port.
+ * The host-side driver never sends more values than the queue can hold,
+ * since it only sends values as long as it has credits for the port.
+ * If it does nevertheless, the port fails: Its queue is cleared, the failure is reported
+ * to the host-side driver and all further values of the port are dropped until the driver is reset.
  * @param pid Target port, for which the message is intended.
  * @param payload Data that is sent to the component.
  * @param size Number of values sent to the component.
  */
-void recv_message(unsigned char pid, int payload[], unsigned int size);
+void recv_message(unsigned int pid, int payload[], unsigned int size);
+
+/**
+ * Marks an in-going port as failed.
+ * Clears the queue of the port and reports the failure to the host-side driver.
+ * All further values of the port are dropped until the driver is reset.
+ * @param pid The failed port.
+ * @param count Number of values, which have been lost.
+ */
+void fail_port(unsigned int pid, unsigned int count);
+
+/**
+ * Removes the first value from the software input queue of a port.
+ * The slot of the value is counted as credit, which is returned to the host-side driver
+ * with the next call of #send_credits. User-defined schedulers have to remove values
+ * with this procedure instead of taking them from the queue directly. Otherwise,
+ * the host-side driver runs out of credits and stops sending values to the port.
+ * The queue must not be empty.
+ * @param pid Port, from which the value is taken.
+ * @return The removed value.
+ */
+int take_value(unsigned int pid);
+
+/**
+ * Maximal number of acknowledgments coalesced into a single message.
+ * Once this number of ports has pending credits, they are sent without
+ * waiting for the end of the scheduler iteration (see #flush_acks).
+ */
+#define ACK_BATCH_SIZE 16
+
+/**
+ * Returns credits for a port to the host-side driver.
+ * Acknowledges all values, which have been forwarded from the input queue
+ * to the component since the last acknowledgment (see #inCredits).
+ * This allows the host-side driver to send the same number of additional values.
+ * The acknowledgment is not sent immediately, but coalesced with those of other ports
+ * until #flush_acks is called or #ACK_BATCH_SIZE ports have pending credits.
+ * @param pid Port, for which credits are returned.
+ */
+void send_credits(unsigned int pid);
 
 /**
- * Sends a poll for more data to the host-side driver.
- * This results in additional data packages to be sent from the
- * host-side driver.
+ * Sends the pending credits of all ports in a single message.
+ * The scheduler calls this procedure at the end of each iteration,
+ * so user-defined schedulers have to call it as well.
+ */
+void flush_acks();
+
+/**
+ * Requests more data from the host-side driver.
+ * Returns the credits of the port (see #take_value) right away. In contrast to #send_credits,
+ * they are not coalesced with those of other ports, but sent immediately together with all
+ * credits pending so far. This is useful, if the queue of a port ran empty.
  * @param pid Port, for which data is requested.
  */
-void send_poll(unsigned char pid);
+void send_poll(unsigned int pid);
 
 /**
  * Sends the state of a gpio component to the host-side driver.
  * @param gid Id of the gpio component.
  * @param val State of the gpio component.
  */
-void send_gpio(unsigned char gid, unsigned char val);
+void send_gpio(unsigned int gid, unsigned char val);
 
 /**
- * Flushes the software output queue and sends its contents to the host-side client.
+ * Checks, if the software output queue of a port has to be flushed according to its flush policy.
+ * Without a policy, values are sent as soon as they have been read. Otherwise, the queue is
+ * flushed when it holds a batch of #outBatch values, when its oldest value waited for #outLatency
+ * microseconds or when the end of a packet has been read (if #outTlast is set).
+ * Full queues and queues of polling ports, which exhausted their poll count, are always flushed.
+ * @param pid The port, of which the queue is checked.
+ * @return 1, if the queue has to be flushed, 0 otherwise.
+ */
+int flush_due(unsigned int pid);
+
+/**
+ * Flushes the software output queue of a port and sends its contents to the host-side client.
+ * Depending on the medium, the contents are sent without copying them. Afterwards,
+ * the other output queue of the port becomes the current one (see #out_queue_ready).
  * This does neither influence input queues nor the hardware output queues for any port.
- * @param pid The port, of which data is currently stored in the output queue.
+ * @param pid The port, of which the output queue is flushed.
  * @return 0 if successful, 1 otherwise. A failure might occur due to problems while sending
  *         the contents of the queue over the medium.
  */
-int flush_queue(unsigned char pid);
+int flush_queue(unsigned int pid);
+
+/**
+ * Sends values of an out-going port to the host-side client.
+ * In contrast to #flush_queue, the values do not have to reside in the software output queue.
+ * @param pid The port, which produced the values.
+ * @param values The values to send.
+ * @param count Number of values to send.
+ * @return 0 if successful, 1 otherwise. A failure might occur due to problems while sending
+ *         the values over the medium.
+ */
+int send_values(unsigned int pid, int values[], unsigned int count);
 
 /**
  * Sends a debug message to the host-side driver.
  * @param type Debug type of the message.
  * @param format Format string of the message.
  */
-void send_debug(unsigned char type, const char *format, ...);
+void send_debug(unsigned int type, const char *format, ...);
+
+/** Maximal number of values of a binary log record (see #send_log) */
+#define LOG_MAX_ARGS 8
+
+/**
+ * Sends a binary log record to the host-side driver.
+ * With a binary board log, the generator replaces the format strings of all log calls
+ * by call site ids. Instead of formatting a message, the record only consists of the id
+ * and the integer arguments of the call. The host-side driver expands it using the format table
+ * of the generator. Records are dropped, as long as the medium is not connected.
+ * @param severity Severity of the record.
+ * @param id Call site id assigned by the generator.
+ * @param argc Number of integer arguments (at most #LOG_MAX_ARGS).
+ */
+void send_log(unsigned char severity, unsigned int id, unsigned int argc, ...);
 
 #endif /* IO_H_ */
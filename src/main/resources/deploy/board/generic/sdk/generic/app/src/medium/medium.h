@@ -21,6 +21,12 @@ int init_medium();
  */
 int start_application();
 
+/**
+ * Checks, if the medium is connected to the host-side driver.
+ * @return 1 if messages can be sent, 0 otherwise.
+ */
+int medium_connected();
+
 /**
  * Sends a message over the medium. Does not de-allocate the message nor its contents in the process.
  *
@@ -31,6 +37,21 @@ int start_application();
  */
 int medium_send(struct Message *m);
 
+/**
+ * Sends a message over the medium, of which the payload is owned by the caller.
+ * Depending on the medium, the payload is sent without copying it. In this case, the medium
+ * sets the flag of the owner until the payload has been acknowledged by the host-side driver.
+ * The payload must not be modified as long as the flag is set.
+ * Otherwise, the payload is copied and the flag remains untouched.
+ *
+ * May fail due to problems with the medium or insufficient memory for sending.
+ *
+ * @param m The message to be sent.
+ * @param referenced Flag of the owner of the payload or NULL, if the payload is always copied.
+ * @return 0 if successful, 1 if failed.
+ */
+int medium_send_ref(struct Message *m, volatile unsigned char *referenced);
+
 /**
  * Reads a message from the medium and pushes it to the protocol interpreter.
  * @return 1 if a message was available, 0 if no message was available.
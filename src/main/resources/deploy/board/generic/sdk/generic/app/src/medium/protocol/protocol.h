@@ -39,14 +39,32 @@ int decode_header( int first );
  * @param count Number of (integer) values, that are acknowledged. Has to be below protocol_max_size!
  * @return Pointer to an empty message with the generated header.
  */
-struct Message* encode_ack(unsigned char pid, unsigned int count);
+struct Message* encode_ack(unsigned int pid, unsigned int count);
+
+/**
+ * Delegates calls to the respective protocol encoder for the protocol version the acknowledgments should be encoded with.
+ * Encodes acknowledgments of several ports into a single message.
+ * @param pids Ids of the ports, which acknowledge data.
+ * @param counts Number of (integer) values acknowledged for each port. Each has to be below protocol_ack_size!
+ * @param n Number of acknowledgments.
+ * @return Pointer to an empty message with the generated header.
+ */
+struct Message* encode_acks(unsigned int pids[], unsigned int counts[], unsigned int n);
 
 /**
  * Delegates calls to the respective protocol encoder for the protocol version the poll should be encoded with.
  * @param pid  Id of the port, which is polled.
  * @return Pointer to an empty message with the generated header.
  */
-struct Message* encode_poll(unsigned char pid);
+struct Message* encode_poll(unsigned int pid);
+
+/**
+ * Delegates calls to the respective protocol encoder for the protocol version the failure should be encoded with.
+ * @param pid Id of the in-going port, which failed.
+ * @param count Number of values dropped by the port.
+ * @return Pointer to an empty message with the generated header.
+ */
+struct Message* encode_fail(unsigned int pid, unsigned int count);
 
 /**
  * Delegates calls to the respective protocol encoder for the protocol version the gpio data message should be encoded with.
@@ -54,7 +72,7 @@ struct Message* encode_poll(unsigned char pid);
  * @param val The new state of the gpio component.
  * @return Pointer to an empty message with the generated header.
  */
-struct Message* encode_gpio(unsigned char gid, unsigned char val);
+struct Message* encode_gpio(unsigned int gid, unsigned char val);
 
 /**
  * Delegates calls to the respective protocol encode for the protocol version the debug message should be encoded with.
@@ -62,7 +80,7 @@ struct Message* encode_gpio(unsigned char gid, unsigned char val);
  * @param size Size of the debug message. Has to be below protocol_max_size!
  * @return Pointer to an empty message with the generated header.
  */
-struct Message* encode_debug(unsigned char type, unsigned int size);
+struct Message* encode_debug(unsigned int type, unsigned int size);
 
 /**
  * Delegates calls to the respective protocol encoder for the protocol version the data message should be encoded with.
@@ -70,6 +88,6 @@ struct Message* encode_debug(unsigned char type, unsigned int size);
  * @param size Size of the message in 4-byte blocks (i.e. count of integer values). Has to be below protocol_max_size!
  * @return Pointer to an empty message with the generated header.
  */
-struct Message* encode_data(unsigned char pid, unsigned int size);
+struct Message* encode_data(unsigned int pid, unsigned int size);
 
 #endif /* PROTOCOL_H_ */
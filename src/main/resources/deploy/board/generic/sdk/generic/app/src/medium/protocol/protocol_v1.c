@@ -7,18 +7,11 @@
 
 #if PROTO_VERSION == 1
 
-#include <math.h>
 #include <stdlib.h>
 #include "xbasic_types.h"
 
 #include "../../io.h"
 
-#define PROTO_MAX_SIZE 65535
-
-#define PROTO_ACK_SIZE   PROTO_MAX_SIZE
-#define PROTO_DATA_SIZE  PROTO_MAX_SIZE
-#define PROTO_DEBUG_SIZE PROTO_MAX_SIZE
-
 // medium communication
 int medium_recv_int();
 
@@ -34,16 +27,6 @@ void axi_read  ( int *val, int target );
 // generic print function
 void xil_printf(const char *ctrl1, ...);
 
-#define version 1
-
-// message types
-#define reset 0
-#define debug 7
-#define data  9
-#define poll 10
-#define gpio 14
-#define ack  15
-
 /**
  * Decode a header version 1.
  * Reads parts of the message from the medium using recv_int().
@@ -51,20 +34,14 @@ void xil_printf(const char *ctrl1, ...);
 int decode_header(int first) {
 	log_finer("decoding message header ...");
 
-	// set type as specified in protocol version 1
-	first = fmod(first, pow(2, 24));
-	int type = floor(first / pow(2, 20));
-
+	// split the header as specified in protocol version 1
+	int type = PROTO_V1_GET_TYPE(first);
 	log_finest("message type: %d", type);
 
-	// set id as specified in protocol version 1
-	first = fmod(first, pow(2, 20));
-	int id = floor(first / pow(2, 16));
-
+	int id = PROTO_V1_GET_ID(first);
 	log_finest("target id   : %d", id);
 
-	// the last two bytes mark the size of this frame
-	int size = fmod(first, pow(2, 16));
+	int size = PROTO_V1_GET_SIZE(first);
 	log_finest("payload size: %d", size);
 
 	// 8 bit protocol version
@@ -75,16 +52,16 @@ int decode_header(int first) {
 
 	// perform actions, depending on the message type
 	switch(type) {
-	case  reset: // This is a soft reset.
+	case  PROTO_TYPE_RESET: // This is a soft reset.
 		     // Clear all queues and propagate a hardware reset.
 		     // Afterwards, answer with a reset type message to acknowledge successful reset.
 		break;
 		// 1-6 are not assigned
-	case  debug: // This is an error message.
+	case  PROTO_TYPE_DEBUG: // This is an error message.
 		     // By design, error messages should only be sent by the server.
 		     // Consequently, receiving such a message is an error ;)
 		break;
-	case  data: // This is a blocking data package.
+	case  PROTO_TYPE_DATA: // This is a blocking data package.
 		if(size > 0) {
 			// the size is given in byte
 			int payload[size];
@@ -101,14 +78,17 @@ int decode_header(int first) {
 			recv_message(id, payload, size);
 		}
 		break;
-	case poll: // This is a poll. Receiving a poll from the client means reading <size> values from out-going port <id>.
+	case PROTO_TYPE_POLL: // This is a poll. Receiving a poll from the client means reading <size> values from out-going port <id>.
         pollCount[id] += size;
 		break;
-	case gpio: // This marks a GPIO message. We need to switch over the target component.
+	case PROTO_TYPE_FAIL: // This is a port failure.
+		     // By design, failures should only be sent by the server.
+		break;
+	case PROTO_TYPE_GPIO: // This marks a GPIO message. We need to switch over the target component.
 #if gpi_count > 0 || gpo_count > 0
 	    gpio_write(id, size);
 #endif
-	case ack: // This is an acknowledgement.
+	case PROTO_TYPE_ACK: // This is an acknowledgement.
 		      // By design, acks should only be sent by the server.
 		      // Consequently, receiving such a message is an error ;)
 		break;
@@ -122,39 +102,57 @@ int decode_header(int first) {
 	return 0;
 }
 
-struct Message* encode_ack(unsigned char pid, unsigned int count) {
+struct Message* encode_ack(unsigned int pid, unsigned int count) {
+	struct Message *m = message_new();
+	int header = PROTO_V1_HEADER(PROTO_TYPE_ACK, pid, count);
+	message_header(m, &header, 1);
+	return m;
+}
+
+struct Message* encode_acks(unsigned int pids[], unsigned int counts[], unsigned int n) {
+	// version 1 has no frames, so the headers of all acknowledgments simply follow each other
+	int header[n];
+	unsigned int i;
+	for(i = 0; i < n; i++) header[i] = PROTO_V1_HEADER(PROTO_TYPE_ACK, pids[i], counts[i]);
+
+	struct Message *m = message_new();
+	message_header(m, header, n);
+	return m;
+}
+
+struct Message* encode_poll(unsigned int pid) {
 	struct Message *m = message_new();
-	int header = (version << 24) + (ack << 20) + (pid << 16) + count;
+	int header = PROTO_V1_HEADER(PROTO_TYPE_POLL, pid, 0);
 	message_header(m, &header, 1);
 	return m;
 }
 
-struct Message* encode_poll(unsigned char pid) {
+struct Message* encode_fail(unsigned int pid, unsigned int count) {
 	struct Message *m = message_new();
-	int header = (version << 24) + (poll << 20) + (pid << 16);
+	int header = PROTO_V1_HEADER(PROTO_TYPE_FAIL, pid, count);
 	message_header(m, &header, 1);
 	return m;
 }
 
-struct Message* encode_gpio(unsigned char gid, unsigned char val) {
+struct Message* encode_gpio(unsigned int gid, unsigned char val) {
 	struct Message *m = message_new();
-	int header = (version << 24) + (gpio << 20) + (gid << 16) + val;
+	int header = PROTO_V1_HEADER(PROTO_TYPE_GPIO, gid, val);
 	message_header(m, &header, 1);
 	return m;
 }
 
-struct Message* encode_data(unsigned char pid, unsigned int size) {
-	log_fine("encoding data message %d %d %d", data, pid, size);
+struct Message* encode_data(unsigned int pid, unsigned int size) {
+	log_fine("encoding data message %d %d %d", PROTO_TYPE_DATA, pid, size);
 	struct Message *m = message_new();
-	int header = (version << 24) + (data << 20) + (pid << 16) + size;
+	int header = PROTO_V1_HEADER(PROTO_TYPE_DATA, pid, size);
 	log_fine("encoded header: %d", header);
 	message_header(m, &header, 1);
 	return m;
 }
 
-struct Message* encode_debug(unsigned char type, unsigned int size) {
+struct Message* encode_debug(unsigned int type, unsigned int size) {
 	struct Message *m = message_new();
-	int header = (version << 24) + (debug << 20) + (type << 16) + size;
+	int header = PROTO_V1_HEADER(PROTO_TYPE_DEBUG, type, size);
 	message_header(m, &header, 1);
 	return m;
 }
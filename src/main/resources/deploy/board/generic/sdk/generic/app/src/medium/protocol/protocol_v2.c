@@ -1,8 +1,6 @@
-/*
- * protocol_v0_2.c
- *
- *  Created on: 01.02.2013
- *      Author: thomas
+/**
+ * @author Thomas Fischer
+ * @since 01.02.2013
  */
 
 #include "protocol.h"
@@ -10,31 +8,188 @@
 #if PROTO_VERSION == 2
 
 #include <stdlib.h>
-#include <stdio.h>
+#include "xbasic_types.h"
+
+#include "../../io.h"
+
+/** Maximal number of payload values read from the medium at once. */
+#define CHUNK_SIZE 64
+
+// medium communication
+int medium_recv_int();
+
+// gpio
+#if gpi_count > 0 || gpo_count > 0
+void gpio_write(int target, int val);
+#endif
+
+// generic print function
+void xil_printf(const char *ctrl1, ...);
+
+/**
+ * Reads and stores the payload of a data message in chunks.
+ * This avoids allocating the complete payload on the stack.
+ */
+static void decode_data(unsigned int id, unsigned int size) {
+	int payload[CHUNK_SIZE];
+
+	log_finer("reading payload ...");
+
+	while(size > 0) {
+		unsigned int count = size < CHUNK_SIZE ? size : CHUNK_SIZE;
+
+		// read <count> values
+		unsigned int i;
+		for(i = 0; i < count; i++) {
+			payload[i] = medium_recv_int();
+			log_finest("value %d: %d", i, payload[i]);
+		}
+
+		recv_message(id, payload, count);
+		size -= count;
+	}
+}
+
+/**
+ * Decodes a message of protocol version 2.
+ * Reads the header words and the payload of the message from the medium using recv_int().
+ */
+static int decode_message() {
+	int message = medium_recv_int();
+	int length  = medium_recv_int();
+
+	unsigned int type = PROTO_V2_GET_TYPE(message);
+	log_finest("message type: %d", type);
+
+	unsigned int id = PROTO_V2_GET_ID(message);
+	log_finest("target id   : %d", id);
+
+	unsigned int size = PROTO_V2_GET_SIZE(length);
+	log_finest("payload size: %d", size);
+
+	// perform actions, depending on the message type
+	switch(type) {
+	case  PROTO_TYPE_RESET: // This is a soft reset.
+		break;
+	case  PROTO_TYPE_DEBUG: // This is an error message.
+		     // By design, error messages should only be sent by the server.
+		break;
+	case  PROTO_TYPE_DATA: // This is a blocking data package.
+		if(id >= IN_STREAM_COUNT) {
+			log_error("data message for unknown in-going port %d. The message will be ignored.", id);
+			// skip the payload
+			while(size-- > 0) medium_recv_int();
+			return 1;
+		}
+		decode_data(id, size);
+		break;
+	case PROTO_TYPE_POLL: // This is a poll. Receiving a poll from the client means reading <size> values from out-going port <id>.
+		if(id >= OUT_STREAM_COUNT) {
+			log_error("poll for unknown out-going port %d. The message will be ignored.", id);
+			return 1;
+		}
+		pollCount[id] += size;
+		break;
+	case PROTO_TYPE_FAIL: // This is a port failure.
+		      // By design, failures should only be sent by the server.
+		break;
+	case PROTO_TYPE_GPIO: // This marks a GPIO message. We need to switch over the target component.
+#if gpi_count > 0 || gpo_count > 0
+		gpio_write(id, size);
+#endif
+		break;
+	case PROTO_TYPE_ACK: // This is an acknowledgement.
+		      // By design, acks should only be sent by the server.
+		break;
+	default:
+		log_warn("WARNING: unknown type %d for protocol version 2. The message will be ignored.", type);
+		return 1;
+	}
 
-int decode_header(int first) {
-	xil_printf(" \nERROR: protocol version 2 is not implemented.\n");
 	return 0;
 }
 
-struct Message* encode_ack(unsigned char pid, unsigned int count) {
-	xil_printf(" \nERROR: protocol version 2 is not implemented.\n");
-	return NULL;
+/**
+ * Decode a frame header version 2.
+ * Decodes all messages of the frame, reading them from the medium using recv_int().
+ */
+int decode_header(int first) {
+	log_finer("decoding frame header ...");
+
+	// a different version means, that the stream cannot be interpreted anymore
+	if(PROTO_V2_GET_VERSION(first) != 2) {
+		log_error("unknown protocol version %d. The frame will be ignored.", PROTO_V2_GET_VERSION(first));
+		return 1;
+	}
+
+	// 8 bit protocol version
+	// 16 bit number of messages in the frame
+	// for each message:
+	//   4 bit message type (as in version 1)
+	//   16 bit component identifier
+	//   32 bit size or value, depending on type
+	//   <size> values data, depending on type
+	unsigned int count = PROTO_V2_GET_COUNT(first);
+	log_finest("message count: %d", count);
+
+	int rslt = 0;
+	unsigned int i;
+	for(i = 0; i < count; i++) rslt |= decode_message();
+
+	log_finer("finished frame interpretation");
+
+	return rslt;
+}
+
+/**
+ * Encodes a frame containing a single message.
+ */
+static struct Message* encode_message(unsigned int type, unsigned int id, unsigned int size) {
+	struct Message *m = message_new();
+	int header[3] = { PROTO_V2_FRAME(1), PROTO_V2_MESSAGE(type, id), PROTO_V2_LENGTH(size) };
+	message_header(m, header, 3);
+	return m;
+}
+
+struct Message* encode_ack(unsigned int pid, unsigned int count) {
+	return encode_message(PROTO_TYPE_ACK, pid, count);
+}
+
+struct Message* encode_acks(unsigned int pids[], unsigned int counts[], unsigned int n) {
+	// a single frame containing one message for each acknowledgment
+	int header[1 + 2 * n];
+	header[0] = PROTO_V2_FRAME(n);
+
+	unsigned int i;
+	for(i = 0; i < n; i++) {
+		header[1 + 2 * i] = PROTO_V2_MESSAGE(PROTO_TYPE_ACK, pids[i]);
+		header[2 + 2 * i] = PROTO_V2_LENGTH(counts[i]);
+	}
+
+	struct Message *m = message_new();
+	message_header(m, header, 1 + 2 * n);
+	return m;
+}
+
+struct Message* encode_poll(unsigned int pid) {
+	return encode_message(PROTO_TYPE_POLL, pid, 0);
+}
+
+struct Message* encode_fail(unsigned int pid, unsigned int count) {
+	return encode_message(PROTO_TYPE_FAIL, pid, count);
 }
 
-struct Message* encode_poll(unsigned char pid) {
-	xil_printf(" \nERROR: protocol version 2 is not implemented.\n");
-	return NULL;
+struct Message* encode_gpio(unsigned int gid, unsigned char val) {
+	return encode_message(PROTO_TYPE_GPIO, gid, val);
 }
 
-struct Message* encode_data(unsigned char pid, unsigned int size) {
-	xil_printf(" \nERROR: protocol version 2 is not implemented.\n");
-	return NULL;
+struct Message* encode_data(unsigned int pid, unsigned int size) {
+	log_fine("encoding data message %d %d %d", PROTO_TYPE_DATA, pid, size);
+	return encode_message(PROTO_TYPE_DATA, pid, size);
 }
 
-struct Message* encode_debug(unsigned char type, unsigned int size) {
-    xil_printf(" \nERROR: protocol version 2 is not implemented.\n");
-    return NULL;
+struct Message* encode_debug(unsigned int type, unsigned int size) {
+	return encode_message(PROTO_TYPE_DEBUG, type, size);
 }
 
 #endif /* PROTO_VERSION */
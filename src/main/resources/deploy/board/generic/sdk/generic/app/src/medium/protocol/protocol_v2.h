@@ -12,11 +12,13 @@
 #ifndef PROTOCOL_V2_H_
 #define PROTOCOL_V2_H_
 
+#include "protocol_header.h"
+
 /**
  * maximal number of integer-sized values that can be send
  * using this protocol version.
  */
-#define PROTO_MAX_SIZE   0
+#define PROTO_MAX_SIZE   PROTO_V2_SIZE_MASK
 
 /**
  * maximal number of integer-sized values that can be acknowledged
@@ -31,7 +33,8 @@
 /**
  * maximal number of integer-sized values that can be send
  * in a single debug message using this protocol version.
+ * This is below the size limit of the protocol, since the host allocates debug messages as a whole.
  */
-#define PROTO_DEBUG_SIZE PROTO_MAX_SIZE
+#define PROTO_DEBUG_SIZE 1024
 
 #endif /* PROTOCOL_V2_H_ */
@@ -28,6 +28,9 @@
 #endif
 
 #include "constants.h"
+#ifdef MEDIUM_IRQ
+#include "components/port_irq.h"
+#endif /* MEDIUM_IRQ */
 #include "lwip/tcp.h"
 #if DHCP
 #include "lwip/dhcp.h"
@@ -63,6 +66,16 @@ void timer_callback() {
 #endif /* DHCP */
 }
 
+#if defined(__MICROBLAZE__) && defined(MEDIUM_IRQ)
+/* the handler of the medium belongs to the lwIP adapter, so the scheduler is notified
+ * about received frames before the interrupt controller dispatches the interrupt.
+ */
+static void platform_interrupt_handler(void *intc) {
+	port_irq_wakeup();
+	XIntc_InterruptHandler(intc);
+}
+#endif
+
 void platform_setup_interrupts() {
 	XIntc *intcp;
 	intcp = getIntc();
@@ -80,7 +93,11 @@ void platform_setup_interrupts() {
 			(XExceptionHandler)XIntc_DeviceInterruptHandler,
 			(void*) XPAR_INTC_0_DEVICE_ID);
 #elif __MICROBLAZE__
+#ifdef MEDIUM_IRQ
+	microblaze_register_handler((XInterruptHandler)platform_interrupt_handler, intcp);
+#else
 	microblaze_register_handler((XInterruptHandler)XIntc_InterruptHandler, intcp);
+#endif
 #endif
 
 	platform_setup_timer();
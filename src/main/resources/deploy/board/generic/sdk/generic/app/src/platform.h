@@ -31,5 +31,11 @@ void timer_callback();
 #endif
 void platform_setup_timer();
 void platform_enable_interrupts();
+
+/**
+ * Returns the time elapsed since the platform has been initialised in microseconds.
+ * The time wraps around after roughly 71 minutes, so only differences are meaningful.
+ */
+unsigned int platform_get_time();
 #endif
 
@@ -55,9 +55,13 @@
 #include "xintc.h"
 #include "xtmrctr_l.h"
 
+/* number of timer periods elapsed since the timer has been set up */
+static volatile unsigned int timer_periods = 0;
+
 void
 xadapter_timer_handler(void *p)
 {
+	timer_periods++;
 	timer_callback();
 
 	/* Load timer, clear interrupt bit */
@@ -103,4 +107,18 @@ void platform_enable_interrupts()
 {
 	microblaze_enable_interrupts();
 }
+
+unsigned int platform_get_time()
+{
+	unsigned int periods, count;
+
+	/* read the counter again, if the timer expired in between */
+	do {
+		periods = timer_periods;
+		count   = XTmrCtr_GetTimerCounterReg(PLATFORM_TIMER_BASEADDR, 0);
+	} while(periods != timer_periods);
+
+	/* the timer counts down from TIMER_TLR with 100 clk ticks per us */
+	return periods * (unsigned int)(TIMER_TLR / 100) + ((unsigned int)TIMER_TLR - count) / 100;
+}
 #endif
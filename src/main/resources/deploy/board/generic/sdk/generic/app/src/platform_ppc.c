@@ -94,4 +94,13 @@ platform_enable_interrupts()
 {
 	Xil_ExceptionEnable();
 }
+
+unsigned int
+platform_get_time()
+{
+	/* the time base is incremented with the processor clock */
+	XTime time;
+	XTime_GetTime(&time);
+	return (unsigned int)(time / MHZ);
+}
 #endif
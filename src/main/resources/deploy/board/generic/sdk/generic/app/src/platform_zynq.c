@@ -54,6 +54,7 @@
 #include "xparameters_ps.h"	/* defines XPAR values */
 #include "xil_cache.h"
 #include "xscugic.h"
+#include "xtime_l.h"
 
 #define EMACPS_DEVICE_ID	XPAR_XEMACPS_0_DEVICE_ID
 #define INTC_DEVICE_ID		XPAR_SCUGIC_SINGLE_DEVICE_ID
@@ -128,6 +129,14 @@ void platform_enable_interrupts()
 	return;
 }
 
+unsigned int platform_get_time()
+{
+	/* the global timer is incremented with half the processor clock */
+	XTime time;
+	XTime_GetTime(&time);
+	return (unsigned int)(time / (COUNTS_PER_SECOND / 1000000));
+}
+
 void init_platform()
 {
 	platform_setup_interrupts();
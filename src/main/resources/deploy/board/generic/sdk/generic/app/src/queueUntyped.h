@@ -1,5 +1,5 @@
 /**
- * Implementation of a linked queue.
+ * Implementation of a ring buffer queue.
  * @file
  * @author Thomas Fischer
  * @since: 20.02.2013
@@ -9,40 +9,30 @@
 #define QUEUEUNTYPED_H_
 
 /**
- * Structure for nodes of the linked queue.
- * Contains the stored value as well as a a pointer to the next element in the queue.
- */
-typedef struct QueueNode {
-	/** Pointer to the next node in the queue */
-	struct QueueNode *next;
-	/** The value stored at this node */
-	int value;
-} QueueNode;
-
-/**
- * Structure for a linked queue.
- * A linked queue is a mix of a linked list and a fifo queue.
+ * Structure for a ring buffer queue.
+ * Values are stored in a statically allocated array, which is provided on initialisation
+ * (see #initQueue). Queue operations therefore never allocate memory and reduce to index arithmetic.
  * Elements can be appended only at the back and only removed from the front.
- * However, it is possible to peek at all elements, starting with the first
- * and using the next pointer.
  */
 typedef struct Queue {
-	/** Pointer to the first node in the queue */
-	struct QueueNode *first;
-	/** Pointer to the last node in the queue */
-	struct QueueNode *last;
-	/** Number of nodes currently stored in the queue */
+	/** Storage of the queue with room for #cap values */
+	int *values;
+	/** Index of the first value in the storage */
+	unsigned int first;
+	/** Number of values currently stored in the queue */
 	unsigned int size;
-	/** Capacity of the queue (maximum number of nodes) */
+	/** Capacity of the queue (maximum number of values) */
 	unsigned int cap;
 } Queue;
 
 /**
- * Allocates memory for an empty queue and returns the pointer.
+ * Initialises an empty queue on the provided storage and returns the pointer.
+ * @param queue The queue to be initialised.
+ * @param values Storage of the queue with room for at least #cap values.
  * @param cap Maximal capacity of the queue.
- * @return Pointer to a new, empty queue.
+ * @return Pointer to the initialised, empty queue.
  */
-Queue* createQueue(int cap);
+Queue* initQueue(Queue *queue, int values[], unsigned int cap);
 
 /**
  * Puts an element into a queue.
@@ -51,14 +41,27 @@ Queue* createQueue(int cap);
  * @param val The element to append.
  * @return 1 if successful, 0 otherwise (i.e. capacity reached)
  */
-int put(struct Queue *queue, int val);
+static inline int put(struct Queue *queue, int val) {
+	// if the queue has reached its capacity, abort
+	if(queue->size >= queue->cap) return 0;
+
+	// store the value behind the last one, wrapping around at the end of the storage
+	unsigned int last = queue->first + queue->size;
+	if(last >= queue->cap) last -= queue->cap;
+	queue->values[last] = val;
+	queue->size++;
+
+	return 1;
+}
 
 /**
  * Checks if a queue contains eny elements or is empty.
  * @param queue The queue to be checked.
  * @return true if the queue contains elements, false otherwise.
  */
-int hasElems(Queue *queue);
+static inline int hasElems(Queue *queue) {
+	return queue->size > 0;
+}
 
 /**
  * Takes the first element from a queue and returns its value.
@@ -66,22 +69,49 @@ int hasElems(Queue *queue);
  * @param queue The queue, from which the element should be taken.
  * @return Value of the first element.
  */
-int take(struct Queue *queue);
+static inline int take(struct Queue *queue) {
+	// fail, if the queue is empty
+	if(queue->size == 0) return 0;
+
+	// otherwise get the first value and advance the first index
+	int val = queue->values[queue->first];
+	if(++queue->first == queue->cap) queue->first = 0;
+	queue->size--;
+
+	return val;
+}
+
+/**
+ * Removes several elements from the front of a queue without reading them.
+ * This is used, if values have been read directly from the storage of the queue (e.g. by a dma engine).
+ * @param queue The queue, from which the elements should be removed.
+ * @param count Number of elements to remove. At most all elements of the queue are removed.
+ */
+static inline void drop(struct Queue *queue, unsigned int count) {
+	if(count > queue->size) count = queue->size;
+
+	queue->first += count;
+	if(queue->first >= queue->cap) queue->first -= queue->cap;
+	queue->size -= count;
+}
 
 /**
  * Clears all values from the queue.
- * Does however NOT remove free the memory reserved for the queue header itself.
+ * The storage of the queue remains reserved for the queue.
  * @param queue The queue that should be cleared of elements.
  */
-void clear(struct Queue *queue);
+static inline void clear(struct Queue *queue) {
+	queue->first = 0;
+	queue->size  = 0;
+}
 
 /**
  * Read the first value of the queue without removing it.
  * @param queue The queue which should be read.
  * @return The first value of the queue.
  */
-int peek(struct Queue *queue);
-
-
+static inline int peek(struct Queue *queue) {
+	return queue->values[queue->first];
+}
 
 #endif /* QUEUEUNTYPED_H_ */
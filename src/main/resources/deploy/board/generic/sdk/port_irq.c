@@ -0,0 +1,123 @@
+#include "port_irq.h"
+#include "interrupts.h"
+#include "../io.h"
+
+#ifdef __MICROBLAZE__
+ #include "mb_interface.h"
+#endif
+
+/** Flag for out-going ports in the reference passed to the interrupt handler */
+#define OUT_PORT 0x100
+
+/** Interrupt ids of in-going ports */
+static u16 inIntr[IN_STREAM_COUNT];
+/** Interrupt ids of out-going ports */
+static u16 outIntr[OUT_STREAM_COUNT];
+
+/** Flags indicating, that the hardware queue of an in-going port is attached to the interrupt controller */
+static int inIrq[IN_STREAM_COUNT];
+/** Flags indicating, that the hardware queue of an out-going port is attached to the interrupt controller */
+static int outIrq[OUT_STREAM_COUNT];
+
+/**
+ * Flags indicating, that an in-going port waits for its interrupt.
+ * Set by the scheduler and cleared by the interrupt handler, so each port has its own flag.
+ */
+static volatile int inWaiting[IN_STREAM_COUNT];
+/** Flags indicating, that an out-going port waits for its interrupt */
+static volatile int outWaiting[OUT_STREAM_COUNT];
+
+/**
+ * Flag indicating, that an interrupt occurred since the scheduler last went idle.
+ * Set by the interrupt handlers and tested and cleared by the scheduler with interrupts disabled.
+ */
+static volatile int wakeup = 0;
+
+void port_irq_wakeup() {
+	wakeup = 1;
+}
+
+/**
+ * Handles the interrupt of a hardware queue.
+ * Since the interrupt is level-sensitive, it is disabled until the port waits again.
+ * @param ref Port of the queue, combined with OUT_PORT for out-going ports.
+ */
+static void port_irq_handler(void *ref) {
+	u32 port = (u32)ref;
+	unsigned int pid = port & 0xff;
+
+	if(port & OUT_PORT) {
+		XIntc_Disable(getIntc(), outIntr[pid]);
+		outWaiting[pid] = 0;
+	} else {
+		XIntc_Disable(getIntc(), inIntr[pid]);
+		inWaiting[pid] = 0;
+	}
+
+	port_irq_wakeup();
+}
+
+void init_port_irq(unsigned int pid, int out, u16 intrId) {
+	u32 ref = pid | (out ? OUT_PORT : 0);
+
+	XIntc_Disable(getIntc(), intrId);
+	if(XIntc_Connect(getIntc(), intrId, (XInterruptHandler)port_irq_handler, (void*)ref) != XST_SUCCESS) {
+		if(out) {
+			log_error("could not connect interrupt %d of out-going port %d", intrId, pid);
+		} else {
+			log_error("could not connect interrupt %d of in-going port %d", intrId, pid);
+		}
+		return;
+	}
+
+	if(out) {
+		outIntr[pid] = intrId;
+		outIrq[pid]  = 1;
+	} else {
+		inIntr[pid] = intrId;
+		inIrq[pid]  = 1;
+	}
+}
+
+void arm_port_irq(unsigned int pid, int out) {
+	// the flag has to be set before the interrupt is enabled, since the handler might be called immediately
+	if(out) {
+		if(!outIrq[pid]) return;
+		outWaiting[pid] = 1;
+		XIntc_Enable(getIntc(), outIntr[pid]);
+	} else {
+		if(!inIrq[pid]) return;
+		inWaiting[pid] = 1;
+		XIntc_Enable(getIntc(), inIntr[pid]);
+	}
+}
+
+int port_waiting(unsigned int pid, int out) {
+	return out ? outWaiting[pid] : inWaiting[pid];
+}
+
+void __attribute__((weak)) schedule_idle() {
+#if defined(__MICROBLAZE__) && defined(MEDIUM_IRQ)
+	unsigned int pid;
+
+	// ports, which are not woken by an interrupt, have to be served by polling
+	for(pid = 0; pid < IN_STREAM_COUNT; pid++)
+		if(!inIrq[pid] && inQueue[pid]->size > 0) return;
+	for(pid = 0; pid < OUT_STREAM_COUNT; pid++)
+		if(!outIrq[pid]) return;
+
+	// values waiting for their flush might reach their latency limit
+	for(pid = 0; pid < OUT_STREAM_COUNT; pid++)
+		if(outQueueSize[pid] > 0) return;
+
+	// do not sleep, if an interrupt has been handled since the last call. The processor sleeps with
+	// interrupts disabled, so no handler can run between the test and the sleep. An interrupt raised
+	// in between remains pending at the interrupt controller, whose request line is connected to the
+	// wakeup input of the processor. It therefore ends the sleep (or prevents it) and is handled,
+	// as soon as interrupts are enabled again.
+	microblaze_disable_interrupts();
+	if(!wakeup) __asm__ __volatile__ ("mbar 16");
+	wakeup = 0;
+	microblaze_enable_interrupts();
+#endif
+}
@@ -0,0 +1,63 @@
+/**
+ * Generic procedures and definitions used by the interrupt-driven scheduler.
+ * Instead of polling the stream interfaces of all ports in every iteration, the scheduler
+ * lets ports wait for an interrupt of their hardware queue, if the queue ran empty (out-going ports)
+ * or full (in-going ports). Waiting ports are skipped until the interrupt occurs.
+ * Ports without hardware queue are not attached to the interrupt controller and never wait.
+ * @file
+ */
+
+#ifndef PORT_IRQ_H_
+#define PORT_IRQ_H_
+
+#include "xbasic_types.h"
+#include "../constants.h"
+
+/**
+ * Attaches the interrupt of the hardware queue of a port to the interrupt controller.
+ * The interrupt remains disabled, until the port waits for it.
+ * @param pid The port.
+ * @param out 1 for out-going ports, which are woken while their hardware queue holds values,
+ *            0 for in-going ports, which are woken while at least half of their hardware queue is free.
+ * @param intrId Interrupt id of the hardware queue at the interrupt controller.
+ */
+void init_port_irq(unsigned int pid, int out, u16 intrId);
+
+/**
+ * Lets a port wait for the interrupt of its hardware queue.
+ * The interrupt is level-sensitive, so it occurs immediately, if the queue has changed in between.
+ * Ports without interrupt do not wait.
+ * @param pid The port.
+ * @param out 1 for out-going ports, 0 for in-going ports.
+ */
+void arm_port_irq(unsigned int pid, int out);
+
+/**
+ * Checks, if a port waits for the interrupt of its hardware queue.
+ * @param pid The port.
+ * @param out 1 for out-going ports, 0 for in-going ports.
+ * @return 1 if the port waits, 0 if it has to be served by the scheduler.
+ */
+int port_waiting(unsigned int pid, int out);
+
+/**
+ * Notifies the scheduler about an interrupt, so that it does not go to sleep in its current iteration.
+ * Called by the interrupt handlers of the hardware queues and, for the medium, by the interrupt dispatch
+ * of the platform before the handler of the medium is invoked.
+ */
+void port_irq_wakeup();
+
+/**
+ * Called by the scheduler, if an iteration neither received a message nor moved a value.
+ * The default implementation puts the processor to sleep until the next interrupt, if all pending
+ * work is signalled by interrupts. This requires a medium signalling received messages by an interrupt
+ * (i.e. Ethernet) and interrupts for all out-going ports. It does not sleep, if an out-going port is
+ * attached to a dma engine or lacks a hardware queue, if an in-going port without interrupt still holds
+ * values or if values wait for their flush. It neither sleeps, if an interrupt was signalled by
+ * port_irq_wakeup since its last call. The processor sleeps with interrupts disabled and is woken by
+ * the request line of the interrupt controller, so that no interrupt raised before the sleep is lost.
+ * In all other cases, it returns immediately and idle power remains unchanged. The procedure is declared weak, so that it can be replaced by a user-defined one.
+ */
+void schedule_idle();
+
+#endif /* PORT_IRQ_H_ */
@@ -54,7 +54,10 @@ entity queue is
 		out_TReady : in std_logic;                                    --! output-AXIS-port TReady signal
 		out_TValid : out std_logic;                                   --! output-AXIS-port TValid signal
 		out_TData : out std_logic_vector(G_BW-1 downto 0);            --! output-AXIS-port TData signal
-		out_TLast : out std_logic                                     --! output-AXIS-port TLast signal
+		out_TLast : out std_logic;                                    --! output-AXIS-port TLast signal
+
+		data_irq  : out std_logic;                                    --! level-sensitive interrupt, set while data is stored
+		space_irq : out std_logic                                     --! level-sensitive interrupt, set while at least half is free
 
 	);                                                             
 end queue;
@@ -161,6 +164,12 @@ begin
 		out_Tlast <= tlast_flag(rd_ptr) when num_data > 0 else				-- !!! [tlast_flag(rd_ptr) when num_data > 0] is added
 					 in_Tlast;		
 					 
+		-- Interrupts of the processor-side end, so that the scheduler does not have to poll the stream
+		data_irq  <= '1' when num_data > 0 else
+		             '0';
+		space_irq <= '1' when 2 * num_data <= G_DEPTH else
+		             '0';
+					 
 		             
 	end generate fifo; 
 	
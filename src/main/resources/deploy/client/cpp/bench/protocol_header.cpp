@@ -0,0 +1,69 @@
+/**
+ * Micro-benchmark for the generated protocol header codec.
+ * Measures the decode rate of the shift/mask macros and compares it with
+ * the floating point decoding used by earlier versions of the driver.
+ *
+ * Build and run from the host driver directory:
+ *   g++ -O2 -std=c++11 -o header_bench bench/protocol_header.cpp && ./header_bench
+ * @file
+ */
+
+#include <chrono>
+#include <cmath>
+#include <cstdlib>
+#include <iostream>
+#include <vector>
+
+#include "../src/io/protocol_header.h"
+
+/** Number of headers decoded per run. */
+static const unsigned int COUNT = 1 << 22;
+
+/** Reference decoder using floating point arithmetic. */
+static unsigned int decode_float(int first) {
+	first = fmod(first, pow(2, 24));
+	unsigned int type = floor(first / pow(2, 20));
+	first = fmod(first, pow(2, 20));
+	unsigned int id = floor(first / pow(2, 16));
+	unsigned int size = fmod(first, pow(2, 16));
+	return type + id + size;
+}
+
+/** Decoder using the generated codec. */
+static unsigned int decode_codec(int first) {
+	return PROTO_V1_GET_TYPE(first) + PROTO_V1_GET_ID(first) + PROTO_V1_GET_SIZE(first);
+}
+
+/**
+ * Decodes all headers with the given decoder and prints the decode rate.
+ * @return Checksum over all decoded fields.
+ */
+template <unsigned int (*decode)(int)>
+static unsigned long run(const char *name, const std::vector<int> &headers) {
+	unsigned long sum = 0;
+
+	std::chrono::steady_clock::time_point start = std::chrono::steady_clock::now();
+	for(unsigned int i = 0; i < headers.size(); i++) sum += decode(headers[i]);
+	std::chrono::duration<double> t = std::chrono::steady_clock::now() - start;
+
+	std::cout << name << ": " << headers.size() / t.count() / 1e6 << " Mheaders/s" << std::endl;
+	return sum;
+}
+
+int main() {
+	std::vector<int> headers(COUNT);
+
+	// random, valid version 1 headers
+	srand(42);
+	for(unsigned int i = 0; i < COUNT; i++)
+		headers[i] = PROTO_V1_HEADER(rand() % 16, rand() % 16, rand() % 65536);
+
+	unsigned long a = run<decode_float>("floating point", headers);
+	unsigned long b = run<decode_codec>("shift/mask    ", headers);
+
+	if(a != b) {
+		std::cout << "decoders disagree (" << a << " vs. " << b << ")" << std::endl;
+		return 1;
+	}
+	return 0;
+}
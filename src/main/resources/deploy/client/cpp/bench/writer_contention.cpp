@@ -0,0 +1,130 @@
+/**
+ * Multi-threaded benchmark for writes to in-going ports.
+ * Several application threads write single values to different ports concurrently,
+ * while the writer thread sends them to a simulated board. The simulated board
+ * acknowledges all values as soon as they are sent, so that the benchmark measures
+ * the overhead of the host-side driver rather than the medium.
+ *
+ * Build and run from the host driver directory (requires the threads I/O engine):
+ *   g++ -O2 -std=c++11 -pthread -Isrc -Isrc/api -Isrc/io -o writer_bench bench/writer_contention.cpp \
+ *       src/io/io.cpp src/io/protocol.cpp src/io/interface.cpp src/logger.cpp
+ *   ./writer_bench [threads] [values per thread]
+ * @file
+ */
+
+#include <chrono>
+#include <cstdlib>
+#include <iostream>
+#include <thread>
+#include <vector>
+
+#include "../src/io/io.h"
+#include "../src/io/protocol.h"
+#include "../src/exceptions.h"
+
+#if IO_ENGINE != IO_ENGINE_THREADS
+#error "the writer benchmark requires the threads I/O engine"
+#endif
+
+#if IN_PORT_COUNT == 0
+#error "the writer benchmark requires at least one in-going port"
+#endif
+
+/** Capacity of the simulated board-side input queues. */
+static const unsigned int WINDOW = 1024;
+
+/**
+ * Simulated medium, which acknowledges all sent values immediately.
+ * Data messages are decoded with the generated header codec.
+ */
+class loopback : public interface {
+private:
+	void setup() { }
+	void teardown() { }
+
+	/** Acknowledges all data messages of a transmission. */
+	void acknowledge(const int val[], unsigned int size) {
+		unsigned int i = 0;
+		while(i < size) {
+#if PROTO_VERSION == 2
+			unsigned int count = PROTO_V2_GET_COUNT(val[i++]);
+			for(unsigned int j = 0; j < count; j++) {
+				unsigned int type = PROTO_V2_GET_TYPE(val[i]);
+				unsigned int id   = PROTO_V2_GET_ID(val[i]);
+				unsigned int n    = PROTO_V2_GET_SIZE(val[i + 1]);
+				i += 2;
+				if(type != PROTO_TYPE_DATA) continue;
+				recv_ack(id, n);
+				i += n;
+			}
+#else
+			unsigned int type = PROTO_V1_GET_TYPE(val[i]);
+			unsigned int id   = PROTO_V1_GET_ID(val[i]);
+			unsigned int n    = PROTO_V1_GET_SIZE(val[i]);
+			i++;
+			if(type != PROTO_TYPE_DATA) continue;
+			recv_ack(id, n);
+			i += n;
+#endif
+		}
+	}
+
+public:
+	void send(int val) { send(&val, 1); }
+	void send(std::vector<int> val) { send(val.data(), val.size()); }
+	void send(int val[], int size) { acknowledge(val, size); }
+
+	// the board never sends anything on its own
+	void readInt(int *val) { throw mediumException("no data"); }
+	void read(int val[], unsigned int size) { throw mediumException("no data"); }
+	bool waitForData(unsigned int timeout, unsigned int utimeout) { return false; }
+
+	int descriptor() { return -1; }
+	void setNonBlocking() { }
+	bool flush() { return true; }
+	void fill() { }
+	const int *buffered(unsigned int *count) { *count = 0; return NULL; }
+	unsigned int capacity() { return 0; }
+};
+
+/**
+ * Writes values to a port and waits, until all of them are acknowledged.
+ * @param port The port to write to.
+ * @param count Number of values to be written.
+ */
+static void writeValues(inPort<32> *port, unsigned int count) {
+	std::shared_ptr<writeState<32>> last;
+	for(unsigned int i = 0; i < count; i++) last = port->nbwrite(std::bitset<32>(i));
+	while(!last->finished() && !last->failed()) std::this_thread::yield();
+}
+
+int main(int argc, char **argv) {
+	unsigned int threads = argc > 1 ? atoi(argv[1]) : 8;
+	unsigned int count   = argc > 2 ? atoi(argv[2]) : 100000;
+
+	intrfc = new loopback();
+
+	// one port per thread (threads share ports, if there are less ports than threads)
+	std::vector<inPort<32>*> ports;
+	for(unsigned int i = 0; i < IN_PORT_COUNT; i++) ports.push_back(new inPort<32>(i, WINDOW));
+
+	std::thread writer(scheduleWriter);
+
+	std::chrono::steady_clock::time_point start = std::chrono::steady_clock::now();
+
+	std::vector<std::thread> writers;
+	for(unsigned int i = 0; i < threads; i++)
+		writers.push_back(std::thread(writeValues, ports[i % IN_PORT_COUNT], count));
+	for(unsigned int i = 0; i < threads; i++) writers[i].join();
+
+	std::chrono::duration<double> t = std::chrono::steady_clock::now() - start;
+
+	std::cout << threads << " threads, " << IN_PORT_COUNT << " ports: "
+		<< threads * count / t.count() / 1e6 << " Mvalues/s" << std::endl;
+
+	is_active = false;
+	notify_writer();
+	writer.join();
+
+	return 0;
+}
@@ -30,10 +30,8 @@
 #include "../constants.h"
 #include "../logger.h"
 
-/** Global writer lock. Use, whenever interacting with shared objects. */
-extern std::mutex writer_mutex;
-/** Notify this variable, when new values can be sent to the board. */
-extern std::condition_variable can_write;
+/** Wakes the I/O engine, when new values can be sent to the board. */
+void notify_writer();
 
 class abstract_gpo;
 class abstract_gpi;
@@ -62,7 +60,7 @@ protected:
  * several private attributes thereby simplifying the template.
  */
 class abstract_gpi : public gpio {
-friend void recv_gpio(unsigned char gid, unsigned char val);
+friend void recv_gpio(unsigned int gid, unsigned char val);
 protected:
     /** Identifier of the gpi component. */
     unsigned char gpi_id;
@@ -130,7 +128,7 @@ public:
  * several private attributes thereby simplifying the template.
  */
 class abstract_gpo : public gpio {
-friend void scheduleWriter();
+friend void write_pending();
 protected:
     /** Identifier of the gpo component. */
     unsigned char gpo_id;
@@ -141,13 +139,10 @@ protected:
      *              The value has to be in the interval [0;255].
      */
     void writeStateInternal(int state) {
-        // acquire writer lock
-        std::unique_lock<std::mutex> lock(writer_mutex);
-
         // write the new state atomically (yay)
         this->state = state;
         // notify (doesn't matter, if it was written before... then we just notified twice. woohoo
-        can_write.notify_one();
+        notify_writer();
     }
 
 public:
@@ -221,7 +216,7 @@ public:
      * For example, for a LED component, this should result into a moving pattern of enabled LEDs.
      */
     void test() {
-        logger_host << INFO << "running loopy GPO test for GPO component " << gpo_id << std::endl;
+        log_host(INFO) << "running loopy GPO test for GPO component " << gpo_id << std::endl;
         bool direction = false;
         int state = MIN_VALUE;
 
@@ -233,7 +228,7 @@ public:
             usleep(175000);
         }
 
-        logger_host << INFO << "finished GPO test for GPO component " << gpo_id << std::endl;
+        log_host(INFO) << "finished GPO test for GPO component " << gpo_id << std::endl;
     }
 };
 
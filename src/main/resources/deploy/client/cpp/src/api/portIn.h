@@ -11,46 +11,99 @@
 #include <memory>
 #include <bitset>
 #include <mutex>
+#include <atomic>
 
 #include "../utils.h"
 #include "../linkedQueue.h"
+#include "../readyList.h"
 #include "../io/state.h"
 
 class abstractInPort;
 /** List of all in-going ports of this driver. */
 extern abstractInPort *inPorts[];
-/** The writer mutex, which is required for notification of the writer. */
-extern std::mutex writer_mutex;
-/** Condition variable of the writer, which is notified, if a new value is written to an idling port. */
-extern std::condition_variable can_write;
+/** Ports with values, which can be sent to the board. Drained by the I/O engine. */
+extern ReadyList<abstractInPort> readyPorts;
+/** Wakes the I/O engine, if a new value is written to an idling port. */
+void notify_writer();
 
 /**
  * Abstract, unparameterised representation of an in-going port without specified width.
  * It is to be only used by the I/O threads which are independent of the actual bitwidth of a port.
  */
 class abstractInPort {
-friend void scheduleWriter();
-friend void recv_ack_unsafe(unsigned char pid, unsigned int count);
-friend void recv_ack(unsigned char pid, unsigned int count);
-friend void recv_poll(unsigned char pid);
+friend void write_pending();
+friend void recv_ack_unsafe(unsigned int pid, unsigned int count);
+friend void recv_ack(unsigned int pid, unsigned int count);
+friend void recv_fail(unsigned int pid, unsigned int count);
+friend class ReadyList<abstractInPort>;
 protected:
 	/** ID of the port. */
 	int pid;
 	/** The queue of write tasks to be performed by the port. */
 	std::shared_ptr<LinkedQueue<abstractWriteState>> writeTaskQueue;
-	/** Counter of values currently in transit. -1 marks a blocked port. */
-	std::shared_ptr<int> transit;
+	/**
+	 * Number of values the board-side input queue of this port can hold.
+	 * The board acknowledges values, when they are forwarded to the core, so that
+	 * the port never has more values in transit than the board is able to store.
+	 */
+	unsigned int window;
+	/** Counter of values currently in transit (i.e. sent, but not yet acknowledged). */
+	unsigned int transit;
+	/**
+	 * Set, if the board reported a failure of the port (see #recv_fail).
+	 * Writes to a failed port fail immediately.
+	 */
+	bool failed;
+	/** Scheduling priority of the port. Ports with a higher priority are sent first. */
+	unsigned int priority;
+	/** Maximal number of values sent per scheduling round or 0, if the port has no weight. */
+	unsigned int quantum;
+
+	/** Set, while the port is published in the #readyPorts list. */
+	std::atomic<bool> ready;
+	/** Next port in the #readyPorts list. */
+	abstractInPort *nextReady;
 
 	/** Port mutex, which has to be acquired before modifying the task queue. */
 	std::mutex port_mutex;
-	/** Condition variable, waiting for the task queue to get empty. */
+	/** Condition variable, notified when tasks of the queue finished or failed. */
 	std::condition_variable_any task_empty;
+
+	/**
+	 * Publishes the port to the I/O engine, if the board can accept values and
+	 * the port is not published already. Only the first publication wakes the engine,
+	 * so that writes to a busy port neither lock nor notify anything shared.
+	 * Has to be called while holding the port lock.
+	 */
+	void publish() {
+		if(transit < window && !ready.exchange(true)) {
+			readyPorts.push(this);
+			notify_writer();
+		}
+	}
+
+	/**
+	 * Fails a write task without queueing it, if the port failed.
+	 * Has to be called while holding the port lock.
+	 * @param s State of the write task.
+	 * @return true, if the task failed, false otherwise.
+	 */
+	bool reject(abstractWriteState *s) {
+		if(!failed) return false;
+		s->fail = true;
+		s->m = "port " + std::to_string(pid) + " failed, since the board dropped values";
+		return true;
+	}
 public:
 	/**
 	 * Constructor for unparameterised in-going ports, initialising all queues and parameters.
 	 * @param pid ID of the port.
+	 * @param window Capacity of the board-side input queue of the port.
+	 * @param priority Scheduling priority of the port.
+	 * @param quantum Maximal number of values sent per scheduling round (0 for no limit).
 	 */
-	abstractInPort(int pid) : pid(pid), transit(new int(0)){
+	abstractInPort(int pid, unsigned int window, unsigned int priority = 0, unsigned int quantum = 0) :
+		pid(pid), window(window), transit(0), failed(false), priority(priority), quantum(quantum), ready(false), nextReady(NULL) {
 		inPorts[pid] = this;
 
 		writeTaskQueue = std::shared_ptr<LinkedQueue<abstractWriteState>>(new LinkedQueue<abstractWriteState>());
@@ -59,13 +112,21 @@ public:
 };
 
 /**
- * An abstract representation of an in-going AXI-Stream port.
+ * An abstract representation of an in-going AXI-Stream port with values of type T.
  * Instances of this class represent in-going ports of IPCores.
  * Communication with a core should be handled through these ports.
+ *
+ * Typed ports exchange native values (e.g. uint32_t or float), which are
+ * converted to 32-bit words with plain copies. All other ports exchange bit vectors (cf. #inPort).
  */
-template <int width>
-class inPort : public abstractInPort {
+template <class T>
+class typedInPort : public abstractInPort {
 protected:
+	/**
+	 * Flag for packed ports. If true, several narrow values are sent in a single 32-bit value.
+	 * Since the board unpacks all values of a word, the last word of a write is padded with zero values.
+	 */
+	bool packed;
 
 	/**
 	 * Underlying read operation, called by more usable read methods.
@@ -74,51 +135,44 @@ protected:
 	 * @param state #state of the read operation to be executed.
 	 * @return updated #state
 	 */
-	void write(writeState<width> *state) {
-		std::shared_ptr<writeState<width>> s(state);
+	void writeTask(typedWriteState<T> *state) {
+		std::shared_ptr<typedWriteState<T>> s(state);
 
 		// acquire port lock
 		std::unique_lock<std::mutex> port_lock(port_mutex);
 
-		// put the value in the queue
-		writeTaskQueue->put(s);
-
-		// acquire writer lock
-		std::unique_lock<std::mutex> write_lock(writer_mutex);
+		// writes to a failed port fail right away
+		if(reject(s.get())) return;
 
-		// notify, if the port is ready (may notify for tasks further ahead in queue, but doesn't matter)
-		if(*transit == 0) can_write.notify_one();
-
-		// release the port lock!
-		port_lock.unlock();
+		// put the value in the queue and hand the port to the I/O engine
+		writeTaskQueue->put(s);
+		publish();
 
-		// wait for the queue to get empty
-		task_empty.wait(write_lock);
+		// wait until all values have been acknowledged or the write failed
+		task_empty.wait(port_lock, [&s]() { return s->finished() || s->failed(); });
 	}
 
 	/**
 	 * Underlying read operation, called by more usable read methods.
 	 * This operation does not block until the value is written.
-	 * Still, it waits for locks and may therefore take some time to finish.
+	 * Still, it waits for the port lock and may therefore take some time to finish.
 	 * @param state #state of the read operation to be executed.
 	 * @return updated #state
 	 */
-	std::shared_ptr<writeState<width>> nbwrite(writeState<width> *state) {
-		std::shared_ptr<writeState<width>> s(state);
+	std::shared_ptr<typedWriteState<T>> nbwriteTask(typedWriteState<T> *state) {
+		std::shared_ptr<typedWriteState<T>> s(state);
 
 		// acquire port lock
 		std::unique_lock<std::mutex> port_lock(port_mutex);
 
-		// put the value in the queue
-		writeTaskQueue->put(s);
+		// writes to a failed port fail right away
+		if(reject(s.get())) return s;
 
-		// acquire writer lock
-		std::unique_lock<std::mutex> write_lock(writer_mutex);
-
-		// notify, if the port is ready
-		if(*transit == 0) can_write.notify_one();
+		// put the value in the queue and hand the port to the I/O engine
+		writeTaskQueue->put(s);
+		publish();
 
-		// release locks and return state pointer
+		// release lock and return state pointer
 		return s;
 	}
 
@@ -126,144 +180,100 @@ public:
 	/**
 	 * Constructor for in-going ports, initialising all queues and parameters.
 	 * @param pid ID of the port.
+	 * @param window Capacity of the board-side input queue of the port.
+	 * @param packed Flag for packed ports. If true, several narrow values are sent in a single 32-bit value.
+	 * @param priority Scheduling priority of the port.
+	 * @param quantum Maximal number of values sent per scheduling round (0 for no limit).
 	 */
-	inPort(int pid) : abstractInPort(pid) { }
-	~inPort() { }
+	typedInPort(int pid, unsigned int window, bool packed = false, unsigned int priority = 0, unsigned int quantum = 0) :
+		abstractInPort(pid, window, priority, quantum), packed(packed) { }
+	~typedInPort() { }
 
 	/**
-	 * Writes a bit vector to this port and waits for the write to return.
-	 * This implies waiting for the board to receive and acknowledge the written value.
-	 * @param val The bit vector to be written.
+	 * Writes a value to this port and waits for the write to return.
+	 * This implies waiting for the board to forward the written value to the component.
+	 * @param val The value to be written.
 	 * @throws protocolException Indicates a problem with message encoding.
 	 *                           This should not happen, when using this port interface.
 	 * @throws mediumException   Indicates a problem with the communication medium.
 	 *                           This usually means, that the connection to the board
 	 *                           has been lost for some reason (and therefore, the driver
 	 *                           has failed completely).
-	 * @warning Though described as a blocking write, this method currently only blocks
-	 *          until the microblaze has received the value, not until the component
-	 *          has received it. This will be fixed in a later version
 	 */
-	void write(const std::bitset<width> val) {
-		write(new writeState<width>(&val, 1));
+	void write(const T &val) {
+		writeTask(new typedWriteState<T>(&val, 1, packed));
 	}
 
 	/**
-	 * Writes a vector of bit vectors to this port and waits for the write to return.
-	 * This implies waiting for the board to receive and acknowledge the written values.
-	 * @param vals The bit vectors to be written.
+	 * Writes a vector of values to this port and waits for the write to return.
+	 * This implies waiting for the board to forward the written values to the component.
+	 * @param vals The values to be written.
 	 * @throws protocolException Indicates a problem with message encoding.
 	 *                           This should not happen, when using this port interface.
 	 * @throws mediumException   Indicates a problem with the communication medium.
 	 *                           This usually means, that the connection to the board
 	 *                           has been lost for some reason (and therefore, the driver
 	 *                           has failed completely).
-	 * @warning Though described as a blocking write, this method currently only blocks
-	 *          until the microblaze has received the value, not until the component
-	 *          has received it. This will be fixed in a later version
 	 */
-	void write(const std::vector<std::bitset<width>> vals) {
-		write(new writeState<width>(vals.data(), vals.size()));
+	void write(const std::vector<T> &vals) {
+		writeTask(new typedWriteState<T>(vals.data(), vals.size(), packed));
 	}
 
 	/**
-	 * Writes an array of bit vectors to this port and waits for the write to return.
-	 * This implies waiting for the board to receive and acknowledge the written values.
-	 * @param vals The bit vectors to be written.
-	 * @param size The size of the bit vector array.
+	 * Writes an array of values to this port and waits for the write to return.
+	 * This implies waiting for the board to forward the written values to the component.
+	 * @param vals The values to be written.
+	 * @param size The size of the value array.
 	 * @throws protocolException Indicates a problem with message encoding.
 	 *                           This should not happen, when using this port interface.
 	 * @throws mediumException   Indicates a problem with the communication medium.
 	 *                           This usually means, that the connection to the board
 	 *                           has been lost for some reason (and therefore, the driver
 	 *                           has failed completely).
-	 * @warning Though described as a blocking write, this method currently only blocks
-	 *          until the microblaze has received the value, not until the component
-	 *          has received it. This will be fixed in a later version
 	 */
-	void write(const std::bitset<width> vals[], unsigned int size) {
-		write(new writeState<width>(vals, size));
+	void write(const T vals[], unsigned int size) {
+		writeTask(new typedWriteState<T>(vals, size, packed));
 	}
 
 	/**
-	 * Writes bit vectors from a file to this port and waits for the write to return.
-	 * This implies waiting for the board to receive and acknowledge the written values.
-	 *
-	 * @see utils.h for the underlying read_file operation.
-	 * @param file File containing the values to be written.
-	 * @param delim Separation character between two values.
-	 * @param f Function formatting values read from the file (cf ios_base.h).
-	 * @throws protocolException Indicates a problem with message encoding.
-	 *                           This should not happen, when using this port interface.
-	 * @throws mediumException   Indicates a problem with the communication medium.
-	 *                           This usually means, that the connection to the board
-	 *                           has been lost for some reason (and therefore, the driver
-	 *                           has failed completely).
-	 * @throws invalidArgument If the provided file does not exist.
-	 * @warning Though described as a blocking write, this method currently only blocks
-	 *          until the microblaze has received the value, not until the component
-	 *          has received it. This will be fixed in a later version
-	 */
-	void write(const char *file, const char delim, std::ios_base& (*f)(std::ios_base&)) {
-	    std::vector<std::bitset<width>> vals = read_file<width>(file, delim, f);
-	    write(vals);
-	}
-
-	/**
-	 * Writes a bit vector value to this port without waiting for it to return.
+	 * Writes a value to this port without waiting for it to return.
 	 * This still implies, that the value has not been received by the board (or not even
      * been sent to the board) yet.
-	 * @param val The bit vector to be written.
+	 * @param val The value to be written.
 	 * @return A #state representing this write.
 	 */
-	std::shared_ptr<writeState<width>> nbwrite(const std::bitset<width> val) {
-		return nbwrite(new writeState<width>(&val, 1));
+	std::shared_ptr<typedWriteState<T>> nbwrite(const T &val) {
+		return nbwriteTask(new typedWriteState<T>(&val, 1, packed));
 	}
 
 	/**
-	 * Writes a vector of bit vectors to this port without waiting for it to return.
+	 * Writes a vector of values to this port without waiting for it to return.
 	 * This still implies, that the value has not been received by the board (or not even
      * been sent to the board) yet.
-     * @param vals The bit vectors to be written.
+     * @param vals The values to be written.
 	 * @return A #state representing this write.
 	 */
-	std::shared_ptr<writeState<width>> nbwrite(const std::vector<std::bitset<width>> vals) {
-		return nbwrite(new writeState<width>(vals.data(), vals.size()));
+	std::shared_ptr<typedWriteState<T>> nbwrite(const std::vector<T> &vals) {
+		return nbwriteTask(new typedWriteState<T>(vals.data(), vals.size(), packed));
 	}
 
 	/**
-	 * Writes an array of bit vectors to this port without waiting for it to return.
+	 * Writes an array of values to this port without waiting for it to return.
 	 * This still implies, that the value has not been received by the board (or not even
      * been sent to the board) yet.
-	 * @param vals The bit vector array to be written.
-	 * @param size The size of the bit vector array.
+	 * @param vals The value array to be written.
+	 * @param size The size of the value array.
 	 * @return A #state representing this write.
 	 */
-	std::shared_ptr<writeState<width>> nbwrite(const std::bitset<width> vals[], unsigned int size) {
-		return nbwrite(new writeState<width>(vals, size));
+	std::shared_ptr<typedWriteState<T>> nbwrite(const T vals[], unsigned int size) {
+		return nbwriteTask(new typedWriteState<T>(vals, size, packed));
 	}
 
-    /**
-     * Writes bit vectors from a file to this port without waiting for it to return.
-     * This still implies, that the value has not been received by the board (or not even
-     * been sent to the board) yet.
-     * @see utils.h for the underlying read_file operation.
-     * @param file File containing the values to be written.
-     * @param delim Separation character between two values.
-     * @param f Function formatting values read from the file (cf ios_base.h).
-     * @return A #state representing this write.
-     * @throws invalidArgument If the provided file does not exist.
-     */
-	std::shared_ptr<writeState<width>> nbwrite(const char *file, const char delim, std::ios_base& (*f)(std::ios_base&)) {
-        std::vector<std::bitset<width>> vals = read_file<width>(file, delim, f);
-        return nbwrite(vals);
-    }
-
 	/**
-	 * Writes a bit vector to a port and waits for the write to return.
-	 * This implies waiting for the board to receive and acknowledge the written value.
+	 * Writes a value to a port and waits for the write to return.
+	 * This implies waiting for the board to forward the written value to the component.
 	 * @param i The port, the value should be written to.
-	 * @param val The bit vector to be written.
+	 * @param val The value to be written.
 	 * @return The port, the vector has been written to.
      *         Returning the port allows concatenating stream operations.
 	 * @throws protocolException Indicates a problem with message encoding.
@@ -272,20 +282,17 @@ public:
 	 *                           This usually means, that the connection to the board
 	 *                           has been lost for some reason (and therefore, the driver
 	 *                           has failed completely).
-	 * @warning Though described as a blocking write, this method currently only blocks
-	 *          until the microblaze has received the value, not until the component
-	 *          has received it. This will be fixed in a later version
 	 */
-	friend inPort& operator <<(inPort &i, const std::bitset<width> val) {
+	friend typedInPort& operator <<(typedInPort &i, const T &val) {
 		i.write(val);
 		return i;
 	}
 
 	/**
-	 * Writes a vector of bit vectors to a port and waits for the write to return.
-	 * This implies waiting for the board to receive and acknowledge the written value.
+	 * Writes a vector of values to a port and waits for the write to return.
+	 * This implies waiting for the board to forward the written value to the component.
 	 * @param i The port, the value should be written to.
-	 * @param vals The bit vectors to be written.
+	 * @param vals The values to be written.
 	 * @return The port, the vectors have been written to.
      *         Returning the port allows concatenating stream operations.
 	 * @throws protocolException Indicates a problem with message encoding.
@@ -294,14 +301,72 @@ public:
 	 *                           This usually means, that the connection to the board
 	 *                           has been lost for some reason (and therefore, the driver
 	 *                           has failed completely).
-	 * @warning Though described as a blocking write, this method currently only blocks
-	 *          until the microblaze has received the value, not until the component
-	 *          has received it. This will be fixed in a later version
 	 */
-	friend inPort& operator <<(inPort &i, const std::vector<std::bitset<width>> vals) {
+	friend typedInPort& operator <<(typedInPort &i, const std::vector<T> &vals) {
 		i.write(vals);
 		return i;
 	}
 };
 
+/**
+ * An abstract representation of an in-going AXI-Stream port with bit vectors of the given width.
+ * Instances of this class represent in-going ports of IPCores.
+ * Communication with a core should be handled through these ports.
+ */
+template <int width>
+class inPort : public typedInPort<std::bitset<width>> {
+public:
+	/**
+	 * Constructor for in-going ports, initialising all queues and parameters.
+	 * @param pid ID of the port.
+	 * @param window Capacity of the board-side input queue of the port.
+	 * @param packed Flag for packed ports. If true, several narrow values are sent in a single 32-bit value.
+	 * @param priority Scheduling priority of the port.
+	 * @param quantum Maximal number of values sent per scheduling round (0 for no limit).
+	 */
+	inPort(int pid, unsigned int window, bool packed = false, unsigned int priority = 0, unsigned int quantum = 0) :
+		typedInPort<std::bitset<width>>(pid, window, packed, priority, quantum) { }
+	~inPort() { }
+
+	using typedInPort<std::bitset<width>>::write;
+	using typedInPort<std::bitset<width>>::nbwrite;
+
+	/**
+	 * Writes bit vectors from a file to this port and waits for the write to return.
+	 * This implies waiting for the board to forward the written values to the component.
+	 *
+	 * @see utils.h for the underlying read_file operation.
+	 * @param file File containing the values to be written.
+	 * @param delim Separation character between two values.
+	 * @param f Function formatting values read from the file (cf ios_base.h).
+	 * @throws protocolException Indicates a problem with message encoding.
+	 *                           This should not happen, when using this port interface.
+	 * @throws mediumException   Indicates a problem with the communication medium.
+	 *                           This usually means, that the connection to the board
+	 *                           has been lost for some reason (and therefore, the driver
+	 *                           has failed completely).
+	 * @throws invalidArgument If the provided file does not exist.
+	 */
+	void write(const char *file, const char delim, std::ios_base& (*f)(std::ios_base&)) {
+	    std::vector<std::bitset<width>> vals = read_file<width>(file, delim, f);
+	    this->write(vals);
+	}
+
+    /**
+     * Writes bit vectors from a file to this port without waiting for it to return.
+     * This still implies, that the value has not been received by the board (or not even
+     * been sent to the board) yet.
+     * @see utils.h for the underlying read_file operation.
+     * @param file File containing the values to be written.
+     * @param delim Separation character between two values.
+     * @param f Function formatting values read from the file (cf ios_base.h).
+     * @return A #state representing this write.
+     * @throws invalidArgument If the provided file does not exist.
+     */
+	std::shared_ptr<writeState<width>> nbwrite(const char *file, const char delim, std::ios_base& (*f)(std::ios_base&)) {
+        std::vector<std::bitset<width>> vals = read_file<width>(file, delim, f);
+        return this->nbwrite(vals);
+    }
+};
+
 #endif /* PORTIN_H_ */
@@ -9,10 +9,13 @@
 #define PORTOUT_H_
 
 #include <memory>
+#include <atomic>
 #include <bitset>
+#include <algorithm>
 
 #include "../utils.h"
 #include "../linkedQueue.h"
+#include "../ringBuffer.h"
 #include "../io/state.h"
 
 class abstractOutPort;
@@ -21,9 +24,9 @@ extern abstractOutPort *outPorts[];
 
 /** Sends a data request to the specified port.
  * @param pid ID of the port, for which data is requested.
- * @param count Number of values requested.
+ * @param count Number of 32-bit values requested.
  */
-void send_poll(unsigned char pid, unsigned int count);
+void send_poll(unsigned int pid, unsigned int count);
 
 /**
  * Abstract, unparameterised representation of an out-going port without specified width.
@@ -31,8 +34,8 @@ void send_poll(unsigned char pid, unsigned int count);
  */
 class abstractOutPort {
 friend void scheduleReader();
-friend void recv_data_unsafe(unsigned char pid, int val);
-friend void recv_data(unsigned char pid, int val[], int size);
+friend void recv_data_unsafe(unsigned int pid, int val[], int size);
+friend void recv_data(unsigned int pid, int val[], int size);
 protected:
 	/** ID of the port. */
 	int pid;
@@ -40,36 +43,159 @@ protected:
 	bool polling;
 	/** The queue of read tasks to be performed by the port. */
 	std::shared_ptr<LinkedQueue<abstractReadState>> readTaskQueue;
-	/** The queue of values that have been forwarded, but not yet read. */
-	std::shared_ptr<LinkedQueue<int>> readValueQueue;
+	/**
+	 * The queue of 32-bit values that have been forwarded, but not yet read.
+	 * Values are put by the reader thread. As long as no read task is pending, it does so
+	 * without acquiring the port mutex. Values are taken holding the port mutex.
+	 */
+	RingBuffer<int> readValueQueue;
+	/**
+	 * Set, while the task queue is not empty. Only modified holding the port mutex.
+	 * If set, the reader thread acquires the port mutex and hands received values to the tasks.
+	 */
+	std::atomic<bool> reading;
+
+	/**
+	 * Number of values of the last word of a packed port, which have been assigned to read tasks.
+	 * The next read task starts with the remaining values of this word, if there are any.
+	 * Only modified holding the port mutex.
+	 */
+	unsigned int skip;
+	/** The last word stored into a finished read task, which is stored again into the next one, if it starts within the word. */
+	int carry;
 
-	/** Port mutex, which has to be acquired before modifying the task or value queue. */
+	/** Port mutex, which has to be acquired before modifying the task queue or taking from the value queue. */
 	std::mutex port_mutex;
-	/** Condition variable, waiting for the task queue to get empty. */
+	/** Condition variable, waiting for read tasks to be finished. */
 	std::condition_variable task_empty;
+
+	/**
+	 * Assigns the values of a new read task to words. Values of packed ports are assigned in order,
+	 * so that a read task starts with the values of the last word of the previous one, which exceed
+	 * the previous read. These values are not dropped, but the word is stored again (cf. #resume).
+	 * The port lock has to be held by the caller.
+	 * @param s The new read task.
+	 * @return Number of words, which have to be received for the task.
+	 */
+	unsigned int prepare(abstractReadState *s) {
+		if(s->valuesPerInt == 1) return s->size;
+
+		s->skip = skip;
+		s->size = (skip + s->count + s->valuesPerInt - 1) / s->valuesPerInt;
+		skip = (skip + s->count) % s->valuesPerInt;
+		return s->skip > 0 ? s->size - 1 : s->size;
+	}
+
+	/**
+	 * Stores the last word of the previous read task into a read task, which starts within this word.
+	 * The port lock has to be held by the caller.
+	 * @param s The read task.
+	 */
+	void resume(abstractReadState *s) {
+		if(s->done == 0 && s->skip > 0) s->store(&carry, 1);
+	}
+
+	/**
+	 * Stores received words into a read task and remembers the last word, if the task finished.
+	 * The port lock has to be held by the caller.
+	 * @param s The read task.
+	 * @param val The received words.
+	 * @param count Number of received words.
+	 * @return Number of words stored into the task.
+	 */
+	unsigned int hand(abstractReadState *s, int val[], unsigned int count) {
+		resume(s);
+		if(s->finished()) return 0;
+
+		unsigned int n = s->store(val, count);
+		if(s->finished() && n > 0) carry = val[n - 1];
+		return n;
+	}
+
+	/**
+	 * Hands the values of the value queue to the pending read tasks in order, removing finished tasks.
+	 * Updates the #reading flag accordingly.
+	 * The port lock has to be held by the caller.
+	 */
+	void drain() {
+		int chunk[256];
+		while(!readTaskQueue->empty()) {
+			std::shared_ptr<abstractReadState> s = readTaskQueue->peek();
+			resume(s.get());
+			if(!s->finished()) {
+				size_t n = readValueQueue.take(chunk, std::min<size_t>(256, s->size - s->done));
+				if(n == 0) break;
+				hand(s.get(), chunk, n);
+			}
+			if(s->finished()) readTaskQueue->take();
+		}
+		reading.store(!readTaskQueue->empty(), std::memory_order_relaxed);
+	}
+
+	/**
+	 * Appends a read task to the task queue and hands it the values of the value queue.
+	 * The #reading flag is set before the value queue is drained. Values appended by the
+	 * reader thread without locking are therefore either drained here or handed to the task by
+	 * the reader thread itself, which checks the flag after appending (cf. #recv_data).
+	 * The port lock has to be held by the caller.
+	 * @param s The read task.
+	 */
+	void publish(std::shared_ptr<abstractReadState> s) {
+		readTaskQueue->put(s);
+		reading.store(true, std::memory_order_relaxed);
+		std::atomic_thread_fence(std::memory_order_seq_cst);
+		drain();
+	}
 public:
 	/**
 	 * Constructor for unparameterised out-going ports, initialising all queues and parameters.
 	 * @param pid ID of the port.
 	 * @param polling Flag for polling ports. If true, port is set to polling mode (cf. documentation for more details).
+	 * @param qsize Initial capacity of the value queue in 32-bit values.
 	 */
-	abstractOutPort(int pid, bool polling) : pid(pid), polling(polling) {
+	abstractOutPort(int pid, bool polling, unsigned int qsize) : pid(pid), polling(polling), readValueQueue(qsize), reading(false), skip(0), carry(0) {
 		outPorts[pid] = this;
 
-		readValueQueue = std::shared_ptr<LinkedQueue<int>>(new LinkedQueue<int>());
 		readTaskQueue  = std::shared_ptr<LinkedQueue<abstractReadState>>(new LinkedQueue<abstractReadState>());
 	}
 	virtual ~abstractOutPort() { }
 };
 
 /**
- * An abstract representation of an out-going AXI-Stream port.
+ * An abstract representation of an out-going AXI-Stream port with values of type T.
  * Instances of this class represent out-going ports of IPCores.
  * Communication with a core should be handled through these ports.
+ *
+ * Typed ports exchange native values (e.g. uint32_t or float), which are
+ * converted from 32-bit words with plain copies. All other ports exchange bit vectors (cf. #outPort).
  */
-template <int width>
-class outPort : public abstractOutPort {
+template <class T>
+class typedOutPort : public abstractOutPort {
 protected:
+	/**
+	 * Flag for packed ports. If true, several narrow values are received in a single 32-bit value.
+	 * Since the board only sends complete words, values of the last word exceeding a read are
+	 * left to the next read.
+	 */
+	bool packed;
+
+	/**
+	 * Moves as many values as possible from the value queue into a read state.
+	 * Values are copied in chunks, avoiding per-value queue operations.
+	 * The port lock has to be held by the caller.
+	 * @param s #state of the read operation to be filled.
+	 * @return true, if the state is finished, false if the value queue ran empty before.
+	 */
+	bool fill(std::shared_ptr<typedReadState<T>> s) {
+		int chunk[256];
+		resume(s.get());
+		while(!s->finished()) {
+			unsigned int n = readValueQueue.take(chunk, std::min<size_t>(256, s->size - s->done));
+			if(n == 0) return false;
+			hand(s.get(), chunk, n);
+		}
+		return true;
+	}
 
 	/**
 	 * Underlying read operation, called by more usable read methods.
@@ -79,32 +205,23 @@ protected:
 	 * should be negligible, even for larger read operations.
 	 * @param state #state of the read operation to be executed.
 	 */
-	void read(readState<width> *state) {
-		std::shared_ptr<readState<width>> s(state);
+	void readTask(typedReadState<T> *state) {
+		std::shared_ptr<typedReadState<T>> s(state);
 
 		// acquire port lock
 		std::unique_lock<std::mutex> lock(port_mutex);
 
 		// send a poll request for the read values to the board,
 		// either to fill the task or re-fill the queue
-		if(polling) send_poll(pid, s->total());
+		unsigned int words = prepare(s.get());
+		if(polling && words > 0) send_poll(pid, words);
 
 		// if there are unfinished tasks in the read queue, append this one
-		if(! readTaskQueue->empty()) {
-			readTaskQueue->put(s);
-		} else while(!s->finished()) {
-
-			// if the result queue is empty, append this read to the task list and return
-			if(readValueQueue->empty()) {
-				readTaskQueue->put(s);
-				break;
-			}
-			// otherwise, take a value, update the state and do another iteration
-			s->store(*readValueQueue->take());
-		}
+		// otherwise, take queued values and append the task, if they do not suffice
+		if(! readTaskQueue->empty() || !fill(s)) publish(s);
 
-		// if there are still unfinished tasks, wait until all have been processed
-		if(! readTaskQueue->empty()) task_empty.wait(lock);
+		// if the task is unfinished, wait until it has been processed
+		while(! s->finished()) task_empty.wait(lock);
 	}
 
 	/**
@@ -116,31 +233,20 @@ protected:
 	 * @param state #state of the read operation to be executed.
 	 * @return Shared pointer to the #state
 	 */
-	std::shared_ptr<readState<width>> nbread(readState<width> *state) {
-		std::shared_ptr<readState<width>> s(state);
+	std::shared_ptr<typedReadState<T>> nbreadTask(typedReadState<T> *state) {
+		std::shared_ptr<typedReadState<T>> s(state);
 
 		// acquire port lock
 		std::unique_lock<std::mutex> lock(port_mutex);
 
 		// send a poll request for the read values to the board,
 		// either to fill the task or re-fill the queue
-		if(polling) send_poll(pid, s->total());
+		unsigned int words = prepare(s.get());
+		if(polling && words > 0) send_poll(pid, words);
 
 		// if there are unfinished tasks in the read queue, just append this one
-		if(! readTaskQueue->empty()) {
-			readTaskQueue->put(s);
-			return s;
-		}
-
-		while(!s->finished()) {
-			// if the result queue is empty, append this read to the task list and return
-			if(readValueQueue->empty()) {
-				readTaskQueue->put(s);
-				return s;
-			}
-			// otherwise, take a value, update the state and do another iteration
-			s->store(*readValueQueue->take());
-		}
+		// otherwise, take queued values and append the task, if they do not suffice
+		if(! readTaskQueue->empty() || !fill(s)) publish(s);
 
 		return s;
 	}
@@ -150,9 +256,11 @@ public:
 	 * Constructor for out-going ports, initialising all queues and parameters.
 	 * @param pid ID of the port.
 	 * @param polling Flag for polling ports. If true, port is set to polling mode (cf. documentation for more details).
+	 * @param qsize Initial capacity of the value queue in 32-bit values.
+	 * @param packed Flag for packed ports. If true, several narrow values are received in a single 32-bit value.
 	 */
-	outPort(int pid, bool polling) : abstractOutPort(pid, polling) { }
-	~outPort() { }
+	typedOutPort(int pid, bool polling, unsigned int qsize, bool packed = false) : abstractOutPort(pid, polling, qsize), packed(packed) { }
+	~typedOutPort() { }
 
 	/**
 	 * Reads a single value from this port.
@@ -160,9 +268,9 @@ public:
 	 * @return The read value.
 	 * @throws readException if the read failed.
 	 */
-	std::bitset<width> read() {
-		std::bitset<width> val;
-		read(new readState<width>(&val, 1));
+	T read() {
+		T val;
+		readTask(new typedReadState<T>(&val, 1, packed));
 		return val;
 	}
 
@@ -172,8 +280,8 @@ public:
 	 * @param val Variable, where the read value should be stored
 	 * @throws readException if the read failed.
 	 */
-	void read(std::bitset<width> &val) {
-		read(new readState<width>(&val, 1));
+	void read(T &val) {
+		readTask(new typedReadState<T>(&val, 1, packed));
 	}
 
 	/**
@@ -182,8 +290,8 @@ public:
 	 * @param vals The vector, into which the values are stored.
 	 * @throws readException if the read failed.
 	 */
-	void read(std::vector<std::bitset<width>> &vals) {
-		read(new readState<width>(vals.data(), vals.size()));
+	void read(std::vector<T> &vals) {
+		readTask(new typedReadState<T>(vals.data(), vals.size(), packed));
 	}
 
 	/**
@@ -193,25 +301,8 @@ public:
 	 * @param size The number of values that should be read and the size of the array.
 	 * @throws readException if the read failed.
 	 */
-	void read(std::bitset<width> vals[], unsigned int size) {
-		read(new readState<width>(vals, size));
-	}
-
-    /**
-     * Reads several values from this port into a file.
-     * This is a blocking read, meaning that the reading program will wait until a value is returned.
-     *
-     * @see utils.h for the undelying write_file operation.
-     * @param count The number of values to be read.
-     * @param file Path of the file where the values should be stored in.
-     * @param delim Separation character between two values.
-     * @param f Function formatting values written to the file (cf ios_base.h).
-     * @throws readException if the read failed.
-     */
-	void read(int count, const char *file, const char delim, std::ios_base& (*f)(std::ios_base&)) {
-	    std::vector<std::bitset<width>> vals(count);
-	    read(vals);
-	    write_file<width>(file, delim, f, vals);
+	void read(T vals[], unsigned int size) {
+		readTask(new typedReadState<T>(vals, size, packed));
 	}
 
 	/**
@@ -220,8 +311,8 @@ public:
 	 * @param val Variable, where the read value should be stored
 	 * @return A #state representing this read.
 	 */
-	std::shared_ptr<readState<width>> nbread(std::bitset<width> &val) {
-		return nbread(new readState<width>(&val, 1));
+	std::shared_ptr<typedReadState<T>> nbread(T &val) {
+		return nbreadTask(new typedReadState<T>(&val, 1, packed));
 	}
 
 	/**
@@ -230,8 +321,8 @@ public:
 	 * @param vals The vector, into which the values are stored.
 	 * @return A #state representing this read.
 	 */
-	std::shared_ptr<readState<width>> nbread(std::vector<std::bitset<width>> &vals) {
-		return nbread(new readState<width>(vals.data(), vals.size()));
+	std::shared_ptr<typedReadState<T>> nbread(std::vector<T> &vals) {
+		return nbreadTask(new typedReadState<T>(vals.data(), vals.size(), packed));
 	}
 
 	/**
@@ -241,8 +332,8 @@ public:
 	 * @param size The number of values that should be read and the size of the array.
 	 * @return A #state representing this read.
 	 */
-	std::shared_ptr<readState<width>> nbread(std::bitset<width> vals[], unsigned int size) {
-		return nbread(new readState<width>(vals, size));
+	std::shared_ptr<typedReadState<T>> nbread(T vals[], unsigned int size) {
+		return nbreadTask(new typedReadState<T>(vals, size, packed));
 	}
 
 	/**
@@ -254,7 +345,7 @@ public:
      *         Returning the port allows concatenating stream operations.
 	 * @throws readException if the read failed.
 	 */
-	friend outPort& operator >>(outPort &o, std::bitset<width> &val) {
+	friend typedOutPort& operator >>(typedOutPort &o, T &val) {
 		o.read(val);
 		return o;
 	}
@@ -267,11 +358,48 @@ public:
 	 *         Returning the port allows concatenating stream operations.
 	 * @throws readException if the read failed.
 	 */
-	friend outPort& operator >>(outPort &o, std::vector<std::bitset<width>> &vals) {
+	friend typedOutPort& operator >>(typedOutPort &o, std::vector<T> &vals) {
 		o.read(vals);
 		return o;
 	}
+};
 
+/**
+ * An abstract representation of an out-going AXI-Stream port with bit vectors of the given width.
+ * Instances of this class represent out-going ports of IPCores.
+ * Communication with a core should be handled through these ports.
+ */
+template <int width>
+class outPort : public typedOutPort<std::bitset<width>> {
+public:
+	/**
+	 * Constructor for out-going ports, initialising all queues and parameters.
+	 * @param pid ID of the port.
+	 * @param polling Flag for polling ports. If true, port is set to polling mode (cf. documentation for more details).
+	 * @param qsize Initial capacity of the value queue in 32-bit values.
+	 * @param packed Flag for packed ports. If true, several narrow values are received in a single 32-bit value.
+	 */
+	outPort(int pid, bool polling, unsigned int qsize, bool packed = false) : typedOutPort<std::bitset<width>>(pid, polling, qsize, packed) { }
+	~outPort() { }
+
+	using typedOutPort<std::bitset<width>>::read;
+
+    /**
+     * Reads several values from this port into a file.
+     * This is a blocking read, meaning that the reading program will wait until a value is returned.
+     *
+     * @see utils.h for the undelying write_file operation.
+     * @param count The number of values to be read.
+     * @param file Path of the file where the values should be stored in.
+     * @param delim Separation character between two values.
+     * @param f Function formatting values written to the file (cf ios_base.h).
+     * @throws readException if the read failed.
+     */
+	void read(int count, const char *file, const char delim, std::ios_base& (*f)(std::ios_base&)) {
+	    std::vector<std::bitset<width>> vals(count);
+	    this->read(vals);
+	    write_file<width>(file, delim, f, vals);
+	}
 };
 
 #endif /* PORTOUT_H_ */
@@ -6,6 +6,7 @@
 #include "setup.h"
 #include "../logger.h"
 #include "../io/io.h"
+#include "../io/eventLoop.h"
 
 #include <thread>
 
@@ -13,11 +14,17 @@ std::thread *writerThread;
 std::thread *readerThread;
 
 /**
- * Starts writer and reader threads
+ * Starts the I/O threads.
+ * Depending on the I/O engine, these are writer and reader thread or a single event loop thread.
  */
 static void startThreads() {
+#if IO_ENGINE == IO_ENGINE_EPOLL
+	writerThread = new std::thread(scheduleEventLoop);
+	readerThread = NULL;
+#else
 	writerThread = new std::thread(scheduleWriter);
 	readerThread = new std::thread(scheduleReader);
+#endif
 }
 
 #ifdef IP
@@ -33,14 +40,11 @@ void startup(std::string ip) {
 #endif
 
 void shutdownWriteLoop() {
-	// acquire writer lock
-    std::unique_lock<std::mutex> lock(writer_mutex);
-
 	// flag as inactive
 	is_active = false;
 
 	// notify writer (one last time)
-	can_write.notify_one();
+	notify_writer();
 }
 
 void shutdown() {
@@ -48,7 +52,7 @@ void shutdown() {
 
 	shutdownWriteLoop();
 	writerThread->join(); writerThread = NULL;
-	readerThread->join(); readerThread = NULL;
+	if(readerThread != NULL) { readerThread->join(); readerThread = NULL; }
 }
 
 
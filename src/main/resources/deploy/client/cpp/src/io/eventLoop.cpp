@@ -0,0 +1,180 @@
+// header file
+#include "eventLoop.h"
+
+#if IO_ENGINE == IO_ENGINE_EPOLL
+
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+#include <unistd.h>
+#include <errno.h>
+#include <string.h>
+#include <stdint.h>
+
+#include "io.h"
+#include "protocol.h"
+#include "../exceptions.h"
+#include "../logger.h"
+
+/** Event counter, which wakes the event loop. Exists before any port can be written. */
+static int wake_fd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+
+void wake_event_loop() {
+	uint64_t one = 1;
+
+	// the counter is reset by the loop, so it cannot overflow in practice
+	if(write(wake_fd, &one, sizeof(one)) < 0)
+		log_host(ERROR) << "failed to wake event loop: " << strerror(errno) << std::endl;
+}
+
+/**
+ * Decodes all complete frames in the receive buffer of the medium.
+ * Since frames are only decoded when complete, decoding does not wait for the medium.
+ * A frame larger than the receive buffer can never be complete. It is decoded as soon
+ * as the buffer is full, in which case the medium waits for the remainder of its payload.
+ */
+static void decode_buffered() {
+	while(true) {
+		unsigned int count;
+		const int *words = intrfc->buffered(&count);
+
+		if(count == 0) return;
+		if(proto->frame_size(words, count) == 0 && count < intrfc->capacity()) return;
+
+		// read and interpret a frame
+		int first;
+		intrfc->readInt(&first);
+		proto->decode(first);
+	}
+}
+
+/**
+ * Decodes all complete frames, which remain in the receive buffer after the medium failed or was closed.
+ * These frames have been received before the failure, so they may contain the last acknowledgments or results.
+ * An incomplete frame at the end of the buffer is dropped, since its remainder never arrives.
+ */
+static void decode_remaining() {
+	try {
+		decode_buffered();
+	} catch(mediumException &e) {
+		log_host(ERROR) << "dropped incomplete frame: " << e.what() << std::endl;
+	} catch(protocolException &e) {
+		log_host(ERROR) << e.what() << std::endl;
+	}
+}
+
+/**
+ * Registers or updates the events, for which the medium is monitored.
+ * @param epoll_fd The epoll instance.
+ * @param op Operation of the update (EPOLL_CTL_ADD or EPOLL_CTL_MOD).
+ * @param writable If set, the medium is monitored for writability as well as readability.
+ * @throws mediumException if the update failed.
+ */
+static void monitor(int epoll_fd, int op, bool writable) {
+	struct epoll_event ev;
+	ev.events  = EPOLLIN | (writable ? EPOLLOUT : 0);
+	ev.data.fd = intrfc->descriptor();
+
+	if(epoll_ctl(epoll_fd, op, ev.data.fd, &ev) < 0) throw mediumException(
+			std::string("failed to monitor medium: ") +
+			strerror(errno) + " (" + std::to_string(errno) + ")");
+}
+
+void scheduleEventLoop() {
+	log_host(INFO) << "begin event loop" << std::endl;
+
+	int epoll_fd = epoll_create1(EPOLL_CLOEXEC);
+
+	try {
+		if(epoll_fd < 0 || wake_fd < 0) throw mediumException(
+				std::string("failed to create event loop: ") +
+				strerror(errno) + " (" + std::to_string(errno) + ")");
+
+		// the application wakes the loop through the event counter
+		struct epoll_event ev;
+		ev.events  = EPOLLIN;
+		ev.data.fd = wake_fd;
+		if(epoll_ctl(epoll_fd, EPOLL_CTL_ADD, wake_fd, &ev) < 0) throw mediumException(
+				std::string("failed to monitor event counter: ") +
+				strerror(errno) + " (" + std::to_string(errno) + ")");
+
+		intrfc->setNonBlocking();
+		monitor(epoll_fd, EPOLL_CTL_ADD, false);
+	} catch(mediumException &e) {
+		log_host(ERROR) << e.what() << std::endl;
+		if(epoll_fd >= 0) close(epoll_fd);
+		return;
+	}
+
+	// set, while the medium is monitored for writability
+	bool writable  = false;
+	// set, while the medium is monitored at all
+	bool connected = true;
+
+	while(is_active) {
+		// send everything, that can be sent. The medium queues, what it does not accept right away.
+		write_pending();
+
+		// only monitor writability while bytes are queued, since the medium is writable most of the time
+		try {
+			bool pending = !intrfc->flush();
+			if(connected && pending != writable) {
+				monitor(epoll_fd, EPOLL_CTL_MOD, pending);
+				writable = pending;
+			}
+		} catch(mediumException &e) {
+			log_host(ERROR) << e.what() << std::endl;
+		}
+
+		// sleep, until the medium is ready or the loop is woken
+		// wake on:
+		//  - client-side write or shutdown (through the event counter)
+		//  - incoming messages
+		//  - free space for queued bytes
+		log_host(FINE) << "event loop will wait now ..." << std::endl;
+
+		struct epoll_event events[2];
+		int n = epoll_wait(epoll_fd, events, 2, -1);
+
+		if(n < 0) {
+			if(errno == EINTR) continue;
+			log_host(ERROR) << "event loop failed: " << strerror(errno) << std::endl;
+			break;
+		}
+
+		for(int i = 0; i < n; i++) {
+			// reset the event counter
+			if(events[i].data.fd == wake_fd) {
+				uint64_t count;
+				if(read(wake_fd, &count, sizeof(count)) < 0 && errno != EAGAIN)
+					log_host(ERROR) << "failed to reset event counter: " << strerror(errno) << std::endl;
+				continue;
+			}
+
+			// queued bytes are flushed in the next iteration
+			if(!(events[i].events & (EPOLLIN | EPOLLERR | EPOLLHUP))) continue;
+
+			try {
+				// receive everything available and interpret complete frames
+				intrfc->fill();
+				decode_buffered();
+			} catch(mediumException &e) {
+				// the medium is broken or closed, stop monitoring it (the loop would spin otherwise)
+				log_host(ERROR) << e.what() << std::endl;
+				if(connected) epoll_ctl(epoll_fd, EPOLL_CTL_DEL, intrfc->descriptor(), NULL);
+				connected = false;
+
+				// frames received before the failure are still interpreted
+				decode_remaining();
+			} catch(protocolException &e) {
+				// marks an error in decoding the message
+				log_host(ERROR) << e.what() << std::endl;
+			}
+		}
+	}
+
+	close(epoll_fd);
+
+	log_host(INFO) << "stopped event loop" << std::endl;
+}
+
+#endif /* IO_ENGINE == IO_ENGINE_EPOLL */
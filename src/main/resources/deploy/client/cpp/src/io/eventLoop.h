@@ -0,0 +1,31 @@
+/**
+ * Describes the event loop, an alternative I/O engine to the writer and reader threads.
+ * A single thread multiplexes reading from and writing to the medium using epoll.
+ * The application wakes the loop through an eventfd instead of a condition variable.
+ * The event loop is only available on Linux and only compiled, if it is the selected I/O engine.
+ * @file
+ */
+
+#ifndef EVENTLOOP_H_
+#define EVENTLOOP_H_
+
+#include "../constants.h"
+
+#if IO_ENGINE == IO_ENGINE_EPOLL
+
+/**
+ * Scheduling loop of the event loop thread.
+ * Switches the medium to non-blocking mode and sends and receives values until the driver shuts down.
+ * The loop sleeps without timeout, until the medium becomes ready or the loop is woken.
+ */
+void scheduleEventLoop();
+
+/**
+ * Wakes the event loop, so that it sends pending values.
+ * Can be called from any thread without holding a lock.
+ */
+void wake_event_loop();
+
+#endif /* IO_ENGINE == IO_ENGINE_EPOLL */
+
+#endif /* EVENTLOOP_H_ */
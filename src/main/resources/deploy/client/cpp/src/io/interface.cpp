@@ -11,11 +11,14 @@
 #include <unistd.h>
 #include <string.h>
 #include <string>
+#include <algorithm>
 #include <math.h>
 #include <iostream>
 
 #include <netdb.h>
 #include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
 #include <sys/types.h>
 #include <sys/socket.h>
 #include <arpa/inet.h>
@@ -46,13 +49,15 @@ void interface::decRef() {
 ethernet::ethernet(const char *ip, unsigned short int port) :
 		socketFD_send(socket(AF_INET, SOCK_STREAM, IPPROTO_TCP)),
 //		socketFD_recv(socket(AF_INET, SOCK_STREAM, IPPROTO_TCP)),
-				ip(ip), port(port) {
+				ip(ip), port(port), sendPos(0), recvPos(0), recvLen(0) {
 
+	recvBuffer = new char[RECV_BUFFER_SIZE];
 	setup();
 }
 
 ethernet::~ethernet() {
 	teardown();
+	delete[] recvBuffer;
 }
 
 void ethernet::setup() {
@@ -60,7 +65,7 @@ void ethernet::setup() {
 	struct sockaddr_in stSockAddr;
 	int Res;
 
-	logger_host << INFO << "setting up data socket @" << ip << ":" << port << " ...";
+	log_host(INFO) << "setting up data socket @" << ip << ":" << port << " ...";
 
 	// throw an exception, if socket creation faileds
 	if (-1 == socketFD_send)
@@ -134,7 +139,7 @@ void ethernet::setup() {
 
 	//everything else --> listening loop...
 
-	logger_host << " done" << std::endl;
+	log_host_continue(INFO) << " done" << std::endl;
 }
 
 void ethernet::teardown() {
@@ -153,21 +158,31 @@ void ethernet::send(int val) {
 void ethernet::send(int buf[], int size) {
 	// print debug message
 
-    logger_host << FINE << "sending package of size " << size << "with values: ";
+    log_host(FINE) << "sending package of size " << size << "with values: ";
 	int i;
 	for(i = 0; i < size; i++) {
-		logger_host << buf[i];
-		if(i < size-1) logger_host << ", ";
+		log_host_continue(FINE) << buf[i];
+		if(i < size-1) { log_host_continue(FINE) << ", "; }
 	}
-	logger_host << " ...";
+	log_host_continue(FINE) << " ...";
 
-	// write data
-	if(write(socketFD_send, buf, size*4) < 0) throw mediumException(
-			std::string("failed writing to socket: ") +
-			strerror(errno) + " (" + std::to_string(errno) + ")");
+	std::unique_lock<std::mutex> lock(send_mutex);
+
+	const char *data = (const char*)buf;
+	unsigned int remaining = size * sizeof(int);
+
+	// write data directly, unless older bytes are still queued
+	if(sendQueue.empty()) {
+		unsigned int n = transmit(data, remaining);
+		data      += n;
+		remaining -= n;
+	}
+
+	// queue the remainder (non-blocking mode only)
+	sendQueue.insert(sendQueue.end(), data, data + remaining);
 
 	// print finishing debug message
-	logger_host << " done" << std::endl;
+	log_host_continue(FINE) << " done" << std::endl;
 }
 
 void ethernet::send(std::vector<int> val) {
@@ -175,25 +190,86 @@ void ethernet::send(std::vector<int> val) {
 	send(val.data(), val.size());
 }
 
-void ethernet::readInt(int *val) {
-    unsigned int tmp = 0;
-    int i = 0;
-    *val = 0;
+unsigned int ethernet::transmit(const char *buf, unsigned int size) {
+	unsigned int written = 0;
+
+	// the socket might accept only parts of the bytes
+	while(written < size) {
+		int n = write(socketFD_send, buf + written, size - written);
+
+		if(n < 0) {
+			// retry, if the call got interrupted by a signal
+			if(errno == EINTR) continue;
+			// stop, if a non-blocking socket is full
+			if(errno == EAGAIN || errno == EWOULDBLOCK) break;
+
+			throw mediumException(std::string("failed writing to socket: ") +
+					strerror(errno) + " (" + std::to_string(errno) + ")");
+		}
+		written += n;
+	}
+
+	return written;
+}
+
+unsigned int ethernet::receive(char *buf, unsigned int size) {
+	int n;
 
-    while(i < 4) {
-        int j = recv(socketFD_send, &tmp, 4-i, 0);
-        if(i < 0) throw mediumException(
-            std::string("failed reading from socket: ") +
-            strerror(errno) + " (" + std::to_string(errno) + ")");
-        i += j;
+	while((n = recv(socketFD_send, buf, size, 0)) < 0) {
+		// retry, if the call got interrupted by a signal
+		if(errno == EINTR) continue;
 
-        *val = *val << (j*8);
-        *val = *val | tmp;
-    }
+		// a non-blocking socket has to be waited for explicitly
+		if(errno == EAGAIN || errno == EWOULDBLOCK) {
+			struct pollfd p = { socketFD_send, POLLIN, 0 };
+			if(poll(&p, 1, -1) >= 0 || errno == EINTR) continue;
+		}
+		break;
+	}
+
+	if(n < 0) throw mediumException(
+			std::string("failed reading from socket: ") +
+			strerror(errno) + " (" + std::to_string(errno) + ")");
+	if(n == 0) throw mediumException("connection closed by board");
+
+	return n;
+}
+
+void ethernet::readInt(int *val) {
+	read(val, 1);
+}
+
+void ethernet::read(int val[], unsigned int size) {
+	char *target = (char*)val;
+	unsigned int remaining = size * sizeof(int);
+
+	while(remaining > 0) {
+		// if the buffer is drained, either receive large remainders directly or refill the buffer
+		if(recvPos == recvLen) {
+			if(remaining >= RECV_BUFFER_SIZE) {
+				unsigned int n = receive(target, remaining);
+				target    += n;
+				remaining -= n;
+				continue;
+			}
+			recvLen = receive(recvBuffer, RECV_BUFFER_SIZE);
+			recvPos = 0;
+		}
+
+		// copy as many buffered bytes as possible
+		unsigned int n = std::min(remaining, recvLen - recvPos);
+		memcpy(target, recvBuffer + recvPos, n);
+		recvPos   += n;
+		target    += n;
+		remaining -= n;
+	}
 }
 
 bool ethernet::waitForData(unsigned int timeout, unsigned int utimeout) {
 
+	// buffered data is available without waiting
+	if(recvPos < recvLen) return true;
+
 	struct timeval tv;
 	fd_set readfds;
 
@@ -222,6 +298,76 @@ bool ethernet::waitForData(unsigned int timeout, unsigned int utimeout) {
 	//	if(n > 0) printf("\ngot a new socket!!!");
 }
 
+int ethernet::descriptor() {
+	return socketFD_send;
+}
+
+void ethernet::setNonBlocking() {
+	int flags = fcntl(socketFD_send, F_GETFL, 0);
+
+	if(flags < 0 || fcntl(socketFD_send, F_SETFL, flags | O_NONBLOCK) < 0) throw mediumException(
+			std::string("failed to switch socket to non-blocking mode: ") +
+			strerror(errno) + " (" + std::to_string(errno) + ")");
+}
+
+bool ethernet::flush() {
+	std::unique_lock<std::mutex> lock(send_mutex);
+
+	if(sendQueue.empty()) return true;
+
+	sendPos += transmit(sendQueue.data() + sendPos, sendQueue.size() - sendPos);
+
+	// sent bytes are only removed, once they make up half of the queue,
+	// so that partial writes do not shift the remaining bytes each time
+	if(sendPos == sendQueue.size()) {
+		sendQueue.clear();
+		sendPos = 0;
+	} else if(sendPos > sendQueue.size() / 2) {
+		sendQueue.erase(sendQueue.begin(), sendQueue.begin() + sendPos);
+		sendPos = 0;
+	}
+
+	return sendQueue.empty();
+}
+
+void ethernet::compact() {
+	memmove(recvBuffer, recvBuffer + recvPos, recvLen - recvPos);
+	recvLen -= recvPos;
+	recvPos  = 0;
+}
+
+void ethernet::fill() {
+	// make room for as many bytes as possible
+	compact();
+
+	while(recvLen < RECV_BUFFER_SIZE) {
+		int n = recv(socketFD_send, recvBuffer + recvLen, RECV_BUFFER_SIZE - recvLen, 0);
+
+		if(n < 0) {
+			if(errno == EINTR) continue;
+			if(errno == EAGAIN || errno == EWOULDBLOCK) break;
+
+			throw mediumException(std::string("failed reading from socket: ") +
+					strerror(errno) + " (" + std::to_string(errno) + ")");
+		}
+		if(n == 0) throw mediumException("connection closed by board");
+
+		recvLen += n;
+	}
+}
+
+const int *ethernet::buffered(unsigned int *count) {
+	// values are only aligned, if whole values have been read from the buffer so far
+	if(recvPos % sizeof(int) != 0) compact();
+
+	*count = (recvLen - recvPos) / sizeof(int);
+	return (const int*)(recvBuffer + recvPos);
+}
+
+unsigned int ethernet::capacity() {
+	return RECV_BUFFER_SIZE / sizeof(int);
+}
+
 //uart::uart() {
 //	setup();
 //}
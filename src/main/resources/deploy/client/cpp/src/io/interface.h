@@ -13,6 +13,7 @@
 #include <arpa/inet.h>
 
 #include <vector>
+#include <mutex>
 
 /**
  * An abstract representation of a communication medium.
@@ -82,6 +83,14 @@ public:
 	 * @param val Pointer to where the read value should be stored.
 	 */
 	virtual void readInt(int *val) = 0;
+	/**
+	 * Reads several integer values from the medium.
+	 * Blocks until all values have been read.
+	 * @param val Array, where the read values should be stored.
+	 * @param size Number of values to be read (i.e. size of the array).
+	 * @throws mediumException if the medium failed or was closed before all values arrived.
+	 */
+	virtual void read(int val[], unsigned int size) = 0;
 	/**
 	 * Waits until data arrives or a timeout occurs.
 	 * @param timeout Number of seconds until a timeout occurs.
@@ -89,6 +98,44 @@ public:
 	 * @return true, if data arrived before timeout, false otherwise
 	 */
 	virtual bool waitForData(unsigned int timeout, unsigned int utimeout) = 0;
+// -------------------- event-driven communication -----------------------------
+	/**
+	 * Returns the file descriptor of the medium.
+	 * Event-driven I/O engines monitor the descriptor for readability and writability.
+	 * @return The file descriptor of the medium.
+	 */
+	virtual int descriptor() = 0;
+	/**
+	 * Switches the medium into non-blocking mode.
+	 * Afterwards, send operations queue all bytes the medium does not accept right away
+	 * and #flush() has to be called, when the medium becomes writable.
+	 * Read operations still block until all requested values have arrived.
+	 */
+	virtual void setNonBlocking() = 0;
+	/**
+	 * Writes queued bytes to the medium without blocking.
+	 * @return true, if no bytes remain queued, false otherwise.
+	 * @throws mediumException if the medium failed.
+	 */
+	virtual bool flush() = 0;
+	/**
+	 * Receives all available bytes into the receive buffer without blocking.
+	 * Stops early, if the receive buffer is full.
+	 * @throws mediumException if the medium failed or was closed by the board.
+	 */
+	virtual void fill() = 0;
+	/**
+	 * Provides access to received, but not yet read values.
+	 * The values remain in the receive buffer until they are read.
+	 * @param count Variable, where the number of buffered values should be stored.
+	 * @return Pointer to the first buffered value.
+	 */
+	virtual const int *buffered(unsigned int *count) = 0;
+	/**
+	 * Checks the capacity of the receive buffer.
+	 * @return The maximal number of values, that can be buffered.
+	 */
+	virtual unsigned int capacity() = 0;
 };
 
 /**
@@ -97,10 +144,27 @@ public:
  */
 class ethernet : public interface {
 private:
+	/** Size of the receive buffer in bytes. */
+	static const unsigned int RECV_BUFFER_SIZE = 65536;
+
 	int socketFD_send;
 	const char *ip;
 	unsigned short int port;
 
+	/** Bytes, which the socket did not accept right away (non-blocking mode only). */
+	std::vector<char> sendQueue;
+	/** Index of the first queued byte, which has not been sent yet. */
+	unsigned int sendPos;
+	/** Serialises send operations of different threads. */
+	std::mutex send_mutex;
+
+	/** Receive buffer, filled with as many bytes as the socket provides in one call. */
+	char *recvBuffer;
+	/** Index of the first unread byte in the receive buffer. */
+	unsigned int recvPos;
+	/** Number of valid bytes in the receive buffer. */
+	unsigned int recvLen;
+
 // -------------------- connection management -----------------------------
 	/** Sets up an TCP/IP connection over Ethernet. */
 	void setup();
@@ -109,7 +173,27 @@ private:
 
 // -------------------- communication -----------------------------
 //	bool writeValues(int buf[], int size);
-	void readInt    (int buf[], int size);
+	/**
+	 * Receives up to #size bytes from the socket.
+	 * Blocks until at least one byte is available.
+	 * @param buf Memory, where received bytes should be stored.
+	 * @param size Maximal number of bytes to be received.
+	 * @return Number of received bytes.
+	 * @throws mediumException if the socket failed or was closed by the board.
+	 */
+	unsigned int receive(char *buf, unsigned int size);
+	/**
+	 * Writes up to #size bytes to the socket.
+	 * In blocking mode, all bytes are written. In non-blocking mode,
+	 * writing stops as soon as the socket does not accept further bytes.
+	 * @param buf Bytes to be written.
+	 * @param size Number of bytes to be written.
+	 * @return Number of written bytes.
+	 * @throws mediumException if the socket failed.
+	 */
+	unsigned int transmit(const char *buf, unsigned int size);
+	/** Moves unread bytes to the front of the receive buffer. */
+	void compact();
 public:
 // ---------------- constructor & destructor -------------------------
 	/**
@@ -146,13 +230,31 @@ public:
 	 * @return true if successful, false otherwise
 	 */
 	void readInt(int *val);
+	/**
+	 * Reads several integer values from the medium.
+	 * Values are served from the receive buffer, which is refilled in large chunks.
+	 * Remainders larger than the buffer are received directly into the target array.
+	 * @param val Array, where the read values should be stored.
+	 * @param size Number of values to be read (i.e. size of the array).
+	 * @throws mediumException if the medium failed or was closed before all values arrived.
+	 */
+	void read(int val[], unsigned int size);
 	/**
 	 * Waits until data arrives or a timeout occurs.
+	 * Returns immediately, if there is unread data in the receive buffer.
 	 * @param timeout Number of seconds until a timeout occurs.
 	 * @param utimeout Number of microseconds until a timeout occurs
 	 * @return true, if data arrived before timeout, false otherwise
 	 */
 	bool waitForData(unsigned int timeout, unsigned int utimeout);
+
+// -------------------- event-driven communication -----------------------------
+	int descriptor();
+	void setNonBlocking();
+	bool flush();
+	void fill();
+	const int *buffered(unsigned int *count);
+	unsigned int capacity();
 };
 //
 ///**
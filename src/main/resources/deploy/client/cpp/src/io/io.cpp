@@ -10,10 +10,12 @@
 
 // data types
 #include "protocol.h"
+#include "eventLoop.h"
 #include "../constants.h"
 #include "../logger.h"
 
 #include <math.h>
+#include <climits>
 
 // exceptions
 #include "../exceptions.h"
@@ -21,9 +23,14 @@
 // communication interface
 interface *intrfc;
 
-// locks
-std::mutex writer_mutex;
-std::condition_variable can_write;
+// ports with values, that can be sent
+ReadyList<abstractInPort> readyPorts;
+
+// sleeping of the writer thread
+static std::mutex writer_mutex;
+static std::condition_variable can_write;
+static std::atomic<bool> writer_sleeping(false);
+static std::atomic<bool> writer_woken(false);
 
 // ports
 abstractInPort   *inPorts[ IN_PORT_COUNT];
@@ -33,7 +40,7 @@ abstractOutPort *outPorts[OUT_PORT_COUNT];
 abstract_gpi *gpis [GPI_COUNT];
 abstract_gpo *gpos [GPO_COUNT];
 
-bool is_active = true;
+std::atomic<bool> is_active(true);
 
 std::vector<int> take(std::shared_ptr<LinkedQueue<abstractWriteState>> q, unsigned int count) {
 	std::vector<int> rslt;
@@ -45,15 +52,16 @@ std::vector<int> take(std::shared_ptr<LinkedQueue<abstractWriteState>> q, unsign
 		// abort, if the state is null
 		if(s == NULL) break;
 
-		// peek the first <count> values of state s (might return a smaller number of values)
+		// peek the first <count> unsent values of state s (might return a smaller number of values)
 		int array[count];
 		int valueCount = s->peek(array, count);
 
-		// store all values in the result vector
+		// store all values in the result vector and mark them as sent
 		for(int i = 0; i < valueCount; i++) {
 			rslt.push_back(array[i]);
 			count--;
 		}
+		s->sent += valueCount;
 
 		// get the next state
 		s = q->peek(++p);
@@ -62,108 +70,176 @@ std::vector<int> take(std::shared_ptr<LinkedQueue<abstractWriteState>> q, unsign
 	return rslt;
 }
 
-void scheduleWriter() {
-	logger_host << INFO << "begin write loop" << std::endl;
-
-	// terminate if not active
-	while(is_active) {
-	    logger_host << FINE << "locking writer ...";
-
-	    std::unique_lock<std::mutex> lock(writer_mutex);
+void write_pending() {
+	// all packages of this iteration are merged and sent at once, so that small writes
+	// to several ports can be sent in a single packet (protocols with frames even merge
+	// them into a single frame).
+	std::vector<std::vector<int>> packages;
+	std::vector<abstractInPort*> senders;
+
+	// fails all tasks of a port and wakes blocking writers (called while holding the port lock)
+	auto fail_tasks = [](abstractInPort *port, const std::string &m) {
+		while(!port->writeTaskQueue->empty()) {
+			std::shared_ptr<abstractWriteState> s = port->writeTaskQueue->take();
+			s->fail = true;
+			s->m = m;
+		}
+		port->task_empty.notify_all();
+	};
 
-	    logger_host << " locked" << std::endl;
+	// gpi values are not acknowledged. They are not queued on the board, since there
+	// is virtually now processing time. The value is simply written into memory.
+	for(unsigned char i = 0; i < GPO_COUNT; i++) {
+		// atomically get the old value and set -1 as new value
+		int val = gpos[i]->state.exchange(-1);
 
-		// gpi values are not acknowledged. They are not queued on the board, since there
-		// is virtually now processing time. The value is simply written into memory.
-		for(unsigned char i = 0; i < GPO_COUNT; i++) {
-			// atomically get the old value and set -1 as new value
-			int val = gpos[i]->state.exchange(-1);
+		// skip, if the gpio value was invalid
+		if (val == -1) continue;
 
-			// skip, if the gpio value was invalid
-			if (val == -1) continue;
+		// append a header with the specified protocol
+		try {
+			packages.push_back(proto->encode_gpio(i, val));
+		} catch (protocolException &e) {
 
-			// append a header with the specified protocol
-			std::vector<int> vals = proto->encode_gpio(i, val);
+		}
+	}
 
-			// send the values
-			try {
-				intrfc->send(vals);
-			} catch (mediumException &e) {
+	// take all published ports and order them by descending priority
+	// (in the order, in which they were published for equal priorities)
+	std::vector<abstractInPort*> ready;
+	abstractInPort *next = readyPorts.takeAll();
+	while(next != NULL) {
+		abstractInPort *port = next;
+
+		// read the link first, since the port may be published again as soon as its flag is cleared.
+		// the flag is cleared before gathering, so that values written from now on publish the port again.
+		next = port->nextReady;
+		port->ready = false;
+
+		// insert the port behind all ports of higher or equal priority
+		std::vector<abstractInPort*>::iterator pos = ready.end();
+		while(pos != ready.begin() && (*(pos - 1))->priority < port->priority) pos--;
+		ready.insert(pos, port);
+	}
 
-			} catch (protocolException &e) {
+	// ports below a port, which used its complete quantum, are deferred to the next round
+	unsigned int level = 0;
 
-			}
-		}
+	for(unsigned int r = 0; r < ready.size(); r++) {
+		abstractInPort *port = ready[r];
 
-		// send all data from in-going ports
-		for(unsigned char i = 0; i < IN_PORT_COUNT; i++) {
+		log_host(FINE) << " locking port " << port->pid << " ..." << std::endl;
 
-		    logger_host << FINE << " trying to lock port " << i << " ...";
+		// the port lock is only held while gathering, not while sending
+		std::unique_lock<std::mutex> port_lock(port->port_mutex);
 
-			// try to lock the port
-			std::unique_lock<std::mutex> port_lock(inPorts[i]->port_mutex, std::try_to_lock);
+		// publish deferred ports again without gathering their values
+		if(port->priority < level) {
+			port->publish();
+			continue;
+		}
 
-			if(port_lock.owns_lock()) logger_host << " success" << std::endl;
-			else logger_host << " failed" << std::endl;
+		// number of packages before this port
+		unsigned int merged = packages.size();
 
-			// if we could not acquire the lock, continue with the next port
-			if(! port_lock.owns_lock()) continue;
+		// number of values the port may still send in this round
+		unsigned int budget = port->quantum > 0 ? port->quantum : UINT_MAX;
 
-			// skip the port, if there are values in transit
-			if(*inPorts[i]->transit != 0) continue;
-			// skip the port, if it's task queue is empty
-			if(inPorts[i]->writeTaskQueue->empty()) continue;
+		// send values, as long as the board has credits left for this port.
+		// the credits are the free slots of the board-side input queue, which is not
+		// filled by values in transit. Acknowledgments of the board return credits.
+		while(port->transit < port->window && budget > 0) {
+			// gather i values to be sent, where i the minimum of the remaining credits,
+			// the remaining quantum and the maximal size of a message with the used protocol version
+			unsigned int sendSize = std::min(std::min(port->window - port->transit, budget), proto->max_size());
+			std::vector<int> val = take(port->writeTaskQueue, sendSize);
 
-			// TODO this should be set individually for each port binding! not global
-			unsigned int size = QUEUE_SIZE_SW;
-			unsigned int sendSize = std::min(size, proto->max_size());
-			// gather i values to be sent, where i the minimum of the maximal numbers of values
-			// receivable by the board and the maximal size of a message with the used protocol version
-			std::vector<int> val = take(inPorts[i]->writeTaskQueue, sendSize);
+			// continue with the next port, if all values of this port have been sent
+			if(val.empty()) break;
 
-			// set the transit counter and write variable
-			*inPorts[i]->transit  = val.size();
+			// update the transit counter and the remaining quantum
+			port->transit += val.size();
+			budget -= val.size();
 
 			// append a header with the specified protocol
-			val = proto->encode_data(i, val);
-
-			// send the values
 			try {
-				intrfc->send(val);
-			} catch (mediumException &e) {
-				while(!inPorts[i]->writeTaskQueue->empty()) {
-					std::shared_ptr<abstractWriteState> s = inPorts[i]->writeTaskQueue->take();
-					s->fail = true;
-					s->m = std::string("could not write values to medium: ") + e.what();
-				}
+				packages.push_back(proto->encode_data(port->pid, val));
 			} catch (protocolException &e) {
-				while(!inPorts[i]->writeTaskQueue->empty()) {
-					std::shared_ptr<abstractWriteState> s = inPorts[i]->writeTaskQueue->take();
-					s->fail = true;
-					s->m = std::string("protocol encoder reported an exception: ") + e.what();
-				}
+				fail_tasks(port, std::string("protocol encoder reported an exception: ") + e.what());
+				break;
+			}
+		}
+
+		// the port used its complete quantum, so it continues in the next round,
+		// while ports of lower priority have to wait
+		if(budget == 0) {
+			port->publish();
+			level = port->priority;
+		}
+
+		// remember the port, if it has packages to be sent
+		if(packages.size() > merged) senders.push_back(port);
+	}
+
+	// send all packages of this iteration (without holding any port lock)
+	if(!packages.empty()) {
+		try {
+			intrfc->send(proto->merge(packages));
+		} catch (mediumException &e) {
+			for(unsigned int j = 0; j < senders.size(); j++) {
+				std::unique_lock<std::mutex> port_lock(senders[j]->port_mutex);
+				fail_tasks(senders[j], std::string("could not write values to medium: ") + e.what());
 			}
 		}
+	}
+}
+
+void scheduleWriter() {
+	log_host(INFO) << "begin write loop" << std::endl;
+
+	// terminate if not active
+	while(is_active) {
+		// send everything, that can be sent
+		write_pending();
 
 		// sleep, until there is data to write
 		// wake on:
 		//  - client-side write (which CAN be sent directly,
-		//     i.e. nothing in transit and a previously empty queue)
-		//  - server-side ack or poll (received by reader thread)
+		//     i.e. the port has credits left)
+		//  - server-side ack returning credits (received by reader thread)
 		//  - shutdown
-		logger_host << FINE << "writer will wait now ..." << std::endl;
+		log_host(FINE) << "writer will wait now ..." << std::endl;
 
-		can_write.wait(lock);
+		// the writer announces, that it will sleep, before it checks for wakeups.
+		// since notifiers flag the wakeup before they check, if the writer sleeps,
+		// either the writer sees the wakeup or the notifier sees the sleeping writer.
+		std::unique_lock<std::mutex> lock(writer_mutex);
+		writer_sleeping = true;
+		while(!writer_woken.exchange(false) && is_active) can_write.wait(lock);
+		writer_sleeping = false;
 	}
 
-	logger_host << INFO << "stopped write loop" << std::endl;
+	log_host(INFO) << "stopped write loop" << std::endl;
+}
+
+void notify_writer() {
+#if IO_ENGINE == IO_ENGINE_EPOLL
+	wake_event_loop();
+#else
+	// only lock the writer mutex, if the writer might sleep
+	writer_woken = true;
+	if(writer_sleeping) {
+		std::unique_lock<std::mutex> lock(writer_mutex);
+		can_write.notify_one();
+	}
+#endif
 }
 
 void scheduleReader() {
-    logger_host << INFO << "begin read loop" << std::endl;
+    log_host(INFO) << "begin read loop" << std::endl;
 
 	while(is_active) {
-	    logger_host << FINE << "trying to read ..." << std::endl;
+	    log_host(FINE) << "trying to read ..." << std::endl;
 
 	    // wait 2 seconds for input
 		if(intrfc->waitForData(2,0)) {
@@ -175,151 +251,164 @@ void scheduleReader() {
 			} catch(mediumException &e) {
 				// there should be data, but there is no data.
 				// this is a bit weird...
-			    logger_host << ERROR << e.what();
+			    log_host(ERROR) << e.what();
 			} catch(protocolException &e) {
 				// marks an error in decoding the message
-			    logger_host << ERROR << e.what();
+			    log_host(ERROR) << e.what();
 			}
 		}
 	}
 }
 
-void send_poll(unsigned char pid, unsigned int count) {
+void send_poll(unsigned int pid, unsigned int count) {
 	std::vector<int> val = proto->encode_poll(pid, count);
 	try {
 		intrfc->send(val);
 		} catch (mediumException &e) {
 		} catch (protocolException &e) {
 		}
+#if IO_ENGINE == IO_ENGINE_EPOLL
+	// the medium may have queued parts of the poll, which the event loop has to flush
+	wake_event_loop();
+#endif
 }
 
 /**
- * store a read value at a port without locking or notifications.
+ * store read values at a port without locking or notifications.
+ * Values remaining in the value queue are handed to the pending read tasks first,
+ * followed by the received values. Values exceeding the tasks are appended to the value queue.
+ * The port lock has to be held by the caller.
  * @param pid Id of the target port.
- * @param val Value to be stored.
+ * @param val Values to be stored.
+ * @param size Number of values to be stored.
  */
-void recv_data_unsafe(unsigned char pid, int val) {
-    logger_host << FINE << " storing value " << val << " ...";
-
-	std::cout.flush();
-
-	if(outPorts[pid]->readTaskQueue->empty()) {
-		// if the task queue of the target port is empty, append to the value queue
-		std::shared_ptr<int> ptr((int*)malloc(sizeof(int)));
-		*ptr = val;
-		outPorts[pid]->readValueQueue->put(ptr);
-	} else {
-		// otherwise, add the value to the first task
+void recv_data_unsafe(unsigned int pid, int val[], int size) {
+	log_host(FINE) << " storing values (count: " << size << ") ...";
+
+	int i = 0;
+
+	// values appended to the value queue without locking precede the received ones
+	outPorts[pid]->drain();
+
+	// add values to the tasks of the target port (if any)
+	while(i < size && !outPorts[pid]->readTaskQueue->empty()) {
 		std::shared_ptr<abstractReadState> s = outPorts[pid]->readTaskQueue->peek();
-		s->store(&val, 1);
+		i += outPorts[pid]->hand(s.get(), val + i, size - i);
 
 		if(s->finished()) outPorts[pid]->readTaskQueue->take();
 	}
 
-	logger_host << " done" << std::endl;
-}
+	// finish tasks, which are completed by the last word of a previous task, and update the reading flag
+	outPorts[pid]->drain();
+
+	// append the remainder to the value queue. Out-going ports without polling
+	// cannot be throttled, so the queue grows, if the application lags behind
+	while(i < size) {
+		i += outPorts[pid]->readValueQueue.put(val + i, size - i);
+		if(i < size) {
+			outPorts[pid]->readValueQueue.grow();
+			log_host(WARN) << "value queue of port " << (int)pid << " grown to "
+				<< outPorts[pid]->readValueQueue.capacity() << " values" << std::endl;
+		}
+	}
 
-void recv_data(unsigned char pid, int val[], int size) {
+	log_host_continue(FINE) << " done" << std::endl;
+}
 
-    logger_host << FINE << " locking port " << pid << " ...";
+void recv_data(unsigned int pid, int val[], int size) {
+	abstractOutPort *port = outPorts[pid];
+
+	// without pending read tasks, the values are appended to the value queue without locking.
+	// The flag is checked again afterwards, since the application might have published
+	// a task in the meantime, which has to receive the appended values.
+	if(!port->reading.load(std::memory_order_relaxed)) {
+		int n = port->readValueQueue.put(val, size);
+		std::atomic_thread_fence(std::memory_order_seq_cst);
+		if(n == size && !port->reading.load(std::memory_order_relaxed)) return;
+		val  += n;
+		size -= n;
+	}
 
-	std::cout.flush();
+    log_host(FINE) << " locking port " << pid << " ...";
 
 	// acquire the port lock
-	std::unique_lock<std::mutex> lock(outPorts[pid]->port_mutex);
-
-	logger_host << " done" << std::endl;
-	logger_host << FINE << " storing values (count: " << size << ") ..." << std::endl;
+	std::unique_lock<std::mutex> lock(port->port_mutex);
 
-	std::cout.flush();
+	log_host_continue(FINE) << " done" << std::endl;
 
-	// store the read value without recursive locking
-	for(int i = 0; i < size; i++) recv_data_unsafe(pid, val[i]);
+	// store the read values without recursive locking
+	recv_data_unsafe(pid, val, size);
 
-	// if the task queue is empty now, notify the application
-	if(outPorts[pid]->readTaskQueue->empty()) outPorts[pid]->task_empty.notify_one();
+	// notify the application about finished tasks
+	port->task_empty.notify_all();
 }
 
 // acknowledge without locking or notifications
-void recv_ack_unsafe(unsigned char pid, unsigned int count) {
+void recv_ack_unsafe(unsigned int pid, unsigned int count) {
 
 	// return, if the queue is empty (count == 0 or unexpected ack)
 	if(inPorts[pid]->writeTaskQueue->peek() == NULL) {
-	    logger_host << FINE << "queue is empty, count: " << count << std::endl;
+	    log_host(FINE) << "queue is empty, count: " << count << std::endl;
 		return;
 	}
 
-	// if all values of the first task got acknowledged... (i.e. count >= remainder of the first task)
-	if(count >= (inPorts[pid]->writeTaskQueue->peek()->size - inPorts[pid]->writeTaskQueue->peek()->done)) {
+	// values cannot be acknowledged before they have been sent
+	std::shared_ptr<abstractWriteState> s = inPorts[pid]->writeTaskQueue->peek();
+	unsigned int acked = std::min(count, s->sent - s->done);
 
-		// remove the state from the queue
-		std::shared_ptr<abstractWriteState> s = inPorts[pid]->writeTaskQueue->take();
-
-		// update count, transit counter and state
-		                 count -= (s->size - s->done);
-		*inPorts[pid]->transit -= (s->size - s->done);
-		               s->done  = s->size;
+	// update count, transit counter and state (if acked == 0, nothing happens)
+	                count -= acked;
+	inPorts[pid]->transit -= acked;
+	             s->done += acked;
 
-		// acknowledge further values
+	// if all values of the first task got acknowledged, remove the state and acknowledge further values
+	if(s->finished()) {
+		inPorts[pid]->writeTaskQueue->take();
 		recv_ack_unsafe(pid, count);
-	} else {
-		// update state (if count == 0, nothing happens;)
-		inPorts[pid]->writeTaskQueue->peek()->done += count;
-
-		// update transit counter
-		*inPorts[pid]->transit -= count;
-
+	} else if(count > 0) {
+		log_host(WARN) << "board acknowledged " << count << " values of port " << (int)pid
+				<< ", which have not been sent" << std::endl;
 	}
 }
 
 // acquire locks, notify and call acknowledge_unsafe
-void recv_ack(unsigned char pid, unsigned int count) {
+void recv_ack(unsigned int pid, unsigned int count) {
 	// acquire port lock
 	std::unique_lock<std::mutex> port_lock(inPorts[pid]->port_mutex);
 
 	// acknowledge the data without recursive locking
+	std::shared_ptr<abstractWriteState> first = inPorts[pid]->writeTaskQueue->peek();
 	recv_ack_unsafe(pid, count);
 
-	// if task queue is empty, notify the port cv and return
-	if(inPorts[pid]->writeTaskQueue->empty()) {
-		inPorts[pid]->task_empty.notify_one();
-		return;
-	}
+	// notify blocking writers, if tasks have been finished
+	if(inPorts[pid]->writeTaskQueue->peek() != first) inPorts[pid]->task_empty.notify_all();
 
-	// otherwise there are still values to write.
-	// acquire writer lock
-	std::unique_lock<std::mutex> lock(writer_mutex);
-
-	// notify writer thread, if everything was acknowledged
-	if(*inPorts[pid]->transit == 0) can_write.notify_one();
-	// otherwise, set the transit counter to -1 to mark a blocked port
-	else *inPorts[pid]->transit = -1;
+	// publish the port, since the acknowledgment returned credits for the remaining values
+	if(!inPorts[pid]->writeTaskQueue->empty()) inPorts[pid]->publish();
 }
 
-void recv_poll(unsigned char pid) {
+void recv_fail(unsigned int pid, unsigned int count) {
+	log_host(ERROR) << "board dropped " << count << " values of port " << (int)pid
+			<< ", since its input queue was full. The port failed." << std::endl;
+
 	// acquire port lock
 	std::unique_lock<std::mutex> port_lock(inPorts[pid]->port_mutex);
 
-    // ignore the poll, if there are unacknowledged values in transit
-    if(*inPorts[pid]->transit > 0) return;
-
-	// set transit counter to 0 to enable transmissions
-	*inPorts[pid]->transit = 0;
-
-	// notify writer thread, if there are waiting tasks
-	if(!inPorts[pid]->writeTaskQueue->empty()) {
-		// acquire the writer lock
-		std::unique_lock<std::mutex> lock(writer_mutex);
-
-		// release the port lock!
-		port_lock.unlock();
-
-		// notify writer
-		can_write.notify_one();
+	// the board cleared its input queue and drops all further values of the port,
+	// so neither pending nor subsequent writes can succeed
+	inPorts[pid]->failed  = true;
+	inPorts[pid]->transit = 0;
+	while(!inPorts[pid]->writeTaskQueue->empty()) {
+		std::shared_ptr<abstractWriteState> s = inPorts[pid]->writeTaskQueue->take();
+		s->fail = true;
+		s->m = std::string("port failed, since the board dropped ") + std::to_string(count) + " values";
 	}
+
+	// wake blocking writers
+	inPorts[pid]->task_empty.notify_all();
 }
 
-void recv_gpio(unsigned char gid, unsigned char val) {
+void recv_gpio(unsigned int gid, unsigned char val) {
 	// set the value of the gpio component accordingly
 	gpis[gid]->state = val;
 
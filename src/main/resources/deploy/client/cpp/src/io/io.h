@@ -29,6 +29,20 @@
 
 /** Scheduling loop for the writer thread */
 void scheduleWriter();
+/**
+ * Sends all values, that can currently be sent to the board.
+ * Merges pending gpio values and the values of all published ports
+ * into a single transmission. This is shared by all I/O engines.
+ * Port locks are only held while gathering values, not while sending.
+ * May only be called by the I/O thread, which drains the ready list.
+ */
+void write_pending();
+/**
+ * Wakes the I/O engine, since values can be sent to the board.
+ * Depending on the engine, this notifies the writer thread or the event loop.
+ * Can be called from any thread without holding a lock.
+ */
+void notify_writer();
 /** Scheduling loop for the reader thread */
 void scheduleReader();
 /**
@@ -36,15 +50,24 @@ void scheduleReader();
  * @param pid Port id of the requesting port.
  * @param count Number of requested values.
  */
-void send_poll(unsigned char pid, unsigned int count);
+void send_poll(unsigned int pid, unsigned int count);
 /**
  * Processes a server acknowledgment.
  * Removes the number of acknowledged values from the queue and
- * updates states accordingly.
+ * updates states accordingly. Since the board acknowledges values
+ * when they leave its input queue, this returns credits to the port.
  * @param pid Port id of the acknowledging port.
  * @param count Number of values acknowledged.
  */
-void recv_ack(unsigned char pid, unsigned int count);
+void recv_ack(unsigned int pid, unsigned int count);
+/**
+ * Processes the failure of an in-going port reported by the server.
+ * The board-side driver fails a port, if it received more values than its input queue could hold.
+ * All pending and subsequent writes of the port fail, since the board drops all values of the port.
+ * @param pid Port id of the failed port.
+ * @param count Number of values dropped by the board.
+ */
+void recv_fail(unsigned int pid, unsigned int count);
 /**
  * Processes an incoming data package.
  * Adds the data either to the value queue of the target port or
@@ -53,32 +76,22 @@ void recv_ack(unsigned char pid, unsigned int count);
  * @param val Values sent to the port.
  * @param size Number of values sent to the port
  */
-void recv_data(unsigned char pid, int val[], int size);
-
-/**
- * Processes an incoming poll.
- * @param pid Target port id of the pol.
- */
-void recv_poll(unsigned char pid);
+void recv_data(unsigned int pid, int val[], int size);
 
 /**
  * Process an incoming gpio value.
  * @param gid Identifier of the changed gpio component.
  * @param val The new value of the gpio component.
  */
-void recv_gpio(unsigned char gid, unsigned char val);
+void recv_gpio(unsigned int gid, unsigned char val);
 
 // TODO move this to a non-generic file...
 /** Instance pointer to the communication medium for this writer/reader. */
 extern interface *intrfc;
 
-/************************** LOCKS *************************/
-/** Global writer lock. Use, whenever interacting with shared objects. */
-extern std::mutex writer_mutex;
-/** Notify this variable, when new values can be sent to the board. */
-extern std::condition_variable can_write;
+/************************** FLAGS *************************/
 /** flag stating if the loops should terminate. */
-extern bool is_active;
+extern std::atomic<bool> is_active;
 
 /********************* SHARED MEMORY *********************/
 /** Pointer array of all in-going ports. */
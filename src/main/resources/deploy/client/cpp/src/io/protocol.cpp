@@ -7,8 +7,8 @@
 #include "protocol.h"
 
 // standard library
-#include <cmath>
 #include <stdio.h>
+#include <string.h>
 #include <iostream>
 
 // constants
@@ -20,21 +20,55 @@
 #include "../logger.h"
 
 // protocol instance to be used
+#if PROTO_VERSION == 2
+protocol *proto = new protocol_v2();
+#else
 protocol *proto = new protocol_v1();
+#endif
 
 protocol::protocol() {}
 
-// message types
-#define reset 0
-#define debug 7
-#define data  9
-#define poll 10
-#define gpio 14
-#define ack  15
+#if LOG_BINARY
+/**
+ * Expands a binary log record of the board-side driver using the format table of the generator.
+ * The record consists of the call site id, followed by the integer arguments of the call.
+ * Conversions of the format are expanded one at a time, since the number of arguments
+ * is only known at runtime.
+ * @param record The record.
+ * @param size Number of values of the record (including the id).
+ * @return The expanded message.
+ */
+static std::string expand_record(const int *record, unsigned int size) {
+	unsigned int id = record[0];
+	if(id >= LOG_FORMAT_COUNT) return "unknown log record " + std::to_string(id);
+
+	std::string rslt;
+	unsigned int arg = 1;
+	char buffer[64];
+
+	for(const char *c = log_formats[id]; *c != '\0'; c++) {
+		if(*c != '%') { rslt += *c; continue; }
+		if(c[1] == '%') { rslt += '%'; c++; continue; }
+
+		// the conversion ends with its conversion character (only integer conversions are assigned ids)
+		size_t length = strcspn(c + 1, "diouxXc") + 2;
+		if(c[length - 1] == '\0') break;
+		std::string conversion(c, length);
+		snprintf(buffer, sizeof(buffer), conversion.c_str(), arg < size ? record[arg++] : 0);
+		rslt += buffer;
+		c += length - 1;
+	}
 
-#define info    3
-#define warning 8
-#define error  13
+	return rslt;
+}
+#endif /* LOG_BINARY */
+
+std::vector<int> protocol::merge(const std::vector<std::vector<int>> &packages) {
+	std::vector<int> rslt;
+	for(unsigned int i = 0; i < packages.size(); i++)
+		rslt.insert(rslt.end(), packages[i].begin(), packages[i].end());
+	return rslt;
+}
 
 protocol_v1::protocol_v1() {}
 
@@ -43,26 +77,21 @@ unsigned int protocol_v1::max_size() {
 }
 
 void protocol_v1::decode(int first) {
-	int version = floor(first / pow(2, 24));
+	unsigned int version = PROTO_V1_GET_VERSION(first);
 
 	// check if the version fits this decoder
-	if(version != 1) throw protocolException("unknown protocol version " + version);
-
-	first = fmod(first, pow(2, 24));
-	int type = floor(first / pow(2, 20));
+	if(version != 1) throw protocolException("unknown protocol version " + std::to_string(version));
 
-	// set id as specified in protocol version 1
-	first = fmod(first, pow(2, 20));
-	unsigned int id = floor(first / pow(2, 16));
+	// split the header as specified in protocol version 1
+	unsigned int type = PROTO_V1_GET_TYPE(first);
+	unsigned int id   = PROTO_V1_GET_ID(first);
+	unsigned int size = PROTO_V1_GET_SIZE(first);
 
-	// the last two bytes mark the size of this frame
-	unsigned int size = fmod(first, pow(2, 16));
-
-	logger_host << FINE << "decoded the following message header: " << first << std::endl;
-	logger_host << FINE << "  version : " << version << std::endl;
-	logger_host << FINE << "  type    : " << type << std::endl;
-	logger_host << FINE << "  target  : " << id << std::endl;
-	logger_host << FINE << "  size    : " << size << std::endl;
+	log_host(FINE) << "decoded the following message header: " << first << std::endl;
+	log_host(FINE) << "  version : " << version << std::endl;
+	log_host(FINE) << "  type    : " << type << std::endl;
+	log_host(FINE) << "  target  : " << id << std::endl;
+	log_host(FINE) << "  size    : " << size << std::endl;
 
 	// 8 bit protocol version
 	// 4 bit message type
@@ -74,27 +103,34 @@ void protocol_v1::decode(int first) {
 	//     1001 Data Blocking
 	//     1010 Poll Non-Blocking
 	//     1011 Poll Blocking
+	//     1100 Port Failure
 	//     1110 GPIO
 	//     1111 ACK
 	// 4 bit component identifier
 	// 16 bit size or value, depending on type
 	// <size> bytes data, depending on type
 
-	// encoding v2
-	// 00xx config related
-	//  0000 soft reset    0
-	//  0011 info          3
-	// 01xx data related
-	//  0100 data          4
-	//  0101 gpio          5
-	//  0110 poll          6
-	//  0111 ack           7
+	handle(type, id, size);
+}
+
+unsigned int protocol_v1::frame_size(const int *words, unsigned int count) {
+	if(count == 0) return 0;
+
+	// only data and debug messages have a payload, other messages store a value in the size field
+	unsigned int type = PROTO_V1_GET_TYPE(words[0]);
+	unsigned int size = PROTO_V1_GET_SIZE(words[0]);
+	if(type != PROTO_TYPE_DATA && type != PROTO_TYPE_DEBUG) return 1;
+
+	return size < count ? 1 + size : 0;
+}
+
+void protocol::handle(unsigned int type, unsigned int id, unsigned int size) {
 	switch(type) {
-	case  reset: // This is a soft reset.
+	case  PROTO_TYPE_RESET: // This is a soft reset.
 			 // receiving a soft reset from the board indicates, that the board performed a successful reset.
 		     // signal the application (since reset() is a blocking call)
 		break;
-    case  debug: // This is an error message. It should be stored in some error queue (throw it, if the call was synchronous?)
+    case  PROTO_TYPE_DEBUG: // This is an error message. It should be stored in some error queue (throw it, if the call was synchronous?)
         // severity
         // 0011  3 info
         // 1000  8 warning
@@ -103,83 +139,73 @@ void protocol_v1::decode(int first) {
         if(size == 0) break;
         else { // need a new scope here...
 
-            // the size is given in sizeof(int)
-            unsigned int i;
-            int payload[size];
-
-            for(i = 0; i < size; i++) {
-                try {
-                    if(intrfc->waitForData(0, 250000)) intrfc->readInt(payload + i);
-                } catch(mediumException &e) {
-                    logger_host << ERROR << e.what() << std::endl;
-                    intrfc->waitForData(0, 250000);
-                }
+            // the size is given in sizeof(int). It is taken from the medium,
+            // so it is checked against the maximal size the board sends, before the payload is allocated.
+            if(size > DEBUG_SIZE) throw protocolException(std::string("size (") +
+                    std::to_string(size) + ") of received debug message exceeded maximal size (" +
+                    std::to_string(DEBUG_SIZE) + ")");
+            std::vector<int> payload(size + 1, 0);
+
+            // read the whole message at once
+            try {
+                intrfc->read(payload.data(), size);
+            } catch(mediumException &e) {
+                log_host(ERROR) << e.what() << std::endl;
+                return;
             }
 
             // stream severity to logger
-            logger_board << (severity)id << (char*)payload << std::endl;
+#if LOG_BINARY
+            logger_board << (severity)id << expand_record(payload.data(), size) << std::endl;
+#else
+            // the additional value terminates strings, which the board did not terminate
+            logger_board << (severity)id << (char*)payload.data() << std::endl;
+#endif /* LOG_BINARY */
         }
 
         break;
-	case  data: // This is a blocking data package.
+	case  PROTO_TYPE_DATA: // This is a blocking data package.
 		if(size == 0) break;
 
-		else { // need a new scope here
-			// check if the pid is in range
-			if(id > OUT_PORT_COUNT-1) throw protocolException(std::string("pid value (") +
-					std::to_string(id) + ") of received data message exceeded count of out-going ports (" +
-					std::to_string(OUT_PORT_COUNT) + ")");
-
-			// the size is given in sizeof(int)
-			int payload[size];
-			unsigned int i = 0;
-
-			// try to read a value from the medium
-			while(i < size) {
-				try {
-				    if(intrfc->waitForData(0, 250000)) {
-                        intrfc->readInt(payload + i);
-                        i++;
-                    }
-
-//				    if(intrfc->waitForData(0, 250000))
-//				        i += intrfc->readInts(payload + i, size - i);
-                } catch(mediumException &e) {
-                    // TODO is it a good idea, to ignore read "exceptions" here??
-                    // what does it mean, to have an exception here?
-                    // there should be another value according to size, but it can't be read from the medium currently
-                    // this might happen, if...
-                    // a) the medium is really slow and we loop faster than values arrive
-                    // b) considering e.g. Ethernet, the message is split into multiple layer 3 messages
-                    //    and the next one hasn't arrived yet
-                    // c) broken board-side driver didn't send all the values specified in the size field...
-                    // d) broken medium (lost connection for some reason)
-                    // while a) and b) fix themselves by ignoring this message, c) and d) do not...
-                    logger_host << ERROR << e.what() << std::endl;
-                    // SOLUTION for d): perform a short wait and die over there, if something is wrong with the medium
-                    // this however does NOT solve c) - buggy drivers will not send enough values...
-                    //  this probably is a stupid use-case though. We do not look at attackers...
-                    intrfc->waitForData(0, 250000);
-                }
+		// check if the pid is in range
+		if(id >= OUT_PORT_COUNT) throw protocolException(std::string("pid value (") +
+				std::to_string(id) + ") of received data message exceeded count of out-going ports (" +
+				std::to_string(OUT_PORT_COUNT) + ")");
+
+		// read the payload in chunks of at most CHUNK_SIZE values (the size is given in sizeof(int)).
+		// the medium blocks until all values arrived (even if split into several packets),
+		// so an exception here means a broken or closed medium and the message is dropped.
+		while(size > 0) {
+			int payload[CHUNK_SIZE];
+			unsigned int count = size < CHUNK_SIZE ? size : CHUNK_SIZE;
+
+			try {
+				intrfc->read(payload, count);
+			} catch(mediumException &e) {
+				log_host(ERROR) << e.what() << std::endl;
+				return;
 			}
-//			intrfc->readInts(payload, size);
 
 			// shift read values to the respective queue
-			recv_data(id, payload, size);
+			recv_data(id, payload, count);
+			size -= count;
 		}
 		break;
-	case poll: // This is a non-blocking poll.
-		if(id > IN_PORT_COUNT-1) throw protocolException(std::string("pid value (") +
-				std::to_string(id) + ") of received poll message exceeded count of in-going ports (" +
+	case PROTO_TYPE_POLL: // Polls are only sent by the host. The board returns credits with acknowledgments.
+		throw protocolException(std::string("unexpected poll message for port ") + std::to_string(id));
+	case PROTO_TYPE_FAIL: // This is a port failure. The board dropped <size> values of in-going port <id>.
+		if(id >= IN_PORT_COUNT) throw protocolException(std::string("pid value (") +
+				std::to_string(id) + ") of received failure exceeded count of in-going ports (" +
 				std::to_string(IN_PORT_COUNT) + ")");
-		recv_poll(id); break;
-	case gpio: // This marks a GPIO message.
-		if(id > GPI_COUNT-1) throw protocolException(std::string("GPIO id value (") +
+		recv_fail(id, size);
+		break;
+	case PROTO_TYPE_GPIO: // This marks a GPIO message.
+		if(id >= GPI_COUNT) throw protocolException(std::string("GPIO id value (") +
 				std::to_string(id) + ") of received GPIO message exceeded count of GPIO input devices (" +
 				std::to_string(GPI_COUNT) + ")");
 		recv_gpio(id, size); break;
-	case ack: // This is an acknowledgment.
-		if(id > IN_PORT_COUNT-1) throw protocolException(std::string("pid value (") +
+	case PROTO_TYPE_ACK: // This is an acknowledgment.
+		if(id >= IN_PORT_COUNT) throw protocolException(std::string("pid value (") +
 				std::to_string(id) + ") of received acknowledgment exceeded count of in-going ports (" +
 				std::to_string(IN_PORT_COUNT) + ")");
 		recv_ack(id, size);
@@ -187,63 +213,196 @@ void protocol_v1::decode(int first) {
 	default:
 		throw protocolException(
 		        std::string("unknown message type (") +
-		        std::to_string(type) + ") for protocol version 1");
+		        std::to_string(type) + ")");
 	}
 
-	logger_host << FINE << "finished message interpretation" << std::endl;
+	log_host(FINE) << "finished message interpretation" << std::endl;
 }
 
-std::vector<int> protocol_v1::encode_data(unsigned char pid, std::vector<int> val) {
+std::vector<int> protocol_v1::encode_data(unsigned int pid, std::vector<int> val) {
 	// check value size
 	if(val.size() > MAX_SIZE) throw protocolException(std::string("actual message size (") +
 			std::to_string(val.size()) + ") exceeded message capacity (" + std::to_string(MAX_SIZE) + ")");
 	// check port id
-	if(pid > IN_PORT_COUNT-1) throw protocolException(std::string("port id (") +
+	if(pid >= IN_PORT_COUNT) throw protocolException(std::string("port id (") +
 			std::to_string(pid) + ") exceeded port range for in-going ports (" + std::to_string(IN_PORT_COUNT) + ")");
 
 	// append header and return
-	val.insert(val.begin(),construct_header(data, pid, val.size()));
+	val.insert(val.begin(),construct_header(PROTO_TYPE_DATA, pid, val.size()));
 	return val;
 }
 
 
-std::vector<int> protocol_v1::encode_poll(unsigned char pid, unsigned int count) {
+std::vector<int> protocol_v1::encode_poll(unsigned int pid, unsigned int count) {
 	// check value size
 //	if(count > MAX_SIZE) throw protocolException(std::string("request count (") +
 //			std::to_string(count) + ") exceeded message capacity (" + std::to_string(MAX_SIZE) + ")");
 	// check port id
-	if(pid > OUT_PORT_COUNT-1) throw protocolException(std::string("port id (") +
+	if(pid >= OUT_PORT_COUNT) throw protocolException(std::string("port id (") +
 			std::to_string(pid) + ") exceeded port range for out-going ports (" + std::to_string(OUT_PORT_COUNT) + ")");
 
 	// construct message and return
 	std::vector<int> v;
 
 	while(count > MAX_SIZE) {
-		v.push_back(construct_header(poll, pid, MAX_SIZE));
+		v.push_back(construct_header(PROTO_TYPE_POLL, pid, MAX_SIZE));
 		count -= MAX_SIZE;
 	}
 
-	v.push_back(construct_header(poll, pid, count));
+	v.push_back(construct_header(PROTO_TYPE_POLL, pid, count));
 	return v;
 }
 
-std::vector<int> protocol_v1::encode_gpio(unsigned char gid, unsigned char val) {
+std::vector<int> protocol_v1::encode_gpio(unsigned int gid, unsigned char val) {
 	// check port id
-	if(gid > GPI_COUNT-1) throw protocolException(std::string("GPIO id (") +
-			std::to_string(gid) + ") exceeded GPIO output  device range (" + std::to_string(GPI_COUNT) + ")");
+	if(gid >= GPO_COUNT) throw protocolException(std::string("GPIO id (") +
+			std::to_string(gid) + ") exceeded GPIO output device range (" + std::to_string(GPO_COUNT) + ")");
 
 	// construct message and return
 	std::vector<int> v;
-	v.push_back(construct_header(gpio, gid, val));
+	v.push_back(construct_header(PROTO_TYPE_GPIO, gid, val));
 	return v;
 }
 
 std::vector<int> protocol_v1::encode_reset() {
 	std::vector<int> v;
-	v.push_back(construct_header(reset, 0, 0));
+	v.push_back(construct_header(PROTO_TYPE_RESET, 0, 0));
+	return v;
+}
+
+int protocol_v1::construct_header(unsigned int type, unsigned int id, unsigned int size) {
+	return PROTO_V1_HEADER(type, id, size);
+}
+
+protocol_v2::protocol_v2() {}
+
+unsigned int protocol_v2::max_size() {
+	return MAX_SIZE;
+}
+
+void protocol_v2::decode(int first) {
+	unsigned int version = PROTO_V2_GET_VERSION(first);
+
+	// check if the version fits this decoder
+	if(version != 2) throw protocolException("unknown protocol version " + std::to_string(version));
+
+	// the frame header only contains the number of messages in the frame
+	unsigned int count = PROTO_V2_GET_COUNT(first);
+
+	log_host(FINE) << "decoded the following frame header: " << first << std::endl;
+	log_host(FINE) << "  version : " << version << std::endl;
+	log_host(FINE) << "  messages: " << count << std::endl;
+
+	// 8 bit protocol version
+	// 16 bit number of messages in the frame
+	// for each message:
+	//   4 bit message type (as in version 1)
+	//   16 bit component identifier
+	//   32 bit size or value, depending on type
+	//   <size> values data, depending on type
+	for(unsigned int i = 0; i < count; i++) {
+		int message, length;
+		intrfc->readInt(&message);
+		intrfc->readInt(&length);
+
+		unsigned int type = PROTO_V2_GET_TYPE(message);
+		unsigned int id   = PROTO_V2_GET_ID(message);
+		unsigned int size = PROTO_V2_GET_SIZE(length);
+
+		log_host(FINE) << "decoded the following message header: " << message << " " << length << std::endl;
+		log_host(FINE) << "  type    : " << type << std::endl;
+		log_host(FINE) << "  target  : " << id << std::endl;
+		log_host(FINE) << "  size    : " << size << std::endl;
+
+		handle(type, id, size);
+	}
+}
+
+unsigned int protocol_v2::frame_size(const int *words, unsigned int count) {
+	if(count == 0) return 0;
+
+	unsigned int messages = PROTO_V2_GET_COUNT(words[0]);
+	unsigned int pos = 1;
+
+	// skip all messages of the frame (pos never exceeds count)
+	for(unsigned int i = 0; i < messages; i++) {
+		if(count - pos < 2) return 0;
+
+		unsigned int type = PROTO_V2_GET_TYPE(words[pos]);
+		unsigned int size = PROTO_V2_GET_SIZE(words[pos + 1]);
+		pos += 2;
+
+		// only data and debug messages have a payload, other messages store a value in the size field
+		if(type != PROTO_TYPE_DATA && type != PROTO_TYPE_DEBUG) continue;
+
+		if(size > count - pos) return 0;
+		pos += size;
+	}
+
+	return pos;
+}
+
+std::vector<int> protocol_v2::encode_data(unsigned int pid, std::vector<int> val) {
+	// check value size
+	if(val.size() > MAX_SIZE) throw protocolException(std::string("actual message size (") +
+			std::to_string(val.size()) + ") exceeded message capacity (" + std::to_string(MAX_SIZE) + ")");
+	// check port id
+	if(pid >= IN_PORT_COUNT) throw protocolException(std::string("port id (") +
+			std::to_string(pid) + ") exceeded port range for in-going ports (" + std::to_string(IN_PORT_COUNT) + ")");
+
+	// append header and return
+	std::vector<int> v = construct_frame(PROTO_TYPE_DATA, pid, val.size());
+	v.insert(v.end(), val.begin(), val.end());
 	return v;
 }
 
-int protocol_v1::construct_header(unsigned char type, unsigned char id, unsigned int size) {
-	return (1 << 24) + (type << 20) + (id << 16) + size;
+std::vector<int> protocol_v2::encode_poll(unsigned int pid, unsigned int count) {
+	// check port id
+	if(pid >= OUT_PORT_COUNT) throw protocolException(std::string("port id (") +
+			std::to_string(pid) + ") exceeded port range for out-going ports (" + std::to_string(OUT_PORT_COUNT) + ")");
+
+	// the size field is wide enough for any count
+	return construct_frame(PROTO_TYPE_POLL, pid, count);
+}
+
+std::vector<int> protocol_v2::encode_gpio(unsigned int gid, unsigned char val) {
+	// check port id
+	if(gid >= GPO_COUNT) throw protocolException(std::string("GPIO id (") +
+			std::to_string(gid) + ") exceeded GPIO output device range (" + std::to_string(GPO_COUNT) + ")");
+
+	return construct_frame(PROTO_TYPE_GPIO, gid, val);
+}
+
+std::vector<int> protocol_v2::encode_reset() {
+	return construct_frame(PROTO_TYPE_RESET, 0, 0);
+}
+
+std::vector<int> protocol_v2::merge(const std::vector<std::vector<int>> &packages) {
+	std::vector<int> rslt;
+	// index of the header of the frame, to which messages are currently appended
+	unsigned int frame = 0;
+
+	for(unsigned int i = 0; i < packages.size(); i++) {
+		unsigned int count = PROTO_V2_GET_COUNT(packages[i][0]);
+
+		// start a new frame, if the message counter of the current frame would overflow
+		if(rslt.empty() || PROTO_V2_GET_COUNT(rslt[frame]) + count > MAX_COUNT) {
+			frame = rslt.size();
+			rslt.push_back(PROTO_V2_FRAME(0));
+		}
+
+		// append the messages of the package (without its frame header) and update the counter
+		rslt[frame] = PROTO_V2_FRAME(PROTO_V2_GET_COUNT(rslt[frame]) + count);
+		rslt.insert(rslt.end(), packages[i].begin() + 1, packages[i].end());
+	}
+
+	return rslt;
+}
+
+std::vector<int> protocol_v2::construct_frame(unsigned int type, unsigned int id, unsigned int size) {
+	std::vector<int> v;
+	v.push_back(PROTO_V2_FRAME(1));
+	v.push_back(PROTO_V2_MESSAGE(type, id));
+	v.push_back(PROTO_V2_LENGTH(size));
+	return v;
 }
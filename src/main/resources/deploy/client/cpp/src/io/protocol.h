@@ -10,6 +10,8 @@
 
 #include <vector>
 
+#include "protocol_header.h"
+
 /**
  * Abstract superclass for the host-side protocol encoder and decoder.
  * This class describes the functionality required by a protocol.
@@ -18,6 +20,7 @@
  * The encoder has to be defined statically. The decoder is chosen
  * dynamically, depending on the version number of received messages.
  * @see protocol_v1 Version 1 of the protocol.
+ * @see protocol_v2 Version 2 of the protocol.
  */
 class protocol {
 public:
@@ -36,6 +39,15 @@ public:
 	 * @throws protocolException For errors or unexpected header values encountered during decoding.
 	 */
 	virtual void decode(int first) = 0;
+	/**
+	 * Determines the size of the frame starting at the first received value.
+	 * Protocols without frames determine the size of a single message instead.
+	 * Event-driven I/O engines only decode complete frames, so that decoding does not wait for the medium.
+	 * @param words Received, but not yet decoded values.
+	 * @param count Number of received values.
+	 * @return Number of values of the frame, if the frame is complete, 0 otherwise.
+	 */
+	virtual unsigned int frame_size(const int *words, unsigned int count) = 0;
 	/**
 	 * Encodes a data package.
 	 * This includes generating and appending a fitting header.
@@ -43,7 +55,7 @@ public:
 	 * @param val Data to be sent to the port.
 	 * @return The encoded package.
 	 */
-	virtual std::vector<int> encode_data(unsigned char pid, std::vector<int> val) = 0;
+	virtual std::vector<int> encode_data(unsigned int pid, std::vector<int> val) = 0;
 	/**
 	 * Encodes a data request.
 	 * This includes generating and appending a fitting header.
@@ -51,7 +63,7 @@ public:
 	 * @param count Number of requested values.
 	 * @return The encoded package.
 	 */
-	virtual std::vector<int> encode_poll(unsigned char pid, unsigned int count) = 0;
+	virtual std::vector<int> encode_poll(unsigned int pid, unsigned int count) = 0;
 	/**
 	 * Encodes a gpio package.
 	 * This includes generating and appending a fitting header.
@@ -59,12 +71,36 @@ public:
 	 * @param val Data to be sent to the gpio device.
 	 * @return The encoded package.
 	 */
-	virtual std::vector<int> encode_gpio(unsigned char gid, unsigned char val) = 0;
+	virtual std::vector<int> encode_gpio(unsigned int gid, unsigned char val) = 0;
 	/**
 	 * Generates a reset message.
 	 * @return The encoded message.
 	 */
 	virtual std::vector<int> encode_reset() = 0;
+	/**
+	 * Merges several encoded packages, so that they can be sent at once.
+	 * Protocols without frames simply concatenate the packages.
+	 * @param packages The encoded packages.
+	 * @return The merged packages.
+	 */
+	virtual std::vector<int> merge(const std::vector<std::vector<int>> &packages);
+
+protected:
+	/** Maximal number of payload values read from the medium at once. */
+	static const unsigned int CHUNK_SIZE = 4096;
+
+	/** Maximal number of payload values of a debug message (has to correspond to PROTO_DEBUG_SIZE of the board). */
+	static const unsigned int DEBUG_SIZE = 1024;
+
+	/**
+	 * Interprets a decoded message header and reads the payload of the message (if any).
+	 * The encoding of message types is shared by all protocol versions.
+	 * @param type Type of the message.
+	 * @param id Id of the target port or component.
+	 * @param size Size or value, depending on the type.
+	 * @throws protocolException For errors or unexpected header values encountered during decoding.
+	 */
+	void handle(unsigned int type, unsigned int id, unsigned int size);
 };
 
 /**
@@ -72,17 +108,41 @@ public:
  */
 class protocol_v1 : public protocol {
 private:
-	static const unsigned int MAX_SIZE = 65535;
-	int construct_header(unsigned char type, unsigned char id, unsigned int size);
+	static const unsigned int MAX_SIZE = PROTO_V1_SIZE_MASK;
+	int construct_header(unsigned int type, unsigned int id, unsigned int size);
 public:
 	protocol_v1();
 	~protocol_v1() { };
 	unsigned int max_size();
 	void decode(int first);
-	std::vector<int> encode_data(unsigned char pid, std::vector<int> val);
-	std::vector<int> encode_poll(unsigned char pid, unsigned int count);
-	std::vector<int> encode_gpio(unsigned char gid, unsigned char val);
+	unsigned int frame_size(const int *words, unsigned int count);
+	std::vector<int> encode_data(unsigned int pid, std::vector<int> val);
+	std::vector<int> encode_poll(unsigned int pid, unsigned int count);
+	std::vector<int> encode_gpio(unsigned int gid, unsigned char val);
+	std::vector<int> encode_reset();
+};
+
+/**
+ * Host-side protocol encoder and decoder version 2.
+ * Messages are sent in frames, which may contain messages for several ports.
+ * Each message has a 16 bit id and a 32 bit size.
+ */
+class protocol_v2 : public protocol {
+private:
+	static const unsigned int MAX_SIZE  = PROTO_V2_SIZE_MASK;
+	static const unsigned int MAX_COUNT = PROTO_V2_COUNT_MASK;
+	std::vector<int> construct_frame(unsigned int type, unsigned int id, unsigned int size);
+public:
+	protocol_v2();
+	~protocol_v2() { };
+	unsigned int max_size();
+	void decode(int first);
+	unsigned int frame_size(const int *words, unsigned int count);
+	std::vector<int> encode_data(unsigned int pid, std::vector<int> val);
+	std::vector<int> encode_poll(unsigned int pid, unsigned int count);
+	std::vector<int> encode_gpio(unsigned int gid, unsigned char val);
 	std::vector<int> encode_reset();
+	std::vector<int> merge(const std::vector<std::vector<int>> &packages);
 };
 
 /** Instance of the protocol used for sending */
@@ -12,15 +12,17 @@
 #ifndef STATE_H_
 #define STATE_H_
 
-#include <deque>
 #include <bitset>
 #include <math.h>
+#include <stdint.h>
+#include <string.h>
+#include <algorithm>
 #include <vector>
 
 #include "../logger.h"
 
-template <int width>
-class outPort;
+template <class T>
+class typedOutPort;
 
 /**
  * Abstract representation of the state of an operation.
@@ -37,6 +39,15 @@ protected:
 	unsigned int w;
 	/** Number of 32-bit values representing a value in the actual bitwidth of the state */
 	unsigned int intPerValue;
+	/** Number of values packed into a single 32-bit value (1, if values are not packed) */
+	unsigned int valuesPerInt;
+	/**
+	 * Number of values of the first 32-bit value, which belong to a previous operation.
+	 * Only packed reads start within a word, if the previous read ended within it.
+	 */
+	unsigned int skip;
+	/** Total number of values in the actual bitwidth of the state */
+	unsigned int count;
 	/** Failed flag */
 	bool fail;
 	/** Message of an occurred exception. */
@@ -45,7 +56,7 @@ protected:
 	 * Internal constructor, initialising size and done values.
 	 * @param size Total number of values to be processed.
 	 */
-	state(int size) : done(0), w(32), fail(false), m("") {
+	state(int size) : done(0), w(32), valuesPerInt(1), skip(0), count(size), fail(false), m("") {
 		intPerValue = ceil((double) w / (sizeof(int) * 8));
 		this->size = size * intPerValue;
 	}
@@ -53,10 +64,12 @@ protected:
 	 * Internal constructor, initialising size and done values.
 	 * @param size Total number of values to be processed.
 	 * @param width Actual bitwidth of the state
+	 * @param valuesPerInt Number of values packed into a single 32-bit value.
 	 */
-	state(int size, int width) : done(0), w(width), fail(false), m("") {
+	state(int size, int width, unsigned int valuesPerInt = 1) : done(0), w(width), valuesPerInt(valuesPerInt), skip(0), count(size), fail(false), m("") {
 		intPerValue = ceil((double) w / (sizeof(int) * 8));
-		this->size = size * intPerValue;
+		if(valuesPerInt > 1) this->size = (size + valuesPerInt - 1) / valuesPerInt;
+		else this->size = size * intPerValue;
 	}
 public:
 	virtual ~state() { };
@@ -69,11 +82,18 @@ public:
 	 */
 	bool finished() { return size == done; }
 
+	/**
+	 * Checks, if a call has failed.
+	 * @return true if the operation has failed, false otherwise.
+	 */
+	bool failed() { return fail; }
+
 	/**
 	 * Checks, how many values have already been processed.
 	 * @return The number of processed values.
 	 */
 	unsigned int processed() {
+		if(valuesPerInt > 1) return done * valuesPerInt > skip ? std::min(count, done * valuesPerInt - skip) : 0;
 		return done / intPerValue;
 	}
 	/**
@@ -81,14 +101,14 @@ public:
 	 * @return The number of values NOT processed so far.
 	 */
 	unsigned int remaining() {
-		return floor((size - done) / intPerValue);
+		return count - processed();
 	}
 	/**
 	 * Checks, how many values have to be processed in total.
 	 * @return The total number of values to be processed.
 	 */
 	unsigned int total() {
-		return size / intPerValue;
+		return count;
 	}
 };
 
@@ -97,12 +117,21 @@ public:
  * It is to be only used by the I/O threads which are independent of the actual bitwidth of a port.
  */
 class abstractWriteState : public state {
-friend void scheduleWriter();
+friend void write_pending();
 friend std::vector<int> take(std::shared_ptr<LinkedQueue<abstractWriteState>> q, unsigned int count);
-friend void recv_ack_unsafe(unsigned char pid, unsigned int count);
+friend void recv_ack_unsafe(unsigned int pid, unsigned int count);
+friend void recv_fail(unsigned int pid, unsigned int count);
+friend class abstractInPort;
+protected:
+	/**
+	 * Number of 32-bit values already handed to the medium (#done <= #sent <= #size).
+	 * Values between #done and #sent are in transit and wait for acknowledgment.
+	 */
+	unsigned int sent;
 private:
 	/**
-	 * Peeks at the first #count values of the state and stores them into the provided array.
+	 * Peeks at the first #count values of the state, which have not been sent so far,
+	 * and stores them into the provided array.
 	 * If less values are available, less values are read.
 	 * @param val Array where to store peeked values
 	 * @param count Number of values to be peeked at
@@ -115,8 +144,9 @@ public:
 	 * it is only stored internally but does not influence write-specific behaviour here.
 	 * @param size Total number of values to be processed.
 	 * @param width Actual bitwidth of the state
+	 * @param valuesPerInt Number of values packed into a single 32-bit value.
 	 */
-	abstractWriteState(int size, int width) : state(size, width) { }
+	abstractWriteState(int size, int width, unsigned int valuesPerInt) : state(size, width, valuesPerInt), sent(0) { }
 	virtual ~abstractWriteState() { }
 };
 
@@ -126,7 +156,8 @@ public:
  */
 class abstractReadState : public state {
 friend void scheduleReader();
-friend void recv_data_unsafe(unsigned char pid, int val);
+friend void recv_data_unsafe(unsigned int pid, int val[], int size);
+friend class abstractOutPort;
 private:
 	/**
 	 * Tries to store #count values in the read state.
@@ -142,148 +173,294 @@ public:
 	 * it is only stored internally but does not influence read-specific behaviour here.
 	 * @param size Total number of values to be processed.
 	 * @param width Actual bitwidth of the state
+	 * @param valuesPerInt Number of values packed into a single 32-bit value.
 	 */
-	abstractReadState(int size, int width) : state(size, width) { }
+	abstractReadState(int size, int width, unsigned int valuesPerInt) : state(size, width, valuesPerInt) { }
 	virtual ~abstractReadState() { }
 };
 
 
 
 /**
- * Abstract representation of the state of a write operation.
- * These are used as return values for non-blocking calls and
- * allow users to check the progress of the call.
+ * Packs a value into 32-bit words for transmission.
+ * The most significant word is stored first.
+ * Values of up to 64 bit are converted with a single integer conversion.
+ * @param val The value to be packed.
+ * @param words Array, where the packed words should be stored.
+ * @param count Number of words per value.
  */
 template <int width>
-class writeState : public abstractWriteState {
-private:
-	/** The values (in the states bitwidth) to be written. */
-	std::bitset<width> *vals;
+void pack(const std::bitset<width> &val, uint32_t words[], unsigned int count) {
+	if(width <= 64) {
+		unsigned long long v = val.to_ullong();
+		for(int i = count - 1; i >= 0; i--, v >>= 32) words[i] = (uint32_t)v;
+		return;
+	}
 
-	// this is basically the exposed method for reading from the value queue!
-	unsigned int peek(int val[], unsigned int count) {
-		unsigned int read = 0;
+	const std::bitset<width> mask(0xFFFFFFFFul);
+	std::bitset<width> v = val;
+	for(int i = count - 1; i >= 0; i--, v >>= 32) words[i] = (uint32_t)(v & mask).to_ulong();
+}
+
+/**
+ * Unpacks a value from received 32-bit words.
+ * The most significant word is expected first.
+ * Values of up to 64 bit are converted with a single integer conversion.
+ * @param words The received words.
+ * @param count Number of words per value.
+ * @return The unpacked value.
+ */
+template <int width>
+std::bitset<width> unpack(const uint32_t words[], unsigned int count) {
+	if(width <= 64) {
+		unsigned long long v = 0;
+		for(unsigned int i = 0; i < count; i++) v = (v << 32) | words[i];
+		return std::bitset<width>(v);
+	}
 
-		while(read < count) {
-			if(read + done == size) break;
-			std::deque<int> currentValue = convert(vals[int(floor((read + done) / intPerValue))]);
-			val[read] = currentValue[(read + done) % intPerValue];
-			read++;
+	std::bitset<width> v;
+	for(unsigned int i = 0; i < count; i++) {
+		v <<= 32;
+		v |= std::bitset<width>(words[i]);
+	}
+	return v;
+}
+
+/**
+ * Conversion of values of native types of up to 16 bit into 32-bit words and back.
+ * Each value occupies a single word.
+ */
+template <class T, class W>
+struct narrowCodec {
+	/** Bitwidth of the values. */
+	static const int width = sizeof(W) * 8;
+
+	static void pack(const T vals[], uint32_t words[], unsigned int count) {
+		for(unsigned int i = 0; i < count; i++) {
+			W v;
+			memcpy(&v, vals + i, sizeof(W));
+			words[i] = v;
 		}
+	}
 
-		return read;
+	static void unpack(const uint32_t words[], T vals[], unsigned int count) {
+		for(unsigned int i = 0; i < count; i++) {
+			W v = (W)words[i];
+			memcpy(vals + i, &v, sizeof(W));
+		}
+	}
+};
+
+/**
+ * Conversion of values of native types into 32-bit words and back.
+ * This is specialised by the size of the type.
+ */
+template <class T, unsigned int bytes = sizeof(T)>
+struct nativeCodec;
+
+template <class T>
+struct nativeCodec<T, 1> : public narrowCodec<T, uint8_t>  { };
+
+template <class T>
+struct nativeCodec<T, 2> : public narrowCodec<T, uint16_t> { };
+
+/**
+ * Conversion of 32-bit values. Each value occupies exactly one word,
+ * so that whole arrays are converted with a single copy.
+ */
+template <class T>
+struct nativeCodec<T, 4> {
+	/** Bitwidth of the values. */
+	static const int width = 32;
+
+	static void pack(const T vals[], uint32_t words[], unsigned int count) {
+		memcpy(words, vals, count * sizeof(uint32_t));
+	}
+
+	static void unpack(const uint32_t words[], T vals[], unsigned int count) {
+		memcpy(vals, words, count * sizeof(uint32_t));
+	}
+};
+
+/**
+ * Conversion of 64-bit values. Each value occupies two words,
+ * the most significant word first.
+ */
+template <class T>
+struct nativeCodec<T, 8> {
+	/** Bitwidth of the values. */
+	static const int width = 64;
+
+	static void pack(const T vals[], uint32_t words[], unsigned int count) {
+		for(unsigned int i = 0; i < count; i++) {
+			uint64_t v;
+			memcpy(&v, vals + i, sizeof(uint64_t));
+			words[2 * i]     = (uint32_t)(v >> 32);
+			words[2 * i + 1] = (uint32_t)v;
+		}
+	}
+
+	static void unpack(const uint32_t words[], T vals[], unsigned int count) {
+		for(unsigned int i = 0; i < count; i++) {
+			uint64_t v = ((uint64_t)words[2 * i] << 32) | words[2 * i + 1];
+			memcpy(vals + i, &v, sizeof(uint64_t));
+		}
 	}
+};
+
+/**
+ * Conversion of port values into 32-bit words and back.
+ * Native types are converted by their size, bit vectors are the fallback for all other widths.
+ * Values of all types share the same layout: each value occupies
+ * the smallest number of words able to hold it, the most significant word first.
+ *
+ * A codec provides the bitwidth of the values as well as bulk operations to
+ * pack an array of values into words and to unpack an array of values from words.
+ */
+template <class T>
+struct codec : public nativeCodec<T> { };
+
+template <size_t w>
+struct codec<std::bitset<w>> {
+	/** Bitwidth of the values. */
+	static const int width = w;
 
+	static void pack(const std::bitset<w> vals[], uint32_t words[], unsigned int count) {
+		unsigned int n = (w + 31) / 32;
+		for(unsigned int i = 0; i < count; i++) ::pack<w>(vals[i], words + i * n, n);
+	}
+
+	static void unpack(const uint32_t words[], std::bitset<w> vals[], unsigned int count) {
+		unsigned int n = (w + 31) / 32;
+		for(unsigned int i = 0; i < count; i++) vals[i] = ::unpack<w>(words + i * n, n);
+	}
+};
+
+/**
+ * Abstract representation of the state of a write operation.
+ * These are used as return values for non-blocking calls and
+ * allow users to check the progress of the call.
+ */
+template <class T>
+class typedWriteState : public abstractWriteState {
+private:
 	/**
-	 * Transforms a value of the states width to a deque of integer values for transmission.
-	 * @param val The value represented by a bitset
-	 * @return A deque of integer values representing the value
+	 * The values to be written, packed into 32-bit words at construction.
+	 * Each value occupies #intPerValue words, the most significant word first.
+	 * Packed values share a word instead, the first value in the most significant bits.
 	 */
-	std::deque<int> convert (const std::bitset<width> val) {
-		std::deque<int> vals;
-		for(unsigned int i = 0; i < ceil((double)val.size() / (sizeof(int) * 8)); i++) {
-			int rslt = 0;
-			for(unsigned int j = 0; j < (sizeof(int) * 8); j++) {
-				if(i*(sizeof(int) * 8) + j == val.size()) break;
-				else rslt += val[i*(sizeof(int) * 8) + j] << j;
-			}
-			vals.push_front(rslt);
-		}
-		return vals;
+	uint32_t *words;
+
+	// this is basically the exposed method for reading from the value queue!
+	unsigned int peek(int val[], unsigned int count) {
+		unsigned int read = std::min(count, size - sent);
+		memcpy(val, words + sent, read * sizeof(uint32_t));
+		return read;
 	}
 
+	// the state owns its words, copying is not supported
+	typedWriteState(const typedWriteState&);
+	typedWriteState& operator=(const typedWriteState&);
+
 public:
 	/**
 	 * Constructor of the write state.
 	 * @param vals Array of values to be written.
 	 * @param size Number of values to be written (i.e. size of the array).
+	 * @param packed If true, as many values as possible are packed into a single word.
+	 *               Unused bits of the last word are padded with zeros.
 	 */
-	writeState(const std::bitset<width> vals[], unsigned int size) : abstractWriteState(size, width) {
-		// allocate memory for the values
-		this->vals = (std::bitset<width>*)malloc(this->size * sizeof(std::bitset<width>));
-		// make a local copy of each value
-		for(unsigned int i = 0; i < size; i++) this->vals[i] = vals[i];
+	typedWriteState(const T vals[], unsigned int size, bool packed = false)
+		: abstractWriteState(size, codec<T>::width, packed && codec<T>::width <= 16 ? 32 / codec<T>::width : 1) {
+		// pack all values once, so that sending only copies words
+		words = new uint32_t[this->size];
+		if(valuesPerInt == 1) {
+			codec<T>::pack(vals, words, size);
+			return;
+		}
+
+		uint32_t group[32];
+		const uint32_t mask = (1u << w) - 1;
+		for(unsigned int i = 0; i < this->size; i++) {
+			unsigned int first = i * valuesPerInt;
+			unsigned int k = std::min(valuesPerInt, size - first);
+			codec<T>::pack(vals + first, group, k);
+
+			uint32_t word = 0;
+			for(unsigned int j = 0; j < valuesPerInt; j++) word = (word << w) | (j < k ? group[j] & mask : 0);
+			words[i] = word;
+		}
 	}
 
-	~writeState() { }
+	~typedWriteState() { delete[] words; }
 };
 
+/** State of a write operation on a port exchanging bit vectors. */
+template <int width>
+using writeState = typedWriteState<std::bitset<width>>;
+
 /**
  * Abstract representation of the state of a write operation.
  * These are used as return values for non-blocking calls and
  * allow users to check the progress of the call.
  */
-template <int width>
-class readState : public abstractReadState {
-friend class outPort<width>;
+template <class T>
+class typedReadState : public abstractReadState {
+friend class typedOutPort<T>;
 private:
 	/** Memory, where read values (in the states bitwidth) should be stored. */
-	std::bitset<width> *vals;
+	T *vals;
 
 	/**
-	 * The value in the states bitwidth, that is currently being read.
-	 * Additional 32-bit values can be added by shifting this value beforehand.
+	 * Words of the value, that is currently being read.
+	 * Only used for values split between several calls of #store().
 	 */
-	std::bitset<width> currentValue;
+	uint32_t *currentValue;
 	/** Index, how many 32-bit values have been read into the current value. */
 	unsigned int currentValueIndex;
 
-	/**
-	 * Stores a single integer value to the read state.
-	 * This includes shifting the current value by 32-bit, adding the new integer,
-	 * and - if the current value is finished - adding the current value to the
-	 * value array and resetting it.
-	 * @param val 32-bit value to be stored.
-	 */
-	void store(int val) {
-		// left shift current value
-		currentValue = currentValue << (sizeof(int) * 8);
-
-		// append next integer values
-		// looks dangerous, but the shift above implies, there are no collisions here...
-		currentValue |= val;
-
-		// increase value index and check for completeness of value
-		if(++currentValueIndex == intPerValue) {
-			// if complete, assign value
-			vals[int(floor(done / intPerValue))] = currentValue;
-			// reset value and index
-			currentValue = 0;
-			currentValueIndex = 0;
-		}
-		done++;
-	}
-
 	// this is basically the exposed method
 	unsigned int store(int val[], unsigned int count) {
-		unsigned int put = 0;
 		// idea: put as many values into state as possible
 		//       return number of successfully put values
-		while(put < count) {
-			if(put + done == size) break;
-
-			logger_host << FINE << "storing value @ state: " << val[put] << std::endl;
-
-			// leftshift current value
-			currentValue = currentValue << (sizeof(int) * 8);
+		unsigned int n   = std::min(count, size - done);
+		unsigned int put = 0;
 
-			// append next integer values
-			// looks dangerous, but the shift above implies, there are no collisions here...
-			currentValue |= val[put];
+		log_host(FINE) << "storing " << n << " values @ state" << std::endl;
+
+		// unpack all values of packed words. Values of the first word, which belong to the previous read,
+		// are skipped. Values of the last word exceeding this read are left to the next read (cf. #skip).
+		if(valuesPerInt > 1) {
+			uint32_t group[32];
+			const uint32_t mask = (1u << w) - 1;
+			for(unsigned int i = 0; i < n; i++) {
+				unsigned int j0 = done + i == 0 ? skip : 0;
+				unsigned int first = (done + i) * valuesPerInt + j0 - skip;
+				unsigned int k = std::min(valuesPerInt - j0, this->count - first);
+				for(unsigned int j = 0; j < k; j++) group[j] = ((uint32_t)val[i] >> ((valuesPerInt - 1 - j0 - j) * w)) & mask;
+				codec<T>::unpack(group, vals + first, k);
+			}
+			done = done + n;
+			return n;
+		}
 
-			// increase value index and check for completeness of value
-			if(++currentValueIndex == intPerValue) {
-				// if complete, assign value
-				vals[int(floor((put + done) / intPerValue))] = currentValue;
-				// reset value and index
-				currentValue = 0;
+		// complete a value, which has been started by a previous call
+		while(currentValueIndex > 0 && put < n) {
+			currentValue[currentValueIndex++] = val[put++];
+			if(currentValueIndex == intPerValue) {
+				codec<T>::unpack(currentValue, vals + (done + put) / intPerValue - 1, 1);
 				currentValueIndex = 0;
 			}
-
-			// increase put counter
-			put++;
 		}
 
+		// unpack complete values directly from the received words
+		unsigned int complete = (n - put) / intPerValue;
+		codec<T>::unpack((const uint32_t*)val + put, vals + (done + put) / intPerValue, complete);
+		put += complete * intPerValue;
+
+		// begin a value, which is completed by a subsequent call
+		while(put < n) currentValue[currentValueIndex++] = val[put++];
+
 		// update done value
 		done = done + put;
 
@@ -291,16 +468,27 @@ private:
 		return put;
 	}
 
+	// the state owns the current value, copying is not supported
+	typedReadState(const typedReadState&);
+	typedReadState& operator=(const typedReadState&);
+
 public:
 	/**
 	 * Constructor of the read state.
 	 * @param vals Memory reserved for values to be read.
 	 * @param size Number of values to be read (i.e. size of the array).
+	 * @param packed If true, as many values as possible are expected in a single word.
 	 */
-	readState(std::bitset<width> vals[], unsigned int size) : abstractReadState(size, width), vals(vals) {
+	typedReadState(T vals[], unsigned int size, bool packed = false)
+		: abstractReadState(size, codec<T>::width, packed && codec<T>::width <= 16 ? 32 / codec<T>::width : 1), vals(vals) {
+		currentValue = new uint32_t[intPerValue];
 		currentValueIndex = 0;
 	}
-	~readState() { }
+	~typedReadState() { delete[] currentValue; }
 };
 
+/** State of a read operation on a port exchanging bit vectors. */
+template <int width>
+using readState = typedReadState<std::bitset<width>>;
+
 #endif /* STATE_H_ */
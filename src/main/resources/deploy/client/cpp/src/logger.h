@@ -94,6 +94,30 @@ public:
 extern logger logger_host;
 extern logger logger_board;
 
+/**
+ * Starts a message of the given severity at the host logger.
+ * Messages above the severity chosen at generation time are removed by the compiler
+ * including the evaluation of their arguments, so they do not cost anything in hot paths.
+ * The macro expands to a single loop statement, so it can be used in unbraced if-else branches.
+ * Usage: log_host(FINE) << "message" << std::endl;
+ * @param sev The severity of the message.
+ */
+#define log_host(sev) \
+    for(bool _log_host = (sev) <= LOG_HOST_SEVERITY; _log_host; _log_host = false) logger_host << (sev)
+
+/**
+ * Continues a message of the given severity at the host logger, without starting a new line.
+ * Like #log_host, this is removed by the compiler, if the severity is not logged.
+ * @param sev The severity of the continued message.
+ */
+#define log_host_continue(sev) \
+    for(bool _log_host = (sev) <= LOG_HOST_SEVERITY; _log_host; _log_host = false) logger_host
+
+#if LOG_BINARY
+/** Formats of binary board log records, indexed by their call site id. */
+extern const char *log_formats[];
+#endif /* LOG_BINARY */
+
 #endif /* LOGGER_H_ */
 
 
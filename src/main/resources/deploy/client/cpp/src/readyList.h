@@ -0,0 +1,76 @@
+/**
+ * Lock-free multi-producer/single-consumer list of ready elements.
+ * Application threads publish elements (e.g. ports with values to be sent),
+ * a single I/O thread takes all published elements at once.
+ * Publishing never blocks and never allocates memory, since the list is intrusive:
+ * each element provides its own link pointer #nextReady.
+ * @file
+ */
+
+#ifndef READYLIST_H_
+#define READYLIST_H_
+
+#include <atomic>
+#include <cstddef>
+
+/**
+ * Template for a lock-free multi-producer/single-consumer list of ready elements.
+ * Producers push elements onto a stack using compare-and-swap. The consumer
+ * atomically detaches the whole stack and reverses it into publication order.
+ * Since the consumer never removes single elements, the list is not prone to ABA problems.
+ *
+ * An element must not be pushed again, before the consumer took it from the list.
+ * Elements have to provide a member `T *nextReady`, which is accessible by the list.
+ */
+template<class T>
+class ReadyList {
+private:
+	/** Most recently published element. */
+	std::atomic<T*> head;
+
+	// elements are not owned by the list, but copying would still duplicate links
+	ReadyList(const ReadyList&);
+	ReadyList& operator=(const ReadyList&);
+
+public:
+	/** Instantiates an empty ready list. */
+	ReadyList() : head(NULL) { }
+
+	/**
+	 * Publishes an element. May be called by any thread.
+	 * @param elem The element to be published.
+	 */
+	void push(T *elem) {
+		T *h = head.load(std::memory_order_relaxed);
+		do elem->nextReady = h;
+		while(!head.compare_exchange_weak(h, elem, std::memory_order_release, std::memory_order_relaxed));
+	}
+
+	/**
+	 * Takes all published elements. May only be called by the consumer.
+	 * The returned elements are linked through #nextReady in publication order.
+	 * A taken element may be published again, so the link has to be read before that.
+	 * @return The first published element or NULL, if the list was empty.
+	 */
+	T *takeAll() {
+		T *h = head.exchange(NULL, std::memory_order_acquire);
+
+		// reverse the stack
+		T *first = NULL;
+		while(h != NULL) {
+			T *next = h->nextReady;
+			h->nextReady = first;
+			first = h;
+			h = next;
+		}
+		return first;
+	}
+
+	/**
+	 * Checks if the list is empty.
+	 * @return true, if no elements are published, false otherwise
+	 */
+	bool empty() const { return head.load(std::memory_order_acquire) == NULL; }
+};
+
+#endif /* READYLIST_H_ */
@@ -0,0 +1,198 @@
+/**
+ * Bounded single-producer/single-consumer ring buffer of raw values.
+ * Unlike the #LinkedQueue, the ring buffer does not allocate memory
+ * per element and does not lock. Exactly one thread may put values
+ * into the buffer and exactly one (other) thread may take values from it.
+ * Head and tail indices are placed on separate cache lines to prevent
+ * false sharing between producer and consumer.
+ * @file
+ */
+
+#ifndef RINGBUFFER_H_
+#define RINGBUFFER_H_
+
+#include <atomic>
+#include <cstddef>
+#include <cstring>
+
+/** Assumed size of a cache line in bytes. */
+#define CACHE_LINE_SIZE 64
+
+/**
+ * Template for a bounded single-producer/single-consumer ring buffer.
+ * The capacity is rounded up to the next power of two, so that indices can be
+ * wrapped with a mask. Indices grow monotonically and are only masked on access.
+ *
+ * Values are expected to be trivially copyable (e.g. raw 32-bit words).
+ */
+template<class T>
+class RingBuffer {
+private:
+	/** Index of the next value to be taken. Written by the consumer only. */
+	alignas(CACHE_LINE_SIZE) std::atomic<size_t> head;
+	/** Index of the next free slot. Written by the producer only. */
+	alignas(CACHE_LINE_SIZE) std::atomic<size_t> tail;
+
+	/** Mask for wrapping indices (capacity - 1). */
+	alignas(CACHE_LINE_SIZE) size_t mask;
+	/** Storage of the buffer. */
+	T *buffer;
+
+	/**
+	 * Rounds a requested capacity up to the next power of two.
+	 * @param n The requested capacity.
+	 * @return The smallest power of two >= n (at least 1).
+	 */
+	static size_t pow2(size_t n) {
+		size_t c = 1;
+		while(c < n) c <<= 1;
+		return c;
+	}
+
+	// the buffer owns its storage, copying is not supported
+	RingBuffer(const RingBuffer&);
+	RingBuffer& operator=(const RingBuffer&);
+
+public:
+	/**
+	 * Instantiates an empty ring buffer.
+	 * @param capacity Minimal number of values the buffer can hold.
+	 */
+	RingBuffer(size_t capacity) : head(0), tail(0) {
+		mask   = pow2(capacity) - 1;
+		buffer = new T[mask + 1];
+	}
+	~RingBuffer() { delete[] buffer; }
+
+	/**
+	 * Checks the capacity of the buffer.
+	 * @return The maximal number of values the buffer can hold.
+	 */
+	size_t capacity() const { return mask + 1; }
+
+	/**
+	 * Checks the number of values stored in the buffer.
+	 * The result is exact if called by the producer or the consumer and
+	 * only an estimate if called by any other thread.
+	 * @return The number of values stored in the buffer.
+	 */
+	size_t size() const {
+		return tail.load(std::memory_order_acquire) - head.load(std::memory_order_acquire);
+	}
+
+	/**
+	 * Checks if the buffer is empty.
+	 * @return true, if empty, false otherwise
+	 */
+	bool empty() const { return size() == 0; }
+
+	/**
+	 * Checks if the buffer is full.
+	 * @return true, if full, false otherwise
+	 */
+	bool full() const { return size() == capacity(); }
+
+	/**
+	 * Appends a single value at the back of the buffer.
+	 * May only be called by the producer.
+	 * @param val The value to append.
+	 * @return true, if the value was stored, false if the buffer was full.
+	 */
+	bool put(const T &val) {
+		size_t t = tail.load(std::memory_order_relaxed);
+		if(t - head.load(std::memory_order_acquire) == capacity()) return false;
+
+		buffer[t & mask] = val;
+		tail.store(t + 1, std::memory_order_release);
+		return true;
+	}
+
+	/**
+	 * Appends up to #count values at the back of the buffer.
+	 * May only be called by the producer.
+	 * @param vals Array of values to append.
+	 * @param count Size of the array.
+	 * @return Number of values actually stored (<= #count).
+	 */
+	size_t put(const T vals[], size_t count) {
+		size_t t = tail.load(std::memory_order_relaxed);
+		size_t n = capacity() - (t - head.load(std::memory_order_acquire));
+		if(count < n) n = count;
+
+		// copy in at most two chunks (before and after the wrap-around)
+		size_t i     = t & mask;
+		size_t first = n < capacity() - i ? n : capacity() - i;
+		memcpy(buffer + i, vals, first * sizeof(T));
+		memcpy(buffer, vals + first, (n - first) * sizeof(T));
+
+		tail.store(t + n, std::memory_order_release);
+		return n;
+	}
+
+	/**
+	 * Takes the first value from the buffer.
+	 * May only be called by the consumer.
+	 * @param val Variable, where the taken value should be stored.
+	 * @return true, if a value was taken, false if the buffer was empty.
+	 */
+	bool take(T &val) {
+		size_t h = head.load(std::memory_order_relaxed);
+		if(tail.load(std::memory_order_acquire) == h) return false;
+
+		val = buffer[h & mask];
+		head.store(h + 1, std::memory_order_release);
+		return true;
+	}
+
+	/**
+	 * Takes up to #count values from the front of the buffer.
+	 * May only be called by the consumer.
+	 * @param vals Array, where the taken values should be stored.
+	 * @param count Size of the array.
+	 * @return Number of values actually taken (<= #count).
+	 */
+	size_t take(T vals[], size_t count) {
+		size_t h = head.load(std::memory_order_relaxed);
+		size_t n = tail.load(std::memory_order_acquire) - h;
+		if(count < n) n = count;
+
+		// copy out in at most two chunks (before and after the wrap-around)
+		size_t i     = h & mask;
+		size_t first = n < capacity() - i ? n : capacity() - i;
+		memcpy(vals, buffer + i, first * sizeof(T));
+		memcpy(vals + first, buffer, (n - first) * sizeof(T));
+
+		head.store(h + n, std::memory_order_release);
+		return n;
+	}
+
+	/**
+	 * Drops all values from the buffer.
+	 * May only be called by the consumer.
+	 */
+	void clear() {
+		head.store(tail.load(std::memory_order_acquire), std::memory_order_release);
+	}
+
+	/**
+	 * Doubles the capacity of the buffer, keeping all stored values.
+	 * This is only required, if the producer cannot be throttled and has to be
+	 * able to store more values than the initial capacity. It is NOT lock-free. The caller has to make sure, that neither producer
+	 * nor consumer access the buffer concurrently (e.g. by holding a lock, which
+	 * both of them acquire before accessing the buffer).
+	 */
+	void grow() {
+		size_t n  = size();
+		T *larger = new T[2 * capacity()];
+
+		take(larger, n);
+		delete[] buffer;
+
+		buffer = larger;
+		mask   = 2 * capacity() - 1;
+		head.store(0, std::memory_order_relaxed);
+		tail.store(n, std::memory_order_release);
+	}
+};
+
+#endif /* RINGBUFFER_H_ */